@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = CacheStatistics.NAME )
+@Description( "Usage statistics of the node and relationship caches" )
+public interface CacheStatistics
+{
+    final String NAME = "Cache statistics";
+
+    @Description( "The type of cache used for nodes and relationships" )
+    String getCacheType();
+
+    @Description( "The number of lookups that found the node in the node cache" )
+    long getNodeCacheHits();
+
+    @Description( "The number of lookups that didn't find the node in the node cache" )
+    long getNodeCacheMisses();
+
+    @Description( "The percentage of node cache lookups that were hits" )
+    int getNodeCacheHitRatio();
+
+    @Description( "The number of nodes put in the node cache" )
+    long getNodeCachePuts();
+
+    @Description( "The number of nodes evicted from the node cache to keep it within its size" )
+    long getNodeCacheEvictions();
+
+    @Description( "The number of nodes removed from the node cache since the garbage collector cleared them" )
+    long getNodeCacheClearedReferences();
+
+    @Description( "The average time in nanoseconds it took to load a node that wasn't cached" )
+    long getAverageNodeLoadTime();
+
+    @Description( "The number of lookups that found the relationship in the relationship cache" )
+    long getRelationshipCacheHits();
+
+    @Description( "The number of lookups that didn't find the relationship in the relationship cache" )
+    long getRelationshipCacheMisses();
+
+    @Description( "The percentage of relationship cache lookups that were hits" )
+    int getRelationshipCacheHitRatio();
+
+    @Description( "The number of relationships put in the relationship cache" )
+    long getRelationshipCachePuts();
+
+    @Description( "The number of relationships evicted from the relationship cache to keep it within its size" )
+    long getRelationshipCacheEvictions();
+
+    @Description( "The number of relationships removed from the relationship cache since the garbage collector cleared them" )
+    long getRelationshipCacheClearedReferences();
+
+    @Description( "The average time in nanoseconds it took to load a relationship that wasn't cached" )
+    long getAverageRelationshipLoadTime();
+}
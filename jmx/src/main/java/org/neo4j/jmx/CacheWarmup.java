@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = CacheWarmup.NAME )
+@Description( "Progress of preloading the node and relationship caches with what was cached before the last shutdown" )
+public interface CacheWarmup
+{
+    final String NAME = "Cache warmup";
+
+    @Description( "Whether cache warmup is enabled for this Neo4j instance" )
+    boolean isEnabled();
+
+    @Description( "Whether all recorded nodes and relationships have been preloaded" )
+    boolean isReady();
+
+    @Description( "How far the preloading has come, in percent" )
+    int getPercentLoaded();
+
+    @Description( "The number of recorded nodes and relationships to preload" )
+    long getNumberOfIdsToLoad();
+
+    @Description( "The number of nodes preloaded so far" )
+    long getNumberOfNodesLoaded();
+
+    @Description( "The number of relationships preloaded so far" )
+    long getNumberOfRelationshipsLoaded();
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+import javax.management.MBeanOperationInfo;
+
+@ManagementInterface( name = LockStatistics.NAME )
+@Description( "Statistics of the lock requests that had to wait, per kind of locked resource" )
+public interface LockStatistics
+{
+    final String NAME = "Lock statistics";
+
+    @Description( "The number of times a transaction had to wait for a lock on a node" )
+    long getNodeLockWaits();
+
+    @Description( "The average time in nanoseconds a transaction waited for a lock on a node" )
+    long getAverageNodeLockWaitTime();
+
+    @Description( "The number of times a transaction had to wait for a lock on a relationship" )
+    long getRelationshipLockWaits();
+
+    @Description( "The average time in nanoseconds a transaction waited for a lock on a relationship" )
+    long getAverageRelationshipLockWaitTime();
+
+    @Description( "The number of times a transaction had to wait for a lock on a property index" )
+    long getPropertyIndexLockWaits();
+
+    @Description( "The average time in nanoseconds a transaction waited for a lock on a property index" )
+    long getAveragePropertyIndexLockWaitTime();
+
+    @Description( "The number of times a transaction had to wait for a lock on a relationship type" )
+    long getRelationshipTypeLockWaits();
+
+    @Description( "The average time in nanoseconds a transaction waited for a lock on a relationship type" )
+    long getAverageRelationshipTypeLockWaitTime();
+
+    @Description( "The number of times a transaction had to wait for a lock on any other kind of resource" )
+    long getOtherLockWaits();
+
+    @Description( "The average time in nanoseconds a transaction waited for a lock on any other kind of resource" )
+    long getAverageOtherLockWaitTime();
+
+    @Description( "The number of deadlocks detected" )
+    long getDetectedDeadlocks();
+
+    @Description( "Histograms of the lock wait times, one per kind of resource" )
+    String[] getWaitTimeHistograms();
+
+    @Description( "The resources transactions most often had to wait for a lock on, with their number of waits" )
+    String[] getMostContendedResources();
+
+    @Description( value = "Reset the lock statistics", impact = MBeanOperationInfo.ACTION )
+    void reset();
+}
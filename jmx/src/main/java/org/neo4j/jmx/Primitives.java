@@ -19,8 +19,10 @@
  */
 package org.neo4j.jmx;
 
+import javax.management.MBeanOperationInfo;
+
 @ManagementInterface( name = Primitives.NAME )
-@Description( "Estimates of the numbers of different kinds of Neo4j primitives" )
+@Description( "The numbers of different kinds of Neo4j primitives, exact counts as well as estimates from the ids in use" )
 public interface Primitives
 {
     final String NAME = "Primitive count";
@@ -36,4 +38,17 @@ public interface Primitives
 
     @Description( "An estimation of the number of properties used in this Neo4j instance" )
     long getNumberOfPropertyIdsInUse();
+
+    @Description( "The number of nodes in this Neo4j instance, -1 if the counts missed a transaction and have to be rebuilt" )
+    long getNumberOfNodes();
+
+    @Description( "The number of relationships in this Neo4j instance, -1 if the counts missed a transaction and have to be rebuilt" )
+    long getNumberOfRelationships();
+
+    @Description( "The number of properties in this Neo4j instance, -1 if the counts missed a transaction and have to be rebuilt" )
+    long getNumberOfProperties();
+
+    @Description( value = "The number of relationships of the given type in this Neo4j instance, -1 if the counts missed a transaction and have to be rebuilt",
+            impact = MBeanOperationInfo.INFO )
+    long numberOfRelationshipsOfType( String type );
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.CacheStatistics;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class CacheStatisticsBean extends ManagementBeanProvider
+{
+    public CacheStatisticsBean()
+    {
+        super( CacheStatistics.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new CacheStatisticsImpl( management );
+    }
+
+    private static class CacheStatisticsImpl extends Neo4jMBean implements CacheStatistics
+    {
+        CacheStatisticsImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.nodeManager = management.getKernelData().getConfig().getGraphDbModule().getNodeManager();
+        }
+
+        private final NodeManager nodeManager;
+
+        public String getCacheType()
+        {
+            return nodeManager.getCacheType().name();
+        }
+
+        public long getNodeCacheHits()
+        {
+            return nodeManager.getNodeCacheStatistics().getHits();
+        }
+
+        public long getNodeCacheMisses()
+        {
+            return nodeManager.getNodeCacheStatistics().getMisses();
+        }
+
+        public int getNodeCacheHitRatio()
+        {
+            return nodeManager.getNodeCacheStatistics().getHitRatio();
+        }
+
+        public long getNodeCachePuts()
+        {
+            return nodeManager.getNodeCacheStatistics().getPuts();
+        }
+
+        public long getNodeCacheEvictions()
+        {
+            return nodeManager.getNodeCacheStatistics().getEvictions();
+        }
+
+        public long getNodeCacheClearedReferences()
+        {
+            return nodeManager.getNodeCacheStatistics().getClearedReferences();
+        }
+
+        public long getAverageNodeLoadTime()
+        {
+            return nodeManager.getNodeCacheStatistics().getAverageLoadTime();
+        }
+
+        public long getRelationshipCacheHits()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getHits();
+        }
+
+        public long getRelationshipCacheMisses()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getMisses();
+        }
+
+        public int getRelationshipCacheHitRatio()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getHitRatio();
+        }
+
+        public long getRelationshipCachePuts()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getPuts();
+        }
+
+        public long getRelationshipCacheEvictions()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getEvictions();
+        }
+
+        public long getRelationshipCacheClearedReferences()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getClearedReferences();
+        }
+
+        public long getAverageRelationshipLoadTime()
+        {
+            return nodeManager.getRelationshipCacheStatistics().getAverageLoadTime();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.CacheWarmup;
+import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.impl.cache.CacheWarmer;
+import org.neo4j.kernel.impl.cache.CacheWarmupExtension;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class CacheWarmupBean extends ManagementBeanProvider
+{
+    public CacheWarmupBean()
+    {
+        super( CacheWarmup.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new CacheWarmupImpl( management );
+    }
+
+    private static class CacheWarmupImpl extends Neo4jMBean implements CacheWarmup
+    {
+        CacheWarmupImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.kernel = management.getKernelData();
+        }
+
+        private final KernelData kernel;
+        private final CacheWarmupExtension extension = new CacheWarmupExtension();
+
+        // looked up on every call, the extension may load after this bean
+        private CacheWarmer warmer()
+        {
+            return extension.getWarmer( kernel );
+        }
+
+        public boolean isEnabled()
+        {
+            return warmer() != null;
+        }
+
+        public boolean isReady()
+        {
+            CacheWarmer warmer = warmer();
+            return warmer == null || warmer.isReady();
+        }
+
+        public int getPercentLoaded()
+        {
+            CacheWarmer warmer = warmer();
+            return warmer == null ? 100 : warmer.getPercentLoaded();
+        }
+
+        public long getNumberOfIdsToLoad()
+        {
+            CacheWarmer warmer = warmer();
+            return warmer == null ? 0 : warmer.getNumberOfIdsToLoad();
+        }
+
+        public long getNumberOfNodesLoaded()
+        {
+            CacheWarmer warmer = warmer();
+            return warmer == null ? 0 : warmer.getNumberOfNodesLoaded();
+        }
+
+        public long getNumberOfRelationshipsLoaded()
+        {
+            CacheWarmer warmer = warmer();
+            return warmer == null ? 0 : warmer.getNumberOfRelationshipsLoaded();
+        }
+    }
+}
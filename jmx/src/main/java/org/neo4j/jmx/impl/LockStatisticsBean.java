@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import java.util.List;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.LockStatistics;
+import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.LockStatistics.Contention;
+import org.neo4j.kernel.impl.transaction.LockStatistics.ResourceKind;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class LockStatisticsBean extends ManagementBeanProvider
+{
+    private static final int MOST_CONTENDED = 20;
+
+    public LockStatisticsBean()
+    {
+        super( LockStatistics.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new LockStatisticsImpl( management );
+    }
+
+    private static class LockStatisticsImpl extends Neo4jMBean implements LockStatistics
+    {
+        LockStatisticsImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.lockManager = management.getKernelData().getConfig().getLockManager();
+        }
+
+        private final LockManager lockManager;
+
+        private long waits( ResourceKind kind )
+        {
+            return lockManager.getLockStatistics().getWaits( kind );
+        }
+
+        private long averageWaitTime( ResourceKind kind )
+        {
+            return lockManager.getLockStatistics().getAverageWaitTime( kind );
+        }
+
+        public long getNodeLockWaits()
+        {
+            return waits( ResourceKind.NODE );
+        }
+
+        public long getAverageNodeLockWaitTime()
+        {
+            return averageWaitTime( ResourceKind.NODE );
+        }
+
+        public long getRelationshipLockWaits()
+        {
+            return waits( ResourceKind.RELATIONSHIP );
+        }
+
+        public long getAverageRelationshipLockWaitTime()
+        {
+            return averageWaitTime( ResourceKind.RELATIONSHIP );
+        }
+
+        public long getPropertyIndexLockWaits()
+        {
+            return waits( ResourceKind.PROPERTY_INDEX );
+        }
+
+        public long getAveragePropertyIndexLockWaitTime()
+        {
+            return averageWaitTime( ResourceKind.PROPERTY_INDEX );
+        }
+
+        public long getRelationshipTypeLockWaits()
+        {
+            return waits( ResourceKind.RELATIONSHIP_TYPE );
+        }
+
+        public long getAverageRelationshipTypeLockWaitTime()
+        {
+            return averageWaitTime( ResourceKind.RELATIONSHIP_TYPE );
+        }
+
+        public long getOtherLockWaits()
+        {
+            return waits( ResourceKind.OTHER );
+        }
+
+        public long getAverageOtherLockWaitTime()
+        {
+            return averageWaitTime( ResourceKind.OTHER );
+        }
+
+        public long getDetectedDeadlocks()
+        {
+            return lockManager.getDetectedDeadlockCount();
+        }
+
+        public String[] getWaitTimeHistograms()
+        {
+            ResourceKind[] kinds = ResourceKind.values();
+            String[] result = new String[kinds.length];
+            for ( int i = 0; i < kinds.length; i++ )
+            {
+                result[i] = kinds[i] + ": "
+                            + lockManager.getLockStatistics().formatWaitTimeHistogram( kinds[i] );
+            }
+            return result;
+        }
+
+        public String[] getMostContendedResources()
+        {
+            List<Contention> contended = lockManager.getLockStatistics().getMostContended(
+                    MOST_CONTENDED );
+            String[] result = new String[contended.size()];
+            for ( int i = 0; i < result.length; i++ )
+            {
+                result[i] = contended.get( i ).toString();
+            }
+            return result;
+        }
+
+        public void reset()
+        {
+            lockManager.getLockStatistics().reset();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.neo4j.jmx.impl;
 
 import javax.management.NotCompliantMBeanException;
 
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
@@ -72,5 +73,26 @@ public final class PrimitivesBean extends ManagementBeanProvider
         {
             return nodeManager.getNumberOfIdsInUse( RelationshipType.class );
         }
+
+        public long getNumberOfNodes()
+        {
+            return nodeManager.getNodeCount();
+        }
+
+        public long getNumberOfRelationships()
+        {
+            return nodeManager.getRelationshipCount();
+        }
+
+        public long getNumberOfProperties()
+        {
+            return nodeManager.getPropertyCount();
+        }
+
+        public long numberOfRelationshipsOfType( String type )
+        {
+            return nodeManager.getRelationshipCount(
+                DynamicRelationshipType.withName( type ) );
+        }
     }
 }
@@ -219,6 +219,48 @@ public interface Node extends PropertyContainer
      */
     public boolean hasRelationship( RelationshipType type, Direction dir );
 
+    /**
+     * Returns the number of relationships attached to this node, the same
+     * number as iterating over {@link #getRelationships()} would give but
+     * without loading the relationships.
+     *
+     * @return the number of relationships attached to this node
+     */
+    public int getDegree();
+
+    /**
+     * Returns the number of relationships in the given direction attached
+     * to this node, counting loops in every direction like
+     * {@link #getRelationships(Direction)} does.
+     *
+     * @param direction the direction to count relationships for
+     * @return the number of relationships in the given direction attached
+     *         to this node
+     */
+    public int getDegree( Direction direction );
+
+    /**
+     * Returns the number of relationships of the given type attached to
+     * this node, regardless of direction.
+     *
+     * @param type the given relationship type
+     * @return the number of relationships of the given type attached to
+     *         this node
+     */
+    public int getDegree( RelationshipType type );
+
+    /**
+     * Returns the number of relationships of the given type and direction
+     * attached to this node, counting loops in every direction like
+     * {@link #getRelationships(RelationshipType, Direction)} does.
+     *
+     * @param type the given relationship type
+     * @param direction the direction to count relationships for
+     * @return the number of relationships of the given type and direction
+     *         attached to this node
+     */
+    public int getDegree( RelationshipType type, Direction direction );
+
     /**
      * Returns the only relationship of a given type and direction that is
      * attached to this node, or <code>null</code>. This is a convenience method
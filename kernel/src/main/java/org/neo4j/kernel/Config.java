@@ -72,6 +72,80 @@ public class Config
      */
     @Documented
     public static final String KEEP_LOGICAL_LOGS = "keep_logical_logs";
+    /**
+     * Let concurrently committing transactions share the forcing of the
+     * logical log to disk instead of forcing it once per transaction.
+     * Defaults to false.
+     */
+    @Documented
+    public static final String GROUP_COMMIT = "group_commit";
+    /**
+     * Milliseconds a committing transaction waits for other transactions to
+     * join its group commit before forcing the logical log. Defaults to 0,
+     * only grouping transactions committed while the log is being forced.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_WAIT = "group_commit_max_wait";
+    /**
+     * The number of pending commits that make a group commit force the
+     * logical log without waiting any longer. Defaults to 100.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_BATCH = "group_commit_max_batch";
+    /**
+     * The maximum number of milliseconds a transaction waits for a lock
+     * before giving up with a {@link LockTimeoutException}. 0 means the
+     * transaction gives up at once if the lock is taken. Not set means
+     * waiting until the lock is acquired or a deadlock is detected.
+     */
+    @Documented
+    public static final String LOCK_TIMEOUT = "lock_timeout";
+    /**
+     * The number of node, relationship and property records a transaction
+     * keeps in memory. Beyond that they are moved to a temporary file in the
+     * store directory and read back when needed, so that very large
+     * transactions are bounded by disk instead of heap. Not set means the
+     * records are always kept in memory.
+     */
+    @Documented
+    public static final String TRANSACTION_SPILL_THRESHOLD = "transaction_spill_threshold";
+    /**
+     * Deliver the after commit and after rollback events of transaction
+     * event handlers on a dedicated thread instead of on the committing
+     * thread. Events of concurrently committing transactions may be
+     * delivered in a different order than they were committed in. Default is
+     * <CODE>false</CODE>.
+     */
+    @Documented
+    public static final String TRANSACTION_EVENTS_ASYNC = "transaction_events_async";
+    /**
+     * The number of transaction events that may wait for delivery when
+     * {@link #TRANSACTION_EVENTS_ASYNC} is enabled. Default is 1000.
+     */
+    @Documented
+    public static final String TRANSACTION_EVENTS_QUEUE_SIZE = "transaction_events_queue_size";
+    /**
+     * What to do with a transaction event when the queue of
+     * {@link #TRANSACTION_EVENTS_QUEUE_SIZE} events is full:
+     * <CODE>block</CODE> (default) makes the completing transaction wait for
+     * room in the queue, <CODE>discard</CODE> drops the event.
+     */
+    @Documented
+    public static final String TRANSACTION_EVENTS_QUEUE_FULL = "transaction_events_queue_full";
+    /**
+     * Apply the node, relationship and property changes of transactions
+     * recovered from the logical log in parallel, one thread per store.
+     * Default is <CODE>true</CODE>.
+     */
+    @Documented
+    public static final String PARALLEL_RECOVERY = "parallel_recovery";
+    /**
+     * Create and zero fill the next logical log in a background thread when
+     * the current log gets close to its target size, so that log rotation
+     * doesn't stall committing transactions. Default is <CODE>true</CODE>.
+     */
+    @Documented
+    public static final String LOGICAL_LOG_PREALLOCATION = "logical_log_preallocation";
     /** Enable a remote shell server which shell clients can log in to */
     @Documented
     public static final String ENABLE_REMOTE_SHELL = "enable_remote_shell";
@@ -121,6 +195,33 @@ public class Config
     /** The size to allocate for memory mapping the relationship store */
     @Documented
     public static final String RELATIONSHIP_STORE_MMAP_SIZE = "neostore.relationshipstore.db.mapped_memory";
+    /**
+     * The size to allocate for memory mapping the store for the relationship
+     * groups of dense nodes
+     */
+    @Documented
+    public static final String RELATIONSHIP_GROUP_STORE_MMAP_SIZE = "neostore.relationshipgroupstore.db.mapped_memory";
+    /**
+     * The number of relationships at which a node becomes dense. The
+     * relationships of a dense node are grouped by type and direction, so
+     * that loading or adding relationships of one type doesn't have to go
+     * through relationships of other types. Defaults to 50.
+     */
+    @Documented
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
+    /**
+     * The total size to allocate for memory mapping all stores, replaces the
+     * per store mapped_memory settings. Memory goes to whichever pages of
+     * whichever store are used the most, evicting the least recently used.
+     */
+    @Documented
+    public static final String MAPPED_MEMORY = "mapped_memory";
+    /**
+     * The size of the pages the stores are mapped in when
+     * {@link #MAPPED_MEMORY} is set. Defaults to 1M.
+     */
+    @Documented
+    public static final String MAPPED_MEMORY_PAGE_SIZE = "mapped_memory_page_size";
     /** Relative path for where the Neo4j logical log is located */
     @Documented
     public static final String LOGICAL_LOG = "logical_log";
@@ -129,10 +230,40 @@ public class Config
     public static final String NEO_STORE = "neo_store";
     /**
      * The type of cache to use for nodes and relationships, one of [weak, soft,
-     * none]
+     * old, clock, memory, strong, none]
      */
     @Documented
     public static final String CACHE_TYPE = "cache_type";
+    /**
+     * The amount of heap the node cache may use when cache_type=memory,
+     * f.ex. "500M". Defaults to an eighth of the max heap.
+     */
+    @Documented
+    public static final String NODE_CACHE_SIZE = "node_cache_size";
+    /**
+     * The amount of heap the relationship cache may use when
+     * cache_type=memory, f.ex. "250M". Defaults to a sixteenth of the max heap.
+     */
+    @Documented
+    public static final String RELATIONSHIP_CACHE_SIZE = "relationship_cache_size";
+    /**
+     * Periodically record the ids of cached nodes and relationships in the
+     * store directory and preload them in the background on the next startup
+     */
+    @Documented
+    public static final String CACHE_WARMUP = "cache_warmup";
+    /**
+     * Seconds between two snapshots of the cached ids when cache_warmup is
+     * enabled, a final snapshot is always taken at shutdown. Defaults to 600.
+     */
+    @Documented
+    public static final String CACHE_WARMUP_INTERVAL = "cache_warmup_interval";
+    /**
+     * The number of background threads preloading the cache at startup when
+     * cache_warmup is enabled. Defaults to the number of available processors.
+     */
+    @Documented
+    public static final String CACHE_WARMUP_THREADS = "cache_warmup_threads";
     /**
      * The name of the Transaction Manager service to use as defined in the TM
      * service provider constructor, defaults to native.
@@ -257,6 +388,7 @@ public class Config
         params.put( "neostore.propertystore.db.strings.mapped_memory", "130M" );
         params.put( "neostore.propertystore.db.arrays.mapped_memory", "130M" );
         params.put( "neostore.relationshipstore.db.mapped_memory", "100M" );
+        params.put( "neostore.relationshipgroupstore.db.mapped_memory", "10M" );
         // if on windows, default no memory mapping
         if ( osIsWindows() )
         {
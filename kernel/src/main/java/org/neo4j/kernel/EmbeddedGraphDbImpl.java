@@ -54,6 +54,7 @@ import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.NodeManager;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
+import org.neo4j.kernel.impl.core.TransactionEventDispatcher;
 import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.index.IndexStore;
@@ -83,6 +84,7 @@ class EmbeddedGraphDbImpl
             new CopyOnWriteArrayList<KernelEventHandler>();
     private final Collection<TransactionEventHandler<?>> transactionEventHandlers =
             new CopyOnWriteArraySet<TransactionEventHandler<?>>();
+    private final TransactionEventDispatcher transactionEventDispatcher;
     private final KernelPanicEventGenerator kernelPanicEventGenerator =
             new KernelPanicEventGenerator( kernelEventHandlers );
 
@@ -107,6 +109,7 @@ class EmbeddedGraphDbImpl
             LastCommittedTxIdSetter lastCommittedTxIdSetter, FileSystemAbstraction fileSystem )
     {
         this.storeDir = storeDir;
+        this.transactionEventDispatcher = TransactionEventDispatcher.create( inputParams );
         TxModule txModule = newTxModule( inputParams, finishHook );
         LockManager lockManager = lockManagerFactory.create( txModule );
         LockReleaser lockReleaser = new LockReleaser( lockManager, txModule.getTxManager() );
@@ -213,6 +216,7 @@ class EmbeddedGraphDbImpl
         {
             // If startup failed, cleanup the extensions - or they will leak
             if ( !started ) extensions.shutdown( msgLog );
+            if ( !started && transactionEventDispatcher != null ) transactionEventDispatcher.shutdown();
         }
     }
 
@@ -346,6 +350,7 @@ class EmbeddedGraphDbImpl
             {
                 try
                 {
+                    if ( transactionEventDispatcher != null ) transactionEventDispatcher.shutdown();
                     sendShutdownEvent();
                 }
                 finally
@@ -554,7 +559,8 @@ class EmbeddedGraphDbImpl
             return transactionEventHandlers.isEmpty() ? null :
                     new TransactionEventsSyncHook(
                             nodeManager, transactionEventHandlers,
-                            getConfig().getTxModule().getTxManager() );
+                            getConfig().getTxModule().getTxManager(),
+                            transactionEventDispatcher );
         }
     }
 
@@ -23,6 +23,7 @@ public enum IdType
 {
     NODE( 35 ),
     RELATIONSHIP( 35 ),
+    RELATIONSHIP_GROUP( 35 ),
     PROPERTY( 36 ),
     STRING_BLOCK( 36 ),
     ARRAY_BLOCK( 36 ),
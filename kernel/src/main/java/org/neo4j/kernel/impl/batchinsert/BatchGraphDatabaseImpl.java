@@ -19,6 +19,8 @@
  */
 package org.neo4j.kernel.impl.batchinsert;
 
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -308,6 +310,28 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
             return newRelIterator( dir, new RelationshipType[] { type } ).hasNext();
         }
 
+        public int getDegree()
+        {
+            return count( (Iterator<Relationship>) newRelIterator( Direction.BOTH, null ) );
+        }
+
+        public int getDegree( Direction direction )
+        {
+            return count( (Iterator<Relationship>) newRelIterator( direction, null ) );
+        }
+
+        public int getDegree( RelationshipType type )
+        {
+            return count( (Iterator<Relationship>) newRelIterator( Direction.BOTH,
+                new RelationshipType[] { type } ) );
+        }
+
+        public int getDegree( RelationshipType type, Direction direction )
+        {
+            return count( (Iterator<Relationship>) newRelIterator( direction,
+                new RelationshipType[] { type } ) );
+        }
+
         /* Tentative expansion API
         public Expansion<Relationship> expandAll()
         {
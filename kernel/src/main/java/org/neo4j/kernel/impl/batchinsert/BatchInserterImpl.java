@@ -41,6 +41,7 @@ import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
@@ -48,12 +49,15 @@ import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -61,6 +65,7 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class BatchInserterImpl implements BatchInserter
@@ -115,6 +120,9 @@ public class BatchInserterImpl implements BatchInserter
             throw new IllegalStateException( storeDir + " store is not cleanly shutdown." );
         }
         neoStore.makeStoreOk();
+        // the counts aren't maintained by the batch inserter, they are
+        // rebuilt the next time the store is started
+        CountsStore.deleteCounts( store );
         PropertyIndexData[] indexes =
             getPropertyIndexStore().getPropertyIndexes( 10000 );
         indexHolder = new PropertyIndexHolder( indexes );
@@ -177,7 +185,7 @@ public class BatchInserterImpl implements BatchInserter
         type, Map<String,Object> properties )
     {
         NodeRecord firstNode = getNodeRecord( node1 );
-        NodeRecord secondNode = getNodeRecord( node2 );
+        NodeRecord secondNode = node1 == node2 ? firstNode : getNodeRecord( node2 );
         int typeId = typeHolder.getTypeId( type.name() );
         if ( typeId == -1 )
         {
@@ -187,46 +195,99 @@ public class BatchInserterImpl implements BatchInserter
         RelationshipRecord record = new RelationshipRecord( id, node1, node2, typeId );
         record.setInUse( true );
         record.setCreated();
-        connectRelationship( firstNode, secondNode, record );
+        connectRelationship( firstNode, record );
         getNodeStore().updateRecord( firstNode );
-        getNodeStore().updateRecord( secondNode );
+        if ( secondNode != firstNode )
+        {
+            connectRelationship( secondNode, record );
+            getNodeStore().updateRecord( secondNode );
+        }
         record.setNextProp( createPropertyChain( properties ) );
         getRelationshipStore().updateRecord( record );
         return id;
     }
 
-    private void connectRelationship( NodeRecord firstNode,
-            NodeRecord secondNode, RelationshipRecord rel )
+    /**
+     * Puts <CODE>rel</CODE> first in the relationship chain of
+     * <CODE>node</CODE>, or in the chain of its group if the node is dense.
+     * Nodes are never converted to dense nodes here, that happens on the
+     * next relationship created in a transaction.
+     */
+    private void connectRelationship( NodeRecord node, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        if ( !node.isDense() )
+        {
+            connect( node.getId(), node.getNextRel(), rel );
+            node.setNextRel( rel.getId() );
+            return;
+        }
+        RelationshipGroupRecord group = getRelationshipGroup( node, rel.getType() );
+        DirectionWrapper direction;
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            direction = DirectionWrapper.BOTH;
+        }
+        else
+        {
+            direction = rel.getFirstNode() == node.getId() ?
+                DirectionWrapper.OUTGOING : DirectionWrapper.INCOMING;
+        }
+        connect( node.getId(), group.getFirst( direction ), rel );
+        group.setFirst( direction, rel.getId() );
+        group.setCount( direction, group.getCount( direction ) + 1 );
+        getRelationshipGroupStore().updateRecord( group );
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    private RelationshipGroupRecord getRelationshipGroup( NodeRecord node, int type )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        long groupId = node.getNextRel();
+        while ( groupId != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+            RelationshipGroupRecord group = getRelationshipGroupStore().getRecord( groupId );
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+            getRelationshipGroupStore().nextId(), type );
+        group.setInUse( true );
+        group.setCreated();
+        group.setOwningNode( node.getId() );
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        return group;
+    }
+
+    private void connect( long nodeId, long nextRelId, RelationshipRecord rel )
+    {
+        assert nextRelId != rel.getId();
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstNextRel( nextRelId );
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondNextRel( nextRelId );
+        }
+        if ( nextRelId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( nextRelId );
             boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
+            if ( nextRel.getFirstNode() == nodeId )
             {
                 nextRel.setFirstPrevRel( rel.getId() );
                 changed = true;
             }
-            if ( nextRel.getSecondNode() == node.getId() )
+            if ( nextRel.getSecondNode() == nodeId )
             {
                 nextRel.setSecondPrevRel( rel.getId() );
                 changed = true;
             }
             if ( !changed )
             {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
+                throw new InvalidRecordException( "Node[" + nodeId + "] dont match " + nextRel );
             }
             getRelationshipStore().updateRecord( nextRel );
         }
@@ -273,8 +334,26 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
+        if ( !nodeRecord.isDense() )
+        {
+            addRelationshipIds( nodeId, nodeRecord.getNextRel(), ids );
+            return ids;
+        }
+        long nextGroup = nodeRecord.getNextRel();
+        while ( nextGroup != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = getRelationshipGroupStore().getRecord( nextGroup );
+            addRelationshipIds( nodeId, group.getFirstOut(), ids );
+            addRelationshipIds( nodeId, group.getFirstIn(), ids );
+            addRelationshipIds( nodeId, group.getFirstLoop(), ids );
+            nextGroup = group.getNext();
+        }
+        return ids;
+    }
+
+    private void addRelationshipIds( long nodeId, long nextRel, List<Long> ids )
+    {
         while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
             RelationshipRecord relRecord = getRelationshipRecord( nextRel );
@@ -296,37 +375,18 @@ public class BatchInserterImpl implements BatchInserter
                     "] or secondNode[" + secondNode + "]" );
             }
         }
-        return ids;
     }
 
     public Iterable<SimpleRelationship> getRelationships( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long relId : getRelationshipIds( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+            RelationshipRecord relRecord = getRelationshipRecord( relId );
             RelationshipType type = new RelationshipTypeImpl(
                 typeHolder.getName( relRecord.getType() ) );
             rels.add( new SimpleRelationship( relRecord.getId(),
                 relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
-            }
         }
         return rels;
     }
@@ -367,6 +427,7 @@ public class BatchInserterImpl implements BatchInserter
         params.put( "neostore.propertystore.db.strings.mapped_memory", "130M" );
         params.put( "neostore.propertystore.db.arrays.mapped_memory", "130M" );
         params.put( "neostore.relationshipstore.db.mapped_memory", "50M" );
+        params.put( "neostore.relationshipgroupstore.db.mapped_memory", "5M" );
         return params;
     }
 
@@ -399,7 +460,7 @@ public class BatchInserterImpl implements BatchInserter
         }
         PropertyStore propStore = getPropertyStore();
         List<PropertyRecord> propRecords = new ArrayList<PropertyRecord>();
-        PropertyRecord prevRecord = null;
+        PropertyRecord currentRecord = null;
         for ( Entry<String,Object> entry : properties.entrySet() )
         {
             int keyId = indexHolder.getKeyId( entry.getKey() );
@@ -407,64 +468,83 @@ public class BatchInserterImpl implements BatchInserter
             {
                 keyId = createNewPropertyIndex( entry.getKey() );
             }
-            long propertyId = propStore.nextId();
-            PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-            propertyRecord.setInUse( true );
-            propertyRecord.setCreated();
-            propertyRecord.setKeyIndexId( keyId );
-            propStore.encodeValue( propertyRecord, entry.getValue() );
-            if ( prevRecord != null )
+            PropertyBlock block = new PropertyBlock();
+            propStore.encodeValue( block, keyId, entry.getValue() );
+            int index = currentRecord == null ? -1 :
+                currentRecord.findFreeBlocks( block.getSize() );
+            if ( index == -1 )
             {
-                prevRecord.setPrevProp( propertyId );
-                propertyRecord.setNextProp( prevRecord.getId() );
+                long propertyId = propStore.nextId();
+                PropertyRecord propertyRecord = new PropertyRecord( propertyId );
+                propertyRecord.setInUse( true );
+                propertyRecord.setCreated();
+                if ( currentRecord != null )
+                {
+                    currentRecord.setPrevProp( propertyId );
+                    propertyRecord.setNextProp( currentRecord.getId() );
+                }
+                propRecords.add( propertyRecord );
+                currentRecord = propertyRecord;
+                index = 0;
             }
-            propRecords.add( propertyRecord );
-            prevRecord = propertyRecord;
+            currentRecord.setBlock( index, block );
         }
         // reverse order results in forward update to store
         for ( int i = propRecords.size() - 1; i >=0; i-- )
         {
             propStore.updateRecord( propRecords.get( i ) );
         }
-        if ( prevRecord != null )
+        if ( currentRecord != null )
         {
-            return prevRecord.getId();
+            return currentRecord.getId();
         }
         return Record.NO_NEXT_PROPERTY.intValue();
     }
 
-    private void deletePropertyChain( long propertyId )
+    private void deletePropertyChain( long nextProp )
     {
         PropertyStore propStore = getPropertyStore();
-        PropertyRecord propertyRecord = propStore.getRecord( propertyId );
-        propertyRecord.setInUse( false );
-        for ( DynamicRecord record : propertyRecord.getValueRecords() )
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            record.setInUse( false );
+            PropertyRecord propertyRecord = propStore.getRecord( nextProp );
+            propertyRecord.setInUse( false );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+            {
+                PropertyBlock block = propertyRecord.removeBlock( i );
+                if ( block == null )
+                {
+                    continue;
+                }
+                for ( DynamicRecord record : block.getValueRecords() )
+                {
+                    record.setInUse( false );
+                    propertyRecord.addDeletedRecord( record );
+                }
+            }
+            propStore.updateRecord( propertyRecord );
+            nextProp = propertyRecord.getNextProp();
         }
-        propStore.updateRecord( propertyRecord );
     }
 
-    private Map<String,Object> getPropertyChain( long propertyId )
+    private Map<String,Object> getPropertyChain( long nextProp )
     {
         PropertyStore propStore = getPropertyStore();
-        PropertyRecord propertyRecord = propStore.getRecord( propertyId );
-        long nextProperty = -1;
         Map<String,Object> properties = new HashMap<String,Object>();
-        do
-        {
-            nextProperty = propertyRecord.getNextProp();
-            propStore.makeHeavy( propertyRecord );
-            String key = indexHolder.getStringKey(
-                propertyRecord.getKeyIndexId() );
-            Object value = propStore.getValue( propertyRecord );
-            properties.put( key, value );
-            if ( nextProperty != Record.NO_NEXT_PROPERTY.intValue() )
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            PropertyRecord propertyRecord = propStore.getRecord( nextProp );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
             {
-                propertyRecord =
-                    propStore.getRecord( propertyRecord.getNextProp() );
+                PropertyBlock block = propertyRecord.getBlock( i );
+                if ( block != null )
+                {
+                    String key = indexHolder.getStringKey(
+                        block.getKeyIndexId() );
+                    properties.put( key, propStore.getValue( block ) );
+                }
             }
-        } while ( nextProperty != Record.NO_NEXT_PROPERTY.intValue() );
+            nextProp = propertyRecord.getNextProp();
+        }
         return properties;
     }
 
@@ -539,6 +619,11 @@ public class BatchInserterImpl implements BatchInserter
         return neoStore.getRelationshipTypeStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
     private NodeRecord getNodeRecord( long id )
     {
         if ( id < 0 || id >= getNodeStore().getHighId() )
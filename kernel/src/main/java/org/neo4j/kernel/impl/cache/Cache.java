@@ -97,4 +97,21 @@ public interface Cache<K,V>
     public void setAdaptiveStatus( boolean status );
     
     public void putAll( Map<K,V> map );
+
+    /**
+     * Returns the keys of the currently cached elements. The returned keys
+     * reflect the state of the cache at some point during or before the
+     * iteration and iterating them never blocks users of the cache for
+     * longer than it takes to copy the keys.
+     *
+     * @return the keys of the cached elements
+     */
+    public Iterable<K> keys();
+
+    /**
+     * Returns the usage counters of this cache.
+     *
+     * @return the statistics of this cache
+     */
+    public CacheStatistics getStatistics();
 }
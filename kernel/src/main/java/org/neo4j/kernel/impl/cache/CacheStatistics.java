@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Usage counters for a {@link Cache}: hits, misses, puts, evictions, values
+ * cleared by the garbage collector and the time spent loading elements that
+ * weren't in the cache.
+ * <p>
+ * The counters are striped over a number of slots spread out on separate
+ * cache lines, picked by the id of the updating thread, so that updating them
+ * from many threads doesn't turn into a point of contention. Reading a
+ * counter sums up its slots and is only as accurate as a concurrent snapshot
+ * can be.
+ */
+public class CacheStatistics
+{
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int PUTS = 2;
+    private static final int EVICTIONS = 3;
+    private static final int CLEARED = 4;
+    private static final int LOADS = 5;
+    private static final int LOAD_TIME = 6;
+    // eight longs to a slot, keeps the slots of different threads on
+    // different cache lines
+    private static final int SLOT_SIZE = 8;
+
+    private final AtomicLongArray counters;
+    private final int mask;
+
+    public CacheStatistics()
+    {
+        int stripes = 1;
+        while ( stripes < Runtime.getRuntime().availableProcessors() * 2 )
+        {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.counters = new AtomicLongArray( stripes * SLOT_SIZE );
+    }
+
+    private void increment( int counter, long delta )
+    {
+        int slot = (int) Thread.currentThread().getId() & mask;
+        counters.addAndGet( slot * SLOT_SIZE + counter, delta );
+    }
+
+    private long sum( int counter )
+    {
+        long sum = 0;
+        for ( int i = counter; i < counters.length(); i += SLOT_SIZE )
+        {
+            sum += counters.get( i );
+        }
+        return sum;
+    }
+
+    public void hit()
+    {
+        increment( HITS, 1 );
+    }
+
+    public void miss()
+    {
+        increment( MISSES, 1 );
+    }
+
+    /**
+     * Counts a hit if <CODE>element</CODE> isn't <CODE>null</CODE>, else a
+     * miss, and returns <CODE>element</CODE>.
+     */
+    public <E> E lookup( E element )
+    {
+        increment( element != null ? HITS : MISSES, 1 );
+        return element;
+    }
+
+    public void put()
+    {
+        increment( PUTS, 1 );
+    }
+
+    public void putAll( int count )
+    {
+        increment( PUTS, count );
+    }
+
+    public void evicted()
+    {
+        increment( EVICTIONS, 1 );
+    }
+
+    public void cleared()
+    {
+        increment( CLEARED, 1 );
+    }
+
+    /**
+     * Registers the time it took to load an element that wasn't cached.
+     *
+     * @param nanos
+     *            the load time in nanoseconds
+     */
+    public void loaded( long nanos )
+    {
+        increment( LOADS, 1 );
+        increment( LOAD_TIME, nanos );
+    }
+
+    public long getHits()
+    {
+        return sum( HITS );
+    }
+
+    public long getMisses()
+    {
+        return sum( MISSES );
+    }
+
+    public long getPuts()
+    {
+        return sum( PUTS );
+    }
+
+    public long getEvictions()
+    {
+        return sum( EVICTIONS );
+    }
+
+    /**
+     * Returns the number of elements that were removed from the cache since
+     * the garbage collector cleared the references to them.
+     */
+    public long getClearedReferences()
+    {
+        return sum( CLEARED );
+    }
+
+    public long getLoads()
+    {
+        return sum( LOADS );
+    }
+
+    /**
+     * Returns the average time it took to load an element that wasn't
+     * cached, in nanoseconds.
+     */
+    public long getAverageLoadTime()
+    {
+        long loads = getLoads();
+        return loads == 0 ? 0 : sum( LOAD_TIME ) / loads;
+    }
+
+    /**
+     * Returns the percentage of lookups that were hits.
+     */
+    public int getHitRatio()
+    {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (int) ( hits * 100 / lookups );
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Records the ids of the nodes and relationships held in the caches of a
+ * {@link NodeManager} to a file in the store directory, and preloads them
+ * again after a restart.
+ * <p>
+ * Preloading is done by a number of background threads, each given a
+ * contiguous range of the sorted ids so that the records, and the store
+ * windows they live in, are read in file order. Loading the records also
+ * registers hits on the memory mapped windows they belong to, so the windows
+ * that were hot before the restart will be the ones mapped on the next
+ * window pool refresh.
+ */
+public class CacheWarmer
+{
+    static final String FILE_NAME = "cache.warmup";
+
+    private static final int VERSION = 1;
+    private static final long END_OF_IDS = -1;
+    private static final int MIN_IDS_PER_THREAD = 1000;
+
+    private final NodeManager nodeManager;
+    private final File file;
+    private final StringLogger msgLog;
+    private final long snapshotInterval;
+    private final int threads;
+    private final boolean readOnly;
+
+    private final AtomicLong nodesLoaded = new AtomicLong();
+    private final AtomicLong relationshipsLoaded = new AtomicLong();
+    private final AtomicInteger runningLoaders = new AtomicInteger();
+    private volatile long idsToLoad;
+    private volatile boolean ready;
+    private volatile boolean stopped;
+    private Thread[] loaders = new Thread[0];
+    private Timer timer;
+
+    /**
+     * @param nodeManager
+     *            the node manager owning the caches to warm up
+     * @param storeDir
+     *            the store directory to keep the recorded ids in
+     * @param msgLog
+     *            the log to report progress to
+     * @param snapshotInterval
+     *            milliseconds between two recordings of the cached ids, or
+     *            <CODE>0</CODE> to only record them at shutdown
+     * @param threads
+     *            the maximum number of threads preloading the caches
+     * @param readOnly
+     *            if <CODE>true</CODE> the caches are preloaded but the cached
+     *            ids are never recorded
+     */
+    public CacheWarmer( NodeManager nodeManager, String storeDir,
+        StringLogger msgLog, long snapshotInterval, int threads,
+        boolean readOnly )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "threads=" + threads );
+        }
+        this.nodeManager = nodeManager;
+        this.file = new File( storeDir, FILE_NAME );
+        this.msgLog = msgLog;
+        this.snapshotInterval = snapshotInterval;
+        this.threads = threads;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Starts preloading the ids recorded by a previous instance, if any, and
+     * schedules the periodic recording of the cached ids.
+     */
+    public synchronized void start()
+    {
+        long[][] ids;
+        try
+        {
+            ids = readIds();
+        }
+        catch ( IOException e )
+        {
+            msgLog.logMessage( "Unable to read cache warmup file " + file
+                + ", starting with cold caches", e );
+            ids = null;
+        }
+        if ( ids == null )
+        {
+            ready = true;
+        }
+        else
+        {
+            startLoaders( ids[0], ids[1] );
+        }
+        if ( !readOnly && snapshotInterval > 0 )
+        {
+            timer = new Timer( "Cache warmup snapshot", true );
+            timer.schedule( new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    // don't replace the previous snapshot with a cold one
+                    if ( ready )
+                    {
+                        snapshotQuietly();
+                    }
+                }
+            }, snapshotInterval, snapshotInterval );
+        }
+    }
+
+    /**
+     * Stops any ongoing preloading and records the currently cached ids. If
+     * preloading never finished the previous recording is kept as is.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if ( timer != null )
+        {
+            timer.cancel();
+            timer = null;
+        }
+        for ( Thread loader : loaders )
+        {
+            try
+            {
+                loader.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( !readOnly && ready )
+        {
+            snapshotQuietly();
+        }
+    }
+
+    /**
+     * Returns <CODE>true</CODE> when all recorded ids have been preloaded,
+     * or if there was nothing to preload.
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    public long getNumberOfIdsToLoad()
+    {
+        return idsToLoad;
+    }
+
+    public long getNumberOfNodesLoaded()
+    {
+        return nodesLoaded.get();
+    }
+
+    public long getNumberOfRelationshipsLoaded()
+    {
+        return relationshipsLoaded.get();
+    }
+
+    /**
+     * Returns how far the preloading has come, in percent.
+     */
+    public int getPercentLoaded()
+    {
+        long total = idsToLoad;
+        if ( ready || total == 0 )
+        {
+            return 100;
+        }
+        long loaded = nodesLoaded.get() + relationshipsLoaded.get();
+        return (int) Math.min( 99, loaded * 100 / total );
+    }
+
+    /**
+     * Records the ids of the currently cached nodes and relationships,
+     * replacing any previous recording.
+     *
+     * @throws IOException if the ids couldn't be written
+     */
+    public synchronized void snapshot() throws IOException
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( tmp ) ) );
+        long nodes, relationships;
+        try
+        {
+            out.writeInt( VERSION );
+            nodes = writeIds( out, nodeManager.getCachedNodeIds() );
+            relationships = writeIds( out,
+                nodeManager.getCachedRelationshipIds() );
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( "Unable to delete " + file );
+        }
+        if ( !tmp.renameTo( file ) )
+        {
+            throw new IOException( "Unable to rename " + tmp + " to " + file );
+        }
+        msgLog.logMessage( "Cache warmup recorded " + nodes + " nodes and "
+            + relationships + " relationships" );
+    }
+
+    private void snapshotQuietly()
+    {
+        try
+        {
+            snapshot();
+        }
+        catch ( IOException e )
+        {
+            msgLog.logMessage( "Unable to record cached ids to " + file, e );
+        }
+    }
+
+    private static long writeIds( DataOutputStream out, Iterable<Long> ids )
+        throws IOException
+    {
+        long count = 0;
+        for ( Long id : ids )
+        {
+            out.writeLong( id );
+            count++;
+        }
+        out.writeLong( END_OF_IDS );
+        return count;
+    }
+
+    private long[][] readIds() throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( file ) ) );
+        try
+        {
+            int version = in.readInt();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unknown cache warmup file version "
+                    + version );
+            }
+            return new long[][] { readIds( in ), readIds( in ) };
+        }
+        catch ( EOFException e )
+        {
+            throw new IOException( "Truncated cache warmup file", e );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static long[] readIds( DataInputStream in ) throws IOException
+    {
+        long[] ids = new long[1024];
+        int count = 0;
+        for ( long id = in.readLong(); id != END_OF_IDS; id = in.readLong() )
+        {
+            if ( count == ids.length )
+            {
+                ids = Arrays.copyOf( ids, count * 2 );
+            }
+            ids[count++] = id;
+        }
+        ids = Arrays.copyOf( ids, count );
+        Arrays.sort( ids );
+        return ids;
+    }
+
+    private void startLoaders( long[] nodeIds, long[] relIds )
+    {
+        idsToLoad = nodeIds.length + relIds.length;
+        int count = (int) Math.max( 1, Math.min( threads,
+            idsToLoad / MIN_IDS_PER_THREAD ) );
+        msgLog.logMessage( "Cache warmup preloading " + nodeIds.length
+            + " nodes and " + relIds.length + " relationships using " + count
+            + " threads" );
+        loaders = new Thread[count];
+        runningLoaders.set( count );
+        final long startTime = System.currentTimeMillis();
+        for ( int i = 0; i < count; i++ )
+        {
+            final int nodeFrom = slice( nodeIds.length, count, i );
+            final int nodeTo = slice( nodeIds.length, count, i + 1 );
+            final int relFrom = slice( relIds.length, count, i );
+            final int relTo = slice( relIds.length, count, i + 1 );
+            final long[] nodes = nodeIds;
+            final long[] rels = relIds;
+            loaders[i] = new Thread( "Cache warmup loader " + i )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        loadNodes( nodes, nodeFrom, nodeTo );
+                        loadRelationships( rels, relFrom, relTo );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        msgLog.logMessage( getName() + " failed", e );
+                    }
+                    finally
+                    {
+                        if ( runningLoaders.decrementAndGet() == 0 )
+                        {
+                            loadersDone( startTime );
+                        }
+                    }
+                }
+            };
+            loaders[i].setDaemon( true );
+            loaders[i].start();
+        }
+    }
+
+    private static int slice( int length, int slices, int index )
+    {
+        return (int) ( (long) length * index / slices );
+    }
+
+    private void loadNodes( long[] ids, int from, int to )
+    {
+        for ( int i = from; i < to && !stopped; i++ )
+        {
+            try
+            {
+                nodeManager.getNodeById( ids[i] ).getPropertyKeys().iterator();
+            }
+            catch ( NotFoundException e )
+            {
+                // deleted since it was recorded
+            }
+            nodesLoaded.incrementAndGet();
+        }
+    }
+
+    private void loadRelationships( long[] ids, int from, int to )
+    {
+        for ( int i = from; i < to && !stopped; i++ )
+        {
+            try
+            {
+                nodeManager.getRelationshipById( ids[i] ).getPropertyKeys().iterator();
+            }
+            catch ( NotFoundException e )
+            {
+                // deleted since it was recorded
+            }
+            relationshipsLoaded.incrementAndGet();
+        }
+    }
+
+    private void loadersDone( long startTime )
+    {
+        if ( stopped )
+        {
+            msgLog.logMessage( "Cache warmup stopped after preloading "
+                + nodesLoaded.get() + " nodes and "
+                + relationshipsLoaded.get() + " relationships" );
+            return;
+        }
+        ready = true;
+        msgLog.logMessage( "Cache warmup done, preloaded " + nodesLoaded.get()
+            + " nodes and " + relationshipsLoaded.get()
+            + " relationships in "
+            + ( System.currentTimeMillis() - startTime ) + "ms" );
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.KernelExtension;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Kernel extension that keeps the node and relationship caches warm across
+ * restarts, see {@link CacheWarmer}. Only loaded if
+ * {@link Config#CACHE_WARMUP} is set to <CODE>true</CODE>.
+ */
+@Service.Implementation( KernelExtension.class )
+public final class CacheWarmupExtension extends KernelExtension<CacheWarmer>
+{
+    static final String KEY = "cache warmup";
+
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 600;
+
+    private static Logger log = Logger.getLogger( CacheWarmupExtension.class.getName() );
+
+    public CacheWarmupExtension()
+    {
+        super( KEY );
+    }
+
+    @Override
+    protected CacheWarmer load( KernelData kernel )
+    {
+        Map<Object,Object> params = kernel.getConfigParams();
+        if ( !"true".equalsIgnoreCase( (String) params.get( Config.CACHE_WARMUP ) ) )
+        {
+            return null;
+        }
+        long interval = DEFAULT_SNAPSHOT_INTERVAL;
+        Object value = params.get( Config.CACHE_WARMUP_INTERVAL );
+        if ( value != null )
+        {
+            try
+            {
+                interval = Long.parseLong( (String) value );
+            }
+            catch ( NumberFormatException e )
+            {
+                log.warning( "Unable to parse " + Config.CACHE_WARMUP_INTERVAL
+                    + "=" + value );
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        value = params.get( Config.CACHE_WARMUP_THREADS );
+        if ( value != null )
+        {
+            try
+            {
+                threads = Integer.parseInt( (String) value );
+            }
+            catch ( NumberFormatException e )
+            {
+                log.warning( "Unable to parse " + Config.CACHE_WARMUP_THREADS
+                    + "=" + value );
+            }
+        }
+        String storeDir = (String) params.get( Config.STORAGE_DIRECTORY );
+        CacheWarmer warmer = new CacheWarmer(
+            kernel.getConfig().getGraphDbModule().getNodeManager(), storeDir,
+            StringLogger.getLogger( storeDir ), Math.max( 0, interval ) * 1000,
+            Math.max( 1, threads ),
+            Boolean.parseBoolean( (String) params.get( Config.READ_ONLY ) ) );
+        warmer.start();
+        return warmer;
+    }
+
+    @Override
+    protected void unload( CacheWarmer warmer )
+    {
+        warmer.stop();
+    }
+
+    /**
+     * Returns the cache warmer of <CODE>kernel</CODE>, or <CODE>null</CODE>
+     * if cache warmup isn't enabled for it.
+     */
+    public CacheWarmer getWarmer( KernelData kernel )
+    {
+        return getState( kernel );
+    }
+}
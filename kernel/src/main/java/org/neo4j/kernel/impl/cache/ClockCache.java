@@ -0,0 +1,442 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent implementation of a bounded cache using the CLOCK (second chance)
+ * approximation of least-recently-used eviction.
+ *
+ * Reads never take a lock, they only set a reference bit on the cached entry.
+ * When the number of cached elements exceeds <CODE>maxSize</CODE> the clock
+ * hand sweeps the entries in insertion order, giving entries that have been
+ * referenced since the last sweep a second chance and evicting the first one
+ * that hasn't. Eviction is serialized, but only puts ever have to evict.
+ * <p>
+ * Every element is counted as one towards <CODE>maxSize</CODE> unless a
+ * subclass overrides {@link #sizeOf(Object)} to weigh them differently.
+ */
+public class ClockCache<K,E> implements Cache<K,E>
+{
+    private final String name;
+    private volatile long maxSize;
+    private volatile boolean adaptive = false;
+
+    private final AdaptiveCacheManager cacheManager;
+
+    private final ConcurrentHashMap<K,Page<K,E>> cache;
+    private final Queue<Page<K,E>> clock = new ConcurrentLinkedQueue<Page<K,E>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong usedSize = new AtomicLong();
+    private final AtomicInteger removedInClock = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Creates a CLOCK cache. If <CODE>maxSize < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum size of this cache
+     * @param cacheManager
+     *            adaptive cache manager or null if adaptive caching not needed
+     */
+    public ClockCache( String name, long maxSize, AdaptiveCacheManager cacheManager )
+    {
+        if ( name == null || maxSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", name=" + name );
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.cacheManager = cacheManager;
+        this.cache = new ConcurrentHashMap<K,Page<K,E>>( 500, 0.75f,
+            Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public void put( K key, E element )
+    {
+        if ( key == null || element == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        statistics.put();
+        Page<K,E> page;
+        do
+        {
+            page = cache.get( key );
+            if ( page == null )
+            {
+                Page<K,E> newPage = new Page<K,E>( key, element, sizeOf( element ) );
+                page = cache.putIfAbsent( key, newPage );
+                if ( page == null )
+                {
+                    clock.offer( newPage );
+                    size.incrementAndGet();
+                    if ( usedSize.addAndGet( newPage.registeredSize ) > maxSize )
+                    {
+                        sizeExceeded();
+                    }
+                    return;
+                }
+            }
+        } while ( !setValue( page, element ) );
+        if ( updateRegisteredSize( page ) > 0 && usedSize.get() > maxSize )
+        {
+            sizeExceeded();
+        }
+    }
+
+    /*
+     * Replaces the element of a cached page, unless the page has been
+     * removed since it was looked up, the element would be lost with it.
+     * Removal reads the element under the same lock, so it either sees the
+     * new element or the put retries with a page of its own.
+     */
+    private boolean setValue( Page<K,E> page, E element )
+    {
+        synchronized ( page )
+        {
+            if ( page.removed )
+            {
+                return false;
+            }
+            page.value = element;
+            page.referenced = true;
+            return true;
+        }
+    }
+
+    /**
+     * Re-weighs the cached element for <CODE>key</CODE>, to be called when an
+     * element has grown or shrunk since it was put in the cache. Evicts other
+     * elements if the cache now exceeds its maximum size.
+     *
+     * @param key
+     *            the key for the element
+     */
+    public void updateSize( K key )
+    {
+        Page<K,E> page = cache.get( key );
+        if ( page != null && updateRegisteredSize( page ) > 0
+            && usedSize.get() > maxSize )
+        {
+            sizeExceeded();
+        }
+    }
+
+    /**
+     * Returns the size of <CODE>element</CODE> in the unit of
+     * {@link #maxSize()}. Default implementation counts elements.
+     *
+     * @param element
+     *            the element to weigh
+     * @return the size of the element
+     */
+    protected int sizeOf( E element )
+    {
+        return 1;
+    }
+
+    private int updateRegisteredSize( Page<K,E> page )
+    {
+        synchronized ( page )
+        {
+            E element = page.value;
+            if ( page.removed || element == null )
+            {
+                return 0;
+            }
+            int delta = sizeOf( element ) - page.registeredSize;
+            if ( delta != 0 )
+            {
+                page.registeredSize += delta;
+                usedSize.addAndGet( delta );
+            }
+            return delta;
+        }
+    }
+
+    private E unregister( Page<K,E> page )
+    {
+        E element;
+        synchronized ( page )
+        {
+            page.removed = true;
+            element = page.value;
+            usedSize.addAndGet( -page.registeredSize );
+        }
+        size.decrementAndGet();
+        return element;
+    }
+
+    public E remove( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        Page<K,E> page = cache.remove( key );
+        if ( page == null )
+        {
+            return null;
+        }
+        E element = unregister( page );
+        if ( removedInClock.incrementAndGet() > Math.max( size.get(), 1000 ) )
+        {
+            purgeRemovedPages();
+        }
+        return element;
+    }
+
+    public E get( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        Page<K,E> page = cache.get( key );
+        if ( page == null )
+        {
+            statistics.miss();
+            return null;
+        }
+        statistics.hit();
+        if ( !page.referenced )
+        {
+            page.referenced = true;
+        }
+        return page.value;
+    }
+
+    public void clear()
+    {
+        evictionLock.lock();
+        try
+        {
+            cache.clear();
+            clock.clear();
+            size.set( 0 );
+            usedSize.set( 0 );
+            removedInClock.set( 0 );
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * Returns the summed up size of the elements in this cache, as weighed
+     * by {@link #sizeOf(Object)}.
+     *
+     * @return the used size of this cache
+     */
+    public long usedSize()
+    {
+        return usedSize.get();
+    }
+
+    /**
+     * Returns the maximum size of this cache.
+     *
+     * @return maximum size
+     */
+    public int maxSize()
+    {
+        return (int) Math.min( maxSize, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Changes the max size of the cache. If <CODE>newMaxSize</CODE> is less
+     * then <CODE>size()</CODE> the clock hand will evict elements until
+     * <CODE>size()</CODE> equals <CODE>newMaxSize</CODE>. For each element
+     * removed the {@link #elementCleaned} method is invoked.
+     * <p>
+     * If <CODE>newMaxSize</CODE> is less then <CODE>1</CODE> an
+     * {@link IllegalArgumentException} is thrown.
+     *
+     * @param newMaxSize
+     *            the new maximum size of the cache
+     */
+    public void resize( int newMaxSize )
+    {
+        resize( (long) newMaxSize );
+    }
+
+    protected void resize( long newMaxSize )
+    {
+        if ( newMaxSize < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newMaxSize );
+        }
+        maxSize = newMaxSize;
+        evict();
+    }
+
+    private void sizeExceeded()
+    {
+        if ( isAdaptive() && cacheManager != null )
+        {
+            // the cache manager may decide to grow the cache instead
+            cacheManager.adaptCache( this );
+        }
+        evict();
+    }
+
+    private void evict()
+    {
+        if ( usedSize.get() <= maxSize )
+        {
+            return;
+        }
+        evictionLock.lock();
+        try
+        {
+            while ( usedSize.get() > maxSize )
+            {
+                Page<K,E> page = clock.poll();
+                if ( page == null )
+                {
+                    break;
+                }
+                if ( page.removed )
+                {
+                    removedInClock.decrementAndGet();
+                    continue;
+                }
+                if ( page.referenced )
+                {
+                    // second chance, also a good time to catch up with
+                    // elements that have grown since they were weighed
+                    page.referenced = false;
+                    updateRegisteredSize( page );
+                    clock.offer( page );
+                    continue;
+                }
+                if ( cache.remove( page.key, page ) )
+                {
+                    E element = unregister( page );
+                    statistics.evicted();
+                    elementCleaned( element );
+                }
+            }
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    private void purgeRemovedPages()
+    {
+        if ( !evictionLock.tryLock() )
+        {
+            // someone else is sweeping the clock already
+            return;
+        }
+        try
+        {
+            Iterator<Page<K,E>> itr = clock.iterator();
+            while ( itr.hasNext() )
+            {
+                if ( itr.next().removed )
+                {
+                    itr.remove();
+                    removedInClock.decrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    public void elementCleaned( E element )
+    {
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        this.adaptive = status;
+    }
+
+    public void putAll( Map<K,E> map )
+    {
+        for ( Map.Entry<K,E> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public Iterable<K> keys()
+    {
+        return cache.keySet();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    private static class Page<K,E>
+    {
+        private final K key;
+        private volatile E value;
+        private volatile boolean referenced;
+        private volatile boolean removed;
+        private int registeredSize;
+
+        Page( K key, E value, int registeredSize )
+        {
+            this.key = key;
+            this.value = value;
+            this.registeredSize = registeredSize;
+        }
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -36,6 +37,7 @@ public class LruCache<K,E> implements Cache<K,E>
     private boolean adaptive = false;
     
     private final AdaptiveCacheManager cacheManager;
+    private final CacheStatistics statistics = new CacheStatistics();
 
     private Map<K,E> cache = new LinkedHashMap<K,E>( 500, 0.75f, true )
     {
@@ -51,6 +53,7 @@ public class LruCache<K,E> implements Cache<K,E>
                 else
                 {
                     super.remove( eldest.getKey() );
+                    statistics.evicted();
                     elementCleaned( eldest.getValue() );
                 }
             }
@@ -107,6 +110,7 @@ public class LruCache<K,E> implements Cache<K,E>
                 + element );
         }
         cache.put( key, element );
+        statistics.put();
     }
 
     public synchronized E remove( K key )
@@ -124,7 +128,7 @@ public class LruCache<K,E> implements Cache<K,E>
         {
             throw new IllegalArgumentException();
         }
-        return cache.get( key );
+        return statistics.lookup( cache.get( key ) );
     }
 
     public synchronized void clear()
@@ -195,6 +199,7 @@ public class LruCache<K,E> implements Cache<K,E>
                 {
                     E element = itr.next().getValue();
                     itr.remove();
+                    statistics.evicted();
                     elementCleaned( element );
                 }
             }
@@ -227,5 +232,16 @@ public class LruCache<K,E> implements Cache<K,E>
     public void putAll( Map<K, E> map )
     {
         cache.putAll( map );
+        statistics.putAll( map.size() );
+    }
+
+    public synchronized Iterable<K> keys()
+    {
+        return new ArrayList<K>( cache.keySet() );
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
     }
 }
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+/**
+ * A {@link ClockCache} bounded by the estimated heap usage of its elements
+ * instead of the number of elements. Large elements, such as nodes with
+ * many relationships loaded, count as much as the bytes they retain, so one
+ * of them cannot push out thousands of small ones as long as the small ones
+ * are used more recently.
+ * <p>
+ * Elements that grow after they have been put in the cache should be
+ * re-weighed with {@link #updateSize(Object)}. Elements are also re-weighed
+ * whenever the clock hand passes over them.
+ */
+public class MemoryBoundClockCache<K,E extends EntityWithSize> extends ClockCache<K,E>
+{
+    /**
+     * Creates a memory bound CLOCK cache. If <CODE>maxBytes < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxBytes
+     *            the memory budget of this cache in bytes
+     */
+    public MemoryBoundClockCache( String name, long maxBytes )
+    {
+        super( name, maxBytes, null );
+    }
+
+    @Override
+    protected int sizeOf( E element )
+    {
+        return element.size();
+    }
+
+    /**
+     * Changes the memory budget of this cache, evicting elements if the
+     * cache currently uses more than <CODE>newMaxBytes</CODE>.
+     *
+     * @param newMaxBytes
+     *            the new memory budget of this cache in bytes
+     */
+    public void resizeBytes( long newMaxBytes )
+    {
+        resize( newMaxBytes );
+    }
+
+    /**
+     * Does nothing, this cache is bounded by {@link #resizeBytes(long)}.
+     */
+    @Override
+    public void resize( int newSize )
+    {
+    }
+
+    @Override
+    public boolean isAdaptive()
+    {
+        return false;
+    }
+}
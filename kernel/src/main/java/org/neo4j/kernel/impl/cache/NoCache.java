@@ -19,11 +19,13 @@
  */
 package org.neo4j.kernel.impl.cache;
 
+import java.util.Collections;
 import java.util.Map;
 
 public class NoCache<K,V> implements Cache<K,V>
 {
     private final String name;
+    private final CacheStatistics statistics = new CacheStatistics();
     
     public NoCache( String name )
     {
@@ -40,6 +42,7 @@ public class NoCache<K,V> implements Cache<K,V>
     
     public V get( K key )
     {
+        statistics.miss();
         return null;
     }
     
@@ -84,4 +87,14 @@ public class NoCache<K,V> implements Cache<K,V>
     public void setAdaptiveStatus( boolean status )
     {
     }
+
+    public Iterable<K> keys()
+    {
+        return Collections.<K>emptyList();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
+    }
 }
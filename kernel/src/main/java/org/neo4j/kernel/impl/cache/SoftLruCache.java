@@ -21,47 +21,48 @@ package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-public class SoftLruCache<K,V> extends ReferenceCache<K,V>
+import org.neo4j.kernel.impl.util.ConcurrentLongHashMap;
+
+public class SoftLruCache<V> extends ReferenceCache<Long,V>
 {
-    private final ConcurrentHashMap<K,SoftValue<K,V>> cache =
-        new ConcurrentHashMap<K,SoftValue<K,V>>();
+    private final ConcurrentLongHashMap<SoftValue<V>> cache =
+        new ConcurrentLongHashMap<SoftValue<V>>();
     
-    private final SoftReferenceQueue<K,V> refQueue = 
-        new SoftReferenceQueue<K,V>();
+    private final SoftReferenceQueue<V> refQueue = 
+        new SoftReferenceQueue<V>();
     
     private final String name;
+    private final CacheStatistics statistics = new CacheStatistics();
     
     public SoftLruCache( String name )
     {
         this.name = name;
     }
     
-    public void put( K key, V value )
+    public void put( Long key, V value )
     {
-        SoftValue<K,V> ref = 
-            new SoftValue<K,V>( key, value, (ReferenceQueue<V>) refQueue ); 
+        SoftValue<V> ref = 
+            new SoftValue<V>( key, value, (ReferenceQueue<V>) refQueue ); 
         cache.put( key, ref );
+        statistics.put();
         pollClearedValues();
     }
     
-    public void putAll( Map<K,V> map )
+    public void putAll( Map<Long,V> map )
     {
-        Map<K,SoftValue<K,V>> softMap = new HashMap<K,SoftValue<K,V>>( map.size() * 2 );
-        for ( Map.Entry<K, V> entry : map.entrySet() )
+        for ( Map.Entry<Long,V> entry : map.entrySet() )
         {
-            SoftValue<K,V> ref = 
-                new SoftValue<K,V>( entry.getKey(), entry.getValue(), (ReferenceQueue<V>) refQueue );
-            softMap.put( entry.getKey(), ref );
+            SoftValue<V> ref = 
+                new SoftValue<V>( entry.getKey(), entry.getValue(), (ReferenceQueue<V>) refQueue );
+            cache.put( entry.getKey(), ref );
         }
-        cache.putAll( softMap );
+        statistics.putAll( map.size() );
         pollClearedValues();
     }
     
-    public V get( K key )
+    public V get( Long key )
     {
         SoftReference<V> ref = cache.get( key );
         if ( ref != null )
@@ -70,12 +71,13 @@ public class SoftLruCache<K,V> extends ReferenceCache<K,V>
             {
                 cache.remove( key );
             }
-            return ref.get();
+            return statistics.lookup( ref.get() );
         }
+        statistics.miss();
         return null;
     }
     
-    public V remove( K key )
+    public V remove( Long key )
     {
         SoftReference<V> ref = cache.remove( key );
         if ( ref != null )
@@ -87,10 +89,11 @@ public class SoftLruCache<K,V> extends ReferenceCache<K,V>
     
     protected void pollClearedValues()
     {
-        SoftValue<K,V> clearedValue = refQueue.safePoll();
+        SoftValue<V> clearedValue = refQueue.safePoll();
         while ( clearedValue != null )
         {
-            cache.remove( clearedValue.key );
+            cache.remove( clearedValue.key, clearedValue );
+            statistics.cleared();
             clearedValue = refQueue.safePoll();
         }
     }
@@ -131,4 +134,14 @@ public class SoftLruCache<K,V> extends ReferenceCache<K,V>
     public void setAdaptiveStatus( boolean status )
     {
     }
-}
\ No newline at end of file
+
+    public Iterable<Long> keys()
+    {
+        return cache.keySet();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
+    }
+}
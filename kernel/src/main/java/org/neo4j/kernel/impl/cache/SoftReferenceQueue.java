@@ -21,14 +21,14 @@ package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
 
-public class SoftReferenceQueue<K,V> extends ReferenceQueue<SoftValue>
+public class SoftReferenceQueue<V> extends ReferenceQueue<SoftValue>
 {
     public SoftReferenceQueue()
     {
         super();
     }
     
-    public SoftValue<K,V> safePoll()
+    public SoftValue<V> safePoll()
     {
         return (SoftValue) poll();
     }
@@ -20,12 +20,14 @@
 package org.neo4j.kernel.impl.cache;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-public class StrongReferenceCache<K,V> implements Cache<K,V>
+import org.neo4j.kernel.impl.util.ConcurrentLongHashMap;
+
+public class StrongReferenceCache<V> implements Cache<Long,V>
 {
     private final String name;
-    private final ConcurrentHashMap<K, V> cache = new ConcurrentHashMap<K, V>();
+    private final ConcurrentLongHashMap<V> cache = new ConcurrentLongHashMap<V>();
+    private final CacheStatistics statistics = new CacheStatistics();
 
     public StrongReferenceCache( String name )
     {
@@ -41,9 +43,9 @@ public class StrongReferenceCache<K,V> implements Cache<K,V>
     {
     }
 
-    public V get( K key )
+    public V get( Long key )
     {
-        return cache.get( key );
+        return statistics.lookup( cache.get( key ) );
     }
 
     public String getName()
@@ -61,17 +63,22 @@ public class StrongReferenceCache<K,V> implements Cache<K,V>
         return Integer.MAX_VALUE;
     }
 
-    public void put( K key, V value )
+    public void put( Long key, V value )
     {
         cache.put( key, value );
+        statistics.put();
     }
 
-    public void putAll( Map<K, V> map )
+    public void putAll( Map<Long,V> map )
     {
-        cache.putAll( map );
+        for ( Map.Entry<Long,V> entry : map.entrySet() )
+        {
+            cache.put( entry.getKey(), entry.getValue() );
+        }
+        statistics.putAll( map.size() );
     }
 
-    public V remove( K key )
+    public V remove( Long key )
     {
         return cache.remove( key );
     }
@@ -88,4 +95,14 @@ public class StrongReferenceCache<K,V> implements Cache<K,V>
     {
         return cache.size();
     }
+
+    public Iterable<Long> keys()
+    {
+        return cache.keySet();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
+    }
 }
@@ -21,47 +21,48 @@ package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-public class WeakLruCache<K,V> extends ReferenceCache<K,V>
+import org.neo4j.kernel.impl.util.ConcurrentLongHashMap;
+
+public class WeakLruCache<V> extends ReferenceCache<Long,V>
 {
-    private final ConcurrentHashMap<K,WeakValue<K,V>> cache =
-        new ConcurrentHashMap<K,WeakValue<K,V>>();
+    private final ConcurrentLongHashMap<WeakValue<V>> cache =
+        new ConcurrentLongHashMap<WeakValue<V>>();
     
-    private final WeakReferenceQueue<K,V> refQueue = 
-        new WeakReferenceQueue<K,V>();
+    private final WeakReferenceQueue<V> refQueue = 
+        new WeakReferenceQueue<V>();
     
     private final String name;
+    private final CacheStatistics statistics = new CacheStatistics();
     
     public WeakLruCache( String name )
     {
         this.name = name;
     }
     
-    public void put( K key, V value )
+    public void put( Long key, V value )
     {
-        WeakValue<K,V> ref = 
-            new WeakValue<K,V>( key, value, (ReferenceQueue<V>) refQueue ); 
+        WeakValue<V> ref = 
+            new WeakValue<V>( key, value, (ReferenceQueue<V>) refQueue ); 
         cache.put( key, ref );
+        statistics.put();
         pollClearedValues();
     }
     
-    public void putAll( Map<K,V> map )
+    public void putAll( Map<Long,V> map )
     {
-        Map<K,WeakValue<K,V>> softMap = new HashMap<K,WeakValue<K,V>>( map.size() * 2 );
-        for ( Map.Entry<K, V> entry : map.entrySet() )
+        for ( Map.Entry<Long,V> entry : map.entrySet() )
         {
-            WeakValue<K,V> ref = 
-                new WeakValue<K,V>( entry.getKey(), entry.getValue(), (ReferenceQueue<V>) refQueue );
-            softMap.put( entry.getKey(), ref );
+            WeakValue<V> ref = 
+                new WeakValue<V>( entry.getKey(), entry.getValue(), (ReferenceQueue<V>) refQueue );
+            cache.put( entry.getKey(), ref );
         }
-        cache.putAll( softMap );
+        statistics.putAll( map.size() );
         pollClearedValues();
     }
     
-    public V get( K key )
+    public V get( Long key )
     {
         WeakReference<V> ref = cache.get( key );
         if ( ref != null )
@@ -70,12 +71,13 @@ public class WeakLruCache<K,V> extends ReferenceCache<K,V>
             {
                 cache.remove( key );
             }
-            return ref.get();
+            return statistics.lookup( ref.get() );
         }
+        statistics.miss();
         return null;
     }
     
-    public V remove( K key )
+    public V remove( Long key )
     {
         WeakReference<V> ref = cache.remove( key );
         if ( ref != null )
@@ -87,10 +89,11 @@ public class WeakLruCache<K,V> extends ReferenceCache<K,V>
 
     protected void pollClearedValues()
     {
-        WeakValue<K,V> clearedValue = refQueue.safePoll();
+        WeakValue<V> clearedValue = refQueue.safePoll();
         while ( clearedValue != null )
         {
-            cache.remove( clearedValue.key );
+            cache.remove( clearedValue.key, clearedValue );
+            statistics.cleared();
             clearedValue = refQueue.safePoll();
         }
     }
@@ -131,4 +134,14 @@ public class WeakLruCache<K,V> extends ReferenceCache<K,V>
     public void setAdaptiveStatus( boolean status )
     {
     }
-}
\ No newline at end of file
+
+    public Iterable<Long> keys()
+    {
+        return cache.keySet();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        return statistics;
+    }
+}
@@ -21,14 +21,14 @@ package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
 
-public class WeakReferenceQueue<K,V> extends ReferenceQueue<WeakValue>
+public class WeakReferenceQueue<V> extends ReferenceQueue<WeakValue>
 {
     public WeakReferenceQueue()
     {
         super();
     }
     
-    public WeakValue<K,V> safePoll()
+    public WeakValue<V> safePoll()
     {
         return (WeakValue) poll();
     }
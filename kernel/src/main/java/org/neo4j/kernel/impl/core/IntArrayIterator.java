@@ -19,7 +19,6 @@
  */
 package org.neo4j.kernel.impl.core;
 
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,9 +28,11 @@ import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.impl.util.LongHashSet;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.RelIdIterator;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
 
 class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iterable<Relationship>
 {
@@ -42,6 +43,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
     private final NodeManager nodeManager;
     private final RelationshipType types[];
     private final List<RelIdIterator> rels;
+    private RelationshipFilter filter;
     
     // This is just for optimization
     private boolean isFullyLoaded;
@@ -88,7 +90,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                 {
                     currentTypeIterator = typeIterator.next();
                 }
-                else if ( fromNode.getMoreRelationships( nodeManager ) ||
+                else if ( fromNode.getMoreRelationships( nodeManager, getFilter() ) ||
                         // This is here to guard for that someone else might have loaded
                         // stuff in this relationship chain (and exhausted it) while I
                         // iterated over my batch of relationships. It will only happen
@@ -128,7 +130,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                             RelIdIterator itr = newRels.get( type );
                             if ( itr == null )
                             {
-                                Collection<Long> remove = nodeManager.getCowRelationshipRemoveMap( fromNode, type );
+                                LongHashSet remove = nodeManager.getCowRelationshipRemoveMap( fromNode, type );
                                 itr = remove == null ? ids.iterator( direction ) :
                                         RelIdArray.from( ids, null, remove ).iterator( direction );
                                 newRels.put( type, itr );
@@ -146,7 +148,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                     
                     typeIterator = rels.iterator();
                     currentTypeIterator = typeIterator.hasNext() ? typeIterator.next() : RelIdArray.EMPTY.iterator( direction );
-                    isFullyLoaded = !fromNode.hasMoreRelationshipsToLoad();
+                    isFullyLoaded = !fromNode.hasMoreRelationshipsToLoad( getFilter() );
                 }
                 else
                 {
@@ -157,4 +159,13 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
         // no next element found
         return null;
     }
+
+    private RelationshipFilter getFilter()
+    {
+        if ( filter == null )
+        {
+            filter = nodeManager.getRelationshipFilter( types, direction );
+        }
+        return filter;
+    }
 }
@@ -20,11 +20,7 @@
 package org.neo4j.kernel.impl.core;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,6 +39,10 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.LongHashMap;
+import org.neo4j.kernel.impl.util.LongHashSet;
+import org.neo4j.kernel.impl.util.LongIntHashMap;
+import org.neo4j.kernel.impl.util.LongIterator;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
@@ -55,8 +55,8 @@ public class LockReleaser
 {
     private static Logger log = Logger.getLogger( LockReleaser.class.getName() );
 
-    private final ArrayMap<Transaction,List<LockElement>> lockMap =
-        new ArrayMap<Transaction,List<LockElement>>( 5, true, true );
+    private final ArrayMap<Transaction,TxLocks> lockMap =
+        new ArrayMap<Transaction,TxLocks>( 5, true, true );
     private final ArrayMap<Transaction,PrimitiveElement> cowMap =
         new ArrayMap<Transaction,PrimitiveElement>( 5, true, true );
 
@@ -71,10 +71,10 @@ public class LockReleaser
         {
         }
 
-        final ArrayMap<Long,CowNodeElement> nodes =
-            new ArrayMap<Long,CowNodeElement>();
-        final ArrayMap<Long,CowRelElement> relationships =
-            new ArrayMap<Long,CowRelElement>();
+        final LongHashMap<CowNodeElement> nodes =
+            new LongHashMap<CowNodeElement>();
+        final LongHashMap<CowRelElement> relationships =
+            new LongHashMap<CowRelElement>();
     }
 
     private static class CowNodeElement
@@ -87,7 +87,7 @@ public class LockReleaser
         boolean deleted = false;
 
         ArrayMap<String,RelIdArray> relationshipAddMap = null;
-        ArrayMap<String,Collection<Long>> relationshipRemoveMap = null;
+        ArrayMap<String,LongHashSet> relationshipRemoveMap = null;
         ArrayMap<Integer,PropertyData> propertyAddMap = null;
         ArrayMap<Integer,PropertyData> propertyRemoveMap = null;
     }
@@ -134,6 +134,50 @@ public class LockReleaser
         }
     }
 
+    /**
+     * The locks held by a transaction. A transaction typically takes the
+     * same write lock on a node or relationship over and over, so those are
+     * kept as a count per id instead of as an element per acquisition, and
+     * the lockable proxy is only recreated when the locks are released.
+     * Other resources are kept in a plain list.
+     */
+    private static class TxLocks
+    {
+        LongIntHashMap nodeWriteLocks = null;
+        LongIntHashMap relationshipWriteLocks = null;
+        List<LockElement> otherLocks = null;
+        int size;
+
+        void add( Object resource, LockType type )
+        {
+            if ( type == LockType.WRITE && resource instanceof NodeProxy )
+            {
+                if ( nodeWriteLocks == null )
+                {
+                    nodeWriteLocks = new LongIntHashMap();
+                }
+                nodeWriteLocks.increment( ((NodeProxy) resource).getId() );
+            }
+            else if ( type == LockType.WRITE && resource instanceof RelationshipProxy )
+            {
+                if ( relationshipWriteLocks == null )
+                {
+                    relationshipWriteLocks = new LongIntHashMap();
+                }
+                relationshipWriteLocks.increment( ((RelationshipProxy) resource).getId() );
+            }
+            else
+            {
+                if ( otherLocks == null )
+                {
+                    otherLocks = new ArrayList<LockElement>();
+                }
+                otherLocks.add( new LockElement( resource, type ) );
+            }
+            size++;
+        }
+    }
+
     /**
      * Invoking this method with no transaction running will cause the lock to
      * be released right away.
@@ -148,10 +192,10 @@ public class LockReleaser
         throws NotInTransactionException
     {
         Transaction tx = getTransaction();
-        List<LockElement> lockElements = lockMap.get( tx );
-        if ( lockElements != null )
+        TxLocks locks = lockMap.get( tx );
+        if ( locks != null )
         {
-            lockElements.add( new LockElement( resource, type ) );
+            locks.add( resource, type );
         }
         else
         {
@@ -168,9 +212,9 @@ public class LockReleaser
                 }
                 return;
             }
-            lockElements = new ArrayList<LockElement>();
-            lockMap.put( tx, lockElements );
-            lockElements.add( new LockElement( resource, type ) );
+            locks = new TxLocks();
+            lockMap.put( tx, locks );
+            locks.add( resource, type );
             // we have to have a synchronization hook for read only transaction,
             // write locks can be taken in read only transactions (ex:
             // transactions that perform write operations that cancel each other
@@ -201,12 +245,28 @@ public class LockReleaser
         }
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type )
+    public ArrayMap<String,LongHashSet> getCowRelationshipRemoveMap( NodeImpl node )
     {
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
+                primitiveElement.nodes;
+            CowNodeElement element = cowElements.get( node.getId() );
+            if ( element != null )
+            {
+                return element.relationshipRemoveMap;
+            }
+        }
+        return null;
+    }
+
+    public LongHashSet getCowRelationshipRemoveMap( NodeImpl node, String type )
+    {
+        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        if ( primitiveElement != null )
+        {
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( node.getId() );
             if ( element != null && element.relationshipRemoveMap != null )
@@ -217,7 +277,7 @@ public class LockReleaser
         return null;
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type,
+    public LongHashSet getCowRelationshipRemoveMap( NodeImpl node, String type,
         boolean create )
     {
         if ( !create )
@@ -225,7 +285,7 @@ public class LockReleaser
             return getCowRelationshipRemoveMap( node, type );
         }
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
-        ArrayMap<Long,CowNodeElement> cowElements =
+        LongHashMap<CowNodeElement> cowElements =
             primitiveElement.nodes;
         CowNodeElement element = cowElements.get( node.getId() );
         if ( element == null )
@@ -235,12 +295,12 @@ public class LockReleaser
         }
         if ( element.relationshipRemoveMap == null )
         {
-            element.relationshipRemoveMap = new ArrayMap<String,Collection<Long>>();
+            element.relationshipRemoveMap = new ArrayMap<String,LongHashSet>();
         }
-        Collection<Long> set = element.relationshipRemoveMap.get( type );
+        LongHashSet set = element.relationshipRemoveMap.get( type );
         if ( set == null )
         {
-            set = new HashSet<Long>();
+            set = new LongHashSet();
             element.relationshipRemoveMap.put( type, set );
         }
         return set;
@@ -251,7 +311,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( node.getId() );
             if ( element != null )
@@ -267,7 +327,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( node.getId() );
             if ( element != null && element.relationshipAddMap != null )
@@ -282,7 +342,7 @@ public class LockReleaser
         boolean create )
     {
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
-        ArrayMap<Long,CowNodeElement> cowElements =
+        LongHashMap<CowNodeElement> cowElements =
             primitiveElement.nodes;
         CowNodeElement element = cowElements.get( node.getId() );
         if ( element == null )
@@ -328,35 +388,66 @@ public class LockReleaser
 
     public boolean hasLocks( Transaction tx )
     {
-        List<LockElement> lockElements = lockMap.get( tx );
-        return lockElements != null && !lockElements.isEmpty();
+        TxLocks locks = lockMap.get( tx );
+        return locks != null && locks.size > 0;
     }
 
     void releaseLocks( Transaction tx )
     {
-        List<LockElement> lockElements = lockMap.remove( tx );
-        if ( lockElements != null )
+        TxLocks locks = lockMap.remove( tx );
+        if ( locks == null )
+        {
+            return;
+        }
+        if ( locks.nodeWriteLocks != null )
         {
-            for ( LockElement lockElement : lockElements )
+            for ( LongIterator ids = locks.nodeWriteLocks.keys(); ids.hasNext(); )
             {
-                try
+                long id = ids.next();
+                releaseLock( new NodeProxy( id, nodeManager ), LockType.WRITE,
+                    locks.nodeWriteLocks.get( id ), tx );
+            }
+        }
+        if ( locks.relationshipWriteLocks != null )
+        {
+            for ( LongIterator ids = locks.relationshipWriteLocks.keys(); ids.hasNext(); )
+            {
+                long id = ids.next();
+                releaseLock( new RelationshipProxy( id, nodeManager ), LockType.WRITE,
+                    locks.relationshipWriteLocks.get( id ), tx );
+            }
+        }
+        if ( locks.otherLocks != null )
+        {
+            for ( LockElement lockElement : locks.otherLocks )
+            {
+                releaseLock( lockElement.resource, lockElement.lockType, 1, tx );
+            }
+        }
+    }
+
+    private void releaseLock( Object resource, LockType lockType, int count,
+        Transaction tx )
+    {
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( lockType == LockType.READ )
                 {
-                    if ( lockElement.lockType == LockType.READ )
-                    {
-                        lockManager.releaseReadLock( lockElement.resource, null );
-                    }
-                    else if ( lockElement.lockType == LockType.WRITE )
-                    {
-                        lockManager.releaseWriteLock( lockElement.resource, tx );
-                    }
+                    lockManager.releaseReadLock( resource, null );
                 }
-                catch ( Exception e )
+                else if ( lockType == LockType.WRITE )
                 {
-                    log.log( Level.SEVERE, "Unable to release lock[" + lockElement.lockType + "] on resource["
-                                           + lockElement.resource + "]", e );
+                    lockManager.releaseWriteLock( resource, tx );
                 }
             }
         }
+        catch ( Exception e )
+        {
+            log.log( Level.SEVERE, "Unable to release lock[" + lockType + "] on resource["
+                                   + resource + "]", e );
+        }
     }
 
     void releaseCows( Transaction cowTxId, int param )
@@ -366,15 +457,14 @@ public class LockReleaser
         {
             return;
         }
-        ArrayMap<Long,CowNodeElement> cowNodeElements = element.nodes;
-        Set<Entry<Long,CowNodeElement>> nodeEntrySet =
-            cowNodeElements.entrySet();
-        for ( Entry<Long,CowNodeElement> entry : nodeEntrySet )
+        LongHashMap<CowNodeElement> cowNodeElements = element.nodes;
+        for ( LongIterator nodeIds = cowNodeElements.keys(); nodeIds.hasNext(); )
         {
-            NodeImpl node = nodeManager.getNodeIfCached( entry.getKey() );
+            long nodeId = nodeIds.next();
+            NodeImpl node = nodeManager.getNodeIfCached( nodeId );
             if ( node != null )
             {
-                CowNodeElement nodeElement = entry.getValue();
+                CowNodeElement nodeElement = cowNodeElements.get( nodeId );
                 if ( param == Status.STATUS_COMMITTED )
                 {
                     node.commitRelationshipMaps( nodeElement.relationshipAddMap,
@@ -389,15 +479,14 @@ public class LockReleaser
                 }
             }
         }
-        ArrayMap<Long,CowRelElement> cowRelElements = element.relationships;
-        Set<Entry<Long,CowRelElement>> relEntrySet =
-            cowRelElements.entrySet();
-        for ( Entry<Long,CowRelElement> entry : relEntrySet )
+        LongHashMap<CowRelElement> cowRelElements = element.relationships;
+        for ( LongIterator relIds = cowRelElements.keys(); relIds.hasNext(); )
         {
-            RelationshipImpl rel = nodeManager.getRelIfCached( entry.getKey() );
+            long relId = relIds.next();
+            RelationshipImpl rel = nodeManager.getRelIfCached( relId );
             if ( rel != null )
             {
-                CowRelElement relElement = entry.getValue();
+                CowRelElement relElement = cowRelElements.get( relId );
                 if ( param == Status.STATUS_COMMITTED )
                 {
                     rel.commitPropertyMaps( relElement.propertyAddMap,
@@ -430,7 +519,7 @@ public class LockReleaser
         {
             Transaction transaction = (Transaction) itr.next();
             System.out.println( "" + transaction + "->" +
-                lockMap.get( transaction ).size() );
+                lockMap.get( transaction ).size );
         }
     }
 
@@ -440,7 +529,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null && primitive instanceof NodeImpl )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( primitive.getId() );
             if ( element != null )
@@ -456,7 +545,7 @@ public class LockReleaser
         else if ( primitiveElement != null &&
             primitive instanceof RelationshipImpl )
         {
-            ArrayMap<Long,CowRelElement> cowElements =
+            LongHashMap<CowRelElement> cowElements =
                 primitiveElement.relationships;
             CowRelElement element = cowElements.get( primitive.getId() );
             if ( element != null )
@@ -478,7 +567,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null && primitive instanceof NodeImpl )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( primitive.getId() );
             if ( element != null )
@@ -494,7 +583,7 @@ public class LockReleaser
         else if ( primitiveElement != null &&
             primitive instanceof RelationshipImpl )
         {
-            ArrayMap<Long,CowRelElement> cowElements =
+            LongHashMap<CowRelElement> cowElements =
                 primitiveElement.relationships;
             CowRelElement element = cowElements.get( primitive.getId() );
             if ( element != null )
@@ -536,7 +625,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
         if ( primitive instanceof NodeImpl )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -557,7 +646,7 @@ public class LockReleaser
         }
         else if ( primitive instanceof RelationshipImpl )
         {
-            ArrayMap<Long,CowRelElement> cowElements =
+            LongHashMap<CowRelElement> cowElements =
                 primitiveElement.relationships;
             CowRelElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -589,7 +678,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
         if ( primitive instanceof NodeImpl )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -610,7 +699,7 @@ public class LockReleaser
         }
         else if ( primitive instanceof RelationshipImpl )
         {
-            ArrayMap<Long,CowRelElement> cowElements =
+            LongHashMap<CowRelElement> cowElements =
                 primitiveElement.relationships;
             CowRelElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -637,7 +726,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
         if ( primitive instanceof NodeImpl )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -654,7 +743,7 @@ public class LockReleaser
         }
         else if ( primitive instanceof RelationshipImpl )
         {
-            ArrayMap<Long,CowRelElement> cowElements =
+            LongHashMap<CowRelElement> cowElements =
                 primitiveElement.relationships;
             CowRelElement element = cowElements.get( primitive.getId() );
             if ( element != null && element.deleted )
@@ -761,8 +850,9 @@ public class LockReleaser
     private void populateRelationshipPropertyEvents( PrimitiveElement element,
             TransactionDataImpl result )
     {
-        for ( long relId : element.relationships.keySet() )
+        for ( LongIterator relIds = element.relationships.keys(); relIds.hasNext(); )
         {
+            long relId = relIds.next();
             CowRelElement relElement = element.relationships.get( relId );
             RelationshipProxy rel = new RelationshipProxy( relId, nodeManager );
             RelationshipImpl relImpl = nodeManager.getRelForProxy( relId );
@@ -804,8 +894,9 @@ public class LockReleaser
     private void populateNodeRelEvent( PrimitiveElement element,
             TransactionDataImpl result )
     {
-        for ( long nodeId : element.nodes.keySet() )
+        for ( LongIterator nodeIds = element.nodes.keys(); nodeIds.hasNext(); )
         {
+            long nodeId = nodeIds.next();
             CowNodeElement nodeElement = element.nodes.get( nodeId );
             NodeProxy node = new NodeProxy( nodeId, nodeManager );
             NodeImpl nodeImpl = nodeManager.getNodeForProxy( nodeId );
@@ -829,9 +920,10 @@ public class LockReleaser
             {
                 for ( String type : nodeElement.relationshipRemoveMap.keySet() )
                 {
-                    Collection<Long> deletedRels = nodeElement.relationshipRemoveMap.get( type );
-                    for ( long relId : deletedRels )
+                    LongHashSet deletedRels = nodeElement.relationshipRemoveMap.get( type );
+                    for ( LongIterator relIds = deletedRels.iterator(); relIds.hasNext(); )
                     {
+                        long relId = relIds.next();
                         if ( nodeManager.relCreated( relId ) )
                         {
                             continue;
@@ -918,7 +1010,7 @@ public class LockReleaser
         PrimitiveElement primitiveElement = cowMap.get( tx );
         if ( primitiveElement != null )
         {
-            ArrayMap<Long,CowNodeElement> cowElements =
+            LongHashMap<CowNodeElement> cowElements =
                 primitiveElement.nodes;
             CowNodeElement element = cowElements.get( node.getId() );
             if ( element != null && (element.relationshipAddMap != null || element.relationshipRemoveMap != null) )
@@ -49,6 +49,13 @@ class LowRelationshipImpl extends RelationshipImpl
         this.idAndMore = (((long)typeId) << 48) | ((startNodeId&0xF00000000L)<<12) | ((endNodeId&0xF00000000L)<<8) | id;
     }
     
+    @Override
+    public int size()
+    {
+        // idAndMore + startNodeId + endNodeId
+        return super.size() + 16;
+    }
+
     @Override
     public long getId()
     {
@@ -21,11 +21,9 @@ package org.neo4j.kernel.impl.core;
 
 import static org.neo4j.kernel.impl.util.RelIdArray.empty;
 
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -38,21 +36,28 @@ import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
 import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
-import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.traversal.OldTraverserWrapper;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.LongHashMap;
+import org.neo4j.kernel.impl.util.LongHashSet;
+import org.neo4j.kernel.impl.util.LongIterator;
 import org.neo4j.kernel.impl.util.CombinedRelIdIterator;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.RelIdIterator;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 class NodeImpl extends Primitive
 {
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
 
     private volatile RelIdArray[] relationships;
-    private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+    // null until the relationships are loaded
+    private RelationshipLoadingPosition relChainPosition;
     private long id;
 
     NodeImpl( long id )
@@ -89,6 +94,29 @@ class NodeImpl extends Primitive
         return this == obj || ( obj instanceof NodeImpl && ( (NodeImpl) obj ).id == id );
     }
 
+    @Override
+    public int size()
+    {
+        // relationships reference + relChainPosition reference + id
+        int size = super.size() + 24;
+        RelIdArray[] relationships = this.relationships;
+        if ( relationships != null )
+        {
+            size += 16 + 8 * relationships.length;
+            for ( RelIdArray array : relationships )
+            {
+                size += array.sizeOfObjectInBytesIncludingOverhead();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    protected void updateSize( NodeManager nodeManager )
+    {
+        nodeManager.updateCacheSize( this );
+    }
+
     @Override
     protected PropertyData changeProperty( NodeManager nodeManager,
             PropertyData property, Object value )
@@ -117,7 +145,11 @@ class NodeImpl extends Primitive
 
     List<RelIdIterator> getAllRelationships( NodeManager nodeManager, DirectionWrapper direction )
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        if ( relationships == null )
+        {
+            loadInitialRelationships( nodeManager, nodeManager.getRelationshipFilter(
+                NO_TYPES, direction ) );
+        }
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         ArrayMap<String,RelIdArray> addMap = null;
@@ -129,7 +161,7 @@ class NodeImpl extends Primitive
         for ( RelIdArray src : relationships )
         {
             String type = src.getType();
-            Collection<Long> remove = null;
+            LongHashSet remove = null;
             RelIdArray add = null;
             RelIdIterator iterator = null;
             if ( hasModifications )
@@ -153,7 +185,7 @@ class NodeImpl extends Primitive
             {
                 if ( getRelIdArray( type ) == null )
                 {
-                    Collection<Long> remove = nodeManager.getCowRelationshipRemoveMap( this, type );
+                    LongHashSet remove = nodeManager.getCowRelationshipRemoveMap( this, type );
                     RelIdArray add = addMap.get( type );
                     relTypeList.add( new CombinedRelIdIterator( type, direction, null, add, remove ) );
                 }
@@ -165,14 +197,18 @@ class NodeImpl extends Primitive
     List<RelIdIterator> getAllRelationshipsOfType( NodeManager nodeManager,
         DirectionWrapper direction, RelationshipType... types)
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        if ( relationships == null )
+        {
+            loadInitialRelationships( nodeManager, nodeManager.getRelationshipFilter(
+                types, direction ) );
+        }
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         for ( RelationshipType type : types )
         {
             String typeName = type.name();
             RelIdArray src = getRelIdArray( typeName );
-            Collection<Long> remove = null;
+            LongHashSet remove = null;
             RelIdArray add = null;
             RelIdIterator iterator = null;
             if ( hasModifications )
@@ -193,14 +229,14 @@ class NodeImpl extends Primitive
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager, DirectionWrapper.BOTH ), this,
-            DirectionWrapper.BOTH, nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            DirectionWrapper.BOTH, nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad() );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, Direction dir )
     {
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationships( nodeManager, direction ), this, direction,
-            nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad() );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type )
@@ -310,29 +346,21 @@ class NodeImpl extends Primitive
     // a relationship delete is invoked.
     void removeRelationship( NodeManager nodeManager, RelationshipType type, long relId )
     {
-        Collection<Long> relationshipSet = nodeManager.getCowRelationshipRemoveMap(
+        LongHashSet relationshipSet = nodeManager.getCowRelationshipRemoveMap(
             this, type.name(), true );
         relationshipSet.add( relId );
     }
 
-    private void ensureRelationshipMapNotNull( NodeManager nodeManager )
+    private void loadInitialRelationships( NodeManager nodeManager, RelationshipFilter filter )
     {
-        if ( relationships == null )
-        {
-            loadInitialRelationships( nodeManager );
-        }
-    }
-
-    private void loadInitialRelationships( NodeManager nodeManager )
-    {
-        Triplet<ArrayMap<String, RelIdArray>, Map<Long, RelationshipImpl>, Long> rels = null;
+        Triplet<ArrayMap<String, RelIdArray>, LongHashMap<RelationshipImpl>, RelationshipLoadingPosition> rels = null;
         synchronized ( this )
         {
             if ( relationships == null )
             {
                 this.relChainPosition = nodeManager.getRelationshipChainPosition( this );
                 ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
-                rels = getMoreRelationships( nodeManager, tmpRelMap );
+                rels = getMoreRelationships( nodeManager, tmpRelMap, filter );
                 this.relationships = toRelIdArray( tmpRelMap );
                 if ( rels != null )
                 {
@@ -344,6 +372,7 @@ class NodeImpl extends Primitive
         {
             nodeManager.putAllInRelCache( rels.second() );
         }
+        updateSize( nodeManager );
     }
 
     private RelIdArray[] toRelIdArray( ArrayMap<String, RelIdArray> tmpRelMap )
@@ -362,15 +391,16 @@ class NodeImpl extends Primitive
         return result;
     }
 
-    private Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships(
-            NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap )
+    private Triplet<ArrayMap<String,RelIdArray>,LongHashMap<RelationshipImpl>,RelationshipLoadingPosition>
+            getMoreRelationships( NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap,
+            RelationshipFilter filter )
     {
         if ( !hasMoreRelationshipsToLoad() )
         {
             return null;
         }
-        Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels =
-            nodeManager.getMoreRelationships( this );
+        Triplet<ArrayMap<String,RelIdArray>,LongHashMap<RelationshipImpl>,RelationshipLoadingPosition> rels =
+            nodeManager.getMoreRelationships( this, filter );
         ArrayMap<String,RelIdArray> addMap = rels.first();
         if ( addMap.size() == 0 )
         {
@@ -400,24 +430,42 @@ class NodeImpl extends Primitive
 
     boolean hasMoreRelationshipsToLoad()
     {
-        return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue();
+        RelationshipLoadingPosition position = relChainPosition;
+        return position != null && position.hasMore();
     }
 
-    boolean getMoreRelationships( NodeManager nodeManager )
+    /**
+     * @return <CODE>true</CODE> if there may be relationships matching
+     * <CODE>filter</CODE> left to load. For a dense node only the chains of
+     * the types and directions asked for are loaded, so there can be other
+     * relationships left when this returns <CODE>false</CODE>.
+     */
+    boolean hasMoreRelationshipsToLoad( RelationshipFilter filter )
     {
-        Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels;
-        if ( !hasMoreRelationshipsToLoad() )
+        RelationshipLoadingPosition position = relChainPosition;
+        return position != null && position.hasMore( filter );
+    }
+
+    /**
+     * Loads the next batch of relationships of this node. The batch is
+     * filled up with relationships matching <CODE>filter</CODE>, the others
+     * passed on the way are registered by id only.
+     */
+    boolean getMoreRelationships( NodeManager nodeManager, RelationshipFilter filter )
+    {
+        Triplet<ArrayMap<String,RelIdArray>,LongHashMap<RelationshipImpl>,RelationshipLoadingPosition> rels;
+        if ( !hasMoreRelationshipsToLoad( filter ) )
         {
             return false;
         }
         synchronized ( this )
         {
-            if ( !hasMoreRelationshipsToLoad() )
+            if ( !hasMoreRelationshipsToLoad( filter ) )
             {
                 return false;
             }
 
-            rels = nodeManager.getMoreRelationships( this );
+            rels = nodeManager.getMoreRelationships( this, filter );
             ArrayMap<String,RelIdArray> addMap = rels.first();
             if ( addMap.size() == 0 )
             {
@@ -446,6 +494,7 @@ class NodeImpl extends Primitive
             setRelChainPosition( rels.third() );
         }
         nodeManager.putAllInRelCache( rels.second() );
+        updateSize( nodeManager );
         return true;
     }
 
@@ -578,9 +627,125 @@ class NodeImpl extends Primitive
         return getRelationships( nodeManager, type, dir ).iterator().hasNext();
     }
 
+    /**
+     * Returns the number of relationships of this node in
+     * <CODE>direction</CODE> of any of <CODE>types</CODE>, or of any type
+     * if no types are given. Loops are counted once in every direction.
+     * The committed degree is read from the store without loading the
+     * relationships, the changes of the current transaction are added to it.
+     */
+    public int getDegree( NodeManager nodeManager, Direction direction,
+            RelationshipType... types )
+    {
+        DirectionWrapper wrapped = RelIdArray.wrap( direction );
+        RelationshipFilter filter = nodeManager.getRelationshipFilter( types, wrapped );
+        int degree = nodeManager.getDegree( this, filter );
+        if ( !nodeManager.getLockReleaser().hasRelationshipModifications( this ) )
+        {
+            return degree;
+        }
+        ArrayMap<String,RelIdArray> addMap = nodeManager.getCowRelationshipAddMap( this );
+        ArrayMap<String,LongHashSet> removeMap = nodeManager.getCowRelationshipRemoveMap( this );
+        List<String> typeNames = new LinkedList<String>();
+        if ( types.length == 0 )
+        {
+            if ( addMap != null )
+            {
+                for ( String type : addMap.keySet() )
+                {
+                    typeNames.add( type );
+                }
+            }
+            if ( removeMap != null )
+            {
+                for ( String type : removeMap.keySet() )
+                {
+                    if ( addMap == null || addMap.get( type ) == null )
+                    {
+                        typeNames.add( type );
+                    }
+                }
+            }
+        }
+        else
+        {
+            for ( RelationshipType type : types )
+            {
+                typeNames.add( type.name() );
+            }
+        }
+        for ( String type : typeNames )
+        {
+            RelIdArray add = addMap != null ? addMap.get( type ) : null;
+            LongHashSet remove = removeMap != null ? removeMap.get( type ) : null;
+            if ( add != null )
+            {
+                RelIdIterator ids = add.iterator( wrapped );
+                while ( ids.hasNext() )
+                {
+                    long relId = ids.next();
+                    if ( remove == null || !remove.contains( relId ) )
+                    {
+                        degree++;
+                    }
+                }
+            }
+            if ( remove != null )
+            {
+                degree -= getRemovedDegree( nodeManager, filter, add, remove );
+            }
+        }
+        return degree;
+    }
+
+    /*
+     * Counts the committed relationships in remove that match filter.
+     * Relationships both created and deleted in this transaction are in
+     * add as well and were never counted.
+     */
+    private int getRemovedDegree( NodeManager nodeManager, RelationshipFilter filter,
+            RelIdArray add, LongHashSet remove )
+    {
+        LongHashSet added = new LongHashSet();
+        if ( add != null )
+        {
+            RelIdIterator ids = add.iterator( DirectionWrapper.BOTH );
+            while ( ids.hasNext() )
+            {
+                added.add( ids.next() );
+            }
+        }
+        int removed = 0;
+        LongIterator ids = remove.iterator();
+        while ( ids.hasNext() )
+        {
+            long relId = ids.next();
+            if ( added.contains( relId ) )
+            {
+                continue;
+            }
+            RelationshipRecord rel = nodeManager.loadLightRelationship( relId );
+            DirectionWrapper direction;
+            if ( rel.getFirstNode() == rel.getSecondNode() )
+            {
+                direction = DirectionWrapper.BOTH;
+            }
+            else
+            {
+                direction = rel.getFirstNode() == getId() ?
+                    DirectionWrapper.OUTGOING : DirectionWrapper.INCOMING;
+            }
+            if ( filter.matches( rel.getType(), direction ) )
+            {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
     protected void commitRelationshipMaps(
         ArrayMap<String,RelIdArray> cowRelationshipAddMap,
-        ArrayMap<String,Collection<Long>> cowRelationshipRemoveMap )
+        ArrayMap<String,LongHashSet> cowRelationshipRemoveMap )
     {
         if ( relationships == null )
         {
@@ -595,7 +760,7 @@ class NodeImpl extends Primitive
                 for ( String type : cowRelationshipAddMap.keySet() )
                 {
                     RelIdArray add = cowRelationshipAddMap.get( type );
-                    Collection<Long> remove = null;
+                    LongHashSet remove = null;
                     if ( cowRelationshipRemoveMap != null )
                     {
                         remove = cowRelationshipRemoveMap.get( type );
@@ -616,7 +781,7 @@ class NodeImpl extends Primitive
                     RelIdArray src = getRelIdArray( type );
                     if ( src != null )
                     {
-                        Collection<Long> remove = cowRelationshipRemoveMap.get( type );
+                        LongHashSet remove = cowRelationshipRemoveMap.get( type );
                         putRelIdArray( RelIdArray.from( src, null, remove ) );
                     }
                 }
@@ -624,12 +789,12 @@ class NodeImpl extends Primitive
         }
     }
 
-    long getRelChainPosition()
+    RelationshipLoadingPosition getRelChainPosition()
     {
         return relChainPosition;
     }
 
-    void setRelChainPosition( long position )
+    void setRelChainPosition( RelationshipLoadingPosition position )
     {
         this.relChainPosition = position;
         if ( !hasMoreRelationshipsToLoad() )
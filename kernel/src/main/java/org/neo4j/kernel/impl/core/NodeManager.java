@@ -19,8 +19,7 @@
  */
 package org.neo4j.kernel.impl.core;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -39,27 +38,39 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.CacheStatistics;
+import org.neo4j.kernel.impl.cache.ClockCache;
 import org.neo4j.kernel.impl.cache.LruCache;
+import org.neo4j.kernel.impl.cache.MemoryBoundClockCache;
 import org.neo4j.kernel.impl.cache.NoCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
 import org.neo4j.kernel.impl.persistence.PersistenceManager;
 import org.neo4j.kernel.impl.transaction.LockException;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.LongHashMap;
+import org.neo4j.kernel.impl.util.LongHashSet;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 public class NodeManager
 {
@@ -70,6 +81,8 @@ public class NodeManager
     private final GraphDatabaseService graphDbService;
     private final Cache<Long,NodeImpl> nodeCache;
     private final Cache<Long,RelationshipImpl> relCache;
+    private final MemoryBoundClockCache<Long,NodeImpl> memoryBoundNodeCache;
+    private final MemoryBoundClockCache<Long,RelationshipImpl> memoryBoundRelCache;
     private final AdaptiveCacheManager cacheManager;
     private final CacheType cacheType;
     private final LockManager lockManager;
@@ -89,6 +102,8 @@ public class NodeManager
     private int minRelCacheSize = 0;
     private int maxNodeCacheSize = 1500;
     private int maxRelCacheSize = 3500;
+    private long nodeCacheBytes = Runtime.getRuntime().maxMemory() / 8;
+    private long relCacheBytes = Runtime.getRuntime().maxMemory() / 16;
 
     private static final int LOCK_STRIPE_COUNT = 32;
     private final ReentrantLock loadLocks[] =
@@ -117,6 +132,10 @@ public class NodeManager
         this.cacheType = cacheType;
         this.nodeCache = cacheType.node( cacheManager );
         this.relCache = cacheType.relationship( cacheManager );
+        this.memoryBoundNodeCache = nodeCache instanceof MemoryBoundClockCache ?
+            (MemoryBoundClockCache<Long,NodeImpl>) nodeCache : null;
+        this.memoryBoundRelCache = relCache instanceof MemoryBoundClockCache ?
+            (MemoryBoundClockCache<Long,RelationshipImpl>) relCache : null;
         for ( int i = 0; i < loadLocks.length; i++ )
         {
             loadLocks[i] = new ReentrantLock();
@@ -137,6 +156,19 @@ public class NodeManager
 
     private void parseParams( Map<Object,Object> params )
     {
+        if ( params.containsKey( Config.LOCK_TIMEOUT ) )
+        {
+            Object value = params.get( Config.LOCK_TIMEOUT );
+            try
+            {
+                lockManager.setLockTimeout( Long.parseLong( (String) value ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                log.warning( "Unable to parse " + Config.LOCK_TIMEOUT + " "
+                    + value );
+            }
+        }
         if ( params.containsKey( "use_adaptive_cache" ) )
         {
             String value = (String) params.get( "use_adaptive_cache" );
@@ -224,6 +256,26 @@ public class NodeManager
                     + value );
             }
         }
+        nodeCacheBytes = parseBytes( params, Config.NODE_CACHE_SIZE, nodeCacheBytes );
+        relCacheBytes = parseBytes( params, Config.RELATIONSHIP_CACHE_SIZE, relCacheBytes );
+    }
+
+    private long parseBytes( Map<Object,Object> params, String key, long defaultValue )
+    {
+        String value = (String) params.get( key );
+        if ( value == null )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return CommonAbstractStore.parseMemorySize( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            log.warning( "Unable to parse " + key + " " + value );
+            return defaultValue;
+        }
     }
 
     public void start( Map<Object,Object> params )
@@ -231,6 +283,14 @@ public class NodeManager
         parseParams( params );
         nodeCache.resize( maxNodeCacheSize );
         relCache.resize( maxRelCacheSize );
+        if ( memoryBoundNodeCache != null )
+        {
+            memoryBoundNodeCache.resizeBytes( nodeCacheBytes );
+        }
+        if ( memoryBoundRelCache != null )
+        {
+            memoryBoundRelCache.resizeBytes( relCacheBytes );
+        }
         if ( useAdaptiveCache && cacheType.needsCacheManagerRegistration )
         {
             cacheManager.registerCache( nodeCache, adaptiveCacheHeapRatio,
@@ -414,12 +474,14 @@ public class NodeManager
             {
                 return new NodeProxy( nodeId, this );
             }
+            long startTime = System.nanoTime();
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 throw new NotFoundException( "Node[" + nodeId + "]" );
             }
             node = new NodeImpl( nodeId );
             nodeCache.put( nodeId, node );
+            nodeCache.getStatistics().loaded( System.nanoTime() - startTime );
             return new NodeProxy( nodeId, this );
         }
         finally
@@ -443,12 +505,14 @@ public class NodeManager
             {
                 return node;
             }
+            long startTime = System.nanoTime();
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 return null;
             }
             node = new NodeImpl( nodeId );
             nodeCache.put( nodeId, node );
+            nodeCache.getStatistics().loaded( System.nanoTime() - startTime );
             return node;
         }
         finally
@@ -472,12 +536,14 @@ public class NodeManager
             {
                 return node;
             }
+            long startTime = System.nanoTime();
             if ( !persistenceManager.loadLightNode( nodeId ) )
             {
                 throw new NotFoundException( "Node[" + nodeId + "] not found." );
             }
             node = new NodeImpl( nodeId );
             nodeCache.put( nodeId, node );
+            nodeCache.getStatistics().loaded( System.nanoTime() - startTime );
             return node;
         }
         finally
@@ -516,6 +582,7 @@ public class NodeManager
             {
                 return new RelationshipProxy( relId, this );
             }
+            long startTime = System.nanoTime();
             RelationshipRecord data = persistenceManager.loadLightRelationship( relId );
             if ( data == null )
             {
@@ -533,6 +600,7 @@ public class NodeManager
             final long endNodeId = data.getSecondNode();
             relationship = newRelationshipImpl( relId, startNodeId, endNodeId, type, typeId, false );
             relCache.put( relId, relationship );
+            relCache.getStatistics().loaded( System.nanoTime() - startTime );
             return new RelationshipProxy( relId, this );
         }
         finally
@@ -561,6 +629,7 @@ public class NodeManager
             {
                 return relationship;
             }
+            long startTime = System.nanoTime();
             RelationshipRecord data = persistenceManager.loadLightRelationship( relId );
             if ( data == null )
             {
@@ -578,6 +647,7 @@ public class NodeManager
             relationship = newRelationshipImpl( relId, data.getFirstNode(), data.getSecondNode(),
                     type, typeId, false );
             relCache.put( relId, relationship );
+            relCache.getStatistics().loaded( System.nanoTime() - startTime );
             return relationship;
         }
         finally
@@ -586,6 +656,22 @@ public class NodeManager
         }
     }
 
+    void updateCacheSize( NodeImpl node )
+    {
+        if ( memoryBoundNodeCache != null )
+        {
+            memoryBoundNodeCache.updateSize( node.getId() );
+        }
+    }
+
+    void updateCacheSize( RelationshipImpl relationship )
+    {
+        if ( memoryBoundRelCache != null )
+        {
+            memoryBoundRelCache.updateSize( relationship.getId() );
+        }
+    }
+
     public void removeNodeFromCache( long nodeId )
     {
         nodeCache.remove( nodeId );
@@ -601,31 +687,70 @@ public class NodeManager
         return persistenceManager.loadPropertyValue( id );
     }
 
-    long getRelationshipChainPosition( NodeImpl node )
+    RelationshipLoadingPosition getRelationshipChainPosition( NodeImpl node )
     {
         return persistenceManager.getRelationshipChainPosition( node.getId() );
     }
 
-    Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
+    int getDegree( NodeImpl node, RelationshipFilter filter )
+    {
+        return persistenceManager.getDegree( node.getId(), filter );
+    }
+
+    RelationshipRecord loadLightRelationship( long relId )
+    {
+        return persistenceManager.loadLightRelationship( relId );
+    }
+
+    /**
+     * Returns a filter matching relationships of any of <CODE>types</CODE>
+     * in <CODE>direction</CODE>, or of any type if <CODE>types</CODE> is
+     * empty. Types that don't exist yet can't match anything.
+     */
+    RelationshipFilter getRelationshipFilter( RelationshipType[] types,
+            DirectionWrapper direction )
+    {
+        if ( types.length == 0 )
+        {
+            return direction == DirectionWrapper.BOTH ? RelationshipFilter.ALL :
+                new RelationshipFilter( null, direction );
+        }
+        int[] typeIds = new int[types.length];
+        int count = 0;
+        for ( RelationshipType type : types )
+        {
+            Integer typeId = relTypeHolder.getIdFor( type.name() );
+            if ( typeId != null )
+            {
+                typeIds[count++] = typeId;
+            }
+        }
+        return new RelationshipFilter( count == typeIds.length ? typeIds :
+            Arrays.copyOf( typeIds, count ), direction );
+    }
+
+    Triplet<ArrayMap<String,RelIdArray>,LongHashMap<RelationshipImpl>,RelationshipLoadingPosition>
+            getMoreRelationships( NodeImpl node, RelationshipFilter filter )
     {
         long nodeId = node.getId();
-        long position = node.getRelChainPosition();
-        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
-            persistenceManager.getMoreRelationships( nodeId, position );
+        RelationshipLoadingPosition position = node.getRelChainPosition();
+        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition> rels =
+            persistenceManager.getMoreRelationships( nodeId, position, filter );
         ArrayMap<String,RelIdArray> newRelationshipMap =
             new ArrayMap<String,RelIdArray>();
-        Map<Long,RelationshipImpl> relsMap = new HashMap<Long,RelationshipImpl>( 150 );
+        LongHashMap<RelationshipImpl> relsMap = new LongHashMap<RelationshipImpl>( 150 );
 
         Iterable<RelationshipRecord> loops = rels.first().get( DirectionWrapper.BOTH );
         boolean hasLoops = loops != null;
         if ( hasLoops )
         {
-            receiveRelationships( loops, newRelationshipMap, relsMap, DirectionWrapper.BOTH, true );
+            receiveRelationships( loops, newRelationshipMap, relsMap, DirectionWrapper.BOTH, true,
+                    filter );
         }
         receiveRelationships( rels.first().get( DirectionWrapper.OUTGOING ), newRelationshipMap,
-                relsMap, DirectionWrapper.OUTGOING, hasLoops );
+                relsMap, DirectionWrapper.OUTGOING, hasLoops, filter );
         receiveRelationships( rels.first().get( DirectionWrapper.INCOMING ), newRelationshipMap,
-                relsMap, DirectionWrapper.INCOMING, hasLoops );
+                relsMap, DirectionWrapper.INCOMING, hasLoops, filter );
 
         // relCache.putAll( relsMap );
         return Triplet.of( newRelationshipMap, relsMap, rels.other() );
@@ -633,7 +758,8 @@ public class NodeManager
 
     private void receiveRelationships(
             Iterable<RelationshipRecord> rels, ArrayMap<String, RelIdArray> newRelationshipMap,
-            Map<Long, RelationshipImpl> relsMap, DirectionWrapper dir, boolean hasLoops )
+            LongHashMap<RelationshipImpl> relsMap, DirectionWrapper dir, boolean hasLoops,
+            RelationshipFilter filter )
     {
         for ( RelationshipRecord rel : rels )
         {
@@ -644,9 +770,14 @@ public class NodeManager
             {
                 type = getRelationshipTypeById( rel.getType() );
                 assert type != null;
-                relImpl = newRelationshipImpl( relId, rel.getFirstNode(), rel.getSecondNode(), type,
-                        rel.getType(), false );
-                relsMap.put( relId, relImpl );
+                // Relationships that weren't asked for are only recorded by
+                // id, they'll be loaded on their own if ever requested
+                if ( filter.matches( rel.getType(), dir ) )
+                {
+                    relImpl = newRelationshipImpl( relId, rel.getFirstNode(), rel.getSecondNode(),
+                            type, rel.getType(), false );
+                    relsMap.put( relId, relImpl );
+                }
                 // relCache.put( relId, relImpl );
             }
             else
@@ -663,9 +794,12 @@ public class NodeManager
         }
     }
 
-    void putAllInRelCache( Map<Long,RelationshipImpl> map )
+    void putAllInRelCache( LongHashMap<RelationshipImpl> map )
     {
-         relCache.putAll( map );
+        for ( RelationshipImpl relationship : map.values() )
+        {
+            relCache.put( relationship.getId(), relationship );
+        }
     }
 
     ArrayMap<Integer,PropertyData> loadProperties( NodeImpl node,
@@ -690,6 +824,35 @@ public class NodeManager
         return relCache.size();
     }
 
+    /**
+     * Returns the ids of the nodes currently held in the node cache. The
+     * returned view may be weakly consistent with concurrent cache updates.
+     */
+    public Iterable<Long> getCachedNodeIds()
+    {
+        return nodeCache.keys();
+    }
+
+    /**
+     * Returns the ids of the relationships currently held in the relationship
+     * cache. The returned view may be weakly consistent with concurrent cache
+     * updates.
+     */
+    public Iterable<Long> getCachedRelationshipIds()
+    {
+        return relCache.keys();
+    }
+
+    public CacheStatistics getNodeCacheStatistics()
+    {
+        return nodeCache.getStatistics();
+    }
+
+    public CacheStatistics getRelationshipCacheStatistics()
+    {
+        return relCache.getStatistics();
+    }
+
     public void clearCache()
     {
         nodeCache.clear();
@@ -719,48 +882,80 @@ public class NodeManager
 
     void acquireLock( Primitive resource, LockType lockType )
     {
-        PropertyContainer container;
-        if ( resource instanceof NodeImpl )
+        PropertyContainer container = lockableProxy( resource );
+        if ( lockType == LockType.READ )
         {
-            container = new NodeProxy( resource.getId(), this );
+            lockManager.getReadLock( container );
         }
-        else if ( resource instanceof RelationshipImpl )
+        else if ( lockType == LockType.WRITE )
         {
-            container = new RelationshipProxy( resource.getId(), this );
+            lockManager.getWriteLock( container );
         }
         else
         {
-            throw new LockException( "Unkown primitivite type: " + resource );
+            throw new LockException( "Unknown lock type: " + lockType );
         }
-        if ( lockType == LockType.READ )
+    }
+
+    /**
+     * Tries to acquire a write lock on a node or relationship for the
+     * current transaction, waiting at most <CODE>timeout</CODE> milliseconds
+     * for it. An acquired lock is held until the transaction finishes. This
+     * lets a caller give up on a hot node or relationship instead of waiting
+     * for it.
+     *
+     * @param entity
+     *            the node or relationship to lock
+     * @param timeout
+     *            milliseconds to wait for the lock at most, 0 to return at
+     *            once if the lock can't be acquired
+     * @return <CODE>true</CODE> if the lock was acquired, else
+     *         <CODE>false</CODE>
+     */
+    public boolean tryAcquireWriteLock( PropertyContainer entity, long timeout )
+    {
+        PropertyContainer container;
+        if ( entity instanceof Node )
         {
-            lockManager.getReadLock( container );
+            container = new NodeProxy( ((Node) entity).getId(), this );
         }
-        else if ( lockType == LockType.WRITE )
+        else if ( entity instanceof Relationship )
         {
-            lockManager.getWriteLock( container );
+            container = new RelationshipProxy(
+                ((Relationship) entity).getId(), this );
         }
         else
         {
-            throw new LockException( "Unknown lock type: " + lockType );
+            throw new LockException( "Unkown entity type: " + entity );
+        }
+        if ( !lockManager.tryWriteLock( container, timeout ) )
+        {
+            return false;
         }
+        lockReleaser.addLockToTransaction( container, LockType.WRITE );
+        return true;
     }
 
-    void releaseLock( Primitive resource, LockType lockType )
+    // the proxies are what gets locked, they are equal for the same id
+    private PropertyContainer lockableProxy( Primitive resource )
     {
-        PropertyContainer container;
         if ( resource instanceof NodeImpl )
         {
-            container = new NodeProxy( resource.getId(), this );
+            return new NodeProxy( resource.getId(), this );
         }
         else if ( resource instanceof RelationshipImpl )
         {
-            container = new RelationshipProxy( resource.getId(), this );
+            return new RelationshipProxy( resource.getId(), this );
         }
         else
         {
             throw new LockException( "Unkown primitivite type: " + resource );
         }
+    }
+
+    void releaseLock( Primitive resource, LockType lockType )
+    {
+        PropertyContainer container = lockableProxy( resource );
         if ( lockType == LockType.READ )
         {
             lockManager.releaseReadLock( container, null );
@@ -785,6 +980,76 @@ public class NodeManager
         return idGenerator.getNumberOfIdsInUse( clazz );
     }
 
+    /**
+     * Returns the number of committed nodes in the graph, read from the
+     * counts kept by the store. The counts are -1 if they missed a
+     * transaction, until they are rebuilt on the next startup.
+     */
+    public long getNodeCount()
+    {
+        return persistenceManager.getCounts().getNodeCount();
+    }
+
+    /**
+     * Returns the number of committed relationships in the graph.
+     */
+    public long getRelationshipCount()
+    {
+        return persistenceManager.getCounts().getRelationshipCount();
+    }
+
+    /**
+     * Returns the number of committed relationships of <CODE>type</CODE>,
+     * 0 if there is no such type.
+     */
+    public long getRelationshipCount( RelationshipType type )
+    {
+        Integer typeId = relTypeHolder.getIdFor( type.name() );
+        if ( typeId == null )
+        {
+            return 0;
+        }
+        return persistenceManager.getCounts().getRelationshipCount( typeId );
+    }
+
+    /**
+     * Returns the number of committed properties of nodes and relationships.
+     */
+    public long getPropertyCount()
+    {
+        return persistenceManager.getCounts().getPropertyCount();
+    }
+
+    /**
+     * Returns the committed nodes as light records read sequentially from
+     * the node store, without going through the cache. Changes made by the
+     * current transaction aren't seen. The scan must be closed if it isn't
+     * iterated to the end.
+     */
+    public StoreScan<NodeRecord> scanNodes()
+    {
+        return persistenceManager.scanNodes();
+    }
+
+    /**
+     * Returns the committed relationships as light records read
+     * sequentially from the relationship store, see {@link #scanNodes()}.
+     */
+    public StoreScan<RelationshipRecord> scanRelationships()
+    {
+        return persistenceManager.scanRelationships();
+    }
+
+    /**
+     * Returns the committed property records read sequentially from the
+     * property store, without the dynamic records of string and array
+     * values, see {@link #scanNodes()}.
+     */
+    public StoreScan<PropertyRecord> scanProperties()
+    {
+        return persistenceManager.scanProperties();
+    }
+
     public void removeRelationshipTypeFromCache( int id )
     {
         relTypeHolder.removeRelType( id );
@@ -951,12 +1216,17 @@ public class NodeManager
         persistenceManager.relRemoveProperty( rel.getId(), property.getId() );
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type )
+    public ArrayMap<String,LongHashSet> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        return lockReleaser.getCowRelationshipRemoveMap( node );
+    }
+
+    public LongHashSet getCowRelationshipRemoveMap( NodeImpl node, String type )
     {
         return lockReleaser.getCowRelationshipRemoveMap( node, type );
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type,
+    public LongHashSet getCowRelationshipRemoveMap( NodeImpl node, String type,
         boolean create )
     {
         return lockReleaser.getCowRelationshipRemoveMap( node, type, create );
@@ -1070,13 +1340,13 @@ public class NodeManager
             @Override
             Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
             {
-                return new WeakLruCache<Long,NodeImpl>( NODE_CACHE_NAME );
+                return new WeakLruCache<NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
             Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
             {
-                return new WeakLruCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
+                return new WeakLruCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
         },
         soft( false, "soft reference cache" )
@@ -1084,13 +1354,13 @@ public class NodeManager
             @Override
             Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
             {
-                return new SoftLruCache<Long,NodeImpl>( NODE_CACHE_NAME );
+                return new SoftLruCache<NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
             Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
             {
-                return new SoftLruCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
+                return new SoftLruCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
         },
         old( true, "lru cache" )
@@ -1108,6 +1378,37 @@ public class NodeManager
                         RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
             }
         },
+        clock( true, "concurrent clock cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<Long,NodeImpl>( NODE_CACHE_NAME, 1500, cacheManager );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<Long,RelationshipImpl>(
+                        RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
+            }
+        },
+        memory( false, "memory bound clock cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new MemoryBoundClockCache<Long,NodeImpl>( NODE_CACHE_NAME,
+                        Runtime.getRuntime().maxMemory() / 8 );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new MemoryBoundClockCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME,
+                        Runtime.getRuntime().maxMemory() / 16 );
+            }
+        },
         none( false, "no cache" )
         {
             @Override
@@ -1127,13 +1428,13 @@ public class NodeManager
             @Override
             Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
             {
-                return new StrongReferenceCache<Long,NodeImpl>( NODE_CACHE_NAME );
+                return new StrongReferenceCache<NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
             Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
             {
-                return new StrongReferenceCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
+                return new StrongReferenceCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
         };
 
@@ -109,6 +109,26 @@ class NodeProxy implements Node
         return nm.getNodeForProxy( nodeId ).hasRelationship( nm, type, dir );
     }
 
+    public int getDegree()
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, Direction.BOTH );
+    }
+
+    public int getDegree( Direction direction )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, direction );
+    }
+
+    public int getDegree( RelationshipType type )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, Direction.BOTH, type );
+    }
+
+    public int getDegree( RelationshipType type, Direction direction )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, direction, type );
+    }
+
     public Relationship getSingleRelationship( RelationshipType type,
         Direction dir )
     {
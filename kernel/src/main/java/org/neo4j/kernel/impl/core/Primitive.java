@@ -23,11 +23,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.impl.cache.EntityWithSize;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
 
-abstract class Primitive
+abstract class Primitive implements EntityWithSize
 {
     // Used for marking that properties have been loaded but there just wasn't any.
     // Saves an extra trip down to the store layer.
@@ -55,6 +57,28 @@ abstract class Primitive
 
     public abstract long getId();
 
+    /**
+     * Lets a memory bound cache know that this primitive has grown, f.ex.
+     * after its properties or relationships have been loaded.
+     */
+    protected abstract void updateSize( NodeManager nodeManager );
+
+    public int size()
+    {
+        // object header + properties reference
+        int size = 24;
+        PropertyData[] properties = this.properties;
+        if ( properties != null )
+        {
+            size += 16 + 8 * properties.length;
+            for ( PropertyData property : properties )
+            {
+                size += PropertyDatas.sizeOfObjectInBytesIncludingOverhead( property );
+            }
+        }
+        return size;
+    }
+
     @Override
     public int hashCode()
     {
@@ -542,6 +566,7 @@ abstract class Primitive
             // This will only happen for "heavy" property value, such asstrings/arrays
             value = nodeManager.loadPropertyValue( property.getId() );
             property.setNewValue( value );
+            updateSize( nodeManager );
         }
         return value;
     }
@@ -632,6 +657,7 @@ abstract class Primitive
         if ( properties == null )
         {
             this.properties = toPropertyArray( loadProperties( nodeManager, false ) );
+            updateSize( nodeManager );
             return true;
         }
         return false;
@@ -658,6 +684,7 @@ abstract class Primitive
         if ( properties == null )
         {
             this.properties = toPropertyArray( loadProperties( nodeManager, true ) );
+            updateSize( nodeManager );
             return true;
         }
         return false;
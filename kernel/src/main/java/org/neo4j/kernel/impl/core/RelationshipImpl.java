@@ -50,6 +50,12 @@ abstract class RelationshipImpl extends Primitive
                || ( obj instanceof RelationshipImpl && ( (RelationshipImpl) obj ).getId() == getId() );
     }
 
+    @Override
+    protected void updateSize( NodeManager nodeManager )
+    {
+        nodeManager.updateCacheSize( this );
+    }
+
     @Override
     protected PropertyData changeProperty( NodeManager nodeManager,
             PropertyData property, Object value )
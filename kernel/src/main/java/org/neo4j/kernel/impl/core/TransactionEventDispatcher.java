@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.core.TransactionEventsSyncHook.HandlerAndState;
+
+/**
+ * Delivers the after commit and after rollback events of
+ * {@link TransactionEventHandler}s on a dedicated thread instead of on the
+ * thread completing the transaction. Events are queued in a bounded queue and
+ * handled one at a time, in the order they were queued. A transaction's
+ * event is queued after it has been committed, so if one transaction
+ * finishes before another one commits their events are delivered in that
+ * order. Events of transactions committing concurrently are queued in the
+ * order the threads get there, which may not be the order they were
+ * written to the log in.
+ * <p>
+ * What happens when the queue is full is decided by the
+ * {@link Config#TRANSACTION_EVENTS_QUEUE_FULL} policy: either the completing
+ * transaction waits for room in the queue ({@link #BLOCK}) or the event is
+ * dropped ({@link #DISCARD}). Events dispatched after {@link #shutdown()}
+ * are delivered on the thread completing the transaction.
+ */
+public class TransactionEventDispatcher
+{
+    public static final String BLOCK = "block";
+    public static final String DISCARD = "discard";
+
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static Logger log = Logger.getLogger(
+        TransactionEventDispatcher.class.getName() );
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public TransactionEventDispatcher( int queueSize, boolean block )
+    {
+        executor = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable,
+                        "Transaction event dispatcher" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            }, block ? new BlockPolicy() : new DiscardPolicy() );
+    }
+
+    /**
+     * Creates a dispatcher if {@link Config#TRANSACTION_EVENTS_ASYNC} is
+     * enabled in <CODE>params</CODE>, else returns <CODE>null</CODE>.
+     */
+    public static TransactionEventDispatcher create( Map<?,?> params )
+    {
+        if ( !"true".equalsIgnoreCase( (String) params.get(
+            Config.TRANSACTION_EVENTS_ASYNC ) ) )
+        {
+            return null;
+        }
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        String value = (String) params.get( Config.TRANSACTION_EVENTS_QUEUE_SIZE );
+        if ( value != null )
+        {
+            try
+            {
+                queueSize = Integer.parseInt( value );
+                if ( queueSize <= 0 )
+                {
+                    throw new NumberFormatException();
+                }
+            }
+            catch ( NumberFormatException e )
+            {
+                queueSize = DEFAULT_QUEUE_SIZE;
+                log.warning( "Unable to parse "
+                    + Config.TRANSACTION_EVENTS_QUEUE_SIZE + "=" + value );
+            }
+        }
+        boolean block = true;
+        value = (String) params.get( Config.TRANSACTION_EVENTS_QUEUE_FULL );
+        if ( value != null )
+        {
+            if ( DISCARD.equalsIgnoreCase( value ) )
+            {
+                block = false;
+            }
+            else if ( !BLOCK.equalsIgnoreCase( value ) )
+            {
+                log.warning( "Unable to parse "
+                    + Config.TRANSACTION_EVENTS_QUEUE_FULL + "=" + value );
+            }
+        }
+        return new TransactionEventDispatcher( queueSize, block );
+    }
+
+    void dispatch( final List<HandlerAndState> states,
+        final TransactionData data, final boolean committed )
+    {
+        executor.execute( new Runnable()
+        {
+            public void run()
+            {
+                for ( HandlerAndState state : states )
+                {
+                    try
+                    {
+                        if ( committed )
+                        {
+                            state.afterCommit( data );
+                        }
+                        else
+                        {
+                            state.afterRollback( data );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        log.log( Level.WARNING, "Transaction event handler "
+                            + state.handler + " failed", t );
+                    }
+                }
+                dispatched.incrementAndGet();
+            }
+        } );
+    }
+
+    /**
+     * @return the number of events that have been delivered to the handlers.
+     */
+    public long getDispatchedEvents()
+    {
+        return dispatched.get();
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full.
+     */
+    public long getDiscardedEvents()
+    {
+        return discarded.get();
+    }
+
+    /**
+     * @return the number of events waiting to be delivered.
+     */
+    public int getQueuedEvents()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new events and waits for the queued ones to be
+     * delivered, so that handlers still can read the database.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+        try
+        {
+            while ( !executor.awaitTermination( 10, TimeUnit.SECONDS ) )
+            {
+                log.warning( "Waiting for " + getQueuedEvents()
+                    + " transaction events to be delivered" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    // runs the event on the caller's thread if the dispatcher is shut down
+    private static boolean runIfShutdown( Runnable task,
+        ThreadPoolExecutor executor )
+    {
+        if ( !executor.isShutdown() )
+        {
+            return false;
+        }
+        log.warning( "Transaction event dispatched after shutdown, "
+            + "delivering it on the completing thread" );
+        task.run();
+        return true;
+    }
+
+    private static class BlockPolicy implements RejectedExecutionHandler
+    {
+        public void rejectedExecution( Runnable task,
+            ThreadPoolExecutor executor )
+        {
+            if ( runIfShutdown( task, executor ) )
+            {
+                return;
+            }
+            try
+            {
+                executor.getQueue().put( task );
+                // shut down while waiting for room, the queue may not be
+                // drained anymore
+                if ( executor.isShutdown() && executor.getQueue().remove( task ) )
+                {
+                    runIfShutdown( task, executor );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                log.warning( "Interrupted while waiting for room in the "
+                    + "transaction event queue, event discarded" );
+            }
+        }
+    }
+
+    private class DiscardPolicy implements RejectedExecutionHandler
+    {
+        public void rejectedExecution( Runnable task,
+            ThreadPoolExecutor executor )
+        {
+            if ( runIfShutdown( task, executor ) )
+            {
+                return;
+            }
+            if ( discarded.incrementAndGet() % 1000 == 1 )
+            {
+                log.warning( "Transaction event queue full, "
+                    + discarded.get() + " events discarded so far" );
+            }
+        }
+    }
+}
@@ -43,15 +43,30 @@ public class TransactionEventsSyncHook implements Synchronization
     private List<HandlerAndState> states;
     private TransactionData transactionData;
     private final TransactionManager tm;
+    private final TransactionEventDispatcher dispatcher;
 
     public TransactionEventsSyncHook(
             NodeManager nodeManager,
             Collection<TransactionEventHandler<?>> transactionEventHandlers, 
             TransactionManager tm )
+    {
+        this( nodeManager, transactionEventHandlers, tm, null );
+    }
+
+    /**
+     * @param dispatcher if not <CODE>null</CODE> the after commit and after
+     * rollback events are handed to it instead of being delivered on the
+     * thread completing the transaction.
+     */
+    public TransactionEventsSyncHook(
+            NodeManager nodeManager,
+            Collection<TransactionEventHandler<?>> transactionEventHandlers, 
+            TransactionManager tm, TransactionEventDispatcher dispatcher )
     {
         this.nodeManager = nodeManager;
         this.handlers = transactionEventHandlers;
         this.tm = tm;
+        this.dispatcher = dispatcher;
     }
 
     public void beforeCompletion()
@@ -97,14 +112,18 @@ public class TransactionEventsSyncHook implements Synchronization
         }
     }
 
-    @SuppressWarnings("unchecked")
     public void afterCompletion( int status )
     {
         if ( status == Status.STATUS_COMMITTED )
         {
+            if ( dispatcher != null )
+            {
+                dispatcher.dispatch( this.states, this.transactionData, true );
+                return;
+            }
             for ( HandlerAndState state : this.states )
             {
-                state.handler.afterCommit( this.transactionData, state.state );
+                state.afterCommit( this.transactionData );
             }
         }
         else if ( status == Status.STATUS_ROLLEDBACK )
@@ -114,10 +133,14 @@ public class TransactionEventsSyncHook implements Synchronization
                 // This means that the transaction was never successful
                 return;
             }
-            
+            if ( dispatcher != null )
+            {
+                dispatcher.dispatch( this.states, this.transactionData, false );
+                return;
+            }
             for ( HandlerAndState state : this.states )
             {
-                state.handler.afterRollback( this.transactionData, state.state );
+                state.afterRollback( this.transactionData );
             }
         }
         else
@@ -126,16 +149,28 @@ public class TransactionEventsSyncHook implements Synchronization
         }
     }
 
-    private class HandlerAndState
+    static class HandlerAndState
     {
         @SuppressWarnings("unchecked")
-        private final TransactionEventHandler handler;
+        final TransactionEventHandler handler;
         private final Object state;
 
-        public HandlerAndState( TransactionEventHandler<?> handler, Object state )
+        HandlerAndState( TransactionEventHandler<?> handler, Object state )
         {
             this.handler = handler;
             this.state = state;
         }
+
+        @SuppressWarnings("unchecked")
+        void afterCommit( TransactionData data )
+        {
+            handler.afterCommit( data, state );
+        }
+
+        @SuppressWarnings("unchecked")
+        void afterRollback( TransactionData data )
+        {
+            handler.afterRollback( data, state );
+        }
     }
 }
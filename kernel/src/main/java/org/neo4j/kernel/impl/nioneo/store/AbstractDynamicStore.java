@@ -215,7 +215,8 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
         
         setWindowPool( new PersistenceWindowPool( getStorageFileName(),
             getBlockSize(), getFileChannel(), getMappedMem(), 
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+            getIfMemoryMapped(), isReadOnly() && !isBackupSlave(),
+            getPageCache() ) );
     }
 
     /**
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
@@ -148,6 +149,8 @@ public abstract class AbstractStore extends CommonAbstractStore
                 {
                     setStoreNotOk();
                 }
+                // an upgrade may have rewritten the file
+                fileSize = getFileChannel().size();
             }
             if ( getRecordSize() != 0
                 && (fileSize - version.length) % getRecordSize() != 0  && !isReadOnly() )
@@ -193,7 +196,8 @@ public abstract class AbstractStore extends CommonAbstractStore
         }
         setWindowPool( new PersistenceWindowPool( getStorageFileName(),
             getRecordSize(), getFileChannel(), getMappedMem(), 
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+            getIfMemoryMapped(), isReadOnly() && !isBackupSlave(),
+            getPageCache() ) );
     }
 
     /**
@@ -342,5 +346,103 @@ public abstract class AbstractStore extends CommonAbstractStore
         openIdGenerator();
     }
     
+    protected boolean configSaysOkToUpgrade()
+    {
+        String allowUpgrade = (String) getConfig().get( Config.ALLOW_STORE_UPGRADE );
+        return Boolean.parseBoolean( allowUpgrade );
+    }
+
+    /**
+     * Rewrites a store written with records of <CODE>oldRecordSize</CODE>
+     * bytes into the current format, converting each record with
+     * <CODE>upgrade</CODE>. Record ids stay the same. All records are
+     * converted once before anything is written, so a record that can't be
+     * upgraded fails the upgrade with the store left as it was. Records are
+     * then rewritten in place from the end of the file since the new records
+     * are bigger.
+     */
+    protected void upgradeRecords( String oldVersion, int oldRecordSize,
+        RecordUpgrade upgrade )
+    {
+        int recordSize = getRecordSize();
+        assert oldRecordSize <= recordSize;
+        FileChannel channel = getFileChannel();
+        try
+        {
+            int versionLength = UTF8.encode( oldVersion ).length;
+            long recordCount = ( channel.size() - versionLength ) / oldRecordSize;
+            convertRecords( recordCount, oldRecordSize, upgrade, false );
+            convertRecords( recordCount, oldRecordSize, upgrade, true );
+            channel.truncate( recordCount * recordSize );
+            channel.write( ByteBuffer.wrap( UTF8.encode( getTypeAndVersionDescriptor() ) ),
+                recordCount * recordSize );
+            channel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to upgrade "
+                + getStorageFileName(), e );
+        }
+        logger.info( "Upgraded " + getStorageFileName() + " from "
+            + oldVersion + " to " + getTypeAndVersionDescriptor() );
+    }
+
+    private void convertRecords( long recordCount, int oldRecordSize,
+        RecordUpgrade upgrade, boolean write ) throws IOException
+    {
+        int recordSize = getRecordSize();
+        FileChannel channel = getFileChannel();
+        int chunkSize = 4096;
+        ByteBuffer oldRecords = ByteBuffer.allocate( chunkSize * oldRecordSize );
+        ByteBuffer newRecords = ByteBuffer.allocate( chunkSize * recordSize );
+        for ( long end = recordCount; end > 0; end -= chunkSize )
+        {
+            long start = Math.max( 0, end - chunkSize );
+            int count = (int) ( end - start );
+            oldRecords.clear();
+            oldRecords.limit( count * oldRecordSize );
+            long position = start * oldRecordSize;
+            while ( oldRecords.hasRemaining() )
+            {
+                if ( channel.read( oldRecords, position + oldRecords.position() ) < 0 )
+                {
+                    throw new UnderlyingStorageException(
+                        "Unexpected end of " + getStorageFileName() );
+                }
+            }
+            oldRecords.flip();
+            newRecords.clear();
+            for ( int i = 0; i < count; i++ )
+            {
+                int newStart = newRecords.position();
+                upgrade.upgradeRecord( oldRecords, newRecords );
+                assert newRecords.position() == newStart + recordSize;
+            }
+            if ( !write )
+            {
+                continue;
+            }
+            newRecords.flip();
+            position = start * recordSize;
+            while ( newRecords.hasRemaining() )
+            {
+                channel.write( newRecords, position + newRecords.position() );
+            }
+        }
+    }
+
+    /**
+     * Converts the records of a store in an old format, see
+     * {@link AbstractStore#upgradeRecords(String, int, RecordUpgrade)}.
+     */
+    protected interface RecordUpgrade
+    {
+        /**
+         * Reads one record in the old format from <CODE>from</CODE> and
+         * writes it in the current format to <CODE>to</CODE>.
+         */
+        void upgradeRecord( ByteBuffer from, ByteBuffer to );
+    }
+
     public abstract List<WindowPoolStats> getAllWindowPoolStats();
 }
\ No newline at end of file
@@ -119,6 +119,19 @@ public class Buffer
         return this;
     }
 
+    /**
+     * Puts a <CODE>short</CODE> into the underlying buffer.
+     * 
+     * @param s
+     *            The <CODE>short</CODE> that will be written
+     * @return This buffer
+     */
+    public Buffer putShort( short s )
+    {
+        buf.putShort( s );
+        return this;
+    }
+
     /**
      * Puts a <CODE>int</CODE> into the underlying buffer.
      * 
@@ -155,6 +168,16 @@ public class Buffer
         return buf.get();
     }
 
+    /**
+     * Reads and returns a <CODE>short</CODE> from the underlying buffer.
+     * 
+     * @return The <CODE>short</CODE> value at the current position/offset
+     */
+    public short getShort()
+    {
+        return buf.getShort();
+    }
+
     /**
      * Reads and returns a <CODE>int</CODE> from the underlying buffer.
      * 
@@ -423,25 +423,9 @@ public abstract class CommonAbstractStore
             String mem = (String) getConfig().get( realName + ".mapped_memory" );
             if ( mem != null )
             {
-                long multiplier = 1;
-                if ( mem.endsWith( "M" ) )
-                {
-                    multiplier = 1024 * 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "k" ) )
-                {
-                    multiplier = 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "G" ) )
-                {
-                    multiplier = 1024*1024*1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
                 try
                 {
-                    return Integer.parseInt( mem ) * multiplier;
+                    return parseMemorySize( mem );
                 }
                 catch ( NumberFormatException e )
                 {
@@ -453,6 +437,46 @@ public abstract class CommonAbstractStore
         return 0;
     }
 
+    /**
+     * Parses a number of bytes with an optional <CODE>k</CODE>,
+     * <CODE>M</CODE> or <CODE>G</CODE> suffix in either case, as used for the
+     * mapped memory and cache size settings.
+     *
+     * @throws NumberFormatException if <CODE>mem</CODE> isn't a valid size
+     */
+    public static long parseMemorySize( String mem )
+    {
+        mem = mem.trim();
+        long multiplier = 1;
+        if ( mem.endsWith( "M" ) || mem.endsWith( "m" ) )
+        {
+            multiplier = 1024 * 1024;
+        }
+        else if ( mem.endsWith( "k" ) || mem.endsWith( "K" ) )
+        {
+            multiplier = 1024;
+        }
+        else if ( mem.endsWith( "G" ) || mem.endsWith( "g" ) )
+        {
+            multiplier = 1024*1024*1024;
+        }
+        if ( multiplier != 1 )
+        {
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        return Long.parseLong( mem ) * multiplier;
+    }
+
+    /**
+     * Returns the {@link PageCache} shared by the stores of this
+     * configuration, or <CODE>null</CODE> if each store has its own
+     * {@link #getMappedMem() mapped memory}.
+     */
+    PageCache getPageCache()
+    {
+        return PageCache.getPageCache( getConfig() );
+    }
+
     /**
      * If store is not ok a call to this method will rebuild the {@link
      * IdGenerator} used by this store and if successful mark it as
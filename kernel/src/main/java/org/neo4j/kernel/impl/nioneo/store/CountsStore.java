@@ -0,0 +1,497 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the number of nodes, relationships of each type and properties in
+ * the graph, so that they can be read without looking at the stores. The
+ * counts are updated by the counts command of each committed transaction and
+ * written to <CODE>neostore.counts.db</CODE> when the stores are flushed,
+ * together with the id of the last transaction they include. Transactions
+ * at or below that id are ignored, which makes it safe to apply recovered
+ * transactions again. If the file is behind the logical log when the data
+ * source starts the missing transactions are replayed from the log. If the
+ * file is missing, the transactions can't be replayed or a transaction was
+ * missed while running the counts are rebuilt by scanning the stores, see
+ * {@link #rebuild(NeoStore)}, and read as -1 until then.
+ */
+public class CountsStore
+{
+    private static final String VERSION = "CountsStore v0.A.0";
+    private static final int SCAN_RANGE_SIZE = 1000000;
+
+    private static final Logger logger =
+        Logger.getLogger( CountsStore.class.getName() );
+
+    private final File file;
+    private final boolean readOnly;
+    private boolean needsRebuild;
+    private boolean dirty;
+
+    private long lastTxId = -1;
+    private long nodeCount;
+    private long relationshipCount;
+    private long propertyCount;
+    // indexed by relationship type id
+    private long[] relationshipTypeCounts = new long[0];
+
+    public CountsStore( String fileName, boolean readOnly )
+    {
+        this.file = new File( fileName );
+        this.readOnly = readOnly;
+        load();
+    }
+
+    private void load()
+    {
+        File tmp = tmpFile();
+        if ( !file.exists() && tmp.exists() && !readOnly )
+        {
+            // crashed between deleting the old file and renaming the new
+            // one in its place, the new one was forced before the delete
+            tmp.renameTo( file );
+        }
+        if ( !file.exists() )
+        {
+            needsRebuild = true;
+            return;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream(
+                new FileInputStream( file ) ) );
+            try
+            {
+                if ( !VERSION.equals( in.readUTF() ) )
+                {
+                    needsRebuild = true;
+                    return;
+                }
+                lastTxId = in.readLong();
+                nodeCount = in.readLong();
+                relationshipCount = in.readLong();
+                propertyCount = in.readLong();
+                relationshipTypeCounts = new long[in.readInt()];
+                for ( int i = 0; i < relationshipTypeCounts.length; i++ )
+                {
+                    relationshipTypeCounts[i] = in.readLong();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.log( Level.WARNING, "Unable to read " + file
+                + ", counts will be rebuilt", e );
+            needsRebuild = true;
+        }
+    }
+
+    /**
+     * @return <CODE>true</CODE> if the counts couldn't be read from file or
+     * missed a transaction and have to be {@link #rebuild(NeoStore) rebuilt}.
+     */
+    public synchronized boolean needsRebuild()
+    {
+        return needsRebuild;
+    }
+
+    /**
+     * @return the id of the last transaction included in the counts.
+     */
+    public synchronized long getLastTxId()
+    {
+        return lastTxId;
+    }
+
+    /**
+     * @return the number of nodes, or -1 if the counts
+     * {@link #needsRebuild() need to be rebuilt}.
+     */
+    public synchronized long getNodeCount()
+    {
+        return needsRebuild ? -1 : nodeCount;
+    }
+
+    /**
+     * @return the number of relationships, or -1 if the counts
+     * {@link #needsRebuild() need to be rebuilt}.
+     */
+    public synchronized long getRelationshipCount()
+    {
+        return needsRebuild ? -1 : relationshipCount;
+    }
+
+    /**
+     * @return the number of relationships of the type with id
+     * <CODE>typeId</CODE>, or -1 if the counts
+     * {@link #needsRebuild() need to be rebuilt}.
+     */
+    public synchronized long getRelationshipCount( int typeId )
+    {
+        if ( needsRebuild )
+        {
+            return -1;
+        }
+        return typeId < relationshipTypeCounts.length ?
+            relationshipTypeCounts[typeId] : 0;
+    }
+
+    /**
+     * @return the number of properties, or -1 if the counts
+     * {@link #needsRebuild() need to be rebuilt}.
+     */
+    public synchronized long getPropertyCount()
+    {
+        return needsRebuild ? -1 : propertyCount;
+    }
+
+    /**
+     * Adds the changes made by transaction <CODE>txId</CODE> to the counts,
+     * unless they already include it. If the transaction before it is
+     * missing, a commit that failed to force the log for instance, the
+     * counts can't be trusted any more and are marked as
+     * {@link #needsRebuild() needing a rebuild}, which happens the next time
+     * the data source starts.
+     *
+     * @param relationshipDeltas the change in number of relationships for
+     * each relationship type id
+     */
+    public synchronized void apply( long txId, long nodeDelta,
+        long propertyDelta, Map<Integer,Long> relationshipDeltas )
+    {
+        if ( txId <= lastTxId || needsRebuild )
+        {
+            return;
+        }
+        if ( txId != lastTxId + 1 )
+        {
+            logger.warning( "Counts at tx " + lastTxId + " missed the changes "
+                + "of tx " + ( lastTxId + 1 ) + " and will be rebuilt" );
+            needsRebuild = true;
+            dirty = true;
+            return;
+        }
+        nodeCount += nodeDelta;
+        propertyCount += propertyDelta;
+        for ( Map.Entry<Integer,Long> entry : relationshipDeltas.entrySet() )
+        {
+            int typeId = entry.getKey();
+            if ( typeId >= relationshipTypeCounts.length )
+            {
+                relationshipTypeCounts = Arrays.copyOf(
+                    relationshipTypeCounts, typeId + 1 );
+            }
+            relationshipTypeCounts[typeId] += entry.getValue();
+            relationshipCount += entry.getValue();
+        }
+        lastTxId = txId;
+        dirty = true;
+    }
+
+    /**
+     * Recounts everything by scanning the node, relationship and property
+     * stores. The id range of each store is split in ranges that are
+     * scanned in parallel, see {@link StoreScan}. Must not be called while
+     * transactions are being committed.
+     *
+     * @param neoStore the stores to count
+     */
+    public void rebuild( NeoStore neoStore )
+    {
+        final NodeStore nodeStore = neoStore.getNodeStore();
+        final RelationshipStore relStore = neoStore.getRelationshipStore();
+        final PropertyStore propStore = neoStore.getPropertyStore();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors() );
+        List<Future<Counts>> results = new ArrayList<Future<Counts>>();
+        try
+        {
+            for ( long start = 0; start < nodeStore.getHighId();
+                start += SCAN_RANGE_SIZE )
+            {
+                final long first = start;
+                results.add( executor.submit( new Callable<Counts>()
+                {
+                    public Counts call()
+                    {
+                        Counts counts = new Counts();
+                        StoreScan<NodeRecord> scan = nodeStore.scan( first,
+                            first + SCAN_RANGE_SIZE );
+                        try
+                        {
+                            while ( scan.hasNext() )
+                            {
+                                scan.next();
+                                counts.nodes++;
+                            }
+                        }
+                        finally
+                        {
+                            scan.close();
+                        }
+                        return counts;
+                    }
+                } ) );
+            }
+            for ( long start = 0; start < relStore.getHighId();
+                start += SCAN_RANGE_SIZE )
+            {
+                final long first = start;
+                results.add( executor.submit( new Callable<Counts>()
+                {
+                    public Counts call()
+                    {
+                        Counts counts = new Counts();
+                        StoreScan<RelationshipRecord> scan = relStore.scan(
+                            first, first + SCAN_RANGE_SIZE );
+                        try
+                        {
+                            while ( scan.hasNext() )
+                            {
+                                counts.addRelationship( scan.next().getType() );
+                            }
+                        }
+                        finally
+                        {
+                            scan.close();
+                        }
+                        return counts;
+                    }
+                } ) );
+            }
+            for ( long start = 0; start < propStore.getHighId();
+                start += SCAN_RANGE_SIZE )
+            {
+                final long first = start;
+                results.add( executor.submit( new Callable<Counts>()
+                {
+                    public Counts call()
+                    {
+                        Counts counts = new Counts();
+                        StoreScan<PropertyRecord> scan = propStore.scan(
+                            first, first + SCAN_RANGE_SIZE );
+                        try
+                        {
+                            while ( scan.hasNext() )
+                            {
+                                counts.addProperties( scan.next() );
+                            }
+                        }
+                        finally
+                        {
+                            scan.close();
+                        }
+                        return counts;
+                    }
+                } ) );
+            }
+            Counts total = new Counts();
+            for ( Future<Counts> result : results )
+            {
+                total.add( result.get() );
+            }
+            synchronized ( this )
+            {
+                nodeCount = total.nodes;
+                relationshipCount = total.relationships;
+                propertyCount = total.properties;
+                relationshipTypeCounts = total.relationshipTypes;
+                lastTxId = neoStore.getLastCommittedTx();
+                needsRebuild = false;
+                dirty = true;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException(
+                "Interrupted while rebuilding counts", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new UnderlyingStorageException( "Unable to rebuild counts",
+                e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        logger.fine( "Rebuilt counts " + this );
+    }
+
+    /**
+     * Writes the counts to file if they have changed since they were last
+     * written. The counts are written to a temporary file which is then
+     * renamed over the old one, atomically where the platform allows it.
+     * Elsewhere the old file is deleted first and a temporary file left
+     * behind by a crash in between is picked up the next time the counts
+     * are loaded. Counts that need to be rebuilt aren't written, the file
+     * is deleted instead.
+     */
+    public synchronized void flush()
+    {
+        if ( !dirty || readOnly )
+        {
+            return;
+        }
+        if ( needsRebuild )
+        {
+            file.delete();
+            tmpFile().delete();
+            return;
+        }
+        File tmp = tmpFile();
+        try
+        {
+            FileOutputStream fileOut = new FileOutputStream( tmp );
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( fileOut ) );
+            try
+            {
+                out.writeUTF( VERSION );
+                out.writeLong( lastTxId );
+                out.writeLong( nodeCount );
+                out.writeLong( relationshipCount );
+                out.writeLong( propertyCount );
+                out.writeInt( relationshipTypeCounts.length );
+                for ( long count : relationshipTypeCounts )
+                {
+                    out.writeLong( count );
+                }
+                out.flush();
+                fileOut.getChannel().force( false );
+            }
+            finally
+            {
+                out.close();
+            }
+            if ( !tmp.renameTo( file ) )
+            {
+                // some platforms, windows, won't rename over an existing file
+                if ( file.exists() && !file.delete() )
+                {
+                    throw new IOException( "Unable to delete " + file );
+                }
+                if ( !tmp.renameTo( file ) )
+                {
+                    throw new IOException( "Unable to rename " + tmp + " to "
+                        + file );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write " + file, e );
+        }
+        dirty = false;
+    }
+
+    private File tmpFile()
+    {
+        return new File( file.getPath() + ".tmp" );
+    }
+
+    /**
+     * Deletes the counts file of the store <CODE>storeFileName</CODE>, they
+     * will be rebuilt the next time the store is started.
+     */
+    public static void deleteCounts( String storeFileName )
+    {
+        new File( storeFileName + ".counts.db" ).delete();
+        new File( storeFileName + ".counts.db.tmp" ).delete();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "CountsStore[tx:" + lastTxId + ", nodes:" + nodeCount
+            + ", relationships:" + relationshipCount + ", properties:"
+            + propertyCount + "]";
+    }
+
+    private static class Counts
+    {
+        private long nodes;
+        private long relationships;
+        private long properties;
+        private long[] relationshipTypes = new long[0];
+
+        void addRelationship( int typeId )
+        {
+            if ( typeId >= relationshipTypes.length )
+            {
+                relationshipTypes = Arrays.copyOf( relationshipTypes, typeId + 1 );
+            }
+            relationshipTypes[typeId]++;
+            relationships++;
+        }
+
+        void addProperties( PropertyRecord record )
+        {
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+            {
+                if ( record.getBlock( i ) != null )
+                {
+                    properties++;
+                }
+            }
+        }
+
+        void add( Counts other )
+        {
+            nodes += other.nodes;
+            relationships += other.relationships;
+            properties += other.properties;
+            if ( other.relationshipTypes.length > relationshipTypes.length )
+            {
+                relationshipTypes = Arrays.copyOf( relationshipTypes,
+                    other.relationshipTypes.length );
+            }
+            for ( int i = 0; i < other.relationshipTypes.length; i++ )
+            {
+                relationshipTypes[i] += other.relationshipTypes[i];
+            }
+        }
+    }
+}
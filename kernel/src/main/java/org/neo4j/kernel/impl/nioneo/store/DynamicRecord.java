@@ -44,7 +44,7 @@ public class DynamicRecord extends Abstract64BitRecord
         this.type = type;
     }
 
-    void setIsLight( boolean status )
+    public void setIsLight( boolean status )
     {
         this.isLight = status;
     }
@@ -21,6 +21,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 
 import java.nio.channels.FileChannel;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.kernel.impl.transaction.LockException;
 
@@ -48,7 +49,9 @@ abstract class LockableWindow implements PersistenceWindow
     private final LinkedList<LockElement> waitingThreadList = 
         new LinkedList<LockElement>();
     private int lockCount = 0;
-    private int marked = 0;
+    // number of threads that got this window from the pool and haven't
+    // released it yet, or -1 once the pool has retired the window
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     LockableWindow( FileChannel fileChannel )
     {
@@ -75,14 +78,48 @@ abstract class LockableWindow implements PersistenceWindow
         this.type = type;
     }
 
-    synchronized void mark()
+    /**
+     * Registers the current thread as a user of this window, preventing the
+     * pool from retiring it until {@link #unpin()} is called.
+     *
+     * @return <CODE>false</CODE> if the window has been retired and can't
+     *         be used any more
+     */
+    boolean pin()
     {
-        this.marked++;
+        for ( ;; )
+        {
+            int count = pinCount.get();
+            if ( count < 0 )
+            {
+                return false;
+            }
+            if ( pinCount.compareAndSet( count, count + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    void unpin()
+    {
+        pinCount.decrementAndGet();
+    }
+
+    /**
+     * Retires this window if no thread has it pinned. Once retired it can't
+     * be pinned again.
+     *
+     * @return <CODE>true</CODE> if the window was retired
+     */
+    boolean retire()
+    {
+        return pinCount.compareAndSet( 0, -1 );
     }
 
-    synchronized boolean isMarked()
+    boolean isPinned()
     {
-        return marked > 0;
+        return pinCount.get() > 0;
     }
 
     private static class LockElement
@@ -115,7 +152,6 @@ abstract class LockableWindow implements PersistenceWindow
         lockCount++;
         lockingThread = currentThread;
         le.movedOn = true;
-        marked--;
     }
 
     synchronized void unLock()
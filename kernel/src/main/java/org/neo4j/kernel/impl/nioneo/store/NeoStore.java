@@ -35,7 +35,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 
 /**
  * This class contains the references to the "NodeStore,RelationshipStore,
- * PropertyStore and RelationshipTypeStore". NeoStore doesn't actually "store"
+ * RelationshipGroupStore,PropertyStore and RelationshipTypeStore". NeoStore doesn't actually "store"
  * anything but extends the AbstractStore for the "type and version" validation
  * performed in there.
  */
@@ -48,22 +48,27 @@ public class NeoStore extends AbstractStore
     // 4 longs in header (long + in use), time | random | version | txid
     private static final int RECORD_SIZE = 9;
     private static final int DEFAULT_REL_GRAB_SIZE = 100;
+    private static final int DEFAULT_DENSE_NODE_THRESHOLD = 50;
 
     private NodeStore nodeStore;
     private PropertyStore propStore;
     private RelationshipStore relStore;
+    private RelationshipGroupStore relGroupStore;
     private RelationshipTypeStore relTypeStore;
+    private CountsStore countsStore;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private final IdGeneratorFactory idGeneratorFactory;
     private boolean isStarted;
     private long lastCommittedTx = -1;
 
     private final int REL_GRAB_SIZE;
+    private final int DENSE_NODE_THRESHOLD;
 
     public NeoStore( Map<?,?> config )
     {
         super( (String) config.get( "neo_store" ), config, IdType.NEOSTORE_BLOCK );
         int relGrabSize = DEFAULT_REL_GRAB_SIZE;
+        int denseNodeThreshold = DEFAULT_DENSE_NODE_THRESHOLD;
         if ( getConfig() != null )
         {
             String grabSize = (String) getConfig().get( "relationship_grab_size" );
@@ -71,8 +76,14 @@ public class NeoStore extends AbstractStore
             {
                 relGrabSize = Integer.parseInt( grabSize );
             }
+            String threshold = (String) getConfig().get( Config.DENSE_NODE_THRESHOLD );
+            if ( threshold != null )
+            {
+                denseNodeThreshold = Integer.parseInt( threshold );
+            }
         }
         REL_GRAB_SIZE = relGrabSize;
+        DENSE_NODE_THRESHOLD = denseNodeThreshold;
         lastCommittedTxIdSetter = (LastCommittedTxIdSetter)
                 config.get( LastCommittedTxIdSetter.class );
         idGeneratorFactory = (IdGeneratorFactory) config.get( IdGeneratorFactory.class );
@@ -85,7 +96,9 @@ public class NeoStore extends AbstractStore
 //    }
 
     /**
-     * Initializes the node,relationship,property and relationship type stores.
+     * Initializes the node,relationship,relationship group,property and
+     * relationship type stores. The relationship group store is created if
+     * it is missing, which it is in stores from before dense nodes.
      */
     @Override
     protected void initStorage()
@@ -96,12 +109,24 @@ public class NeoStore extends AbstractStore
             + ".propertystore.db", getConfig() );
         relStore = new RelationshipStore( getStorageFileName()
             + ".relationshipstore.db", getConfig() );
+        String relGroupFileName = getStorageFileName() + ".relationshipgroupstore.db";
+        if ( !new File( relGroupFileName ).exists() && !isReadOnly() )
+        {
+            // called from the super constructor, before idGeneratorFactory is set
+            RelationshipGroupStore.createStore( relGroupFileName,
+                (IdGeneratorFactory) getConfig().get( IdGeneratorFactory.class ) );
+        }
+        relGroupStore = new RelationshipGroupStore( relGroupFileName, getConfig() );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db",
             getConfig() );
+        countsStore = new CountsStore( getStorageFileName() + ".counts.db",
+            isReadOnly() );
     }
 
     /**
-     * Closes the node,relationship,property and relationship type stores.
+     * Closes the node,relationship,relationship group,property and
+     * relationship type stores and
+     * the page cache they share, if any.
      */
     @Override
     protected void closeStorage()
@@ -121,25 +146,38 @@ public class NeoStore extends AbstractStore
             relStore.close();
             relStore = null;
         }
+        if ( relGroupStore != null )
+        {
+            relGroupStore.close();
+            relGroupStore = null;
+        }
         if ( nodeStore != null )
         {
             nodeStore.close();
             nodeStore = null;
         }
+        if ( countsStore != null )
+        {
+            countsStore.flush();
+            countsStore = null;
+        }
+        PageCache.closePageCache( getConfig() );
     }
 
     @Override
     public void flushAll()
     {
         if ( relTypeStore == null || propStore == null || relStore == null ||
-                nodeStore == null )
+                relGroupStore == null || nodeStore == null )
         {
             return;
         }
         relTypeStore.flushAll();
         propStore.flushAll();
         relStore.flushAll();
+        relGroupStore.flushAll();
         nodeStore.flushAll();
+        countsStore.flush();
     }
 
     @Override
@@ -160,7 +198,8 @@ public class NeoStore extends AbstractStore
     }
 
     /**
-     * Creates the neo,node,relationship,property and relationship type stores.
+     * Creates the neo,node,relationship,relationship group,property and
+     * relationship type stores.
      *
      * @param fileName
      *            The name of store
@@ -175,8 +214,11 @@ public class NeoStore extends AbstractStore
         if ( storeId == null ) storeId = new StoreId();
 
         createEmptyStore( fileName, VERSION, idGeneratorFactory );
+        CountsStore.deleteCounts( fileName );
         NodeStore.createStore( fileName + ".nodestore.db", config );
         RelationshipStore.createStore( fileName + ".relationshipstore.db", idGeneratorFactory );
+        RelationshipGroupStore.createStore( fileName + ".relationshipgroupstore.db",
+            idGeneratorFactory );
         PropertyStore.createStore( fileName + ".propertystore.db", config );
         RelationshipTypeStore.createStore( fileName
             + ".relationshiptypestore.db", config );
@@ -342,6 +384,16 @@ public class NeoStore extends AbstractStore
         return relStore;
     }
 
+    /**
+     * Returns the relationship group store.
+     *
+     * @return The relationship group store
+     */
+    public RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return relGroupStore;
+    }
+
     /**
      * Returns the relationship type store.
      *
@@ -362,12 +414,23 @@ public class NeoStore extends AbstractStore
         return propStore;
     }
 
+    /**
+     * Returns the graph-wide counts.
+     *
+     * @return The counts store
+     */
+    public CountsStore getCountsStore()
+    {
+        return countsStore;
+    }
+
     @Override
     public void makeStoreOk()
     {
         relTypeStore.makeStoreOk();
         propStore.makeStoreOk();
         relStore.makeStoreOk();
+        relGroupStore.makeStoreOk();
         nodeStore.makeStoreOk();
         super.makeStoreOk();
         isStarted = true;
@@ -379,6 +442,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.rebuildIdGenerators();
         propStore.rebuildIdGenerators();
         relStore.rebuildIdGenerators();
+        relGroupStore.rebuildIdGenerators();
         nodeStore.rebuildIdGenerators();
         super.rebuildIdGenerators();
     }
@@ -389,6 +453,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.updateIdGenerators();
         propStore.updateIdGenerators();
         relStore.updateHighId();
+        relGroupStore.updateHighId();
         nodeStore.updateHighId();
     }
 
@@ -433,15 +498,18 @@ public class NeoStore extends AbstractStore
             "on a store that has been created by newer version of Neo4j." );
     }
 
-    private boolean configSaysOkToUpgrade()
+    public int getRelationshipGrabSize()
     {
-        String allowUpgrade = (String) getConfig().get( Config.ALLOW_STORE_UPGRADE );
-        return Boolean.parseBoolean( allowUpgrade );
+        return REL_GRAB_SIZE;
     }
 
-    public int getRelationshipGrabSize()
+    /**
+     * @return the number of relationships at which a node is converted to a
+     * dense node, see {@link Config#DENSE_NODE_THRESHOLD}.
+     */
+    public int getDenseNodeThreshold()
     {
-        return REL_GRAB_SIZE;
+        return DENSE_NODE_THRESHOLD;
     }
 
     @Override
@@ -451,6 +519,7 @@ public class NeoStore extends AbstractStore
         list.addAll( nodeStore.getAllWindowPoolStats() );
         list.addAll( propStore.getAllWindowPoolStats() );
         list.addAll( relStore.getAllWindowPoolStats() );
+        list.addAll( relGroupStore.getAllWindowPoolStats() );
         list.addAll( relTypeStore.getAllWindowPoolStats() );
         return list;
     }
@@ -458,6 +527,7 @@ public class NeoStore extends AbstractStore
     public boolean isStoreOk()
     {
         return getStoreOk() && relTypeStore.getStoreOk() &&
-            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk();
+            propStore.getStoreOk() && relStore.getStoreOk() &&
+            relGroupStore.getStoreOk() && nodeStore.getStoreOk();
     }
 }
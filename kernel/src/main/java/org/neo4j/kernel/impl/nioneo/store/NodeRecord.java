@@ -23,6 +23,7 @@ public class NodeRecord extends Abstract64BitRecord
 {
     private long nextRel = Record.NO_NEXT_RELATIONSHIP.intValue();
     private long nextProp = Record.NO_NEXT_PROPERTY.intValue();
+    private boolean dense;
 
     public NodeRecord( long id )
     {
@@ -49,12 +50,33 @@ public class NodeRecord extends Abstract64BitRecord
         this.nextProp = nextProp;
     }
 
+    /**
+     * @return <CODE>true</CODE> if the relationships of this node are kept
+     * in {@link RelationshipGroupRecord relationship groups}, in which case
+     * next rel is the id of the first group instead of the first
+     * relationship.
+     */
+    public boolean isDense()
+    {
+        return dense;
+    }
+
+    public void setDense( boolean dense )
+    {
+        this.dense = dense;
+    }
+
     public String toString()
     {
         StringBuffer buf = new StringBuffer();
         buf.append( "NodeRecord[" ).append( getId() ).append( "," ).append(
             inUse() ).append( "," ).append( nextRel ).append( "," ).append(
-            nextProp ).append( "]" );
+            nextProp );
+        if ( dense )
+        {
+            buf.append( ",dense" );
+        }
+        buf.append( "]" );
         return buf.toString();
     }
 }
\ No newline at end of file
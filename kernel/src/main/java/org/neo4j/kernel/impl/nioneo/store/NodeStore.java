@@ -19,13 +19,17 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 
 /**
  * Implementation of the node store.
@@ -34,10 +38,15 @@ public class NodeStore extends AbstractStore implements Store
 {
     // node store version, each node store should end with this string
     // (byte encoded)
-    private static final String VERSION = "NodeStore v0.9.9";
+    private static final String VERSION = "NodeStore v0.A.0";
 
-    // in_use(byte)+next_rel_id(int)+next_prop_id(int)
-    public static final int RECORD_SIZE = 9;
+    // in_use(byte)+next_rel_id(int)+next_prop_id(int)+flags(byte)
+    public static final int RECORD_SIZE = 10;
+
+    // size of the records of "NodeStore v0.9.9", see upgrade
+    private static final int OLD_RECORD_SIZE = 9;
+
+    private static final byte DENSE_FLAG = 0x1;
 
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
@@ -130,6 +139,35 @@ public class NodeStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * Returns the nodes in use, read sequentially from the store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<NodeRecord> scan()
+    {
+        return scan( 0, Long.MAX_VALUE );
+    }
+
+    /**
+     * Returns the nodes in use with ids from <CODE>fromId</CODE> up to,
+     * but not including, <CODE>toId</CODE>, read sequentially from the
+     * store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<NodeRecord> scan( long fromId, long toId )
+    {
+        return new StoreScan<NodeRecord>( this, fromId, toId )
+        {
+            @Override
+            protected NodeRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, false );
+            }
+        };
+    }
+
     public boolean loadLightNode( long id )
     {
         PersistenceWindow window = null;
@@ -180,6 +218,7 @@ public class NodeStore extends AbstractStore implements Store
         
         long nextRel = buffer.getUnsignedInt();
         long nextProp = buffer.getUnsignedInt();
+        byte flags = buffer.get();
         
         long relModifier = (inUseByte & 0xEL) << 31;
         long propModifier = (inUseByte & 0xF0L) << 28;
@@ -188,6 +227,7 @@ public class NodeStore extends AbstractStore implements Store
         nodeRecord.setInUse( inUse );
         nodeRecord.setNextRel( longFromIntAndMod( nextRel, relModifier ) );
         nodeRecord.setNextProp( longFromIntAndMod( nextProp, propModifier ) );
+        nodeRecord.setDense( ( flags & DENSE_FLAG ) != 0 );
         return nodeRecord;
     }
     
@@ -207,7 +247,8 @@ public class NodeStore extends AbstractStore implements Store
             // [    ,xxx ] higher bits for rel id
             // [xxxx,    ] higher bits for prop id
             short inUseUnsignedByte = (short)((Record.IN_USE.byteValue() | relModifier | propModifier));
-            buffer.put( (byte)inUseUnsignedByte ).putInt( (int) nextRel ).putInt( (int) nextProp );
+            buffer.put( (byte)inUseUnsignedByte ).putInt( (int) nextRel ).putInt( (int) nextProp )
+                .put( record.isDense() ? DENSE_FLAG : 0 );
         }
         else
         {
@@ -238,8 +279,23 @@ public class NodeStore extends AbstractStore implements Store
 //            closeIdGenerator();
 //            return true;
 //        }
-        if ( version.equals( "NodeStore v0.9.5" ) )
+        if ( version.equals( "NodeStore v0.9.5" ) ||
+            version.equals( "NodeStore v0.9.9" ) )
         {
+            if ( !configSaysOkToUpgrade() )
+            {
+                throw new IllegalStoreVersionException( "Store version [" + version + "] is older " +
+                    "than expected, but could be upgraded automatically if '" +
+                    Config.ALLOW_STORE_UPGRADE + "' configuration " + "parameter was set to 'true'." );
+            }
+            upgradeRecords( version, OLD_RECORD_SIZE, new RecordUpgrade()
+            {
+                public void upgradeRecord( ByteBuffer from, ByteBuffer to )
+                {
+                    upgradeNodeRecord( from, to );
+                }
+            } );
+            LogIoUtils.moveAllLogicalLogs( new File( getStoreDir() ), "1.4-logs" );
             return true;
         }
         throw new IllegalStoreVersionException( "Store version [" + version  + 
@@ -248,6 +304,16 @@ public class NodeStore extends AbstractStore implements Store
             " of Neo4j." );
     }
 
+    /**
+     * Nodes of the old format have no flags, they all start out sparse.
+     */
+    // in_use(byte)+next_rel_id(int)+next_prop_id(int)
+    private void upgradeNodeRecord( ByteBuffer from, ByteBuffer to )
+    {
+        to.put( from.get() ).putInt( from.getInt() ).putInt( from.getInt() )
+            .put( (byte) 0 );
+    }
+
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
         List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * A single budget of memory for the windows of all stores sharing a
+ * configuration, used instead of the per store <CODE>*.mapped_memory</CODE>
+ * settings when {@link Config#MAPPED_MEMORY} is set.
+ * <p>
+ * The stores are split into fixed size pages. A page is mapped the first
+ * few times it is missed and mapped pages are replaced using the CLOCK
+ * (second chance) approximation of least-recently-used: acquiring a page
+ * only sets its reference bit, and the clock hand sweeps the pages in the
+ * order they were mapped, clearing set bits and evicting the first page that
+ * has not been referenced since the last sweep. Stores that are hot get more
+ * of the budget without anyone having to tune them.
+ * <p>
+ * A background thread starts evicting, writing out dirty pages as it goes,
+ * when more than {@link #EVICTION_START} of the budget is used and stops at
+ * {@link #EVICTION_STOP}, so that threads missing a page rarely have to
+ * evict one themselves.
+ */
+class PageCache
+{
+    static final float EVICTION_START = 0.95f;
+    static final float EVICTION_STOP = 0.90f;
+    static final long DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private static Logger log = Logger.getLogger( PageCache.class.getName() );
+
+    private final long budget;
+    private final long pageSize;
+    private final AtomicLong used = new AtomicLong();
+    private final Queue<PersistenceWindowPool.BrickElement> clock =
+        new ConcurrentLinkedQueue<PersistenceWindowPool.BrickElement>();
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Thread evictor;
+    private volatile boolean closed;
+
+    /**
+     * @param budget
+     *            the number of bytes all pages together may use
+     * @param pageSize
+     *            the size of a page in bytes, rounded down to a multiple of
+     *            the record size of each store
+     */
+    PageCache( long budget, long pageSize )
+    {
+        if ( budget < 1 || pageSize < 1 )
+        {
+            throw new IllegalArgumentException( "budget=" + budget
+                + ", pageSize=" + pageSize );
+        }
+        this.budget = budget;
+        this.pageSize = pageSize;
+        this.evictor = new Thread( "Page cache evictor" )
+        {
+            @Override
+            public void run()
+            {
+                while ( !closed )
+                {
+                    LockSupport.parkNanos( this, TimeUnit.SECONDS.toNanos( 1 ) );
+                    if ( used.get() > budget * EVICTION_START )
+                    {
+                        evictUntil( (long) ( budget * EVICTION_STOP ) );
+                    }
+                }
+            }
+        };
+        evictor.setDaemon( true );
+        evictor.start();
+    }
+
+    /**
+     * Returns the page cache to use for the stores configured by
+     * <CODE>config</CODE>, creating it the first time it is asked for, or
+     * <CODE>null</CODE> if {@link Config#MAPPED_MEMORY} isn't set.
+     */
+    @SuppressWarnings( "unchecked" )
+    static PageCache getPageCache( Map<?,?> config )
+    {
+        if ( config == null || config.get( Config.MAPPED_MEMORY ) == null )
+        {
+            return null;
+        }
+        synchronized ( config )
+        {
+            PageCache cache = (PageCache) config.get( PageCache.class );
+            if ( cache != null && !cache.closed )
+            {
+                return cache;
+            }
+            long budget = parseSize( config, Config.MAPPED_MEMORY, 0 );
+            if ( budget <= 0 )
+            {
+                return null;
+            }
+            long pageSize = parseSize( config, Config.MAPPED_MEMORY_PAGE_SIZE,
+                DEFAULT_PAGE_SIZE );
+            if ( pageSize <= 0 || pageSize > Integer.MAX_VALUE )
+            {
+                log.warning( "Invalid " + Config.MAPPED_MEMORY_PAGE_SIZE + "="
+                    + pageSize + ", using " + DEFAULT_PAGE_SIZE );
+                pageSize = DEFAULT_PAGE_SIZE;
+            }
+            cache = new PageCache( budget, pageSize );
+            ((Map<Object,Object>) config).put( PageCache.class, cache );
+            return cache;
+        }
+    }
+
+    /**
+     * Closes the page cache of the stores configured by <CODE>config</CODE>,
+     * if one has been created.
+     */
+    static void closePageCache( Map<?,?> config )
+    {
+        if ( config == null || config.get( PageCache.class ) == null )
+        {
+            return;
+        }
+        PageCache cache;
+        synchronized ( config )
+        {
+            cache = (PageCache) config.remove( PageCache.class );
+        }
+        if ( cache != null )
+        {
+            cache.close();
+        }
+    }
+
+    private static long parseSize( Map<?,?> config, String key, long defaultValue )
+    {
+        String value = (String) config.get( key );
+        if ( value == null )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return CommonAbstractStore.parseMemorySize( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            log.warning( "Unable to parse " + key + "=" + value );
+            return defaultValue;
+        }
+    }
+
+    long getPageSize()
+    {
+        return pageSize;
+    }
+
+    long getBudget()
+    {
+        return budget;
+    }
+
+    long getUsed()
+    {
+        return used.get();
+    }
+
+    int getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Reserves <CODE>size</CODE> bytes of the budget for a page about to be
+     * mapped, evicting other pages if there's not enough room left.
+     *
+     * @return <CODE>false</CODE> if no room could be made, in which case
+     *         nothing was reserved
+     */
+    boolean reserve( long size )
+    {
+        for ( ;; )
+        {
+            long current = used.get();
+            if ( current + size <= budget )
+            {
+                if ( used.compareAndSet( current, current + size ) )
+                {
+                    if ( current + size > budget * EVICTION_START )
+                    {
+                        LockSupport.unpark( evictor );
+                    }
+                    return true;
+                }
+            }
+            else if ( !evictUntil( budget - size ) )
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Gives back <CODE>size</CODE> bytes of the budget, for a page that has
+     * been unmapped or a reservation that wasn't used.
+     */
+    void release( long size )
+    {
+        used.addAndGet( -size );
+    }
+
+    /**
+     * Puts a brick that has just been mapped for the first time on the clock.
+     * The brick stays on the clock, mapped or not, until its pool is closed.
+     */
+    void register( PersistenceWindowPool.BrickElement brick )
+    {
+        clock.offer( brick );
+        pageCount.incrementAndGet();
+    }
+
+    /**
+     * Moves the clock hand until at most <CODE>target</CODE> bytes are used,
+     * or every page has been looked at twice.
+     */
+    private boolean evictUntil( long target )
+    {
+        evictionLock.lock();
+        try
+        {
+            for ( int sweep = 2 * pageCount.get() + 1;
+                used.get() > target && sweep > 0; sweep-- )
+            {
+                PersistenceWindowPool.BrickElement page = clock.poll();
+                if ( page == null )
+                {
+                    break;
+                }
+                if ( page.isClosed() )
+                {
+                    pageCount.decrementAndGet();
+                    continue;
+                }
+                if ( page.clearReferenced() )
+                {
+                    // second chance
+                    clock.offer( page );
+                    continue;
+                }
+                if ( page.evict() )
+                {
+                    evictions.incrementAndGet();
+                }
+                // not mapped or pinned, either way it stays on the clock
+                clock.offer( page );
+            }
+            return used.get() <= target;
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background eviction. Pools still using this cache may keep
+     * releasing pages, but {@link #getPageCache(Map)} will hand out a new
+     * cache from now on.
+     */
+    void close()
+    {
+        closed = true;
+        LockSupport.unpark( evictor );
+        try
+        {
+            evictor.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PageCache[budget=" + budget + ", pageSize=" + pageSize
+            + ", used=" + used.get() + ", pages=" + pageCount.get()
+            + ", evictions=" + evictions.get() + "]";
+    }
+}
@@ -25,11 +25,14 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.neo4j.kernel.impl.util.ConcurrentLongHashMap;
+
 /**
  * Manages {@link PersistenceWindow persistence windows} for a store. Each store
  * can configure how much memory it has for
@@ -37,36 +40,53 @@ import java.util.logging.Logger;
  * make the most efficient use of those windows by allocating them in such a way
  * that the most frequently used records/blocks (be it for read or write
  * operations) are encapsulated by a memory mapped persistence window.
+ * <p>
+ * Acquiring a window takes no pool wide lock. A window handed out is pinned
+ * until it is released and the remapping of bricks, done by one thread at a
+ * time while other threads keep reading, only ever unmaps windows it
+ * manages to retire, i.e. windows nobody has pinned.
+ * <p>
+ * If given a {@link PageCache} the pool doesn't have memory of its own.
+ * Bricks are then pages of the cache's fixed size, mapped on demand once
+ * they've been missed {@link #PAGE_MISSES_BEFORE_MAPPING} times and evicted
+ * by the cache when other pages, of any store, need the memory.
  */
 class PersistenceWindowPool
 {
     private static final int MAX_BRICK_COUNT = 100000;
+    // a page touched only once or twice, by a lookup or a scan passing by,
+    // isn't worth evicting another page for
+    static final int PAGE_MISSES_BEFORE_MAPPING = 3;
 
     private final String storeName;
     // == recordSize
     private final int blockSize;
     private FileChannel fileChannel;
-    private final Map<Integer,PersistenceRow> activeRowWindows =
-        new HashMap<Integer,PersistenceRow>();
+    private final ConcurrentLongHashMap<PersistenceRow> activeRowWindows =
+        new ConcurrentLongHashMap<PersistenceRow>();
     private long availableMem = 0;
-    private long memUsed = 0;
+    private final AtomicLong memUsed = new AtomicLong();
     private int brickCount = 0;
     private int brickSize = 0;
-    private BrickElement brickArray[] = new BrickElement[0];
-    private int brickMiss = 0;
+    private volatile BrickElement brickArray[] = new BrickElement[0];
+    private final AtomicInteger brickMiss = new AtomicInteger();
+    // guards remapping of bricks, never taken when acquiring a window
+    private final ReentrantLock remapLock = new ReentrantLock();
 
     private static Logger log = Logger.getLogger( PersistenceWindowPool.class
         .getName() );
     private static final int REFRESH_BRICK_COUNT = 50000;
     private final FileChannel.MapMode mapMode;
 
-    private int hit = 0;
-    private int miss = 0;
+    private final AtomicInteger hit = new AtomicInteger();
+    private final AtomicInteger miss = new AtomicInteger();
     private int switches = 0;
     private int ooe = 0;
     private boolean useMemoryMapped = true;
 
     private final boolean readOnly;
+    private final PageCache pageCache;
+    private volatile boolean closed;
 
     /**
      * Create new pool for a store.
@@ -78,13 +98,17 @@ class PersistenceWindowPool
      * @param fileChannel
      *            A fileChannel to the store
      * @param mappedMem
-     *            Number of bytes dedicated to memory mapped windows
+     *            Number of bytes dedicated to memory mapped windows, ignored
+     *            if <CODE>pageCache</CODE> is given
+     * @param pageCache
+     *            The page cache to take memory from, or <CODE>null</CODE>
+     *            to use <CODE>mappedMem</CODE>
      * @throws IOException
      *             If unable to create pool
      */
     PersistenceWindowPool( String storeName, int blockSize,
         FileChannel fileChannel, long mappedMem,
-        boolean useMemoryMappedBuffers, boolean readOnly )
+        boolean useMemoryMappedBuffers, boolean readOnly, PageCache pageCache )
     {
         this.storeName = storeName;
         this.blockSize = blockSize;
@@ -92,6 +116,7 @@ class PersistenceWindowPool
         this.availableMem = mappedMem;
         this.useMemoryMapped = useMemoryMappedBuffers;
         this.readOnly = readOnly;
+        this.pageCache = pageCache;
         if ( readOnly )
         {
             mapMode = FileChannel.MapMode.READ_ONLY;
@@ -120,63 +145,52 @@ class PersistenceWindowPool
     {
         LockableWindow window = null;
         boolean readPos = false;
-//        synchronized ( activeRowWindows )
-//        {
-            if ( brickMiss >= REFRESH_BRICK_COUNT )
+        if ( pageCache == null && brickMiss.get() >= REFRESH_BRICK_COUNT
+            && remapLock.tryLock() )
+        {
+            // if someone else is remapping already just carry on
+            try
             {
-//                brickMiss = 0;
                 refreshBricks();
             }
-            if ( brickSize > 0 )
+            finally
             {
-                int brickIndex = (int) (position * blockSize / brickSize);
-                if ( brickIndex < brickArray.length )
-                {
-                    synchronized ( this )
-                    {
-                        window = brickArray[brickIndex].getWindow();
-                        if ( window != null )
-                        {
-                            window.mark();
-                        }
-                    }
-                    // assert window == null || window.encapsulates( position );
-                    brickArray[brickIndex].setHit();
-                }
-                else
-                {
-                    expandBricks( brickIndex + 1 );
-                    window = brickArray[brickIndex].getWindow();
-                }
+                remapLock.unlock();
             }
-            if ( window == null )
+        }
+        if ( brickSize > 0 )
+        {
+            int brickIndex = (int) (position * blockSize / brickSize);
+            BrickElement[] bricks = brickArray;
+            if ( brickIndex >= bricks.length )
             {
-                synchronized ( this )
-                {
-                    miss++;
-                    brickMiss++;
-
-                    PersistenceRow dpw = activeRowWindows.get( (int) position );
-
-                    if ( dpw == null )
-                    {
-                        dpw = new PersistenceRow( position, blockSize,
-                            fileChannel );
-                    }
-                    if ( operationType == OperationType.READ )
-                    {
-                        readPos = true;
-                    }
-                    window = dpw;
-                    activeRowWindows.put( (int) position, dpw );
-                    window.mark();
-                }
+                expandBricks( brickIndex + 1 );
+                bricks = brickArray;
             }
-            else
+            BrickElement brick = bricks[brickIndex];
+            window = pinWindow( brick );
+            // assert window == null || window.encapsulates( position );
+            brick.setHit();
+            if ( window == null && pageCache != null
+                && brick.missed() >= PAGE_MISSES_BEFORE_MAPPING )
             {
-                hit++;
+                window = mapPage( brick );
             }
-//        }
+        }
+        if ( window == null )
+        {
+            miss.incrementAndGet();
+            brickMiss.incrementAndGet();
+            window = pinRow( position );
+            if ( operationType == OperationType.READ )
+            {
+                readPos = true;
+            }
+        }
+        else
+        {
+            hit.incrementAndGet();
+        }
         window.lock();
         if ( readPos )
         {
@@ -186,9 +200,135 @@ class PersistenceWindowPool
         return window;
     }
 
+    private LockableWindow pinWindow( BrickElement brick )
+    {
+        for ( ;; )
+        {
+            LockableWindow window = brick.getWindow();
+            if ( window == null || window.pin() )
+            {
+                return window;
+            }
+            // retired, wait for it to be written out and replaced so that
+            // nothing is read from the file before it's up to date
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Maps the page of <CODE>brick</CODE> with memory reserved from the page
+     * cache, returning it pinned, or <CODE>null</CODE> if there's no room.
+     */
+    private LockableWindow mapPage( BrickElement brick )
+    {
+        if ( !pageCache.reserve( brickSize ) )
+        {
+            return null;
+        }
+        synchronized ( brick )
+        {
+            LockableWindow window = brick.getWindow();
+            if ( window != null || closed )
+            {
+                // mapped by someone else while we were reserving, only the
+                // page cache retires windows and it does so holding the brick
+                pageCache.release( brickSize );
+                return window != null && window.pin() ? window : null;
+            }
+            try
+            {
+                window = allocateNewWindow( brick.index() );
+            }
+            catch ( MappedMemException e )
+            {
+                ooe++;
+                pageCache.release( brickSize );
+                logWarn( "Unable to memory map", e );
+                return null;
+            }
+            catch ( OutOfMemoryError e )
+            {
+                ooe++;
+                pageCache.release( brickSize );
+                logWarn( "Unable to allocate direct buffer", e );
+                return null;
+            }
+            window.pin();
+            brick.setWindow( window );
+            memUsed.addAndGet( brickSize );
+            if ( !brick.registered )
+            {
+                brick.registered = true;
+                pageCache.register( brick );
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Called by the page cache to evict the page of <CODE>brick</CODE>.
+     *
+     * @return <CODE>true</CODE> if the page was mapped and has been unmapped,
+     *         <CODE>false</CODE> if it wasn't mapped or is in use
+     */
+    private boolean evict( BrickElement brick )
+    {
+        synchronized ( brick )
+        {
+            LockableWindow window = brick.getWindow();
+            if ( window == null || closed || !window.retire() )
+            {
+                return false;
+            }
+            writeOutAndUnmap( window );
+            brick.setWindow( null );
+            brick.misses = 0;
+        }
+        memUsed.addAndGet( -brickSize );
+        pageCache.release( brickSize );
+        return true;
+    }
+
+    private void writeOutAndUnmap( LockableWindow window )
+    {
+        if ( window instanceof MappedPersistenceWindow )
+        {
+            ((MappedPersistenceWindow) window).unmap();
+        }
+        else if ( !readOnly && window instanceof PlainPersistenceWindow )
+        {
+            ((PlainPersistenceWindow) window).writeOut();
+        }
+    }
+
+    private PersistenceRow pinRow( long position )
+    {
+        for ( ;; )
+        {
+            PersistenceRow row = activeRowWindows.get( position );
+            if ( row == null )
+            {
+                PersistenceRow newRow = new PersistenceRow( position, blockSize,
+                    fileChannel );
+                newRow.pin();
+                row = activeRowWindows.putIfAbsent( position, newRow );
+                if ( row == null )
+                {
+                    return newRow;
+                }
+            }
+            if ( row.pin() )
+            {
+                return row;
+            }
+            // retired by its last user, it's on its way out of the map
+            activeRowWindows.remove( position, row );
+        }
+    }
+
     void dumpStatistics()
     {
-        log.finest( storeName + " hit=" + hit + " miss=" + miss + " switches="
+        log.finest( storeName + " hit=" + hit.get() + " miss=" + miss.get() + " switches="
             + switches + " ooe=" + ooe );
     }
 
@@ -207,39 +347,53 @@ class PersistenceWindowPool
         {
             PersistenceRow dpw = (PersistenceRow) window;
             dpw.writeOut();
-            synchronized ( this )
+            dpw.unpin();
+            // written out already, so whoever misses the retired row will
+            // read what was written from the file
+            if ( dpw.retire() )
             {
-                if ( dpw.getWaitingThreadsCount() == 0 && !dpw.isMarked() )
-                {
-                    int key = (int) dpw.position();
-                    activeRowWindows.remove( key );
-                }
+                activeRowWindows.remove( dpw.position(), dpw );
             }
             dpw.unLock();
         }
         else
         {
-            ((LockableWindow) window).unLock();
+            LockableWindow lockableWindow = (LockableWindow) window;
+            lockableWindow.unLock();
+            lockableWindow.unpin();
         }
     }
 
-    synchronized void close()
+    void close()
     {
-        flushAll();
-//        synchronized ( activeRowWindows )
-//        {
+        remapLock.lock();
+        try
+        {
+            flushAll();
+            closed = true;
             for ( BrickElement element : brickArray )
             {
-                if ( element.getWindow() != null )
+                synchronized ( element )
                 {
-                    element.getWindow().close();
-                    element.setWindow( null );
+                    if ( element.getWindow() != null )
+                    {
+                        element.getWindow().close();
+                        element.setWindow( null );
+                        memUsed.addAndGet( -brickSize );
+                        if ( pageCache != null )
+                        {
+                            pageCache.release( brickSize );
+                        }
+                    }
                 }
             }
             fileChannel = null;
             activeRowWindows.clear();
-//        }
-        // activeRowWindows = null;
+        }
+        finally
+        {
+            remapLock.unlock();
+        }
         dumpStatistics();
     }
 
@@ -269,11 +423,23 @@ class PersistenceWindowPool
         }
     }
 
-    private static class BrickElement
+    /**
+     * A brick of the store file, which doubles as a page on the clock of the
+     * {@link PageCache} if there is one.
+     */
+    class BrickElement
     {
         private final int index;
         private int hitCount;
-        private LockableWindow window = null;
+        // hitCount as of the last snapshot, readers keep updating hitCount
+        // while the bricks are being sorted
+        private int hitSnapshot;
+        private volatile LockableWindow window = null;
+        private volatile boolean referenced;
+        // misses since last evicted, racy but only a heuristic
+        private int misses;
+        // guarded by this brick
+        private boolean registered;
 
         BrickElement( int index )
         {
@@ -297,6 +463,10 @@ class PersistenceWindowPool
 
         void setHit()
         {
+            if ( !referenced )
+            {
+                referenced = true;
+            }
             hitCount += 10;
             if ( hitCount < 0 )
             {
@@ -306,7 +476,40 @@ class PersistenceWindowPool
 
         int getHit()
         {
-            return hitCount;
+            return hitSnapshot;
+        }
+
+        int missed()
+        {
+            return ++misses;
+        }
+
+        /**
+         * Clears the reference bit, returning whether it was set.
+         */
+        boolean clearReferenced()
+        {
+            if ( referenced )
+            {
+                referenced = false;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isClosed()
+        {
+            return closed;
+        }
+
+        boolean evict()
+        {
+            return PersistenceWindowPool.this.evict( this );
+        }
+
+        void snapshotHit()
+        {
+            hitSnapshot = hitCount;
         }
 
         void refresh()
@@ -319,6 +522,7 @@ class PersistenceWindowPool
             {
                 hitCount /= 1.15;
             }
+            snapshotHit();
         }
 
         @Override
@@ -344,6 +548,11 @@ class PersistenceWindowPool
         {
             return;
         }
+        if ( pageCache != null )
+        {
+            setupPages( fileSize );
+            return;
+        }
         // If we can't fit even 10 blocks in available memory don't even try
         // to use available memory.
         if ( availableMem > 0 && availableMem < blockSize * 10l )
@@ -419,7 +628,30 @@ class PersistenceWindowPool
         }
     }
 
-    private synchronized void freeWindows( int nr )
+    private void setupPages( long fileSize )
+    {
+        availableMem = pageCache.getBudget();
+        brickSize = (int) Math.max( blockSize,
+            pageCache.getPageSize() / blockSize * blockSize );
+        if ( brickSize > availableMem )
+        {
+            logWarn( "Unable to use page size " + brickSize + "b with "
+                + availableMem + "b as memory mapped windows" );
+            logWarn( "Memory mapped windows have been turned off" );
+            availableMem = 0;
+            brickSize = 0;
+            return;
+        }
+        brickCount = (int) (fileSize / brickSize);
+        brickArray = new BrickElement[brickCount];
+        for ( int i = 0; i < brickCount; i++ )
+        {
+            brickArray[i] = new BrickElement( i );
+        }
+    }
+
+    // caller must hold remapLock
+    private void freeWindows( int nr )
     {
         if ( brickSize <= 0 )
         {
@@ -432,6 +664,7 @@ class PersistenceWindowPool
             BrickElement be = brickArray[i];
             if ( be.getWindow() != null )
             {
+                be.snapshotHit();
                 mappedBricks.add( be );
             }
         }
@@ -440,29 +673,23 @@ class PersistenceWindowPool
         {
             BrickElement mappedBrick = mappedBricks.get( i );
             LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            if ( window.retire() )
             {
-                if ( window instanceof MappedPersistenceWindow )
-                {
-                    ((MappedPersistenceWindow) window).unmap();
-                }
-                else if ( window instanceof PlainPersistenceWindow )
-                {
-                    ((PlainPersistenceWindow) window).writeOut();
-                }
+                writeOutAndUnmap( window );
                 mappedBrick.setWindow( null );
-                memUsed -= brickSize;
+                memUsed.addAndGet( -brickSize );
             }
         }
     }
 
-    private synchronized void refreshBricks()
+    // caller must hold remapLock
+    private void refreshBricks()
     {
-        if ( brickMiss < REFRESH_BRICK_COUNT )
+        if ( brickMiss.get() < REFRESH_BRICK_COUNT )
         {
             return;
         }
-        brickMiss = 0;
+        brickMiss.set( 0 );
         if ( brickSize <= 0 )
         {
             // memory mapped turned off
@@ -488,7 +715,7 @@ class PersistenceWindowPool
         int mappedIndex = 0;
         int nonMappedIndex = nonMappedBricks.size() - 1;
         // fill up unused memory
-        while ( memUsed + brickSize <= availableMem && nonMappedIndex >= 0 )
+        while ( memUsed.get() + brickSize <= availableMem && nonMappedIndex >= 0 )
         {
             BrickElement nonMappedBrick = nonMappedBricks.get(
                 nonMappedIndex-- );
@@ -500,7 +727,7 @@ class PersistenceWindowPool
             {
                 nonMappedBrick.setWindow(
                     allocateNewWindow( nonMappedBrick.index() ) );
-                memUsed += brickSize;
+                memUsed.addAndGet( brickSize );
             }
             catch ( MappedMemException e )
             {
@@ -525,23 +752,16 @@ class PersistenceWindowPool
                 break;
             }
             LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            if ( window.retire() )
             {
-                if ( window instanceof MappedPersistenceWindow )
-                {
-                    ((MappedPersistenceWindow) window).unmap();
-                }
-                else if ( !readOnly && window instanceof PlainPersistenceWindow )
-                {
-                    ((PlainPersistenceWindow) window).writeOut();
-                }
+                writeOutAndUnmap( window );
                 mappedBrick.setWindow( null );
-                memUsed -= brickSize;
+                memUsed.addAndGet( -brickSize );
                 try
                 {
                     nonMappedBrick.setWindow(
                         allocateNewWindow( nonMappedBrick.index() ) );
-                    memUsed += brickSize;
+                    memUsed.addAndGet( brickSize );
                     switches++;
                 }
                 catch ( MappedMemException e )
@@ -558,13 +778,26 @@ class PersistenceWindowPool
         }
     }
 
-    private synchronized void expandBricks( int newBrickCount )
+    private void expandBricks( int newBrickCount )
+    {
+        remapLock.lock();
+        try
+        {
+            expandBricksLocked( newBrickCount );
+        }
+        finally
+        {
+            remapLock.unlock();
+        }
+    }
+
+    private void expandBricksLocked( int newBrickCount )
     {
         if ( newBrickCount > brickCount )
         {
             BrickElement tmpArray[] = new BrickElement[newBrickCount];
             System.arraycopy( brickArray, 0, tmpArray, 0, brickArray.length );
-            if ( memUsed + brickSize >= availableMem )
+            if ( pageCache == null && memUsed.get() + brickSize >= availableMem )
             {
                 freeWindows( 1 );
             }
@@ -572,12 +805,14 @@ class PersistenceWindowPool
             {
                 BrickElement be = new BrickElement( i );
                 tmpArray[i] = be;
-                if ( memUsed + brickSize <= availableMem )
+                // pages are mapped once they're missed
+                if ( pageCache == null
+                    && memUsed.get() + brickSize <= availableMem )
                 {
                     try
                     {
                         be.setWindow( allocateNewWindow( i ) );
-                        memUsed += brickSize;
+                        memUsed.addAndGet( brickSize );
                     }
                     catch ( MappedMemException e )
                     {
@@ -663,7 +898,7 @@ class PersistenceWindowPool
 
     WindowPoolStats getStats()
     {
-        return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
-                brickSize, hit, miss, ooe );
+        return new WindowPoolStats( storeName, availableMem, memUsed.get(), brickCount,
+                brickSize, hit.get(), miss.get(), ooe );
     }
 }
\ No newline at end of file
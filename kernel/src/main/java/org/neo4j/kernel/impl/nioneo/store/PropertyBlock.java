@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One property stored in a {@link PropertyRecord}. A block takes one or
+ * more of the 8 byte blocks of the record, see {@link #getSize()}. Values
+ * that don't fit in the record (long strings and arrays) are kept in dynamic
+ * records and the block only holds the id of the first one.
+ */
+public class PropertyBlock
+{
+    private PropertyType type;
+    private int keyIndexId = Record.NO_NEXT_BLOCK.intValue();
+    private long propBlock = Record.NO_NEXT_BLOCK.intValue();
+    // the packed array of a SHORT_ARRAY block, following the header block
+    private long[] arrayBlocks;
+    private List<DynamicRecord> valueRecords = new ArrayList<DynamicRecord>();
+    private boolean isLight = false;
+    private boolean isCreated = false;
+    private boolean isChanged = false;
+
+    public PropertyType getType()
+    {
+        return type;
+    }
+
+    public void setType( PropertyType type )
+    {
+        this.type = type;
+    }
+
+    public int getKeyIndexId()
+    {
+        return keyIndexId;
+    }
+
+    public void setKeyIndexId( int keyId )
+    {
+        this.keyIndexId = keyId;
+    }
+
+    public long getPropBlock()
+    {
+        return propBlock;
+    }
+
+    public void setPropBlock( long propBlock )
+    {
+        this.propBlock = propBlock;
+    }
+
+    public long[] getArrayBlocks()
+    {
+        return arrayBlocks;
+    }
+
+    public void setArrayBlocks( long[] arrayBlocks )
+    {
+        this.arrayBlocks = arrayBlocks;
+    }
+
+    /**
+     * @return the number of 8 byte blocks this property takes in its
+     * {@link PropertyRecord}.
+     */
+    public int getSize()
+    {
+        switch ( type )
+        {
+        case LONG:
+            return PropertyStore.isInlinedLong( propBlock ) ? 1 : 2;
+        case DOUBLE:
+        case SHORT_STRING:
+            return 2;
+        case SHORT_ARRAY:
+            return 1 + arrayBlocks.length;
+        default:
+            return 1;
+        }
+    }
+
+    public void setIsLight( boolean status )
+    {
+        isLight = status;
+    }
+
+    public boolean isLight()
+    {
+        return isLight;
+    }
+
+    public List<DynamicRecord> getValueRecords()
+    {
+        assert !isLight;
+        return valueRecords;
+    }
+
+    public void addValueRecord( DynamicRecord record )
+    {
+        assert !isLight;
+        valueRecords.add( record );
+    }
+
+    public void setCreated()
+    {
+        isCreated = true;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if the property was added in this transaction.
+     */
+    public boolean isCreated()
+    {
+        return isCreated;
+    }
+
+    public void setChanged()
+    {
+        isChanged = true;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if the value of a committed property was
+     * changed in this transaction.
+     */
+    public boolean isChanged()
+    {
+        return isChanged;
+    }
+
+    public PropertyData newPropertyData( long propertyId )
+    {
+        return getType().newPropertyData( this, propertyId, null );
+    }
+
+    public PropertyData newPropertyData( long propertyId, Object extractedValue )
+    {
+        return getType().newPropertyData( this, propertyId, extractedValue );
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append( "PropertyBlock[" ).append( type ).append( "," ).append(
+            keyIndexId ).append( "," ).append( propBlock );
+        if ( arrayBlocks != null )
+        {
+            buf.append( "," ).append( arrayBlocks.length ).append( " array blocks" );
+        }
+        if ( !isLight )
+        {
+            buf.append( ", Value[" );
+            for ( DynamicRecord record : valueRecords )
+            {
+                buf.append( record );
+            }
+            buf.append( "]" );
+        }
+        buf.append( "]" );
+        return buf.toString();
+    }
+}
@@ -427,4 +427,53 @@ public class PropertyDatas
     {
         return new ObjectPropertyData( index, id, value );
     }
+
+    /**
+     * Estimates the heap retained by a {@link PropertyData}, including its
+     * value if it is a loaded string or array. Primitive values are read
+     * without boxing them.
+     *
+     * @param property the property to estimate the size of.
+     * @return the estimated retained size in bytes.
+     */
+    public static int sizeOfObjectInBytesIncludingOverhead( PropertyData property )
+    {
+        if ( property instanceof ObjectPropertyData )
+        {
+            return 32 + sizeOfStringOrArray( ((ObjectPropertyData) property).value );
+        }
+        return 32;
+    }
+
+    private static int sizeOfStringOrArray( Object value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        if ( value instanceof String )
+        {
+            return 40 + 2 * ((String) value).length();
+        }
+        if ( value instanceof String[] )
+        {
+            int size = 16 + 8 * ((String[]) value).length;
+            for ( String item : (String[]) value )
+            {
+                size += sizeOfStringOrArray( item );
+            }
+            return size;
+        }
+        if ( value.getClass().isArray() )
+        {
+            int length = java.lang.reflect.Array.getLength( value );
+            Class<?> type = value.getClass().getComponentType();
+            int itemSize = type == long.class || type == double.class ? 8 :
+                type == int.class || type == float.class ? 4 :
+                type == short.class || type == char.class ? 2 :
+                type.isPrimitive() ? 1 : 24;
+            return 16 + itemSize * length;
+        }
+        return 24;
+    }
 }
@@ -20,32 +20,31 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
+/**
+ * A property record holds up to {@link PropertyStore#BLOCKS_PER_RECORD}
+ * blocks of property data. A property takes one or more consecutive blocks
+ * and is kept at the index of its first block, the other indexes it covers
+ * are <CODE>null</CODE>. Properties keep their index as long as they are in
+ * the record, removing one leaves a gap that a later property can fill.
+ */
 public class PropertyRecord extends Abstract64BitRecord
 {
-    private PropertyType type;
-    private int keyIndexId = Record.NO_NEXT_BLOCK.intValue();
-    private long propBlock = Record.NO_NEXT_BLOCK.intValue();
+    private final PropertyBlock[] blocks =
+        new PropertyBlock[PropertyStore.BLOCKS_PER_RECORD];
     private long prevProp = Record.NO_PREVIOUS_PROPERTY.intValue();
     private long nextProp = Record.NO_NEXT_PROPERTY.intValue();
-    private List<DynamicRecord> valueRecords = new ArrayList<DynamicRecord>();
-    private boolean isLight = false;
+    // dynamic records of removed or changed values to delete
+    private List<DynamicRecord> deletedRecords = new ArrayList<DynamicRecord>();
     private long nodeRelId = -1;
     private boolean nodeIdSet = false;
-    private boolean isChanged = false;
 
     public PropertyRecord( long id )
     {
         super( id );
     }
 
-    public void setType( PropertyType type )
-    {
-        this.type = type;
-    }
-
     public void setNodeId( long nodeId )
     {
         nodeIdSet = true;
@@ -76,51 +75,120 @@ public class PropertyRecord extends Abstract64BitRecord
         return -1;
     }
 
-    void setIsLight( boolean status )
+    /**
+     * @return the property starting at block <CODE>index</CODE> or
+     * <CODE>null</CODE> if there is none.
+     */
+    public PropertyBlock getBlock( int index )
     {
-        isLight = status;
+        return blocks[index];
     }
 
-    public boolean isLight()
+    public void setBlock( int index, PropertyBlock block )
     {
-        return isLight;
+        assert blocks[index] == null;
+        blocks[index] = block;
     }
 
-    public Collection<DynamicRecord> getValueRecords()
+    public PropertyBlock removeBlock( int index )
     {
-        assert !isLight;
-        return valueRecords;
+        PropertyBlock block = blocks[index];
+        blocks[index] = null;
+        return block;
     }
 
-    public void addValueRecord( DynamicRecord record )
+    public boolean hasBlocks()
     {
-        assert !isLight;
-        valueRecords.add( record );
+        for ( PropertyBlock block : blocks )
+        {
+            if ( block != null )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public PropertyType getType()
+    /**
+     * Returns the first index where <CODE>size</CODE> consecutive blocks are
+     * free, or -1 if the property doesn't fit in this record.
+     */
+    public int findFreeBlocks( int size )
     {
-        return type;
+        return findFreeBlocks( size, -1 );
     }
 
-    public int getKeyIndexId()
+    /**
+     * Returns the first index where <CODE>size</CODE> consecutive blocks are
+     * free, counting the blocks of the property at <CODE>ignoredIndex</CODE>
+     * as free, or -1 if there is no such index.
+     */
+    public int findFreeBlocks( int size, int ignoredIndex )
     {
-        return keyIndexId;
+        int free = 0;
+        for ( int i = 0; i < blocks.length; )
+        {
+            PropertyBlock block = blocks[i];
+            if ( block == null || i == ignoredIndex )
+            {
+                int covered = block == null ? 1 : block.getSize();
+                free += covered;
+                i += covered;
+                if ( free >= size )
+                {
+                    return i - free;
+                }
+            }
+            else
+            {
+                free = 0;
+                i += block.getSize();
+            }
+        }
+        return -1;
     }
 
-    public void setKeyIndexId( int keyId )
+    /**
+     * @return <CODE>true</CODE> if the property at <CODE>index</CODE> can
+     * be replaced with one of <CODE>size</CODE> blocks without moving.
+     */
+    public boolean fitsAt( int index, int size )
     {
-        this.keyIndexId = keyId;
+        int end = index + size;
+        if ( end > blocks.length )
+        {
+            return false;
+        }
+        for ( int i = index + blocks[index].getSize(); i < end; i++ )
+        {
+            if ( blocks[i] != null )
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public long getPropBlock()
+    public boolean isLight()
     {
-        return propBlock;
+        for ( PropertyBlock block : blocks )
+        {
+            if ( block != null && block.isLight() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<DynamicRecord> getDeletedRecords()
+    {
+        return deletedRecords;
     }
 
-    public void setPropBlock( long propBlock )
+    public void addDeletedRecord( DynamicRecord record )
     {
-        this.propBlock = propBlock;
+        deletedRecords.add( record );
     }
 
     public long getPrevProp()
@@ -143,40 +211,30 @@ public class PropertyRecord extends Abstract64BitRecord
         this.nextProp = nextProp;
     }
 
-    public PropertyData newPropertyData()
-    {
-        return getType().newPropertyData( this, null );
-    }
-    
-    public PropertyData newPropertyData( Object extractedValue )
-    {
-        return getType().newPropertyData( this, extractedValue );
-    }
-    
     @Override
     public String toString()
     {
         StringBuffer buf = new StringBuffer();
         buf.append( "PropertyRecord[" ).append( getId() ).append( "," ).append(
-            inUse() ).append( "," ).append( type ).append( "," ).append(
-            keyIndexId ).append( "," ).append( propBlock ).append( "," )
-            .append( prevProp ).append( "," ).append( nextProp );
-        buf.append( ", Value[" );
-        for ( DynamicRecord record : valueRecords )
+            inUse() ).append( "," ).append( prevProp ).append( "," )
+            .append( nextProp );
+        for ( int i = 0; i < blocks.length; i++ )
+        {
+            if ( blocks[i] != null )
+            {
+                buf.append( ", " ).append( i ).append( ":" ).append( blocks[i] );
+            }
+        }
+        if ( !deletedRecords.isEmpty() )
         {
-            buf.append( record );
+            buf.append( ", Deleted[" );
+            for ( DynamicRecord record : deletedRecords )
+            {
+                buf.append( record );
+            }
+            buf.append( "]" );
         }
-        buf.append( "]]" );
+        buf.append( "]" );
         return buf.toString();
     }
-    
-    public boolean isChanged()
-    {
-        return isChanged;
-    }
-    
-    public void setChanged()
-    {
-        isChanged = true;
-    }
-}
\ No newline at end of file
+}
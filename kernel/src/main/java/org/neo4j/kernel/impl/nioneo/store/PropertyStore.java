@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 import static org.neo4j.kernel.Config.ARRAY_BLOCK_SIZE;
 import static org.neo4j.kernel.Config.STRING_BLOCK_SIZE;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -32,29 +33,90 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 
 /**
  * Implementation of the property store. This implementation has two dynamic
  * stores. One used to store keys and another for string property values.
+ * Each record holds {@link #BLOCKS_PER_RECORD} blocks of property data so
+ * that several small properties of a node or relationship are packed into
+ * one record, see {@link PropertyRecord}.
  */
 public class PropertyStore extends AbstractStore implements Store
 {
     public static final int DEFAULT_DATA_BLOCK_SIZE = 120;
 
     // store version, each store ends with this string (byte encoded)
-    private static final String VERSION = "PropertyStore v0.9.9";
+    private static final String VERSION = "PropertyStore v0.A.0";
 
-    // record header size
-    // in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-    // prev_prop_id(int)+next_prop_id(int)
-    public static final int RECORD_SIZE = 25;
+    /**
+     * The number of 8 byte blocks of property data in each record.
+     */
+    public static final int BLOCKS_PER_RECORD = 4;
+
+    // record size
+    // in_use(byte)+next_high(byte)+prev_prop_id(int)+next_prop_id(int)+
+    // BLOCKS_PER_RECORD*block(long)
+    public static final int RECORD_SIZE = 1 + 1 + 4 + 4 + BLOCKS_PER_RECORD * 8;
+
+    // size of the records of "PropertyStore v0.9.9", see upgrade
+    private static final int OLD_RECORD_SIZE = 25;
+
+    // a property id is the record id with the index of the property's first
+    // block in the bits above the 36 bits of the record id
+    private static final int BLOCK_INDEX_SHIFT = 40;
+    private static final long RECORD_ID_MASK = ( 1L << BLOCK_INDEX_SHIFT ) - 1;
+
+    // 24 bits of key index id, 4 bits of type and 36 bits of payload in the
+    // first block of a property
+    private static final long KEY_MASK = 0xFFFFFFL;
+    private static final int TYPE_SHIFT = 24;
+    private static final int PAYLOAD_SHIFT = 28;
+    private static final long PAYLOAD_MASK = 0xFFFFFFFFFL;
 
     private DynamicStringStore stringPropertyStore;
     private PropertyIndexStore propertyIndexStore;
     private DynamicArrayStore arrayPropertyStore;
 
+    /**
+     * Returns the id of the property stored at block <CODE>blockIndex</CODE>
+     * of record <CODE>recordId</CODE>. The property at block 0 has the same
+     * id as its record.
+     */
+    public static long toPropertyId( long recordId, int blockIndex )
+    {
+        return ( (long) blockIndex << BLOCK_INDEX_SHIFT ) | recordId;
+    }
+
+    /**
+     * @return the id of the record a property is stored in.
+     */
+    public static long toRecordId( long propertyId )
+    {
+        return propertyId & RECORD_ID_MASK;
+    }
+
+    /**
+     * @return the index of the first block of a property in its record.
+     */
+    public static int toBlockIndex( long propertyId )
+    {
+        return (int) ( propertyId >>> BLOCK_INDEX_SHIFT );
+    }
+
+    /**
+     * @return <CODE>true</CODE> if <CODE>value</CODE> fits in the payload of
+     * the first block of a property, 35 bits signed.
+     */
+    public static boolean isInlinedLong( long value )
+    {
+        long high = value >> 34;
+        return high == 0 || high == -1;
+    }
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -244,29 +306,39 @@ public class PropertyStore extends AbstractStore implements Store
         {
             releaseWindow( window );
         }
-        if ( !record.isLight() )
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
         {
-            for ( DynamicRecord valueRecord : record.getValueRecords() )
+            PropertyBlock block = record.getBlock( i );
+            if ( block != null && !block.isLight() )
             {
-                if ( valueRecord.getType() == PropertyType.STRING.intValue() )
-                {
-                    stringPropertyStore.updateRecord( valueRecord );
-                }
-                else if ( valueRecord.getType() ==
-                    PropertyType.ARRAY.intValue() )
-                {
-                    arrayPropertyStore.updateRecord( valueRecord );
-                }
-                else
-                {
-                    throw new InvalidRecordException( "Unknown dynamic record" );
-                }
+                updateValueRecords( block.getValueRecords() );
             }
         }
+        updateValueRecords( record.getDeletedRecords() );
     }
 
-    // in_use(byte)+type(int)+key_blockId(int)+prop_blockId(long)+
-    // prev_prop_id(int)+next_prop_id(int)
+    private void updateValueRecords( List<DynamicRecord> valueRecords )
+    {
+        for ( DynamicRecord valueRecord : valueRecords )
+        {
+            if ( valueRecord.getType() == PropertyType.STRING.intValue() )
+            {
+                stringPropertyStore.updateRecord( valueRecord );
+            }
+            else if ( valueRecord.getType() ==
+                PropertyType.ARRAY.intValue() )
+            {
+                arrayPropertyStore.updateRecord( valueRecord );
+            }
+            else
+            {
+                throw new InvalidRecordException( "Unknown dynamic record" );
+            }
+        }
+    }
+
+    // in_use(byte)+next_high(byte)+prev_prop_id(int)+next_prop_id(int)+
+    // BLOCKS_PER_RECORD*block(long)
 
     private void updateRecord( PropertyRecord record, PersistenceWindow window )
     {
@@ -278,20 +350,28 @@ public class PropertyStore extends AbstractStore implements Store
             long prevModifier = prevProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (prevProp & 0xF00000000L) >> 28;
 
             long nextProp = record.getNextProp();
-            long nextModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (nextProp & 0xF00000000L) >> 16;
+            long nextModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (nextProp & 0xF00000000L) >> 32;
 
             // [    ,   x] in use
             // [xxxx,    ] high prev prop bits
             short inUseUnsignedByte = (short)((Record.IN_USE.byteValue() | prevModifier));
 
-            // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
-            // [    ,    ][    ,xxxx][    ,    ][    ,    ] high next prop bits
-            int typeInt = record.getType().intValue();
-            typeInt |= nextModifier;
-
-            buffer.put( (byte)inUseUnsignedByte ).putInt( typeInt )
-                .putInt( record.getKeyIndexId() ).putLong( record.getPropBlock() )
+            // [    ,xxxx] high next prop bits
+            buffer.put( (byte)inUseUnsignedByte ).put( (byte) nextModifier )
                 .putInt( (int) prevProp ).putInt( (int) nextProp );
+            long[] data = new long[BLOCKS_PER_RECORD];
+            for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
+            {
+                PropertyBlock block = record.getBlock( i );
+                if ( block != null )
+                {
+                    encodeBlock( block, data, i );
+                }
+            }
+            for ( long value : data )
+            {
+                buffer.putLong( value );
+            }
         }
         else
         {
@@ -303,84 +383,189 @@ public class PropertyStore extends AbstractStore implements Store
         }
     }
 
-    public PropertyRecord getLightRecord( long id )
+    /**
+     * Writes <CODE>block</CODE> to <CODE>data</CODE> starting at
+     * <CODE>index</CODE>. The first block holds the key index id, the type
+     * and whatever part of the value that fits in 36 bits, values that don't
+     * fit continue in the following blocks.
+     */
+    private static void encodeBlock( PropertyBlock block, long[] data, int index )
     {
-        PersistenceWindow window = acquireWindow( id, OperationType.READ );
-        try
+        long payload = 0;
+        PropertyType type = block.getType();
+        long propBlock = block.getPropBlock();
+        switch ( type )
         {
-            PropertyRecord record = getRecord( id, window );
-            record.setIsLight( true );
-            return record;
-        }
-        finally
-        {
-            releaseWindow( window );
-        }
+        case LONG:
+            if ( isInlinedLong( propBlock ) )
+            {
+                payload = ( propBlock << 1 ) | 1;
+            }
+            else
+            {
+                data[index + 1] = propBlock;
+            }
+            break;
+        case DOUBLE:
+        case SHORT_STRING:
+            data[index + 1] = propBlock;
+            break;
+        case SHORT_ARRAY:
+            payload = propBlock;
+            long[] arrayBlocks = block.getArrayBlocks();
+            System.arraycopy( arrayBlocks, 0, data, index + 1, arrayBlocks.length );
+            break;
+        default:
+            payload = propBlock;
+            break;
+        }
+        data[index] = ( block.getKeyIndexId() & KEY_MASK )
+            | ( (long) type.intValue() << TYPE_SHIFT )
+            | ( ( payload & PAYLOAD_MASK ) << PAYLOAD_SHIFT );
     }
 
-    public void makeHeavy( PropertyRecord record )
+    /**
+     * Reads the property starting at <CODE>index</CODE> of <CODE>data</CODE>,
+     * or returns <CODE>null</CODE> if that block is free.
+     */
+    private static PropertyBlock decodeBlock( long[] data, int index )
     {
-        record.setIsLight( false );
-        if ( record.getType() == PropertyType.STRING )
+        long header = data[index];
+        int typeId = (int) ( ( header >>> TYPE_SHIFT ) & 0xF );
+        if ( typeId == 0 )
         {
-            Collection<DynamicRecord> stringRecords =
-                stringPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            for ( DynamicRecord stringRecord : stringRecords )
-            {
-                stringRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( stringRecord );
-            }
+            return null;
         }
-        else if ( record.getType() == PropertyType.ARRAY )
+        PropertyType type = PropertyType.getPropertyType( typeId, false );
+        PropertyBlock block = new PropertyBlock();
+        block.setType( type );
+        block.setKeyIndexId( (int) ( header & KEY_MASK ) );
+        long payload = header >>> PAYLOAD_SHIFT;
+        switch ( type )
         {
-            Collection<DynamicRecord> arrayRecords =
-                arrayPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            for ( DynamicRecord arrayRecord : arrayRecords )
+        case LONG:
+            if ( ( payload & 0x1 ) != 0 )
             {
-                arrayRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( arrayRecord );
+                // sign extends the 35 bits of the value
+                block.setPropBlock( header >> ( PAYLOAD_SHIFT + 1 ) );
             }
-        }
+            else
+            {
+                block.setPropBlock( data[index + 1] );
+            }
+            break;
+        case DOUBLE:
+        case SHORT_STRING:
+            block.setPropBlock( data[index + 1] );
+            break;
+        case SHORT_ARRAY:
+            block.setPropBlock( payload );
+            long[] arrayBlocks = new long[ShortArray.dataBlocks( payload )];
+            System.arraycopy( data, index + 1, arrayBlocks, 0, arrayBlocks.length );
+            block.setArrayBlocks( arrayBlocks );
+            break;
+        case STRING:
+        case ARRAY:
+            block.setPropBlock( payload );
+            block.setIsLight( true );
+            break;
+        default:
+            // sign extends the 32 bits of an int, float, byte, short etc.
+            block.setPropBlock( (int) payload );
+            break;
+        }
+        return block;
     }
 
-    public PropertyRecord getRecord( long id )
+    /**
+     * Returns the record with <CODE>id</CODE> without loading the dynamic
+     * records of its string and array properties.
+     */
+    public PropertyRecord getLightRecord( long id )
     {
-        PropertyRecord record;
         PersistenceWindow window = acquireWindow( id, OperationType.READ );
         try
         {
-            record = getRecord( id, window );
+            return getRecord( id, window );
         }
         finally
         {
             releaseWindow( window );
         }
-        if ( record.getType() == PropertyType.STRING )
+    }
+
+    public void makeHeavy( PropertyRecord record )
+    {
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
+        {
+            PropertyBlock block = record.getBlock( i );
+            if ( block != null && block.isLight() )
+            {
+                makeHeavy( block );
+            }
+        }
+    }
+
+    public void makeHeavy( PropertyBlock block )
+    {
+        block.setIsLight( false );
+        if ( block.getType() == PropertyType.STRING )
         {
             Collection<DynamicRecord> stringRecords =
                 stringPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            record.setIsLight( false );
+                    block.getPropBlock() );
             for ( DynamicRecord stringRecord : stringRecords )
             {
                 stringRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( stringRecord );
+                block.addValueRecord( stringRecord );
             }
         }
-        else if ( record.getType() == PropertyType.ARRAY )
+        else if ( block.getType() == PropertyType.ARRAY )
         {
             Collection<DynamicRecord> arrayRecords =
                 arrayPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            record.setIsLight( false );
+                    block.getPropBlock() );
             for ( DynamicRecord arrayRecord : arrayRecords )
             {
                 arrayRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( arrayRecord );
+                block.addValueRecord( arrayRecord );
             }
         }
+    }
+
+    /**
+     * Returns the property records in use, read sequentially from the store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<PropertyRecord> scan()
+    {
+        return scan( 0, Long.MAX_VALUE );
+    }
+
+    /**
+     * Returns the property records in use with ids from <CODE>fromId</CODE> up to,
+     * but not including, <CODE>toId</CODE>, read sequentially from the
+     * store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<PropertyRecord> scan( long fromId, long toId )
+    {
+        return new StoreScan<PropertyRecord>( this, fromId, toId )
+        {
+            @Override
+            protected PropertyRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window );
+            }
+        };
+    }
+
+    public PropertyRecord getRecord( long id )
+    {
+        PropertyRecord record = getLightRecord( id );
+        makeHeavy( record );
         return record;
     }
 
@@ -398,34 +583,41 @@ public class PropertyStore extends AbstractStore implements Store
             throw new InvalidRecordException( "Record[" + id + "] not in use" );
         }
         PropertyRecord record = new PropertyRecord( id );
-
-        // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
-        // [    ,    ][    ,xxxx][    ,    ][    ,    ] high next prop bits
-        long typeInt = buffer.getInt();
-
-        record.setType( getEnumType( (int)typeInt & 0xFFFF ) );
         record.setInUse( true );
-        record.setKeyIndexId( buffer.getInt() );
-        record.setPropBlock( buffer.getLong() );
+
+        // [    ,xxxx] high next prop bits
+        long nextHighByte = buffer.get();
 
         long prevProp = buffer.getUnsignedInt();
         long prevModifier = (inUseByte & 0xF0L) << 28;
         long nextProp = buffer.getUnsignedInt();
-        long nextModifier = (typeInt & 0xF0000L) << 16;
+        long nextModifier = (nextHighByte & 0xFL) << 32;
 
         record.setPrevProp( longFromIntAndMod( prevProp, prevModifier ) );
         record.setNextProp( longFromIntAndMod( nextProp, nextModifier ) );
-        return record;
-    }
 
-    private PropertyType getEnumType( int type )
-    {
-        return PropertyType.getPropertyType( type, false );
+        long[] data = new long[BLOCKS_PER_RECORD];
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
+        {
+            data[i] = buffer.getLong();
+        }
+        for ( int i = 0; i < BLOCKS_PER_RECORD; )
+        {
+            PropertyBlock block = decodeBlock( data, i );
+            if ( block == null )
+            {
+                i++;
+                continue;
+            }
+            record.setBlock( i, block );
+            i += block.getSize();
+        }
+        return record;
     }
 
-    public Object getValue( PropertyRecord propertyRecord )
+    public Object getValue( PropertyBlock block )
     {
-        return propertyRecord.getType().getValue( propertyRecord, this );
+        return block.getType().getValue( block, this );
     }
 
     @Override
@@ -466,19 +658,30 @@ public class PropertyStore extends AbstractStore implements Store
         return arrayPropertyStore.allocateRecords( valueBlockId, array );
     }
 
-    public void encodeValue( PropertyRecord record, Object value )
+    /**
+     * Encodes <CODE>value</CODE> as property <CODE>keyIndexId</CODE> in
+     * <CODE>block</CODE>, allocating dynamic records for strings and arrays
+     * too big to fit in a record.
+     */
+    public void encodeValue( PropertyBlock block, int keyIndexId, Object value )
     {
+        if ( keyIndexId > KEY_MASK )
+        {
+            throw new IllegalArgumentException( "Property key index id "
+                + keyIndexId + " doesn't fit in a property block" );
+        }
+        block.setKeyIndexId( keyIndexId );
         if ( value instanceof String )
         {
             String string = (String) value;
-            if ( ShortString.encode( string, record ) )
+            if ( ShortString.encode( string, block ) )
             {
-                record.setType( PropertyType.SHORT_STRING );
+                block.setType( PropertyType.SHORT_STRING );
                 return;
             }
 
             long stringBlockId = nextStringBlockId();
-            record.setPropBlock( stringBlockId );
+            block.setPropBlock( stringBlockId );
             int length = string.length();
             char[] chars = new char[length];
             string.getChars( 0, length, chars, 0 );
@@ -487,64 +690,70 @@ public class PropertyStore extends AbstractStore implements Store
             for ( DynamicRecord valueRecord : valueRecords )
             {
                 valueRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( valueRecord );
+                block.addValueRecord( valueRecord );
             }
-            record.setType( PropertyType.STRING );
+            block.setType( PropertyType.STRING );
         }
         else if ( value instanceof Integer )
         {
-            record.setPropBlock( ((Integer) value).intValue() );
-            record.setType( PropertyType.INT );
+            block.setPropBlock( ((Integer) value).intValue() );
+            block.setType( PropertyType.INT );
         }
         else if ( value instanceof Boolean )
         {
-            record.setPropBlock( (((Boolean) value).booleanValue() ? 1 : 0) );
-            record.setType( PropertyType.BOOL );
+            block.setPropBlock( (((Boolean) value).booleanValue() ? 1 : 0) );
+            block.setType( PropertyType.BOOL );
         }
         else if ( value instanceof Float )
         {
-            record.setPropBlock( Float.floatToRawIntBits( ((Float) value)
+            block.setPropBlock( Float.floatToRawIntBits( ((Float) value)
                 .floatValue() ) );
-            record.setType( PropertyType.FLOAT );
+            block.setType( PropertyType.FLOAT );
         }
         else if ( value instanceof Long )
         {
-            record.setPropBlock( ((Long) value).longValue() );
-            record.setType( PropertyType.LONG );
+            block.setPropBlock( ((Long) value).longValue() );
+            block.setType( PropertyType.LONG );
         }
         else if ( value instanceof Double )
         {
-            record.setPropBlock( Double.doubleToRawLongBits( ((Double) value)
+            block.setPropBlock( Double.doubleToRawLongBits( ((Double) value)
                 .doubleValue() ) );
-            record.setType( PropertyType.DOUBLE );
+            block.setType( PropertyType.DOUBLE );
         }
         else if ( value instanceof Byte )
         {
-            record.setPropBlock( ((Byte) value).byteValue() );
-            record.setType( PropertyType.BYTE );
+            block.setPropBlock( ((Byte) value).byteValue() );
+            block.setType( PropertyType.BYTE );
         }
         else if ( value instanceof Character )
         {
-            record.setPropBlock( ((Character) value).charValue() );
-            record.setType( PropertyType.CHAR );
+            block.setPropBlock( ((Character) value).charValue() );
+            block.setType( PropertyType.CHAR );
         }
         else if ( value.getClass().isArray() )
         {
+            if ( ShortArray.encode( value, block ) )
+            {
+                block.setType( PropertyType.SHORT_ARRAY );
+                return;
+            }
+
             long arrayBlockId = nextArrayBlockId();
-            record.setPropBlock( arrayBlockId );
+            block.setPropBlock( arrayBlockId );
             Collection<DynamicRecord> arrayRecords = allocateArrayRecords(
                 arrayBlockId, value );
             for ( DynamicRecord valueRecord : arrayRecords )
             {
                 valueRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( valueRecord );
+                block.addValueRecord( valueRecord );
             }
-            record.setType( PropertyType.ARRAY );
+            block.setType( PropertyType.ARRAY );
         }
         else if ( value instanceof Short )
         {
-            record.setPropBlock( ((Short) value).shortValue() );
-            record.setType( PropertyType.SHORT );
+            block.setPropBlock( ((Short) value).shortValue() );
+            block.setType( PropertyType.SHORT );
         }
         else
         {
@@ -553,11 +762,11 @@ public class PropertyStore extends AbstractStore implements Store
         }
     }
 
-    public Object getStringFor( PropertyRecord propRecord )
+    public Object getStringFor( PropertyBlock block )
     {
-        long recordToFind = propRecord.getPropBlock();
+        long recordToFind = block.getPropBlock();
         Map<Long,DynamicRecord> recordsMap = new HashMap<Long,DynamicRecord>();
-        for ( DynamicRecord record : propRecord.getValueRecords() )
+        for ( DynamicRecord record : block.getValueRecords() )
         {
             recordsMap.put( record.getId(), record );
         }
@@ -592,9 +801,9 @@ public class PropertyStore extends AbstractStore implements Store
         return buf.toString();
     }
 
-    public Object getArrayFor( PropertyRecord propertyRecord )
+    public Object getArrayFor( PropertyBlock block )
     {
-        return getArrayFor( propertyRecord.getPropBlock(), propertyRecord.getValueRecords(), arrayPropertyStore );
+        return getArrayFor( block.getPropBlock(), block.getValueRecords(), arrayPropertyStore );
     }
 
     public static Object getArrayFor( long startRecord, Iterable<DynamicRecord> records,
@@ -655,8 +864,23 @@ public class PropertyStore extends AbstractStore implements Store
 //            closeIdGenerator();
 //            return true;
 //        }
-        if ( version.equals( "PropertyStore v0.9.5" ) )
+        if ( version.equals( "PropertyStore v0.9.5" ) ||
+            version.equals( "PropertyStore v0.9.9" ) )
         {
+            if ( !configSaysOkToUpgrade() )
+            {
+                throw new IllegalStoreVersionException( "Store version [" + version + "] is older " +
+                    "than expected, but could be upgraded automatically if '" +
+                    Config.ALLOW_STORE_UPGRADE + "' configuration " + "parameter was set to 'true'." );
+            }
+            upgradeRecords( version, OLD_RECORD_SIZE, new RecordUpgrade()
+            {
+                public void upgradeRecord( ByteBuffer from, ByteBuffer to )
+                {
+                    upgradePropertyRecord( from, to );
+                }
+            } );
+            LogIoUtils.moveAllLogicalLogs( new File( getStoreDir() ), "1.4-logs" );
             return true;
         }
         throw new IllegalStoreVersionException( "Store version [" + version  +
@@ -665,6 +889,59 @@ public class PropertyStore extends AbstractStore implements Store
             " of Neo4j." );
     }
 
+    /**
+     * Each record with one property becomes a record with the property at
+     * block 0, so property ids and chains stay the same. A key index id too
+     * big for a block fails the upgrade, like it fails {@link #encodeValue}.
+     */
+    // in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
+    // prev_prop_id(int)+next_prop_id(int)
+    private void upgradePropertyRecord( ByteBuffer from, ByteBuffer to )
+    {
+        int start = to.position();
+        byte inUseByte = from.get();
+        int typeInt = from.getInt();
+        int keyIndexId = from.getInt();
+        long propBlock = from.getLong();
+        int prevProp = from.getInt();
+        int nextProp = from.getInt();
+        if ( ( inUseByte & 0x1 ) == Record.IN_USE.intValue() )
+        {
+            // the high prev bits stay where they are, the high next bits
+            // move from the type to their own byte
+            to.put( inUseByte ).put( (byte) ( ( typeInt & 0xF0000 ) >> 16 ) )
+                .putInt( prevProp ).putInt( nextProp );
+            if ( keyIndexId > KEY_MASK )
+            {
+                throw new IllegalStoreVersionException( "Property key index id "
+                    + keyIndexId + " in " + getStorageFileName()
+                    + " doesn't fit in a property block, the store can't be upgraded" );
+            }
+            PropertyBlock block = new PropertyBlock();
+            block.setType( getEnumType( typeInt & 0xFFFF ) );
+            block.setKeyIndexId( keyIndexId );
+            block.setPropBlock( propBlock );
+            long[] data = new long[BLOCKS_PER_RECORD];
+            encodeBlock( block, data, 0 );
+            for ( long value : data )
+            {
+                to.putLong( value );
+            }
+        }
+        else
+        {
+            while ( to.position() < start + RECORD_SIZE )
+            {
+                to.put( (byte) 0 );
+            }
+        }
+    }
+
+    private PropertyType getEnumType( int type )
+    {
+        return PropertyType.getPropertyType( type, false );
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
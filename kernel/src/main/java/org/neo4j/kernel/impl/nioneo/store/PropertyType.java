@@ -27,52 +27,52 @@ public enum PropertyType
     ILLEGAL( 0 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            throw new InvalidRecordException( "Invalid type: 0 for record " + record );
+            throw new InvalidRecordException( "Invalid type: 0 for block " + block );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            throw new InvalidRecordException( "Invalid type: 0 for record " + record );
+            throw new InvalidRecordException( "Invalid type: 0 for block " + block );
         }
     },
     INT( 1 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Integer.valueOf( (int) record.getPropBlock() );
+            return Integer.valueOf( (int) block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forInt( record.getKeyIndexId(), record.getId(), (int) record.getPropBlock() );
+            return PropertyDatas.forInt( block.getKeyIndexId(), propertyId, (int) block.getPropBlock() );
         }
     },
     STRING( 2 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
             if ( store == null ) return null;
-            return store.getStringFor( record );
+            return store.getStringFor( block );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forStringOrArray( record.getKeyIndexId(), record.getId(), extractedValue );
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(), propertyId, extractedValue );
         }
     },
     BOOL( 3 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return getValue( record.getPropBlock() );
+            return getValue( block.getPropBlock() );
         }
         
         private Boolean getValue( long propBlock )
@@ -81,18 +81,18 @@ public enum PropertyType
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forBoolean( record.getKeyIndexId(), record.getId(),
-                    getValue( record.getPropBlock() ).booleanValue() );
+            return PropertyDatas.forBoolean( block.getKeyIndexId(), propertyId,
+                    getValue( block.getPropBlock() ).booleanValue() );
         }
     },
     DOUBLE( 4 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Double.valueOf( Double.longBitsToDouble( record.getPropBlock() ) );
+            return Double.valueOf( Double.longBitsToDouble( block.getPropBlock() ) );
         }
         
         private double getValue( long propBlock )
@@ -101,17 +101,17 @@ public enum PropertyType
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forDouble( record.getKeyIndexId(), record.getId(), getValue( record.getPropBlock() ) );
+            return PropertyDatas.forDouble( block.getKeyIndexId(), propertyId, getValue( block.getPropBlock() ) );
         }
     },
     FLOAT( 5 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Float.valueOf( getValue( record.getPropBlock() ) );
+            return Float.valueOf( getValue( block.getPropBlock() ) );
         }
         
         private float getValue( long propBlock )
@@ -120,94 +120,108 @@ public enum PropertyType
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forFloat( record.getKeyIndexId(), record.getId(), getValue( record.getPropBlock() ) );
+            return PropertyDatas.forFloat( block.getKeyIndexId(), propertyId, getValue( block.getPropBlock() ) );
         }
     },
     LONG( 6 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Long.valueOf( record.getPropBlock() );
+            return Long.valueOf( block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forLong( record.getKeyIndexId(), record.getId(), record.getPropBlock() );
+            return PropertyDatas.forLong( block.getKeyIndexId(), propertyId, block.getPropBlock() );
         }
     },
     BYTE( 7 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Byte.valueOf( (byte) record.getPropBlock() );
+            return Byte.valueOf( (byte) block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forByte( record.getKeyIndexId(), record.getId(), (byte) record.getPropBlock() );
+            return PropertyDatas.forByte( block.getKeyIndexId(), propertyId, (byte) block.getPropBlock() );
         }
     },
     CHAR( 8 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Character.valueOf( (char) record.getPropBlock() );
+            return Character.valueOf( (char) block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forChar( record.getKeyIndexId(), record.getId(), (char) record.getPropBlock() );
+            return PropertyDatas.forChar( block.getKeyIndexId(), propertyId, (char) block.getPropBlock() );
         }
     },
     ARRAY( 9 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
             if ( store == null ) return null;
-            return store.getArrayFor( record );
+            return store.getArrayFor( block );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forStringOrArray( record.getKeyIndexId(), record.getId(), extractedValue );
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(), propertyId, extractedValue );
         }
     },
     SHORT( 10 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return Short.valueOf( (short) record.getPropBlock() );
+            return Short.valueOf( (short) block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forShort( record.getKeyIndexId(), record.getId(), (short) record.getPropBlock() );
+            return PropertyDatas.forShort( block.getKeyIndexId(), propertyId, (short) block.getPropBlock() );
         }
     },
     SHORT_STRING( 11 )
     {
         @Override
-        public Object getValue( PropertyRecord record, PropertyStore store )
+        public Object getValue( PropertyBlock block, PropertyStore store )
         {
-            return ShortString.decode( record.getPropBlock() );
+            return ShortString.decode( block.getPropBlock() );
         }
 
         @Override
-        public PropertyData newPropertyData( PropertyRecord record, Object extractedValue )
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
         {
-            return PropertyDatas.forStringOrArray( record.getKeyIndexId(), record.getId(), getValue( record, null ) );
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(), propertyId, getValue( block, null ) );
+        }
+    },
+    SHORT_ARRAY( 12 )
+    {
+        @Override
+        public Object getValue( PropertyBlock block, PropertyStore store )
+        {
+            return ShortArray.decode( block );
+        }
+
+        @Override
+        public PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue )
+        {
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(), propertyId, getValue( block, null ) );
         }
     }
     ;
@@ -229,9 +243,9 @@ public enum PropertyType
         return type;
     }
 
-    public abstract Object getValue( PropertyRecord record, PropertyStore store );
+    public abstract Object getValue( PropertyBlock block, PropertyStore store );
     
-    public abstract PropertyData newPropertyData( PropertyRecord record, Object extractedValue );
+    public abstract PropertyData newPropertyData( PropertyBlock block, long propertyId, Object extractedValue );
 
     public static PropertyType getPropertyType( int type, boolean nullOnIllegal )
     {
@@ -262,6 +276,8 @@ public enum PropertyType
             return SHORT;
         case 11:
             return SHORT_STRING;
+        case 12:
+            return SHORT_ARRAY;
         }
         throw new InvalidRecordException( "Unknown property type:" + type );
     }
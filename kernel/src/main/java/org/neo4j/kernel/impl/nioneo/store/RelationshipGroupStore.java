@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Implementation of the relationship group store, holding the
+ * {@link RelationshipGroupRecord}s of dense nodes.
+ */
+public class RelationshipGroupStore extends AbstractStore implements Store
+{
+    // relationship group store version, each group store ends with this
+    // string (byte encoded)
+    private static final String VERSION = "RelationshipGroupStore v0.A.0";
+
+    // in_use(byte)+type(short)+first_high(short)+next_group_id(int)+
+    // first_out_id(int)+first_in_id(int)+first_loop_id(int)+owning_node(int)+
+    // out_count(int)+in_count(int)+loop_count(int)
+    public static final int RECORD_SIZE = 37;
+
+    public RelationshipGroupStore( String fileName, Map<?,?> config )
+    {
+        super( fileName, config, IdType.RELATIONSHIP_GROUP );
+    }
+
+    public String getTypeAndVersionDescriptor()
+    {
+        return VERSION;
+    }
+
+    public int getRecordSize()
+    {
+        return RECORD_SIZE;
+    }
+
+    /**
+     * Creates a new relationship group store contained in
+     * <CODE>fileName</CODE>. If the file already exists an
+     * <CODE>IllegalStateException</CODE> is thrown.
+     *
+     * @param fileName
+     *            File name of the new relationship group store
+     */
+    public static void createStore( String fileName, IdGeneratorFactory idGeneratorFactory )
+    {
+        createEmptyStore( fileName, VERSION, idGeneratorFactory );
+    }
+
+    public RelationshipGroupRecord getRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            return getRecord( id, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(),
+            OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    private RelationshipGroupRecord getRecord( long id, PersistenceWindow window )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+
+        // [    ,   x] in use flag
+        // [    ,xxx ] next group high order bits
+        // [ xxx,    ] owning node high order bits
+        long inUseByte = buffer.get();
+        if ( (inUseByte & 0x1) != Record.IN_USE.intValue() )
+        {
+            throw new InvalidRecordException( "Record[" + id + "] not in use" );
+        }
+        int type = buffer.getShort() & 0xFFFF;
+
+        // [    ,    ][    ,    ][    ,    ][    ,    ] unused
+        // [    ,    ][    ,    ][    , xxx] first out high order bits
+        // [    ,    ][    ,    ][  xx,x   ] first in high order bits
+        // [    ,    ][    ,   x][xx  ,    ] first loop high order bits
+        long highByte = buffer.getShort() & 0xFFFF;
+
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, type );
+        record.setInUse( true );
+        long next = buffer.getUnsignedInt();
+        record.setNext( longFromIntAndMod( next, ( inUseByte & 0xEL ) << 31 ) );
+        long firstOut = buffer.getUnsignedInt();
+        record.setFirstOut( longFromIntAndMod( firstOut, ( highByte & 0x7L ) << 32 ) );
+        long firstIn = buffer.getUnsignedInt();
+        record.setFirstIn( longFromIntAndMod( firstIn, ( highByte & 0x38L ) << 29 ) );
+        long firstLoop = buffer.getUnsignedInt();
+        record.setFirstLoop( longFromIntAndMod( firstLoop, ( highByte & 0x1C0L ) << 26 ) );
+        long owningNode = buffer.getUnsignedInt();
+        record.setOwningNode( longFromIntAndMod( owningNode, ( inUseByte & 0x70L ) << 28 ) );
+        record.setCount( DirectionWrapper.OUTGOING, buffer.getInt() );
+        record.setCount( DirectionWrapper.INCOMING, buffer.getInt() );
+        record.setCount( DirectionWrapper.BOTH, buffer.getInt() );
+        return record;
+    }
+
+    private void updateRecord( RelationshipGroupRecord record,
+        PersistenceWindow window )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() )
+        {
+            long next = record.getNext();
+            long nextMod = highBits( next ) >> 31;
+            long owningNode = record.getOwningNode();
+            long owningNodeMod = highBits( owningNode ) >> 28;
+            long firstOut = record.getFirstOut();
+            long firstIn = record.getFirstIn();
+            long firstLoop = record.getFirstLoop();
+            long highShort = ( highBits( firstOut ) >> 32 )
+                | ( highBits( firstIn ) >> 29 ) | ( highBits( firstLoop ) >> 26 );
+
+            buffer.put( (byte) ( Record.IN_USE.byteValue() | nextMod | owningNodeMod ) )
+                .putShort( (short) record.getType() ).putShort( (short) highShort )
+                .putInt( (int) next ).putInt( (int) firstOut ).putInt( (int) firstIn )
+                .putInt( (int) firstLoop ).putInt( (int) owningNode )
+                .putInt( record.getCount( DirectionWrapper.OUTGOING ) )
+                .putInt( record.getCount( DirectionWrapper.INCOMING ) )
+                .putInt( record.getCount( DirectionWrapper.BOTH ) );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private static long highBits( long id )
+    {
+        return id == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : id & 0x700000000L;
+    }
+
+    public String toString()
+    {
+        return "RelGroupStore";
+    }
+
+    @Override
+    protected boolean versionFound( String version )
+    {
+        if ( !version.startsWith( "RelationshipGroupStore" ) )
+        {
+            // non clean shutdown, need to do recover with right neo
+            return false;
+        }
+        throw new IllegalStoreVersionException( "Store version [" + version  +
+            "]. Please make sure you are not running old Neo4j kernel " +
+            " towards a store that has been created by newer version " +
+            " of Neo4j." );
+    }
+
+    public List<WindowPoolStats> getAllWindowPoolStats()
+    {
+        List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
+        list.add( getWindowPoolStats() );
+        return list;
+    }
+}
@@ -319,6 +319,35 @@ public class RelationshipStore extends AbstractStore implements Store
             " of Neo4j." );
     }
 
+    /**
+     * Returns the relationships in use, read sequentially from the store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<RelationshipRecord> scan()
+    {
+        return scan( 0, Long.MAX_VALUE );
+    }
+
+    /**
+     * Returns the relationships in use with ids from <CODE>fromId</CODE> up to,
+     * but not including, <CODE>toId</CODE>, read sequentially from the
+     * store file.
+     *
+     * @see StoreScan
+     */
+    public StoreScan<RelationshipRecord> scan( long fromId, long toId )
+    {
+        return new StoreScan<RelationshipRecord>( this, fromId, toId )
+        {
+            @Override
+            protected RelationshipRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, false );
+            }
+        };
+    }
+
     public RelationshipRecord getChainRecord( long relId )
     {
         PersistenceWindow window = null;
@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes small primitive arrays so that they can be kept in the blocks of
+ * a {@link PropertyRecord} instead of the dynamic array store. The header
+ * block holds the component type and length, followed by at most
+ * {@link #MAX_BLOCKS} blocks of big endian element data.
+ */
+enum ShortArray
+{
+    BOOLEAN( boolean.class, 1 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.put( (byte) (Array.getBoolean( array, index ) ? 1 : 0) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setBoolean( array, index, buffer.get() != 0 );
+        }
+    },
+    BYTE( byte.class, 1 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.put( Array.getByte( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setByte( array, index, buffer.get() );
+        }
+    },
+    SHORT( short.class, 2 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putShort( Array.getShort( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setShort( array, index, buffer.getShort() );
+        }
+    },
+    CHAR( char.class, 2 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putChar( Array.getChar( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setChar( array, index, buffer.getChar() );
+        }
+    },
+    INT( int.class, 4 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putInt( Array.getInt( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setInt( array, index, buffer.getInt() );
+        }
+    },
+    LONG( long.class, 8 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putLong( Array.getLong( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setLong( array, index, buffer.getLong() );
+        }
+    },
+    FLOAT( float.class, 4 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putFloat( Array.getFloat( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setFloat( array, index, buffer.getFloat() );
+        }
+    },
+    DOUBLE( double.class, 8 )
+    {
+        @Override
+        void put( ByteBuffer buffer, Object array, int index )
+        {
+            buffer.putDouble( Array.getDouble( array, index ) );
+        }
+
+        @Override
+        void get( ByteBuffer buffer, Object array, int index )
+        {
+            Array.setDouble( array, index, buffer.getDouble() );
+        }
+    };
+
+    /**
+     * The most blocks the data of a short array may take, leaving the header
+     * block of the property.
+     */
+    static final int MAX_BLOCKS = PropertyStore.BLOCKS_PER_RECORD - 1;
+
+    private final Class<?> componentType;
+    private final int bytesPerElement;
+
+    private ShortArray( Class<?> componentType, int bytesPerElement )
+    {
+        this.componentType = componentType;
+        this.bytesPerElement = bytesPerElement;
+    }
+
+    abstract void put( ByteBuffer buffer, Object array, int index );
+
+    abstract void get( ByteBuffer buffer, Object array, int index );
+
+    /**
+     * Encodes a primitive array into <CODE>target</CODE>.
+     *
+     * @param array the array to encode.
+     * @param target the property block to store the encoded array in
+     * @return <code>true</code> if the array could be encoded as a short
+     *         array, <code>false</code> if it couldn't.
+     */
+    public static boolean encode( Object array, PropertyBlock target )
+    {
+        ShortArray type = typeOf( array.getClass().getComponentType() );
+        if ( type == null )
+        {
+            return false;
+        }
+        int length = Array.getLength( array );
+        int bytes = length * type.bytesPerElement;
+        if ( bytes > MAX_BLOCKS * 8 )
+        {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( ( bytes + 7 ) / 8 * 8 );
+        for ( int i = 0; i < length; i++ )
+        {
+            type.put( buffer, array, i );
+        }
+        // the unused bytes of the last block stay zero
+        buffer.clear();
+        long[] blocks = new long[buffer.capacity() / 8];
+        buffer.asLongBuffer().get( blocks );
+        target.setPropBlock( ( (long) length << 4 ) | type.ordinal() );
+        target.setArrayBlocks( blocks );
+        return true;
+    }
+
+    /**
+     * @return the number of data blocks following the header block of an
+     * encoded short array, given its header.
+     */
+    static int dataBlocks( long header )
+    {
+        ShortArray type = values()[(int) ( header & 0xF )];
+        return ( (int) ( header >>> 4 ) * type.bytesPerElement + 7 ) / 8;
+    }
+
+    /**
+     * Decodes the array stored in a short array property block.
+     *
+     * @param block the property block to decode.
+     * @return the decoded array
+     */
+    public static Object decode( PropertyBlock block )
+    {
+        long header = block.getPropBlock();
+        ShortArray type = values()[(int) ( header & 0xF )];
+        int length = (int) ( header >>> 4 );
+        ByteBuffer buffer = ByteBuffer.allocate( block.getArrayBlocks().length * 8 );
+        buffer.asLongBuffer().put( block.getArrayBlocks() );
+        Object array = Array.newInstance( type.componentType, length );
+        for ( int i = 0; i < length; i++ )
+        {
+            type.get( buffer, array, i );
+        }
+        return array;
+    }
+
+    private static ShortArray typeOf( Class<?> componentType )
+    {
+        for ( ShortArray type : values() )
+        {
+            if ( type.componentType == componentType )
+            {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -335,7 +335,7 @@ enum ShortString
      * Encodes a short string.
      *
      * @param string the string to encode.
-     * @param target the property record to store the encoded string in
+     * @param target the property block to store the encoded string in
      * @return <code>true</code> if the string could be encoded as a short
      *         string, <code>false</code> if it couldn't.
      */
@@ -359,7 +359,7 @@ enum ShortString
      * E-  à  á  â  ã  ä  å  æ  ç    è  é  ê  ë  ì  í  î  ï
      * F-  ð  ñ  ò  ó  ô  õ  ö       ø  ù  ú  û  ü  ý  þ  ÿ
      */
-    public static boolean encode( String string, PropertyRecord target )
+    public static boolean encode( String string, PropertyBlock target )
     {
         if ( string.length() > 15 ) return false; // Not handled by any encoding
         if ( string.equals( "" ) )
@@ -537,7 +537,7 @@ enum ShortString
         return new String( result );
     }
 
-    private static boolean encodeLatin1( String string, PropertyRecord target )
+    private static boolean encodeLatin1( String string, PropertyBlock target )
     { // see doEncode
         long result = 0x78 | ( string.length() - 1 );
         result <<= ( 7 - string.length() ) * 8; // move the header to its place
@@ -551,7 +551,7 @@ enum ShortString
         return true;
     }
 
-    private static boolean encodeUTF8( byte[] bytes, PropertyRecord target )
+    private static boolean encodeUTF8( byte[] bytes, PropertyBlock target )
     { // UTF-8 padded with null bytes
         if ( bytes.length > 7 ) return false;
         long result = 0;
@@ -563,7 +563,7 @@ enum ShortString
         return true;
     }
 
-    private boolean doEncode( byte[] data, PropertyRecord target )
+    private boolean doEncode( byte[] data, PropertyBlock target )
     {
         if ( data.length > max ) return false;
         long result = header( data.length );
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+/**
+ * Iterates over the records in use in a range of ids of a store by reading
+ * the store file sequentially in large chunks, bypassing the window pool.
+ * A background thread reads the next chunks while the current one is
+ * iterated. Records not in use are skipped by looking at their in use bit,
+ * only the records in use are decoded. The records are light, dynamic
+ * records of property values aren't loaded.
+ * <p>
+ * The store is flushed when the scan starts, after that the scan sees the
+ * committed records as they are in the file when each chunk is read, so
+ * changes committed while scanning may or may not be seen. The records of
+ * ids created after the scan started aren't returned.
+ * <p>
+ * A scan that isn't iterated to the end must be {@link #close() closed} to
+ * stop the read-ahead thread.
+ *
+ * @param <R> the type of record returned
+ */
+public abstract class StoreScan<R> extends PrefetchingIterator<R>
+{
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 2;
+
+    private final AbstractStore store;
+    private final int recordSize;
+    private final int recordsPerChunk;
+    private final long endId;
+    private long nextChunkId;
+    private final LinkedList<Future<PersistenceWindow>> chunks =
+        new LinkedList<Future<PersistenceWindow>>();
+    private final ExecutorService readAhead;
+
+    private PersistenceWindow chunk;
+    private long id;
+    private long chunkEndId;
+
+    /**
+     * @param store the store to scan
+     * @param fromId the first id to scan
+     * @param toId the id to stop before, capped to the high id of the store
+     */
+    protected StoreScan( final AbstractStore store, long fromId, long toId )
+    {
+        this.store = store;
+        this.recordSize = store.getRecordSize();
+        this.recordsPerChunk = Math.max( 1, CHUNK_SIZE / recordSize );
+        this.endId = Math.min( toId, store.getHighId() );
+        this.nextChunkId = Math.max( 0, fromId );
+        this.id = nextChunkId;
+        this.chunkEndId = nextChunkId;
+        store.flushAll();
+        this.readAhead = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Store scan ["
+                    + store.getStorageFileName() + "]" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        for ( int i = 0; i < READ_AHEAD_CHUNKS; i++ )
+        {
+            readNextChunk();
+        }
+    }
+
+    /**
+     * Decodes the record <CODE>id</CODE>, which is in use, from
+     * <CODE>window</CODE>.
+     */
+    protected abstract R read( long id, PersistenceWindow window );
+
+    private void readNextChunk()
+    {
+        if ( nextChunkId >= endId )
+        {
+            return;
+        }
+        final long position = nextChunkId;
+        final int records = (int) Math.min( recordsPerChunk, endId - position );
+        nextChunkId += records;
+        chunks.add( readAhead.submit( new Callable<PersistenceWindow>()
+        {
+            public PersistenceWindow call()
+            {
+                PlainPersistenceWindow window = new PlainPersistenceWindow(
+                    position, recordSize, records * recordSize,
+                    store.getFileChannel() );
+                window.readPosition();
+                return window;
+            }
+        } ) );
+    }
+
+    private boolean nextChunk()
+    {
+        Future<PersistenceWindow> next = chunks.poll();
+        if ( next == null )
+        {
+            close();
+            return false;
+        }
+        readNextChunk();
+        try
+        {
+            chunk = next.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UnderlyingStorageException( "Interrupted while scanning "
+                + store.getStorageFileName(), e );
+        }
+        catch ( ExecutionException e )
+        {
+            close();
+            throw new UnderlyingStorageException( "Unable to scan "
+                + store.getStorageFileName(), e.getCause() );
+        }
+        id = chunk.position();
+        chunkEndId = id + chunk.size();
+        return true;
+    }
+
+    @Override
+    protected R fetchNextOrNull()
+    {
+        while ( true )
+        {
+            while ( id < chunkEndId )
+            {
+                long current = id++;
+                int offset = (int) ( current - chunk.position() ) * recordSize;
+                byte inUseByte = chunk.getBuffer().getBuffer().get( offset );
+                if ( ( inUseByte & 0x1 ) == Record.IN_USE.intValue() )
+                {
+                    return read( current, chunk );
+                }
+            }
+            if ( !nextChunk() )
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stops the read-ahead, the scan returns no more records.
+     */
+    public void close()
+    {
+        for ( Future<PersistenceWindow> pending : chunks )
+        {
+            pending.cancel( false );
+        }
+        chunks.clear();
+        // not shutdownNow, interrupting a read would close the file channel
+        // of the store
+        readAhead.shutdown();
+        chunkEndId = id;
+    }
+}
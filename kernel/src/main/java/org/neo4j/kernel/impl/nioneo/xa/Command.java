@@ -23,24 +23,31 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
 /**
  * Command implementations for all the commands that can be performed on a Neo
@@ -166,6 +173,8 @@ abstract class Command extends XaCommand
     private static final byte REL_COMMAND = (byte) 3;
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
+    private static final byte REL_GROUP_COMMAND = (byte) 6;
+    private static final byte COUNTS_COMMAND = (byte) 7;
 
     static class NodeCommand extends Command
     {
@@ -222,7 +231,7 @@ abstract class Command extends XaCommand
             if ( record.inUse() )
             {
                 buffer.putLong( record.getNextRel() ).putLong(
-                    record.getNextProp() );
+                    record.getNextProp() ).put( record.isDense() ? (byte) 1 : (byte) 0 );
             }
         }
 
@@ -253,7 +262,7 @@ abstract class Command extends XaCommand
             if ( inUse )
             {
                 buffer.clear();
-                buffer.limit( 16 );
+                buffer.limit( 17 );
                 if ( byteChannel.read( buffer ) != buffer.limit() )
                 {
                     return null;
@@ -261,6 +270,7 @@ abstract class Command extends XaCommand
                 buffer.flip();
                 record.setNextRel( buffer.getLong() );
                 record.setNextProp( buffer.getLong() );
+                record.setDense( buffer.get() != 0 );
             }
             return new NodeCommand( neoStore == null ? null : neoStore.getNodeStore(), record );
         }
@@ -418,6 +428,130 @@ abstract class Command extends XaCommand
         }
     }
 
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipGroupStore store;
+
+        RelationshipGroupCommand( RelationshipGroupStore store,
+            RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "RelationshipGroupCommand[" + record + "]";
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            // id+in_use(byte)+type(int)+next(long)+first_out(long)+
+            // first_in(long)+first_loop(long)+owning_node(long)+out_count(int)+
+            // in_count(int)+loop_count(int)
+            byte inUse = record.inUse() ? Record.IN_USE.byteValue()
+                : Record.NOT_IN_USE.byteValue();
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() ).put( inUse ).putInt( record.getType() );
+            if ( record.inUse() )
+            {
+                buffer.putLong( record.getNext() ).putLong( record.getFirstOut() )
+                    .putLong( record.getFirstIn() ).putLong( record.getFirstLoop() )
+                    .putLong( record.getOwningNode() )
+                    .putInt( record.getCount( DirectionWrapper.OUTGOING ) )
+                    .putInt( record.getCount( DirectionWrapper.INCOMING ) )
+                    .putInt( record.getCount( DirectionWrapper.BOTH ) );
+            }
+        }
+
+        static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 13 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id,
+                buffer.getInt() );
+            record.setInUse( inUse );
+            if ( inUse )
+            {
+                buffer.clear();
+                buffer.limit( 52 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return null;
+                }
+                buffer.flip();
+                record.setNext( buffer.getLong() );
+                record.setFirstOut( buffer.getLong() );
+                record.setFirstIn( buffer.getLong() );
+                record.setFirstLoop( buffer.getLong() );
+                record.setOwningNode( buffer.getLong() );
+                record.setCount( DirectionWrapper.OUTGOING, buffer.getInt() );
+                record.setCount( DirectionWrapper.INCOMING, buffer.getInt() );
+                record.setCount( DirectionWrapper.BOTH, buffer.getInt() );
+            }
+            return new RelationshipGroupCommand(
+                neoStore == null ? null : neoStore.getRelationshipGroupStore(), record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     static class PropertyIndexCommand extends Command
     {
         private final PropertyIndexRecord record;
@@ -598,8 +732,9 @@ abstract class Command extends XaCommand
         @Override
         public void writeToFile( LogBuffer buffer ) throws IOException
         {
-            // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-            // prev_prop_id(long)+next_prop_id(long)+nr_value_records(int)
+            // id+in_use(byte)+primitive_id(long)+[prev_prop_id(long)+
+            // next_prop_id(long)+nr_blocks(byte)+block*]+
+            // nr_deleted_records(int)+deleted_record*
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
             if ( record.getRelId() != -1 )
@@ -627,19 +762,57 @@ abstract class Command extends XaCommand
             }
             if ( record.inUse() )
             {
-                buffer.putInt( record.getType().intValue() ).putInt(
-                    record.getKeyIndexId() ).putLong( record.getPropBlock() )
-                    .putLong( record.getPrevProp() ).putLong(
-                        record.getNextProp() );
+                buffer.putLong( record.getPrevProp() ).putLong(
+                    record.getNextProp() );
+                byte nrBlocks = 0;
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    if ( record.getBlock( i ) != null )
+                    {
+                        nrBlocks++;
+                    }
+                }
+                buffer.put( nrBlocks );
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    PropertyBlock block = record.getBlock( i );
+                    if ( block != null )
+                    {
+                        writePropertyBlock( buffer, i, block );
+                    }
+                }
             }
-            if ( record.isLight() )
+            Collection<DynamicRecord> deletedRecords = record.getDeletedRecords();
+            buffer.putInt( deletedRecords.size() );
+            for ( DynamicRecord valueRecord : deletedRecords )
+            {
+                writeDynamicRecord( buffer, valueRecord );
+            }
+        }
+
+        // index(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
+        // [nr_array_blocks(byte)+array_blocks(long)*]+nr_value_records(int)
+        private static void writePropertyBlock( LogBuffer buffer, int index,
+            PropertyBlock block ) throws IOException
+        {
+            buffer.put( (byte) index ).putInt( block.getType().intValue() )
+                .putInt( block.getKeyIndexId() ).putLong( block.getPropBlock() );
+            if ( block.getType() == PropertyType.SHORT_ARRAY )
+            {
+                long[] arrayBlocks = block.getArrayBlocks();
+                buffer.put( (byte) arrayBlocks.length );
+                for ( long arrayBlock : arrayBlocks )
+                {
+                    buffer.putLong( arrayBlock );
+                }
+            }
+            if ( block.isLight() )
             {
                 buffer.putInt( 0 );
             }
             else
             {
-                Collection<DynamicRecord> valueRecords = record
-                    .getValueRecords();
+                Collection<DynamicRecord> valueRecords = block.getValueRecords();
                 buffer.putInt( valueRecords.size() );
                 for ( DynamicRecord valueRecord : valueRecords )
                 {
@@ -652,8 +825,9 @@ abstract class Command extends XaCommand
             ReadableByteChannel byteChannel, ByteBuffer buffer )
             throws IOException
         {
-            // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-            // prev_prop_id(long)+next_prop_id(long)+nr_value_records(int)
+            // id+in_use(byte)+primitive_id(long)+[prev_prop_id(long)+
+            // next_prop_id(long)+nr_blocks(byte)+block*]+
+            // nr_deleted_records(int)+deleted_record*
             buffer.clear();
             buffer.limit( 17 );
             if ( byteChannel.read( buffer ) != buffer.limit() )
@@ -688,23 +862,23 @@ abstract class Command extends XaCommand
             if ( inUse )
             {
                 buffer.clear();
-                buffer.limit( 32 );
+                buffer.limit( 17 );
                 if ( byteChannel.read( buffer ) != buffer.limit() )
                 {
                     return null;
                 }
                 buffer.flip();
-                PropertyType type = getType( buffer.getInt() );
-                if ( type == null )
-                {
-                    return null;
-                }
-                record.setType( type );
                 record.setInUse( inUse );
-                record.setKeyIndexId( buffer.getInt() );
-                record.setPropBlock( buffer.getLong() );
                 record.setPrevProp( buffer.getLong() );
                 record.setNextProp( buffer.getLong() );
+                int nrBlocks = buffer.get();
+                for ( int i = 0; i < nrBlocks; i++ )
+                {
+                    if ( !readPropertyBlock( record, byteChannel, buffer ) )
+                    {
+                        return null;
+                    }
+                }
             }
             buffer.clear();
             buffer.limit( 4 );
@@ -713,19 +887,89 @@ abstract class Command extends XaCommand
                 return null;
             }
             buffer.flip();
-            int nrValueRecords = buffer.getInt();
-            for ( int i = 0; i < nrValueRecords; i++ )
+            int nrDeletedRecords = buffer.getInt();
+            for ( int i = 0; i < nrDeletedRecords; i++ )
             {
                 DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
                 if ( dr == null )
                 {
                     return null;
                 }
-                record.addValueRecord( dr );
+                record.addDeletedRecord( dr );
             }
             return new PropertyCommand( neoStore == null ? null : neoStore.getPropertyStore(), record );
         }
 
+        private static boolean readPropertyBlock( PropertyRecord record,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 17 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return false;
+            }
+            buffer.flip();
+            int index = buffer.get();
+            PropertyType type = getType( buffer.getInt() );
+            if ( type == null || index < 0
+                || index >= PropertyStore.BLOCKS_PER_RECORD )
+            {
+                return false;
+            }
+            PropertyBlock block = new PropertyBlock();
+            block.setType( type );
+            block.setKeyIndexId( buffer.getInt() );
+            block.setPropBlock( buffer.getLong() );
+            if ( type == PropertyType.SHORT_ARRAY )
+            {
+                buffer.clear();
+                buffer.limit( 1 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return false;
+                }
+                buffer.flip();
+                long[] arrayBlocks = new long[buffer.get()];
+                buffer.clear();
+                buffer.limit( arrayBlocks.length * 8 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return false;
+                }
+                buffer.flip();
+                for ( int i = 0; i < arrayBlocks.length; i++ )
+                {
+                    arrayBlocks[i] = buffer.getLong();
+                }
+                block.setArrayBlocks( arrayBlocks );
+            }
+            buffer.clear();
+            buffer.limit( 4 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return false;
+            }
+            buffer.flip();
+            int nrValueRecords = buffer.getInt();
+            for ( int i = 0; i < nrValueRecords; i++ )
+            {
+                DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
+                if ( dr == null )
+                {
+                    return false;
+                }
+                block.addValueRecord( dr );
+            }
+            if ( record.getBlock( index ) != null )
+            {
+                return false;
+            }
+            record.setBlock( index, block );
+            return true;
+        }
+
         private static PropertyType getType( int type )
         {
             return PropertyType.getPropertyType( type, true );
@@ -857,6 +1101,119 @@ abstract class Command extends XaCommand
         }
     }
 
+    /**
+     * The change in number of nodes, relationships of each type and
+     * properties made by a transaction, applied to the {@link CountsStore}.
+     * A transaction has at most one, so the key is always 0.
+     */
+    static class CountsCommand extends Command
+    {
+        private final CountsStore store;
+        private final long nodeDelta;
+        private final long propertyDelta;
+        private final Map<Integer,Long> relationshipDeltas;
+        private long txId = -1;
+
+        CountsCommand( CountsStore store, long nodeDelta, long propertyDelta,
+            Map<Integer,Long> relationshipDeltas )
+        {
+            super( 0 );
+            this.store = store;
+            this.nodeDelta = nodeDelta;
+            this.propertyDelta = propertyDelta;
+            this.relationshipDeltas = relationshipDeltas;
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return false;
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return false;
+        }
+
+        /**
+         * Sets the id of the transaction this command belongs to, it must be
+         * set before the command is executed.
+         */
+        void setTxId( long txId )
+        {
+            this.txId = txId;
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+            }
+            store.apply( txId, nodeDelta, propertyDelta, relationshipDeltas );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "CountsCommand[nodes:" + nodeDelta + ", properties:"
+                + propertyDelta + ", relationships:" + relationshipDeltas + "]";
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            // node_delta(long)+property_delta(long)+nr_of_types(int)+
+            // nr_of_types*(type(int)+relationship_delta(long))
+            buffer.put( COUNTS_COMMAND );
+            buffer.putLong( nodeDelta ).putLong( propertyDelta ).putInt(
+                relationshipDeltas.size() );
+            for ( Map.Entry<Integer,Long> entry : relationshipDeltas.entrySet() )
+            {
+                buffer.putInt( entry.getKey() ).putLong( entry.getValue() );
+            }
+        }
+
+        static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 20 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long nodeDelta = buffer.getLong();
+            long propertyDelta = buffer.getLong();
+            int nrOfTypes = buffer.getInt();
+            Map<Integer,Long> relationshipDeltas = new HashMap<Integer,Long>();
+            for ( int i = 0; i < nrOfTypes; i++ )
+            {
+                buffer.clear();
+                buffer.limit( 12 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return null;
+                }
+                buffer.flip();
+                relationshipDeltas.put( buffer.getInt(), buffer.getLong() );
+            }
+            return new CountsCommand( neoStore == null ? null :
+                neoStore.getCountsStore(), nodeDelta, propertyDelta,
+                relationshipDeltas );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            return o instanceof CountsCommand;
+        }
+    }
+
     static Command readCommand( NeoStore neoStore, ReadableByteChannel byteChannel,
         ByteBuffer buffer ) throws IOException
     {
@@ -884,6 +1241,12 @@ abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore,
+                    byteChannel, buffer );
+            case COUNTS_COMMAND:
+                return CountsCommand.readCommand( neoStore, byteChannel,
+                    buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
+
+/**
+ * The positions in the relationship chains of a dense node, one chain for
+ * each relationship type and direction of the node's
+ * {@link RelationshipGroupRecord groups}. Only chains matching the filter
+ * they are loaded with are walked, the others keep their position.
+ */
+class DenseNodeChainPosition implements RelationshipLoadingPosition
+{
+    // the chains of a group, in the order they are kept in positions
+    private static final DirectionWrapper[] DIRECTIONS = { DirectionWrapper.OUTGOING,
+        DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
+
+    private final int[] types;
+    private final long[] positions;
+
+    DenseNodeChainPosition( List<RelationshipGroupRecord> groups )
+    {
+        types = new int[groups.size()];
+        positions = new long[groups.size() * DIRECTIONS.length];
+        for ( int i = 0; i < types.length; i++ )
+        {
+            RelationshipGroupRecord group = groups.get( i );
+            types[i] = group.getType();
+            for ( int d = 0; d < DIRECTIONS.length; d++ )
+            {
+                positions[i * DIRECTIONS.length + d] = group.getFirst( DIRECTIONS[d] );
+            }
+        }
+    }
+
+    private DenseNodeChainPosition( int[] types, long[] positions )
+    {
+        this.types = types;
+        this.positions = positions;
+    }
+
+    /**
+     * @return a copy of this position whose chain positions may be changed
+     * with {@link #setPosition(int, long)}.
+     */
+    DenseNodeChainPosition copy()
+    {
+        return new DenseNodeChainPosition( types, positions.clone() );
+    }
+
+    int chainCount()
+    {
+        return positions.length;
+    }
+
+    int getType( int chain )
+    {
+        return types[chain / DIRECTIONS.length];
+    }
+
+    /**
+     * @return the direction of the relationships in <CODE>chain</CODE>,
+     * {@link DirectionWrapper#BOTH} for loops.
+     */
+    DirectionWrapper getDirection( int chain )
+    {
+        return DIRECTIONS[chain % DIRECTIONS.length];
+    }
+
+    long getPosition( int chain )
+    {
+        return positions[chain];
+    }
+
+    void setPosition( int chain, long position )
+    {
+        positions[chain] = position;
+    }
+
+    public boolean hasMore()
+    {
+        for ( long position : positions )
+        {
+            if ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasMore( RelationshipFilter filter )
+    {
+        for ( int chain = 0; chain < positions.length; chain++ )
+        {
+            if ( positions[chain] != Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                filter.matches( getType( chain ), getDirection( chain ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DenseNodeChainPosition[types=" + Arrays.toString( types ) +
+            ", positions=" + Arrays.toString( positions ) + "]";
+    }
+}
@@ -25,12 +25,15 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
 
+import javax.transaction.xa.Xid;
+
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
@@ -40,6 +43,7 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Store;
@@ -48,10 +52,13 @@ import org.neo4j.kernel.impl.nioneo.store.WindowPoolStats;
 import org.neo4j.kernel.impl.persistence.IdGenerationFailedException;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBackedXaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.transaction.xaframework.XaContainer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransactionFactory;
@@ -82,6 +89,9 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private final LockManager lockManager;
     private final LockReleaser lockReleaser;
     private final String storeDir;
+    private final File spillDirectory;
+    private final int spillThreshold;
+    private final RecoveryCommandApplier recoveryApplier = new RecoveryCommandApplier();
     private final boolean readOnly;
 
     private boolean logApplied = false;
@@ -117,12 +127,14 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         this.lockReleaser = (LockReleaser) config.get( LockReleaser.class );
         storeDir = (String) config.get( "store_dir" );
         msgLog = StringLogger.getLogger( storeDir );
+        spillThreshold = parseSpillThreshold( config );
         String store = (String) config.get( "neo_store" );
         if ( !config.containsKey( REBUILD_IDGENERATORS_FAST ) )
         {
             config.put( REBUILD_IDGENERATORS_FAST, "true" );
         }
         File file = new File( store );
+        spillDirectory = file.getAbsoluteFile().getParentFile();
         String create = "" + config.get( "create" );
         if ( !readOnly && !file.exists() && "true".equals( create ) )
         {
@@ -132,6 +144,10 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         }
 
         neoStore = new NeoStore( config );
+        if ( !readOnly )
+        {
+            deleteSpillFiles();
+        }
         xaContainer = XaContainer.create( this, (String) config.get( "logical_log" ),
                 new CommandFactory( neoStore ), new TransactionFactory(), config );
 
@@ -140,16 +156,29 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             neoStore.setRecoveredStatus( true );
             try
             {
+                if ( !"false".equalsIgnoreCase(
+                    (String) config.get( Config.PARALLEL_RECOVERY ) ) )
+                {
+                    recoveryApplier.start();
+                }
                 xaContainer.openLogicalLog();
             }
             finally
             {
-                neoStore.setRecoveredStatus( false );
+                try
+                {
+                    applyRecoveredCommands();
+                }
+                finally
+                {
+                    neoStore.setRecoveredStatus( false );
+                }
             }
         }
         if ( !xaContainer.getResourceManager().hasRecoveredTransactions() )
         {
             neoStore.makeStoreOk();
+            rebuildCountsIfNeeded();
         }
         else
         {
@@ -171,6 +200,149 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
     }
 
+    /**
+     * Waits for the commands of transactions recovered in parallel to be
+     * written and then updates the id generators, which is done for each
+     * transaction when they are recovered one at a time.
+     */
+    private void applyRecoveredCommands()
+    {
+        if ( recoveryApplier.isActive() )
+        {
+            recoveryApplier.stop();
+            neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+        }
+    }
+
+    /**
+     * Brings the graph-wide counts up to the last committed transaction. The
+     * transactions the counts are missing are normally recovered with the
+     * rest of the logical log, those that are older than the current log
+     * are replayed from the kept logs. The stores are scanned if the counts
+     * couldn't be read or the missing transactions aren't in the logs
+     * anymore. The stores must be ok, since the scan goes by their high ids.
+     */
+    private void rebuildCountsIfNeeded()
+    {
+        CountsStore counts = neoStore.getCountsStore();
+        long lastCommittedTx = neoStore.getLastCommittedTx();
+        if ( !readOnly && !counts.needsRebuild()
+            && counts.getLastTxId() < lastCommittedTx )
+        {
+            replayCounts( counts, lastCommittedTx );
+        }
+        if ( counts.needsRebuild() || counts.getLastTxId() != lastCommittedTx )
+        {
+            msgLog.logMessage( "Rebuilding counts for " + neoStore
+                .getStorageFileName() + ", was " + counts, true );
+            counts.rebuild( neoStore );
+            msgLog.logMessage( "Counts rebuilt " + counts, true );
+        }
+        // so that a crash doesn't leave the counts without a file to
+        // recover on top of
+        counts.flush();
+    }
+
+    /**
+     * Applies the counts commands of the transactions after the last one
+     * the counts include, up to <CODE>lastCommittedTx</CODE>, reading them
+     * from the logical logs.
+     *
+     * @return <CODE>false</CODE> if a transaction couldn't be read, the
+     * counts then have to be rebuilt.
+     */
+    private boolean replayCounts( CountsStore counts, long lastCommittedTx )
+    {
+        long fromTxId = counts.getLastTxId() + 1;
+        XaLogicalLog log = xaContainer.getLogicalLog();
+        XaCommandFactory commandFactory = new CommandFactory( neoStore );
+        ByteBuffer buffer = ByteBuffer.allocate( 9 + Xid.MAXGTRIDSIZE
+            + Xid.MAXBQUALSIZE * 10 );
+        try
+        {
+            for ( long txId = fromTxId; txId <= lastCommittedTx; txId++ )
+            {
+                ReadableByteChannel transaction = log.getCommittedTransaction( txId );
+                Command.CountsCommand countsCommand = null;
+                LogEntry entry;
+                while ( (entry = LogIoUtils.readEntry( buffer, transaction,
+                    commandFactory )) != null )
+                {
+                    if ( entry instanceof LogEntry.Command &&
+                        ((LogEntry.Command) entry).getXaCommand() instanceof Command.CountsCommand )
+                    {
+                        countsCommand = (Command.CountsCommand)
+                            ((LogEntry.Command) entry).getXaCommand();
+                    }
+                }
+                if ( countsCommand == null )
+                {
+                    counts.apply( txId, 0, 0, Collections.<Integer,Long>emptyMap() );
+                }
+                else
+                {
+                    countsCommand.setTxId( txId );
+                    countsCommand.execute();
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            msgLog.logMessage( "Unable to replay counts of transactions "
+                + fromTxId + "-" + lastCommittedTx + " from the logical log", e );
+            return false;
+        }
+        catch ( RuntimeException e )
+        {
+            // thrown if no log contains the transaction
+            msgLog.logMessage( "Unable to replay counts of transactions "
+                + fromTxId + "-" + lastCommittedTx + " from the logical log", e );
+            return false;
+        }
+        msgLog.logMessage( "Replayed counts of transactions " + fromTxId + "-"
+            + lastCommittedTx + " from the logical log", true );
+        return true;
+    }
+
+    private int parseSpillThreshold( Map<Object,Object> config )
+    {
+        String value = (String) config.get( Config.TRANSACTION_SPILL_THRESHOLD );
+        if ( value == null )
+        {
+            return 0;
+        }
+        try
+        {
+            return Integer.parseInt( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            logger.warning( "Unable to parse " + Config.TRANSACTION_SPILL_THRESHOLD
+                + "=" + value );
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes spill files left behind by transactions that never finished,
+     * their records are of no use after a restart.
+     */
+    private void deleteSpillFiles()
+    {
+        File[] files = spillDirectory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( File file : files )
+        {
+            if ( file.getName().startsWith( RecordSpill.FILE_PREFIX ) )
+            {
+                file.delete();
+            }
+        }
+    }
+
     private void autoCreatePath( String store ) throws IOException
     {
         String fileSeparator = System.getProperty( "file.separator" );
@@ -303,7 +475,8 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         public XaTransaction create( int identifier )
         {
             return new WriteTransaction( identifier, getLogicalLog(), neoStore,
-                lockReleaser, lockManager );
+                lockReleaser, lockManager, spillDirectory, spillThreshold,
+                recoveryApplier );
         }
 
         @Override
@@ -313,8 +486,10 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
                 + "all transactions have been resolved" );
             logger.fine( "Rebuilding id generators as needed. "
                 + "This can take a while for large stores..." );
+            applyRecoveredCommands();
             neoStore.flushAll();
             neoStore.makeStoreOk();
+            rebuildCountsIfNeeded();
             logger.fine( "Rebuild of id generators complete." );
         }
 
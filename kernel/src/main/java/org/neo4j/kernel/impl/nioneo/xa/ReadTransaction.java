@@ -28,9 +28,12 @@ import javax.transaction.xa.XAResource;
 
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
@@ -38,17 +41,24 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 class ReadTransaction implements NeoStoreTransaction
 {
+    private static final int MAX_SKIPPED_BATCHES = 10;
+
     private final NeoStore neoStore;
 
     public ReadTransaction( NeoStore neoStore )
@@ -86,19 +96,223 @@ class ReadTransaction implements NeoStoreTransaction
         return getRelationshipStore().getLightRel( id );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return getRelationshipChainPosition( getNodeStore().getRecord( nodeId ),
+            neoStore.getRelationshipGroupStore() );
     }
 
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position )
+    public int getDegree( long nodeId, RelationshipFilter filter )
     {
-        return getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        return getDegree( getNodeStore().getRecord( nodeId ), filter,
+            neoStore.getRelationshipGroupStore(), getRelationshipStore() );
     }
-    
-    static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position, int grabSize, RelationshipStore relStore )
+
+    public CountsStore getCounts()
+    {
+        return neoStore.getCountsStore();
+    }
+
+    public StoreScan<NodeRecord> scanNodes()
+    {
+        return getNodeStore().scan();
+    }
+
+    public StoreScan<RelationshipRecord> scanRelationships()
+    {
+        return getRelationshipStore().scan();
+    }
+
+    public StoreScan<PropertyRecord> scanProperties()
+    {
+        return getPropertyStore().scan();
+    }
+
+    /*
+     * The degree of a dense node is the sum of the counts kept in its
+     * groups. A sparse node has fewer relationships than the dense node
+     * threshold, unless written by the batch inserter, so its chain is
+     * walked.
+     */
+    static int getDegree( NodeRecord node, RelationshipFilter filter,
+            RelationshipGroupStore groupStore, RelationshipStore relStore )
+    {
+        int degree = 0;
+        if ( node.isDense() )
+        {
+            for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+            {
+                RelationshipGroupRecord group = groupStore.getRecord( groupId );
+                for ( DirectionWrapper direction : DirectionWrapper.values() )
+                {
+                    if ( filter.matches( group.getType(), direction ) )
+                    {
+                        degree += group.getCount( direction );
+                    }
+                }
+                groupId = group.getNext();
+            }
+            return degree;
+        }
+        long nodeId = node.getId();
+        for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipRecord relRecord = relStore.getChainRecord( relId );
+            if ( relRecord == null )
+            {
+                break;
+            }
+            if ( relRecord.inUse() )
+            {
+                DirectionWrapper direction;
+                if ( relRecord.getFirstNode() == relRecord.getSecondNode() )
+                {
+                    direction = DirectionWrapper.BOTH;
+                }
+                else
+                {
+                    direction = relRecord.getFirstNode() == nodeId ?
+                        DirectionWrapper.OUTGOING : DirectionWrapper.INCOMING;
+                }
+                if ( filter.matches( relRecord.getType(), direction ) )
+                {
+                    degree++;
+                }
+            }
+            relId = nextInChain( nodeId, relRecord );
+        }
+        return degree;
+    }
+
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position )
+    {
+        return getMoreRelationships( nodeId, position, RelationshipFilter.ALL );
+    }
+
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position,
+            RelationshipFilter filter )
+    {
+        return getMoreRelationships( nodeId, position, getRelGrabSize(), filter,
+            getRelationshipStore() );
+    }
+
+    /*
+     * The position of a dense node has the heads of the chains of all its
+     * relationship groups, read from the group store.
+     */
+    static RelationshipLoadingPosition getRelationshipChainPosition( NodeRecord node,
+            RelationshipGroupStore groupStore )
+    {
+        if ( !node.isDense() )
+        {
+            return new SingleChainPosition( node.getNextRel() );
+        }
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = groupStore.getRecord( groupId );
+            groups.add( group );
+            groupId = group.getNext();
+        }
+        return new DenseNodeChainPosition( groups );
+    }
+
+    static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position, int grabSize,
+            RelationshipFilter filter, RelationshipStore relStore )
+    {
+        if ( position instanceof DenseNodeChainPosition )
+        {
+            return getMoreDenseRelationships( nodeId, (DenseNodeChainPosition) position,
+                grabSize, filter, relStore );
+        }
+        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
+            getMoreRelationships( nodeId, ((SingleChainPosition) position).getPosition(),
+                grabSize, filter, relStore );
+        return Pair.<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>of(
+            rels.first(), new SingleChainPosition( rels.other() ) );
+    }
+
+    /*
+     * Walks the chains of a dense node matching the filter until grabSize
+     * relationships have been found. Chains not matching the filter aren't
+     * touched, which is the point of grouping the relationships.
+     */
+    private static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreDenseRelationships( long nodeId, DenseNodeChainPosition position, int grabSize,
+            RelationshipFilter filter, RelationshipStore relStore )
+    {
+        Map<DirectionWrapper, Iterable<RelationshipRecord>> result =
+            new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
+        result.put( DirectionWrapper.OUTGOING, new ArrayList<RelationshipRecord>() );
+        result.put( DirectionWrapper.INCOMING, new ArrayList<RelationshipRecord>() );
+        DenseNodeChainPosition next = position.copy();
+        int matched = 0;
+        for ( int chain = 0; chain < next.chainCount() && matched < grabSize; chain++ )
+        {
+            DirectionWrapper direction = next.getDirection( chain );
+            if ( !filter.matches( next.getType( chain ), direction ) )
+            {
+                continue;
+            }
+            List<RelationshipRecord> rels = (List<RelationshipRecord>) result.get( direction );
+            if ( rels == null )
+            {
+                // loops, rarely encountered
+                rels = new ArrayList<RelationshipRecord>();
+                result.put( direction, rels );
+            }
+            long relId = next.getPosition( chain );
+            while ( matched < grabSize && relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                RelationshipRecord relRecord = relStore.getChainRecord( relId );
+                if ( relRecord == null )
+                {
+                    // return what we got so far
+                    break;
+                }
+                if ( relRecord.inUse() )
+                {
+                    rels.add( relRecord );
+                    matched++;
+                }
+                relId = nextInChain( nodeId, relRecord );
+            }
+            next.setPosition( chain, relId );
+        }
+        return Pair.<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>of(
+            result, next );
+    }
+
+    private static long nextInChain( long nodeId, RelationshipRecord relRecord )
+    {
+        if ( relRecord.getFirstNode() == nodeId )
+        {
+            return relRecord.getFirstNextRel();
+        }
+        if ( relRecord.getSecondNode() == nodeId )
+        {
+            return relRecord.getSecondNextRel();
+        }
+        throw new InvalidRecordException( "Node[" + nodeId +
+            "] is neither firstNode[" + relRecord.getFirstNode() +
+            "] nor secondNode[" + relRecord.getSecondNode() + "] for Relationship[" +
+            relRecord.getId() + "]" );
+    }
+
+    /*
+     * Walks the relationship chain of a node from position until grabSize
+     * relationships matching the filter have been found. Relationships not
+     * matching the filter are returned as well, since the chain is shared by
+     * all types, but they don't count towards grabSize. To not hold on to an
+     * unbounded amount of records when the filter matches nothing no more
+     * than MAX_SKIPPED_BATCHES * grabSize records are walked per call.
+     */
+    private static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
+            long nodeId, long position, int grabSize, RelationshipFilter filter,
+            RelationshipStore relStore )
     {
         // initialCapacity=grabSize saves the lists the trouble of resizing
         List<RelationshipRecord> out = new ArrayList<RelationshipRecord>();
@@ -108,8 +322,9 @@ class ReadTransaction implements NeoStoreTransaction
             new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
         result.put( DirectionWrapper.OUTGOING, out );
         result.put( DirectionWrapper.INCOMING, in );
-        for ( int i = 0; i < grabSize && 
-            position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
+        int maxWalked = filter.matchesAll() ? grabSize : grabSize * MAX_SKIPPED_BATCHES;
+        for ( int matched = 0, walked = 0; matched < grabSize && walked < maxWalked &&
+            position != Record.NO_NEXT_RELATIONSHIP.intValue(); )
         {
             RelationshipRecord relRecord = relStore.getChainRecord( position );
             if ( relRecord == null )
@@ -121,6 +336,7 @@ class ReadTransaction implements NeoStoreTransaction
             long secondNode = relRecord.getSecondNode();
             if ( relRecord.inUse() )
             {
+                DirectionWrapper direction = null;
                 if ( firstNode == secondNode )
                 {
                     if ( loop == null )
@@ -131,19 +347,23 @@ class ReadTransaction implements NeoStoreTransaction
                         result.put( DirectionWrapper.BOTH, loop );
                     }
                     loop.add( relRecord );
+                    direction = DirectionWrapper.BOTH;
                 }
                 else if ( firstNode == nodeId )
                 {
                     out.add( relRecord );
+                    direction = DirectionWrapper.OUTGOING;
                 }
                 else if ( secondNode == nodeId )
                 {
                     in.add( relRecord );
+                    direction = DirectionWrapper.INCOMING;
+                }
+                walked++;
+                if ( direction != null && filter.matches( relRecord.getType(), direction ) )
+                {
+                    matched++;
                 }
-            }
-            else
-            {
-                i--;
             }
 
             if ( firstNode == nodeId )
@@ -175,7 +395,15 @@ class ReadTransaction implements NeoStoreTransaction
         while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
             PropertyRecord propRecord = propertyStore.getLightRecord( nextProp );
-            propertyMap.put( propRecord.getKeyIndexId(), propRecord.newPropertyData() );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+            {
+                PropertyBlock block = propRecord.getBlock( i );
+                if ( block != null )
+                {
+                    propertyMap.put( block.getKeyIndexId(), block.newPropertyData(
+                        PropertyStore.toPropertyId( nextProp, i ) ) );
+                }
+            }
             nextProp = propRecord.getNextProp();
         }
         return propertyMap;
@@ -197,20 +425,31 @@ class ReadTransaction implements NeoStoreTransaction
         return loadProperties( getPropertyStore(), getNodeStore().getRecord( nodeId ).getNextProp() );
     }
 
-    // Duplicated code
-    public Object propertyGetValueOrNull( PropertyRecord propertyRecord )
+    public Object loadPropertyValue( long id )
     {
-        return propertyRecord.getType().getValue( propertyRecord, null );
+        return loadPropertyValue( getPropertyStore(), id );
     }
 
-    public Object loadPropertyValue( long id )
+    static Object loadPropertyValue( PropertyStore propertyStore, long id )
+    {
+        PropertyBlock block = getPropertyBlock( propertyStore, id );
+        if ( block.isLight() )
+        {
+            propertyStore.makeHeavy( block );
+        }
+        return propertyStore.getValue( block );
+    }
+
+    static PropertyBlock getPropertyBlock( PropertyStore propertyStore, long id )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord( id );
-        if ( propertyRecord.isLight() )
+        PropertyRecord propRecord = propertyStore.getLightRecord(
+            PropertyStore.toRecordId( id ) );
+        PropertyBlock block = propRecord.getBlock( PropertyStore.toBlockIndex( id ) );
+        if ( block == null )
         {
-            getPropertyStore().makeHeavy( propertyRecord );
+            throw new InvalidRecordException( "Property[" + id + "] not in use" );
         }
-        return propertyRecord.getType().getValue( propertyRecord, getPropertyStore() );
+        return block;
     }
 
     public String loadIndex( int id )
@@ -232,9 +471,7 @@ class ReadTransaction implements NeoStoreTransaction
 
     public int getKeyIdForProperty( long propertyId )
     {
-        PropertyRecord propRecord =
-            getPropertyStore().getLightRecord( propertyId );
-        return propRecord.getKeyIndexId();
+        return getPropertyBlock( getPropertyStore(), propertyId ).getKeyIndexId();
     }
 
     @Override
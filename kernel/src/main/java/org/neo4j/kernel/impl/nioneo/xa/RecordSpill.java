@@ -0,0 +1,556 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.neo4j.kernel.impl.nioneo.store.Abstract64BitRecord;
+import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyType;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+import org.neo4j.kernel.impl.util.LongIterator;
+import org.neo4j.kernel.impl.util.LongLongHashMap;
+
+/**
+ * Node, relationship and property records of a large {@link WriteTransaction}
+ * moved out of the heap into a temporary file in the store directory. Only
+ * the position of each record in the file is kept in memory.
+ * <p>
+ * Records are appended, writing a record again just moves its position to
+ * the new copy. Unlike the commands written to the logical log all
+ * transaction state of a record is kept (created, light and changed flags
+ * and the owner of property records), so a record read back is the same as
+ * the one written. Not thread safe, like the transaction owning it.
+ */
+class RecordSpill
+{
+    static final String FILE_PREFIX = "nioneo_tx_spill_";
+    static final String FILE_SUFFIX = ".tmp";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte IN_USE = 1;
+    private static final byte CREATED = 2;
+    private static final byte LIGHT = 4;
+    private static final byte CHANGED = 8;
+    private static final byte CHAR_DATA = 16;
+    private static final byte HAS_DATA = 32;
+    private static final byte DENSE = 64;
+
+    private static final byte NO_OWNER = 0;
+    private static final byte NODE_OWNER = 1;
+    private static final byte RELATIONSHIP_OWNER = 2;
+
+    // ends the property blocks of a property record
+    private static final byte NO_BLOCK = -1;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate( WRITE_BUFFER_SIZE );
+    private ByteBuffer record = ByteBuffer.allocate( 256 );
+    // file position of the first byte in writeBuffer
+    private long writeBufferPosition = 0;
+
+    private final LongLongHashMap nodes = new LongLongHashMap();
+    private final LongLongHashMap relationships = new LongLongHashMap();
+    private final LongLongHashMap properties = new LongLongHashMap();
+
+    RecordSpill( File directory, int identifier )
+    {
+        try
+        {
+            file = File.createTempFile( FILE_PREFIX + identifier + "_",
+                FILE_SUFFIX, directory );
+            file.deleteOnExit();
+            channel = new RandomAccessFile( file, "rw" ).getChannel();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to create spill file for transaction["
+                + identifier + "] in " + directory, e );
+        }
+    }
+
+    int size()
+    {
+        return nodes.size() + relationships.size() + properties.size();
+    }
+
+    void write( NodeRecord node )
+    {
+        record.clear();
+        byte flags = flags( node.inUse(), node.isCreated() );
+        if ( node.isDense() )
+        {
+            flags |= DENSE;
+        }
+        record.put( flags );
+        record.putLong( node.getNextRel() ).putLong( node.getNextProp() );
+        nodes.put( node.getId(), append() );
+    }
+
+    void write( RelationshipRecord rel )
+    {
+        record.clear();
+        record.put( flags( rel.inUse(), rel.isCreated() ) );
+        record.putLong( rel.getFirstNode() ).putLong( rel.getSecondNode() )
+            .putInt( rel.getType() ).putLong( rel.getFirstPrevRel() )
+            .putLong( rel.getFirstNextRel() ).putLong( rel.getSecondPrevRel() )
+            .putLong( rel.getSecondNextRel() ).putLong( rel.getNextProp() );
+        relationships.put( rel.getId(), append() );
+    }
+
+    void write( PropertyRecord property )
+    {
+        record.clear();
+        record.put( flags( property.inUse(), property.isCreated() ) );
+        record.putLong( property.getPrevProp() ).putLong( property.getNextProp() );
+        if ( property.getNodeId() != -1 )
+        {
+            record.put( NODE_OWNER ).putLong( property.getNodeId() );
+        }
+        else if ( property.getRelId() != -1 )
+        {
+            record.put( RELATIONSHIP_OWNER ).putLong( property.getRelId() );
+        }
+        else
+        {
+            record.put( NO_OWNER );
+        }
+        for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+        {
+            PropertyBlock block = property.getBlock( i );
+            if ( block != null )
+            {
+                write( i, block );
+            }
+        }
+        ensureRecordCapacity( 5 );
+        record.put( NO_BLOCK );
+        record.putInt( property.getDeletedRecords().size() );
+        for ( DynamicRecord value : property.getDeletedRecords() )
+        {
+            write( value );
+        }
+        properties.put( property.getId(), append() );
+    }
+
+    private void write( int index, PropertyBlock block )
+    {
+        byte flags = flags( true, block.isCreated() );
+        if ( block.isLight() )
+        {
+            flags |= LIGHT;
+        }
+        if ( block.isChanged() )
+        {
+            flags |= CHANGED;
+        }
+        long[] arrayBlocks = block.getArrayBlocks();
+        ensureRecordCapacity( 22 + ( arrayBlocks != null ? arrayBlocks.length * 8 : 0 ) + 4 );
+        record.put( (byte) index ).put( flags ).putInt( block.getType().intValue() )
+            .putInt( block.getKeyIndexId() ).putLong( block.getPropBlock() );
+        if ( arrayBlocks != null )
+        {
+            record.put( (byte) arrayBlocks.length );
+            for ( long arrayBlock : arrayBlocks )
+            {
+                record.putLong( arrayBlock );
+            }
+        }
+        else
+        {
+            record.put( (byte) -1 );
+        }
+        if ( block.isLight() )
+        {
+            record.putInt( 0 );
+        }
+        else
+        {
+            record.putInt( block.getValueRecords().size() );
+            for ( DynamicRecord value : block.getValueRecords() )
+            {
+                write( value );
+            }
+        }
+    }
+
+    private void write( DynamicRecord value )
+    {
+        byte flags = flags( value.inUse(), value.isCreated() );
+        if ( value.isLight() )
+        {
+            flags |= LIGHT;
+        }
+        else if ( value.isCharData() )
+        {
+            flags |= CHAR_DATA;
+        }
+        else if ( value.getData() != null )
+        {
+            flags |= HAS_DATA;
+        }
+        ensureRecordCapacity( 37 );
+        record.putLong( value.getId() ).put( flags ).putInt( value.getType() )
+            .putLong( value.getPrevBlock() ).putLong( value.getNextBlock() )
+            .putInt( value.getLength() );
+        if ( ( flags & CHAR_DATA ) != 0 )
+        {
+            char[] chars = value.getDataAsChar();
+            ensureRecordCapacity( 4 + chars.length * 2 );
+            record.putInt( chars.length );
+            for ( char c : chars )
+            {
+                record.putChar( c );
+            }
+        }
+        else if ( ( flags & HAS_DATA ) != 0 )
+        {
+            byte[] data = value.getData();
+            ensureRecordCapacity( 4 + data.length );
+            record.putInt( data.length ).put( data );
+        }
+    }
+
+    NodeRecord getNode( long id )
+    {
+        long position = nodes.get( id, -1 );
+        if ( position == -1 )
+        {
+            return null;
+        }
+        read( position );
+        NodeRecord node = new NodeRecord( id );
+        byte flags = readFlags( node );
+        if ( ( flags & CREATED ) != 0 )
+        {
+            node.setCreated();
+        }
+        node.setDense( ( flags & DENSE ) != 0 );
+        node.setNextRel( record.getLong() );
+        node.setNextProp( record.getLong() );
+        return node;
+    }
+
+    RelationshipRecord getRelationship( long id )
+    {
+        long position = relationships.get( id, -1 );
+        if ( position == -1 )
+        {
+            return null;
+        }
+        read( position );
+        byte flags = record.get();
+        RelationshipRecord rel = new RelationshipRecord( id, record.getLong(),
+            record.getLong(), record.getInt() );
+        rel.setInUse( ( flags & IN_USE ) != 0 );
+        if ( ( flags & CREATED ) != 0 )
+        {
+            rel.setCreated();
+        }
+        rel.setFirstPrevRel( record.getLong() );
+        rel.setFirstNextRel( record.getLong() );
+        rel.setSecondPrevRel( record.getLong() );
+        rel.setSecondNextRel( record.getLong() );
+        rel.setNextProp( record.getLong() );
+        return rel;
+    }
+
+    PropertyRecord getProperty( long id )
+    {
+        long position = properties.get( id, -1 );
+        if ( position == -1 )
+        {
+            return null;
+        }
+        read( position );
+        PropertyRecord property = new PropertyRecord( id );
+        byte flags = readFlags( property );
+        if ( ( flags & CREATED ) != 0 )
+        {
+            property.setCreated();
+        }
+        property.setPrevProp( record.getLong() );
+        property.setNextProp( record.getLong() );
+        byte owner = record.get();
+        if ( owner == NODE_OWNER )
+        {
+            property.setNodeId( record.getLong() );
+        }
+        else if ( owner == RELATIONSHIP_OWNER )
+        {
+            property.setRelId( record.getLong() );
+        }
+        for ( byte index = record.get(); index != NO_BLOCK; index = record.get() )
+        {
+            property.setBlock( index, readPropertyBlock() );
+        }
+        int deletedRecords = record.getInt();
+        for ( int i = 0; i < deletedRecords; i++ )
+        {
+            property.addDeletedRecord( readDynamicRecord() );
+        }
+        return property;
+    }
+
+    private PropertyBlock readPropertyBlock()
+    {
+        PropertyBlock block = new PropertyBlock();
+        byte flags = record.get();
+        if ( ( flags & CREATED ) != 0 )
+        {
+            block.setCreated();
+        }
+        if ( ( flags & CHANGED ) != 0 )
+        {
+            block.setChanged();
+        }
+        block.setType( PropertyType.getPropertyType( record.getInt(), false ) );
+        block.setKeyIndexId( record.getInt() );
+        block.setPropBlock( record.getLong() );
+        int arrayBlocks = record.get();
+        if ( arrayBlocks != -1 )
+        {
+            long[] blocks = new long[arrayBlocks];
+            for ( int i = 0; i < arrayBlocks; i++ )
+            {
+                blocks[i] = record.getLong();
+            }
+            block.setArrayBlocks( blocks );
+        }
+        int valueRecords = record.getInt();
+        for ( int i = 0; i < valueRecords; i++ )
+        {
+            block.addValueRecord( readDynamicRecord() );
+        }
+        block.setIsLight( ( flags & LIGHT ) != 0 );
+        return block;
+    }
+
+    private DynamicRecord readDynamicRecord()
+    {
+        DynamicRecord value = new DynamicRecord( record.getLong() );
+        byte flags = record.get();
+        value.setInUse( ( flags & IN_USE ) != 0, record.getInt() );
+        if ( ( flags & CREATED ) != 0 )
+        {
+            value.setCreated();
+        }
+        value.setPrevBlock( record.getLong() );
+        value.setNextBlock( record.getLong() );
+        value.setLength( record.getInt() );
+        if ( ( flags & CHAR_DATA ) != 0 )
+        {
+            char[] chars = new char[record.getInt()];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                chars[i] = record.getChar();
+            }
+            value.setCharData( chars );
+        }
+        else if ( ( flags & HAS_DATA ) != 0 )
+        {
+            byte[] data = new byte[record.getInt()];
+            record.get( data );
+            value.setData( data );
+        }
+        value.setIsLight( ( flags & LIGHT ) != 0 );
+        return value;
+    }
+
+    LongIterator nodeIds()
+    {
+        return nodes.keys();
+    }
+
+    LongIterator relationshipIds()
+    {
+        return relationships.keys();
+    }
+
+    LongIterator propertyIds()
+    {
+        return properties.keys();
+    }
+
+    /**
+     * Closes and deletes the spill file.
+     */
+    void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to close " + file, e );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static byte flags( boolean inUse, boolean created )
+    {
+        byte flags = 0;
+        if ( inUse )
+        {
+            flags |= IN_USE;
+        }
+        if ( created )
+        {
+            flags |= CREATED;
+        }
+        return flags;
+    }
+
+    private byte readFlags( Abstract64BitRecord target )
+    {
+        byte flags = record.get();
+        target.setInUse( ( flags & IN_USE ) != 0 );
+        return flags;
+    }
+
+    private void ensureRecordCapacity( int bytes )
+    {
+        if ( record.remaining() < bytes )
+        {
+            ByteBuffer larger = ByteBuffer.allocate(
+                Math.max( record.capacity() * 2, record.position() + bytes ) );
+            record.flip();
+            larger.put( record );
+            record = larger;
+        }
+    }
+
+    /**
+     * Appends the record serialized in {@link #record}, prefixed with its
+     * length, and returns its position in the file.
+     */
+    private long append()
+    {
+        record.flip();
+        int length = record.remaining();
+        try
+        {
+            if ( writeBuffer.remaining() < 4 + length )
+            {
+                flush();
+            }
+            long position = writeBufferPosition + writeBuffer.position();
+            if ( writeBuffer.remaining() < 4 + length )
+            {
+                // larger than the write buffer, write it directly
+                ByteBuffer header = ByteBuffer.allocate( 4 );
+                header.putInt( length ).flip();
+                writeFully( header, position );
+                writeFully( record, position + 4 );
+                writeBufferPosition += 4 + length;
+            }
+            else
+            {
+                writeBuffer.putInt( length ).put( record );
+            }
+            return position;
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write to " + file, e );
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        writeBuffer.flip();
+        writeFully( writeBuffer, writeBufferPosition );
+        writeBufferPosition += writeBuffer.limit();
+        writeBuffer.clear();
+    }
+
+    private void writeFully( ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+    }
+
+    /**
+     * Reads the record at <CODE>position</CODE> into {@link #record}.
+     */
+    private void read( long position )
+    {
+        try
+        {
+            if ( position >= writeBufferPosition )
+            {
+                ByteBuffer buffered = writeBuffer.duplicate();
+                buffered.flip();
+                buffered.position( (int) ( position - writeBufferPosition ) );
+                int length = buffered.getInt();
+                buffered.limit( buffered.position() + length );
+                record.clear();
+                ensureRecordCapacity( length );
+                record.put( buffered );
+            }
+            else
+            {
+                ByteBuffer header = ByteBuffer.allocate( 4 );
+                readFully( header, position );
+                header.flip();
+                int length = header.getInt();
+                record.clear();
+                ensureRecordCapacity( length );
+                record.limit( length );
+                readFully( record, position + 4 );
+            }
+            record.flip();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read from " + file, e );
+        }
+    }
+
+    private void readFully( ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int read = channel.read( buffer, position );
+            if ( read == -1 )
+            {
+                throw new IOException( "Unexpected end of " + file + " at " + position );
+            }
+            position += read;
+        }
+    }
+}
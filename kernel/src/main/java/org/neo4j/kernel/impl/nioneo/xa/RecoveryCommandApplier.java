@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+
+/**
+ * Executes the node, relationship, relationship group and property commands of recovered
+ * transactions on one thread per store while the logical log is being
+ * scanned. Commands for the same store are executed in the order they were
+ * added, so every record ends up with the image of the last transaction
+ * that changed it. Different stores don't share records (dynamic string and
+ * array records belong to the property store) so they can be written in
+ * parallel. Property index commands go to the property worker as well,
+ * since the property store switches the recovery mode of the index store
+ * along with its own. Transactions that are committed while the applier
+ * isn't active execute their commands directly.
+ */
+class RecoveryCommandApplier
+{
+    static final int NODES = 0;
+    static final int RELATIONSHIPS = 1;
+    static final int PROPERTIES = 2;
+    static final int RELATIONSHIP_GROUPS = 3;
+
+    private static final int QUEUE_SIZE = 10000;
+    private static final Object STOP = new Object();
+
+    private final String[] names = { "node", "relationship", "property",
+        "relationship group" };
+    private volatile Worker[] workers;
+    private volatile Throwable failure;
+
+    boolean isActive()
+    {
+        return workers != null;
+    }
+
+    void start()
+    {
+        workers = new Worker[names.length];
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            workers[i] = new Worker( "Recovery " + names[i] + " command applier" );
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues <CODE>command</CODE> to be executed by the worker of
+     * <CODE>store</CODE>, waiting if that worker is far behind.
+     */
+    void apply( int store, Command command )
+    {
+        checkFailure();
+        workers[store].put( command );
+    }
+
+    /**
+     * Waits until all queued commands have been executed.
+     *
+     * @throws UnderlyingStorageException if a command failed.
+     */
+    void drain()
+    {
+        if ( workers == null )
+        {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch( workers.length );
+        for ( Worker worker : workers )
+        {
+            worker.put( done );
+        }
+        try
+        {
+            done.await();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException(
+                "Interrupted waiting for recovered commands", e );
+        }
+        checkFailure();
+    }
+
+    /**
+     * Drains and stops the workers. The applier may be started again.
+     */
+    void stop()
+    {
+        if ( workers == null )
+        {
+            return;
+        }
+        try
+        {
+            drain();
+        }
+        finally
+        {
+            for ( Worker worker : workers )
+            {
+                worker.put( STOP );
+            }
+            workers = null;
+            failure = null;
+        }
+    }
+
+    private void checkFailure()
+    {
+        if ( failure != null )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to apply recovered command", failure );
+        }
+    }
+
+    private class Worker extends Thread
+    {
+        private final BlockingQueue<Object> queue =
+            new ArrayBlockingQueue<Object>( QUEUE_SIZE );
+
+        Worker( String name )
+        {
+            super( name );
+            setDaemon( true );
+        }
+
+        void put( Object item )
+        {
+            try
+            {
+                queue.put( item );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException(
+                    "Interrupted queueing recovered command", e );
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while ( true )
+            {
+                Object item;
+                try
+                {
+                    item = queue.take();
+                }
+                catch ( InterruptedException e )
+                {
+                    failure = e;
+                    continue;
+                }
+                if ( item == STOP )
+                {
+                    return;
+                }
+                if ( item instanceof CountDownLatch )
+                {
+                    ((CountDownLatch) item).countDown();
+                }
+                else if ( failure == null )
+                {
+                    try
+                    {
+                        ((Command) item).execute();
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure = t;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
+
+/**
+ * The position in the relationship chain of a node that isn't dense, where
+ * relationships of all types and directions are kept in one chain.
+ */
+class SingleChainPosition implements RelationshipLoadingPosition
+{
+    private final long position;
+
+    SingleChainPosition( long position )
+    {
+        this.position = position;
+    }
+
+    long getPosition()
+    {
+        return position;
+    }
+
+    public boolean hasMore()
+    {
+        return position != Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    public boolean hasMore( RelationshipFilter filter )
+    {
+        // the chain is shared by all types, anything left could match
+        return hasMore();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SingleChainPosition[" + position + "]";
+    }
+}
@@ -19,12 +19,17 @@
  */
 package org.neo4j.kernel.impl.nioneo.xa;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -36,11 +41,13 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
@@ -49,11 +56,14 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
 import org.neo4j.kernel.impl.nioneo.xa.Command.PropertyCommand;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.LockManager;
@@ -63,8 +73,11 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.LongIterator;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 /**
  * Transaction containing {@link Command commands} reflecting the operations
@@ -82,6 +95,8 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new HashMap<Integer,RelationshipTypeRecord>();
     private final Map<Integer,PropertyIndexRecord> propIndexRecords =
         new HashMap<Integer,PropertyIndexRecord>();
+    private final Map<Long,RelationshipGroupRecord> relGroupRecords =
+        new HashMap<Long,RelationshipGroupRecord>();
 
     private final ArrayList<Command.NodeCommand> nodeCommands =
         new ArrayList<Command.NodeCommand>();
@@ -93,6 +108,23 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new ArrayList<Command.RelationshipCommand>();
     private final ArrayList<Command.RelationshipTypeCommand> relTypeCommands =
         new ArrayList<Command.RelationshipTypeCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> relGroupCommands =
+        new ArrayList<Command.RelationshipGroupCommand>();
+
+    // number of relationships of the sparse nodes touched by this
+    // transaction, counted up to the dense node threshold
+    private final Map<Long,Integer> sparseDegrees = new HashMap<Long,Integer>();
+    // nodes whose relationships are moved to groups by this transaction,
+    // their cached relationship chain positions become invalid on commit
+    private final Set<Long> nodesConvertedToDense = new HashSet<Long>();
+
+    // changes to the graph-wide counts made by this transaction, written as
+    // a counts command on prepare and applied to the CountsStore on commit
+    private long nodeCountDelta;
+    private long propertyCountDelta;
+    private final Map<Integer,Long> relationshipCountDeltas =
+        new HashMap<Integer,Long>();
+    private Command.CountsCommand countsCommand;
 
     private final NeoStore neoStore;
     private boolean committed = false;
@@ -102,13 +134,29 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final LockManager lockManager;
     private XaConnection xaConnection;
 
+    // node, relationship and property records are moved to a spill file
+    // when there are more than spillThreshold of them in memory, 0 or less
+    // means never, see Config.TRANSACTION_SPILL_THRESHOLD
+    private final File spillDirectory;
+    private final int spillThreshold;
+    private RecordSpill spill;
+
+    // executes the commands of recovered transactions in parallel while the
+    // logical log is scanned, see NeoStoreXaDataSource
+    private final RecoveryCommandApplier recoveryApplier;
+
     WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
-        LockReleaser lockReleaser, LockManager lockManager )
+        LockReleaser lockReleaser, LockManager lockManager,
+        File spillDirectory, int spillThreshold,
+        RecoveryCommandApplier recoveryApplier )
     {
         super( identifier, log );
         this.neoStore = neoStore;
         this.lockReleaser = lockReleaser;
         this.lockManager = lockManager;
+        this.spillDirectory = spillDirectory;
+        this.spillThreshold = spillThreshold;
+        this.recoveryApplier = recoveryApplier;
     }
 
     @Override
@@ -118,7 +166,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             if ( nodeCommands.size() == 0 && propCommands.size() == 0 &&
                 relCommands.size() == 0 && relTypeCommands.size() == 0 &&
-                propIndexCommands.size() == 0 )
+                propIndexCommands.size() == 0 && relGroupCommands.size() == 0 )
             {
                 return true;
             }
@@ -126,13 +174,58 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( nodeRecords.size() == 0 && relRecords.size() == 0 &&
             relTypeRecords.size() == 0 && propertyRecords.size() == 0 &&
-            propIndexRecords.size() == 0 )
+            propIndexRecords.size() == 0 && relGroupRecords.size() == 0 &&
+            ( spill == null || spill.size() == 0 ) )
         {
             return true;
         }
         return false;
     }
 
+    /**
+     * Moves the node, relationship and property records of this transaction
+     * to the spill file if there are too many of them in memory. Records
+     * are read back from the spill file when they are needed again, so this
+     * must only be called between operations, when no record is being
+     * modified.
+     */
+    private void spillIfNeeded()
+    {
+        if ( spillThreshold <= 0 || nodeRecords.size() + relRecords.size()
+            + propertyRecords.size() <= spillThreshold )
+        {
+            return;
+        }
+        if ( spill == null )
+        {
+            spill = new RecordSpill( spillDirectory, getIdentifier() );
+        }
+        for ( NodeRecord record : nodeRecords.values() )
+        {
+            spill.write( record );
+        }
+        for ( RelationshipRecord record : relRecords.values() )
+        {
+            spill.write( record );
+        }
+        for ( PropertyRecord record : propertyRecords.values() )
+        {
+            spill.write( record );
+        }
+        nodeRecords.clear();
+        relRecords.clear();
+        propertyRecords.clear();
+    }
+
+    private void closeSpill()
+    {
+        if ( spill != null )
+        {
+            spill.close();
+            spill = null;
+        }
+    }
+
     @Override
     public void doAddCommand( XaCommand command )
     {
@@ -191,6 +284,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             addCommand( command );
         }
+        for ( RelationshipGroupRecord record : relGroupRecords.values() )
+        {
+            Command.RelationshipGroupCommand command =
+                new Command.RelationshipGroupCommand(
+                    getRelationshipGroupStore(), record );
+            relGroupCommands.add( command );
+            addCommand( command );
+        }
         for ( PropertyIndexRecord record : propIndexRecords.values() )
         {
             Command.PropertyIndexCommand command =
@@ -206,6 +307,70 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             propCommands.add( command );
             addCommand( command );
         }
+        if ( spill != null )
+        {
+            prepareSpilled();
+        }
+        if ( nodeCountDelta != 0 || propertyCountDelta != 0 ||
+            !relationshipCountDeltas.isEmpty() )
+        {
+            countsCommand = new Command.CountsCommand( getCountsStore(),
+                nodeCountDelta, propertyCountDelta,
+                new HashMap<Integer,Long>( relationshipCountDeltas ) );
+            addCommand( countsCommand );
+        }
+    }
+
+    /**
+     * Writes commands for the spilled records not read back into memory to
+     * the logical log. The commands aren't kept, {@link #doCommit()} creates
+     * them again from the spill file.
+     */
+    private void prepareSpilled()
+    {
+        for ( LongIterator ids = spill.nodeIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( nodeRecords.containsKey( id ) )
+            {
+                continue;
+            }
+            NodeRecord record = spill.getNode( id );
+            if ( !record.inUse() && record.getNextRel() !=
+                Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                throw new InvalidRecordException( "Node record " + record
+                    + " still has relationships" );
+            }
+            if ( !record.inUse() )
+            {
+                removeNodeFromCache( id );
+            }
+            addCommand( new Command.NodeCommand( getNodeStore(), record ) );
+        }
+        for ( LongIterator ids = spill.relationshipIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( relRecords.containsKey( id ) )
+            {
+                continue;
+            }
+            RelationshipRecord record = spill.getRelationship( id );
+            if ( !record.inUse() )
+            {
+                removeRelationshipFromCache( id );
+            }
+            addCommand( new Command.RelationshipCommand( getRelationshipStore(), record ) );
+        }
+        for ( LongIterator ids = spill.propertyIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !propertyRecords.containsKey( id ) )
+            {
+                addCommand( new Command.PropertyCommand( getPropertyStore(),
+                    spill.getProperty( id ) ) );
+            }
+        }
     }
 
     @Override
@@ -231,6 +396,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relTypeCommands.add( (Command.RelationshipTypeCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            relGroupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
+        else if ( xaCommand instanceof Command.CountsCommand )
+        {
+            countsCommand = (Command.CountsCommand) xaCommand;
+        }
         else
         {
             throw new IllegalArgumentException( "Unknown command " + xaCommand );
@@ -266,19 +439,18 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             for ( NodeRecord record : nodeRecords.values() )
             {
-                if ( record.isCreated() )
-                {
-                    getNodeStore().freeId( record.getId() );
-                }
-                removeNodeFromCache( record.getId() );
+                rollbackNodeRecord( record );
             }
             for ( RelationshipRecord record : relRecords.values() )
+            {
+                rollbackRelationshipRecord( record );
+            }
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
             {
                 if ( record.isCreated() )
                 {
-                    getRelationshipStore().freeId( record.getId() );
+                    getRelationshipGroupStore().freeId( record.getId() );
                 }
-                removeRelationshipFromCache( record.getId() );
             }
             for ( PropertyIndexRecord record : propIndexRecords.values() )
             {
@@ -297,57 +469,130 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             for ( PropertyRecord record : propertyRecords.values() )
             {
-                if ( record.getNodeId() != -1 )
-                {
-                    removeNodeFromCache( record.getNodeId() );
-                }
-                else if ( record.getRelId() != -1 )
-                {
-                    removeRelationshipFromCache( record.getRelId() );
-                }
-                if ( record.isCreated() )
-                {
-                    getPropertyStore().freeId( record.getId() );
-                    for ( DynamicRecord dynamicRecord : record
-                        .getValueRecords() )
-                    {
-                        if ( dynamicRecord.isCreated() )
-                        {
-                            if ( dynamicRecord.getType() ==
-                                PropertyType.STRING.intValue() )
-                            {
-                                getPropertyStore().freeStringBlockId(
-                                    dynamicRecord.getId() );
-                            }
-                            else if ( dynamicRecord.getType() ==
-                                PropertyType.ARRAY.intValue() )
-                            {
-                                getPropertyStore().freeArrayBlockId(
-                                    dynamicRecord.getId() );
-                            }
-                            else
-                            {
-                                throw new InvalidRecordException(
-                                    "Unknown type on " + dynamicRecord );
-                            }
-                        }
-                    }
-                }
+                rollbackPropertyRecord( record );
+            }
+            if ( spill != null )
+            {
+                rollbackSpilled();
             }
         }
         finally
         {
+            closeSpill();
             nodeRecords.clear();
             propertyRecords.clear();
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
+            sparseDegrees.clear();
+            nodesConvertedToDense.clear();
+            clearCounts();
+        }
+    }
+
+    private void rollbackNodeRecord( NodeRecord record )
+    {
+        if ( record.isCreated() )
+        {
+            getNodeStore().freeId( record.getId() );
+        }
+        removeNodeFromCache( record.getId() );
+    }
+
+    private void rollbackRelationshipRecord( RelationshipRecord record )
+    {
+        if ( record.isCreated() )
+        {
+            getRelationshipStore().freeId( record.getId() );
+        }
+        removeRelationshipFromCache( record.getId() );
+    }
+
+    private void rollbackPropertyRecord( PropertyRecord record )
+    {
+        if ( record.getNodeId() != -1 )
+        {
+            removeNodeFromCache( record.getNodeId() );
+        }
+        else if ( record.getRelId() != -1 )
+        {
+            removeRelationshipFromCache( record.getRelId() );
+        }
+        if ( record.isCreated() )
+        {
+            getPropertyStore().freeId( record.getId() );
+        }
+        for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+        {
+            PropertyBlock block = record.getBlock( i );
+            if ( block != null && !block.isLight() )
+            {
+                rollbackValueRecords( block.getValueRecords() );
+            }
+        }
+        rollbackValueRecords( record.getDeletedRecords() );
+    }
+
+    private void rollbackValueRecords( List<DynamicRecord> valueRecords )
+    {
+        for ( DynamicRecord dynamicRecord : valueRecords )
+        {
+            if ( dynamicRecord.isCreated() )
+            {
+                if ( dynamicRecord.getType() ==
+                    PropertyType.STRING.intValue() )
+                {
+                    getPropertyStore().freeStringBlockId(
+                        dynamicRecord.getId() );
+                }
+                else if ( dynamicRecord.getType() ==
+                    PropertyType.ARRAY.intValue() )
+                {
+                    getPropertyStore().freeArrayBlockId(
+                        dynamicRecord.getId() );
+                }
+                else
+                {
+                    throw new InvalidRecordException(
+                        "Unknown type on " + dynamicRecord );
+                }
+            }
+        }
+    }
+
+    private void rollbackSpilled()
+    {
+        for ( LongIterator ids = spill.nodeIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !nodeRecords.containsKey( id ) )
+            {
+                rollbackNodeRecord( spill.getNode( id ) );
+            }
+        }
+        for ( LongIterator ids = spill.relationshipIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !relRecords.containsKey( id ) )
+            {
+                rollbackRelationshipRecord( spill.getRelationship( id ) );
+            }
+        }
+        for ( LongIterator ids = spill.propertyIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !propertyRecords.containsKey( id ) )
+            {
+                rollbackPropertyRecord( spill.getProperty( id ) );
+            }
         }
     }
 
@@ -439,26 +684,119 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             // primitives
             java.util.Collections.sort( nodeCommands, sorter );
             java.util.Collections.sort( relCommands, sorter );
+            java.util.Collections.sort( relGroupCommands, sorter );
             java.util.Collections.sort( propCommands, sorter );
-            executeCreated( propCommands, relCommands, nodeCommands );
-            executeModified( propCommands, relCommands, nodeCommands );
-            executeDeleted( propCommands, relCommands, nodeCommands );
+            executeCreated( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeSpilled( Phase.CREATED );
+            executeModified( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeSpilled( Phase.MODIFIED );
+            executeDeleted( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeSpilled( Phase.DELETED );
             lockReleaser.commitCows();
+            for ( long nodeId : nodesConvertedToDense )
+            {
+                removeNodeFromCache( nodeId );
+            }
+            applyCounts();
             neoStore.setLastCommittedTx( getCommitTxId() );
         }
         finally
         {
+            closeSpill();
             nodeRecords.clear();
             propertyRecords.clear();
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
+            sparseDegrees.clear();
+            nodesConvertedToDense.clear();
+            clearCounts();
+        }
+    }
+
+    private enum Phase
+    {
+        CREATED
+        {
+            @Override
+            boolean includes( Command command )
+            {
+                return command.isCreated() && !command.isDeleted();
+            }
+        },
+        MODIFIED
+        {
+            @Override
+            boolean includes( Command command )
+            {
+                return !command.isCreated() && !command.isDeleted();
+            }
+        },
+        DELETED
+        {
+            @Override
+            boolean includes( Command command )
+            {
+                return command.isDeleted();
+            }
+        };
+
+        abstract boolean includes( Command command );
+    }
+
+    /**
+     * Executes the commands of the spilled records, not read back into
+     * memory, that belong to <CODE>phase</CODE>. The spill file is read once
+     * per phase, in the same order as the commands kept in memory.
+     */
+    private void executeSpilled( Phase phase )
+    {
+        if ( spill == null )
+        {
+            return;
+        }
+        for ( LongIterator ids = spill.propertyIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !propertyRecords.containsKey( id ) )
+            {
+                execute( phase, new Command.PropertyCommand( getPropertyStore(),
+                    spill.getProperty( id ) ) );
+            }
+        }
+        for ( LongIterator ids = spill.relationshipIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !relRecords.containsKey( id ) )
+            {
+                execute( phase, new Command.RelationshipCommand(
+                    getRelationshipStore(), spill.getRelationship( id ) ) );
+            }
+        }
+        for ( LongIterator ids = spill.nodeIds(); ids.hasNext(); )
+        {
+            long id = ids.next();
+            if ( !nodeRecords.containsKey( id ) )
+            {
+                execute( phase, new Command.NodeCommand( getNodeStore(),
+                    spill.getNode( id ) ) );
+            }
+        }
+    }
+
+    private static void execute( Phase phase, Command command )
+    {
+        if ( phase.includes( command ) )
+        {
+            command.execute();
         }
     }
 
@@ -501,18 +839,27 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             committed = true;
             CommandSorter sorter = new CommandSorter();
-            // property index
+            // property index, on the property worker since the recovery mode
+            // of the property store covers the index store, then read back
+            // once that worker is idle so only one thread uses the store
             java.util.Collections.sort( propIndexCommands, sorter );
             for ( Command.PropertyIndexCommand command : propIndexCommands )
             {
-                command.execute();
+                executeRecovered( RecoveryCommandApplier.PROPERTIES, command );
+            }
+            if ( !propIndexCommands.isEmpty() && isApplyingInParallel() )
+            {
+                recoveryApplier.drain();
+            }
+            for ( Command.PropertyIndexCommand command : propIndexCommands )
+            {
                 addPropertyIndexCommand( (int) command.getKey() );
             }
             // properties
             java.util.Collections.sort( propCommands, sorter );
             for ( Command.PropertyCommand command : propCommands )
             {
-                command.execute();
+                executeRecovered( RecoveryCommandApplier.PROPERTIES, command );
                 removePropertyFromCache( command );
             }
             // reltypes
@@ -526,7 +873,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             java.util.Collections.sort( relCommands, sorter );
             for ( Command.RelationshipCommand command : relCommands )
             {
-                command.execute();
+                executeRecovered( RecoveryCommandApplier.RELATIONSHIPS, command );
                 removeRelationshipFromCache( command.getKey() );
                 if ( true /* doesn't work: command.isRemove(), the log doesn't contain the nodes */)
                 {
@@ -534,13 +881,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     removeNodeFromCache( command.getSecondNode() );
                 }
             }
+            // relationship groups
+            java.util.Collections.sort( relGroupCommands, sorter );
+            for ( Command.RelationshipGroupCommand command : relGroupCommands )
+            {
+                executeRecovered( RecoveryCommandApplier.RELATIONSHIP_GROUPS, command );
+            }
             // nodes
             java.util.Collections.sort( nodeCommands, sorter );
             for ( Command.NodeCommand command : nodeCommands )
             {
-                command.execute();
+                executeRecovered( RecoveryCommandApplier.NODES, command );
                 removeNodeFromCache( command.getKey() );
             }
+            applyCounts();
             neoStore.setRecoveredStatus( true );
             try
             {
@@ -550,7 +904,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             {
                 neoStore.setRecoveredStatus( false );
             }
-            neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            if ( !isApplyingInParallel() )
+            {
+                // else done once the applier has been drained
+                neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            }
         }
         finally
         {
@@ -559,15 +917,75 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
+            sparseDegrees.clear();
+            nodesConvertedToDense.clear();
+            clearCounts();
+        }
+    }
+
+
+    /**
+     * Applies the counts command of this transaction to the counts store,
+     * an empty one if the transaction didn't change the counts since the
+     * counts store keeps track of the last transaction it has seen.
+     */
+    private void applyCounts()
+    {
+        if ( countsCommand == null )
+        {
+            countsCommand = new Command.CountsCommand( getCountsStore(), 0, 0,
+                Collections.<Integer,Long>emptyMap() );
+        }
+        countsCommand.setTxId( getCommitTxId() );
+        countsCommand.execute();
+    }
+
+    private void clearCounts()
+    {
+        nodeCountDelta = 0;
+        propertyCountDelta = 0;
+        relationshipCountDeltas.clear();
+        countsCommand = null;
+    }
+
+    private void addRelationshipCountDelta( int type, long delta )
+    {
+        Long current = relationshipCountDeltas.get( type );
+        long count = ( current == null ? 0 : current ) + delta;
+        if ( count == 0 )
+        {
+            relationshipCountDeltas.remove( type );
         }
+        else
+        {
+            relationshipCountDeltas.put( type, count );
+        }
+    }
+
+    private boolean isApplyingInParallel()
+    {
+        return recoveryApplier != null && recoveryApplier.isActive();
     }
 
+    private void executeRecovered( int store, Command command )
+    {
+        if ( isApplyingInParallel() )
+        {
+            recoveryApplier.apply( store, command );
+        }
+        else
+        {
+            command.execute();
+        }
+    }
 
     private void removePropertyFromCache( PropertyCommand command )
     {
@@ -609,6 +1027,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return neoStore.getPropertyStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
+    private CountsStore getCountsStore()
+    {
+        return neoStore.getCountsStore();
+    }
+
     public boolean nodeLoadLight( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
@@ -641,6 +1069,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     public ArrayMap<Integer,PropertyData> nodeDelete( long nodeId )
     {
+        spillIfNeeded();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -653,52 +1082,104 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             "] since it has already been deleted." );
         }
         nodeRecord.setInUse( false );
+        nodeCountDelta--;
+        return deletePropertyChain( nodeRecord.getNextProp(), nodeId, true );
+    }
+
+    /**
+     * Deletes all records in a property chain and returns the properties
+     * that were there before this transaction, with their committed values.
+     */
+    private ArrayMap<Integer,PropertyData> deletePropertyChain( long nextProp,
+        long primitiveId, boolean isNode )
+    {
         ArrayMap<Integer,PropertyData> propertyMap =
             new ArrayMap<Integer,PropertyData>( 9, false, true );
-        long nextProp = nodeRecord.getNextProp();
+        long committedNextProp = Record.NO_NEXT_PROPERTY.intValue();
         while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            PropertyRecord propRecord = getPropertyRecord( nextProp );
-            if ( propRecord == null )
-            {
-                propRecord = getPropertyStore().getRecord( nextProp );
-                addPropertyRecord( propRecord );
-            }
-            if ( propRecord.isLight() )
-            {
-                getPropertyStore().makeHeavy( propRecord );
-            }
-            if ( !propRecord.isCreated() )
+            PropertyRecord propRecord = getLightPropertyRecord( nextProp );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
             {
-                if ( !propRecord.isChanged() )
+                PropertyBlock block = propRecord.removeBlock( i );
+                if ( block == null )
                 {
-                    propertyMap.put( propRecord.getKeyIndexId(), propRecord.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
+                    continue;
                 }
-                else
+                if ( block.isLight() )
+                {
+                    getPropertyStore().makeHeavy( block );
+                }
+                if ( block.isChanged() )
                 {
-                    // we have to re-read committed value since property has
-                    // changed and old value is erased in memory
-                    PropertyRecord diskValue = getPropertyStore().getRecord( propRecord.getId() );
-                    getPropertyStore().makeHeavy( diskValue );
-                    propertyMap.put( diskValue.getKeyIndexId(), diskValue.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
+                    // the committed value is only on disk, the block may
+                    // even have moved to another record since
+                    if ( committedNextProp == Record.NO_NEXT_PROPERTY.intValue() )
+                    {
+                        committedNextProp = isNode ?
+                            getNodeStore().getRecord( primitiveId ).getNextProp() :
+                            getRelationshipStore().getRecord( primitiveId ).getNextProp();
+                    }
+                    putCommittedProperty( propertyMap, committedNextProp,
+                        block.getKeyIndexId() );
                 }
+                else if ( !block.isCreated() )
+                {
+                    propertyMap.put( block.getKeyIndexId(), block.newPropertyData(
+                        PropertyStore.toPropertyId( nextProp, i ),
+                        propertyGetValueOrNull( block ) ) );
+                }
+                // TODO: update count on property index record
+                deleteValueRecords( propRecord, block );
+                propertyCountDelta--;
             }
-
             nextProp = propRecord.getNextProp();
             propRecord.setInUse( false );
-            // TODO: update count on property index record
-            for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
+        }
+        return propertyMap;
+    }
+
+    private void putCommittedProperty( ArrayMap<Integer,PropertyData> propertyMap,
+        long nextProp, int keyIndexId )
+    {
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            PropertyRecord propRecord = getPropertyStore().getLightRecord( nextProp );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
             {
-                valueRecord.setInUse( false );
+                PropertyBlock block = propRecord.getBlock( i );
+                if ( block != null && block.getKeyIndexId() == keyIndexId )
+                {
+                    if ( block.isLight() )
+                    {
+                        getPropertyStore().makeHeavy( block );
+                    }
+                    propertyMap.put( keyIndexId, block.newPropertyData(
+                        PropertyStore.toPropertyId( nextProp, i ),
+                        getPropertyStore().getValue( block ) ) );
+                    return;
+                }
             }
+            nextProp = propRecord.getNextProp();
         }
-        return propertyMap;
+    }
+
+    private void deleteValueRecords( PropertyRecord propRecord, PropertyBlock block )
+    {
+        for ( DynamicRecord valueRecord : block.getValueRecords() )
+        {
+            if ( valueRecord.inUse() )
+            {
+                valueRecord.setInUse( false, block.getType().intValue() );
+            }
+            propRecord.addDeletedRecord( valueRecord );
+        }
+        block.getValueRecords().clear();
     }
 
     public ArrayMap<Integer,PropertyData> relDelete( long id )
     {
+        spillIfNeeded();
         RelationshipRecord record = getRelationshipRecord( id );
         if ( record == null )
         {
@@ -711,48 +1192,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 id + "] since it is already deleted." );
         }
         ArrayMap<Integer,PropertyData> propertyMap =
-            new ArrayMap<Integer,PropertyData>( 9, false, true );
-        long nextProp = record.getNextProp();
-        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
-        {
-            PropertyRecord propRecord = getPropertyRecord( nextProp );
-            if ( propRecord == null )
-            {
-                propRecord = getPropertyStore().getRecord( nextProp );
-                addPropertyRecord( propRecord );
-            }
-            if ( propRecord.isLight() )
-            {
-                getPropertyStore().makeHeavy( propRecord );
-            }
-            if ( !propRecord.isCreated() )
-            {
-                if ( !propRecord.isChanged() )
-                {
-                    propertyMap.put( propRecord.getKeyIndexId(),
-                            propRecord.newPropertyData( propertyGetValueOrNull( propRecord ) ) );
-                }
-                else
-                {
-                    // we have to re-read committed value since property has
-                    // changed and old value is erased in memory
-                    PropertyRecord diskValue = getPropertyStore().getRecord( propRecord.getId() );
-                    getPropertyStore().makeHeavy( diskValue );
-                    propertyMap.put( diskValue.getKeyIndexId(), diskValue.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
-                }
-            }
-            nextProp = propRecord.getNextProp();
-            propRecord.setInUse( false );
-            // TODO: update count on property index record
-            for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-            {
-                valueRecord.setInUse( false );
-            }
-        }
+            deletePropertyChain( record.getNextProp(), id, false );
         disconnectRelationship( record );
         updateNodes( record );
         record.setInUse( false );
+        addRelationshipCountDelta( record.getType(), -1 );
         return propertyMap;
     }
 
@@ -890,48 +1334,126 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         lockReleaser.addLockToTransaction( lockableRel, LockType.WRITE );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord != null && nodeRecord.isCreated() )
+        {
+            return new SingleChainPosition( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        }
+        return ReadTransaction.getRelationshipChainPosition(
+            getNodeStore().getRecord( nodeId ), getRelationshipGroupStore() );
+    }
+
+    public int getDegree( long nodeId, RelationshipFilter filter )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord != null && nodeRecord.isCreated() )
         {
-            return Record.NO_NEXT_RELATIONSHIP.intValue();
+            return 0;
         }
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return ReadTransaction.getDegree( getNodeStore().getRecord( nodeId ), filter,
+            getRelationshipGroupStore(), getRelationshipStore() );
     }
 
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships( long nodeId,
-        long position )
+    public CountsStore getCounts()
     {
-        return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        return getCountsStore();
+    }
+
+    public StoreScan<NodeRecord> scanNodes()
+    {
+        return getNodeStore().scan();
+    }
+
+    public StoreScan<RelationshipRecord> scanRelationships()
+    {
+        return getRelationshipStore().scan();
+    }
+
+    public StoreScan<PropertyRecord> scanProperties()
+    {
+        return getPropertyStore().scan();
+    }
+
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+        getMoreRelationships( long nodeId, RelationshipLoadingPosition position )
+    {
+        return getMoreRelationships( nodeId, position, RelationshipFilter.ALL );
+    }
+
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+        getMoreRelationships( long nodeId, RelationshipLoadingPosition position,
+            RelationshipFilter filter )
+    {
+        return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), filter,
+            getRelationshipStore() );
     }
 
     private void updateNodes( RelationshipRecord rel )
     {
-        if ( rel.getFirstPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        updateNode( rel.getFirstNode(), rel, rel.getFirstPrevRel(),
+            rel.getFirstNextRel() );
+        if ( rel.getSecondNode() != rel.getFirstNode() )
+        {
+            updateNode( rel.getSecondNode(), rel, rel.getSecondPrevRel(),
+                rel.getSecondNextRel() );
+        }
+    }
+
+    /**
+     * Points the node, or the group of a dense node, at <CODE>nextRel</CODE>
+     * if <CODE>rel</CODE>, which is being deleted, is first in its chain.
+     * The count of the group of a dense node is decremented and groups left
+     * without relationships are removed.
+     */
+    private void updateNode( long nodeId, RelationshipRecord rel, long prevRel,
+        long nextRel )
+    {
+        Integer degree = sparseDegrees.get( nodeId );
+        if ( degree != null )
         {
-            NodeRecord firstNode = getNodeRecord( rel.getFirstNode() );
-            if ( firstNode == null )
+            sparseDegrees.put( nodeId, degree - 1 );
+        }
+        boolean first = prevRel == Record.NO_PREV_RELATIONSHIP.intValue();
+        NodeRecord node = getNodeRecord( nodeId );
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+            if ( first )
             {
-                firstNode = getNodeStore().getRecord( rel.getFirstNode() );
-                addNodeRecord( firstNode );
+                addNodeRecord( node );
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        if ( !node.isDense() )
         {
-            NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
-            if ( secondNode == null )
+            if ( first )
             {
-                secondNode = getNodeStore().getRecord( rel.getSecondNode() );
-                addNodeRecord( secondNode );
+                node.setNextRel( nextRel );
+            }
+            return;
+        }
+        RelationshipGroupRecord group = getRelationshipGroup( node,
+            rel.getType(), false );
+        if ( group == null )
+        {
+            throw new InvalidRecordException( node + " has no group for " + rel );
+        }
+        DirectionWrapper direction = directionOf( rel, nodeId );
+        group.setCount( direction, group.getCount( direction ) - 1 );
+        if ( first )
+        {
+            group.setFirst( direction, nextRel );
+            if ( group.isEmpty() )
+            {
+                removeRelationshipGroup( node, group );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
         }
     }
 
     public void relRemoveProperty( long relId, long propertyId )
     {
+        spillIfNeeded();
         RelationshipRecord relRecord = getRelationshipRecord( relId );
         if ( relRecord == null )
         {
@@ -942,61 +1464,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property remove on relationship[" +
                 relId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
-        {
-            propRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propRecord );
-        }
-        if ( !propRecord.inUse() )
-        {
-            throw new IllegalStateException( "Unable to delete property[" +
-                propertyId + "] since it is already deleted." );
-        }
+        PropertyRecord propRecord = getPropertyRecordFor( propertyId, "delete" );
         propRecord.setRelId( relId );
-        if ( propRecord.isLight() )
+        removePropertyBlock( propRecord, PropertyStore.toBlockIndex( propertyId ) );
+        propertyCountDelta--;
+        if ( propRecord.hasBlocks() )
         {
-            getPropertyStore().makeHeavy( propRecord );
-        }
-
-        propRecord.setInUse( false );
-        // TODO: update count on property index record
-        for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-        {
-            if ( valueRecord.inUse() )
-            {
-                valueRecord.setInUse( false, propRecord.getType().intValue() );
-            }
+            return;
         }
-        long prevProp = propRecord.getPrevProp();
-        long nextProp = propRecord.getNextProp();
-        if ( relRecord.getNextProp() == propertyId )
+        long nextProp = unlinkPropertyRecord( propRecord );
+        if ( relRecord.getNextProp() == propRecord.getId() )
         {
             relRecord.setNextProp( nextProp );
-            // re-adding not a problem
-            addRelationshipRecord( relRecord );
-        }
-        if ( prevProp != Record.NO_PREVIOUS_PROPERTY.intValue() )
-        {
-            PropertyRecord prevPropRecord = getPropertyRecord( prevProp );
-            if ( prevPropRecord == null )
-            {
-                prevPropRecord = getPropertyStore().getLightRecord( prevProp );
-                addPropertyRecord( prevPropRecord );
-            }
-            assert prevPropRecord.inUse();
-            prevPropRecord.setNextProp( nextProp );
-        }
-        if ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
-        {
-            PropertyRecord nextPropRecord = getPropertyRecord( nextProp );
-            if ( nextPropRecord == null )
-            {
-                nextPropRecord = getPropertyStore().getLightRecord( nextProp );
-                addPropertyRecord( nextPropRecord );
-            }
-            assert nextPropRecord.inUse();
-            nextPropRecord.setPrevProp( prevProp );
+            // re-adding not a problem
+            addRelationshipRecord( relRecord );
         }
     }
 
@@ -1049,23 +1530,19 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return ReadTransaction.loadProperties( getPropertyStore(), nodeRecord.getNextProp() );
     }
 
-    public Object propertyGetValueOrNull( PropertyRecord propertyRecord )
+    public Object propertyGetValueOrNull( PropertyBlock block )
     {
-        return propertyRecord.getType().getValue( propertyRecord, propertyRecord.isLight() ? null : getPropertyStore() );
+        return block.getType().getValue( block, block.isLight() ? null : getPropertyStore() );
     }
 
     public Object loadPropertyValue( long id )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord( id );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        return propertyRecord.getType().getValue( propertyRecord, getPropertyStore() );
+        return ReadTransaction.loadPropertyValue( getPropertyStore(), id );
     }
 
     public void nodeRemoveProperty( long nodeId, long propertyId )
     {
+        spillIfNeeded();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -1076,66 +1553,93 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property remove on node[" +
                 nodeId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
+        PropertyRecord propRecord = getPropertyRecordFor( propertyId, "delete" );
+        propRecord.setNodeId( nodeId );
+        removePropertyBlock( propRecord, PropertyStore.toBlockIndex( propertyId ) );
+        propertyCountDelta--;
+        if ( propRecord.hasBlocks() )
         {
-            propRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propRecord );
+            return;
         }
-        if ( !propRecord.inUse() )
+        long nextProp = unlinkPropertyRecord( propRecord );
+        if ( nodeRecord.getNextProp() == propRecord.getId() )
+        {
+            nodeRecord.setNextProp( nextProp );
+            // re-adding not a problem
+            addNodeRecord( nodeRecord );
+        }
+    }
+
+    /**
+     * Returns the record a property is in, with the property's block heavy.
+     */
+    private PropertyRecord getPropertyRecordFor( long propertyId, String operation )
+    {
+        PropertyRecord propRecord = getLightPropertyRecord(
+            PropertyStore.toRecordId( propertyId ) );
+        PropertyBlock block = propRecord.inUse() ?
+            propRecord.getBlock( PropertyStore.toBlockIndex( propertyId ) ) : null;
+        if ( block == null )
         {
-            throw new IllegalStateException( "Unable to delete property[" +
+            throw new IllegalStateException( "Unable to " + operation + " property[" +
                 propertyId + "] since it is already deleted." );
         }
-        propRecord.setNodeId( nodeId );
-        if ( propRecord.isLight() )
+        if ( block.isLight() )
         {
-            getPropertyStore().makeHeavy( propRecord );
+            getPropertyStore().makeHeavy( block );
         }
+        return propRecord;
+    }
 
-        propRecord.setInUse( false );
-        // TODO: update count on property index record
-        for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
+    private PropertyRecord getLightPropertyRecord( long recordId )
+    {
+        PropertyRecord propRecord = getPropertyRecord( recordId );
+        if ( propRecord == null )
         {
-            if ( valueRecord.inUse() )
-            {
-                valueRecord.setInUse( false, propRecord.getType().intValue() );
-            }
+            propRecord = getPropertyStore().getLightRecord( recordId );
+            addPropertyRecord( propRecord );
         }
+        return propRecord;
+    }
+
+    private PropertyBlock removePropertyBlock( PropertyRecord propRecord, int index )
+    {
+        PropertyBlock block = propRecord.removeBlock( index );
+        // TODO: update count on property index record
+        deleteValueRecords( propRecord, block );
+        return block;
+    }
+
+    /**
+     * Marks an empty property record as not in use and takes it out of its
+     * chain.
+     *
+     * @return the record after it in the chain, the new first record of the
+     * chain if <CODE>propRecord</CODE> was the first one.
+     */
+    private long unlinkPropertyRecord( PropertyRecord propRecord )
+    {
+        propRecord.setInUse( false );
         long prevProp = propRecord.getPrevProp();
         long nextProp = propRecord.getNextProp();
-        if ( nodeRecord.getNextProp() == propertyId )
-        {
-            nodeRecord.setNextProp( nextProp );
-            // re-adding not a problem
-            addNodeRecord( nodeRecord );
-        }
         if ( prevProp != Record.NO_PREVIOUS_PROPERTY.intValue() )
         {
-            PropertyRecord prevPropRecord = getPropertyRecord( prevProp );
-            if ( prevPropRecord == null )
-            {
-                prevPropRecord = getPropertyStore().getLightRecord( prevProp );
-                addPropertyRecord( prevPropRecord );
-            }
+            PropertyRecord prevPropRecord = getLightPropertyRecord( prevProp );
             assert prevPropRecord.inUse();
             prevPropRecord.setNextProp( nextProp );
         }
         if ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            PropertyRecord nextPropRecord = getPropertyRecord( nextProp );
-            if ( nextPropRecord == null )
-            {
-                nextPropRecord = getPropertyStore().getLightRecord( nextProp );
-                addPropertyRecord( nextPropRecord );
-            }
+            PropertyRecord nextPropRecord = getLightPropertyRecord( nextProp );
             assert nextPropRecord.inUse();
             nextPropRecord.setPrevProp( prevProp );
         }
+        return nextProp;
     }
 
     public PropertyData relChangeProperty( long relId, long propertyId, Object value )
     {
+        spillIfNeeded();
         RelationshipRecord relRecord = getRelationshipRecord( relId );
         if ( relRecord == null )
         {
@@ -1146,50 +1650,26 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property change on relationship[" +
                 relId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propertyRecord = getPropertyRecord( propertyId );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propertyRecord );
-        }
-        if ( !propertyRecord.inUse() )
-        {
-            throw new IllegalStateException( "Unable to change property[" +
-                propertyId + "] since it is deleted." );
-        }
-        propertyRecord.setRelId( relId );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        propertyRecord.setChanged();
-        if ( propertyRecord.getType() == PropertyType.STRING )
-        {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.STRING.intValue() );
-                }
-            }
-        }
-        else if ( propertyRecord.getType() == PropertyType.ARRAY )
+        PropertyRecord propRecord = getPropertyRecordFor( propertyId, "change" );
+        propRecord.setRelId( relId );
+        PropertyBlock block = changePropertyBlock( propRecord,
+            PropertyStore.toBlockIndex( propertyId ), value );
+        int index = findPropertyBlockIndex( propRecord, block.getSize(),
+            PropertyStore.toBlockIndex( propertyId ) );
+        if ( index == -1 )
         {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.ARRAY.intValue() );
-                }
-            }
+            removePropertyBlock( propRecord, PropertyStore.toBlockIndex( propertyId ) );
+            return block.newPropertyData( relAddPropertyBlock( relRecord, block ),
+                value );
         }
-        getPropertyStore().encodeValue( propertyRecord, value );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord.newPropertyData( value );
+        return replacePropertyBlock( propRecord, PropertyStore.toBlockIndex(
+            propertyId ), index, block ).newPropertyData(
+            PropertyStore.toPropertyId( propRecord.getId(), index ), value );
     }
 
     public PropertyData nodeChangeProperty( long nodeId, long propertyId, Object value )
     {
+        spillIfNeeded();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -1200,46 +1680,65 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property change on node[" +
                 nodeId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propertyRecord = getPropertyRecord( propertyId );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propertyRecord );
-        }
-        if ( !propertyRecord.inUse() )
+        PropertyRecord propRecord = getPropertyRecordFor( propertyId, "change" );
+        propRecord.setNodeId( nodeId );
+        PropertyBlock block = changePropertyBlock( propRecord,
+            PropertyStore.toBlockIndex( propertyId ), value );
+        int index = findPropertyBlockIndex( propRecord, block.getSize(),
+            PropertyStore.toBlockIndex( propertyId ) );
+        if ( index == -1 )
         {
-            throw new IllegalStateException( "Unable to change property[" +
-                propertyId + "] since it is deleted." );
+            removePropertyBlock( propRecord, PropertyStore.toBlockIndex( propertyId ) );
+            return block.newPropertyData( nodeAddPropertyBlock( nodeRecord, block ),
+                value );
         }
-        propertyRecord.setNodeId( nodeId );
-        if ( propertyRecord.isLight() )
+        return replacePropertyBlock( propRecord, PropertyStore.toBlockIndex(
+            propertyId ), index, block ).newPropertyData(
+            PropertyStore.toPropertyId( propRecord.getId(), index ), value );
+    }
+
+    /**
+     * Encodes the new value of the property at <CODE>index</CODE> in a new
+     * block, the old one is left in the record.
+     */
+    private PropertyBlock changePropertyBlock( PropertyRecord propRecord,
+        int index, Object value )
+    {
+        PropertyBlock oldBlock = propRecord.getBlock( index );
+        PropertyBlock block = new PropertyBlock();
+        getPropertyStore().encodeValue( block, oldBlock.getKeyIndexId(), value );
+        if ( oldBlock.isCreated() )
         {
-            getPropertyStore().makeHeavy( propertyRecord );
+            block.setCreated();
         }
-        propertyRecord.setChanged();
-        if ( propertyRecord.getType() == PropertyType.STRING )
+        else
         {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.STRING.intValue() );
-                }
-            }
+            block.setChanged();
         }
-        else if ( propertyRecord.getType() == PropertyType.ARRAY )
+        return block;
+    }
+
+    /**
+     * Returns where in <CODE>propRecord</CODE> a changed property of
+     * <CODE>size</CODE> blocks goes, preferably where it already is, or -1 if
+     * it no longer fits in the record.
+     */
+    private int findPropertyBlockIndex( PropertyRecord propRecord, int size,
+        int index )
+    {
+        if ( propRecord.fitsAt( index, size ) )
         {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.ARRAY.intValue() );
-                }
-            }
+            return index;
         }
-        getPropertyStore().encodeValue( propertyRecord, value );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord.newPropertyData( value );
+        return propRecord.findFreeBlocks( size, index );
+    }
+
+    private PropertyBlock replacePropertyBlock( PropertyRecord propRecord,
+        int oldIndex, int index, PropertyBlock block )
+    {
+        removePropertyBlock( propRecord, oldIndex );
+        propRecord.setBlock( index, block );
+        return block;
     }
 
     /*
@@ -1259,30 +1758,12 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property add on relationship[" +
                 relId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-        propertyRecord.setInUse( true );
-        propertyRecord.setCreated();
+        PropertyBlock block = newPropertyBlock( index, value );
+        PropertyRecord propertyRecord = createPropertyRecord( propertyId,
+            relRecord.getNextProp() );
         propertyRecord.setRelId( relId );
-        if ( relRecord.getNextProp() != Record.NO_NEXT_RELATIONSHIP.intValue() )
-        {
-            PropertyRecord prevProp = getPropertyRecord(
-                relRecord.getNextProp() );
-            if ( prevProp == null )
-            {
-                prevProp = getPropertyStore().getLightRecord(
-                    relRecord.getNextProp() );
-                addPropertyRecord( prevProp );
-            }
-            assert prevProp.getPrevProp() ==
-                Record.NO_PREVIOUS_PROPERTY.intValue();
-            prevProp.setPrevProp( propertyId );
-            propertyRecord.setNextProp( prevProp.getId() );
-        }
-        int keyIndexId = index.getKeyId();
-        propertyRecord.setKeyIndexId( keyIndexId );
-        getPropertyStore().encodeValue( propertyRecord, value );
+        propertyRecord.setBlock( 0, block );
         relRecord.setNextProp( propertyId );
-        addPropertyRecord( propertyRecord );
         return propertyRecord;
     }
 
@@ -1303,39 +1784,112 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property add on node[" +
                 nodeId + "] illegal since it has been deleted." );
         }
-
-        PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-        propertyRecord.setInUse( true );
-        propertyRecord.setCreated();
+        PropertyBlock block = newPropertyBlock( index, value );
+        PropertyRecord propertyRecord = createPropertyRecord( propertyId,
+            nodeRecord.getNextProp() );
         propertyRecord.setNodeId( nodeId );
-        // encoding has to be set here before anything is change
+        propertyRecord.setBlock( 0, block );
+        nodeRecord.setNextProp( propertyId );
+        return propertyRecord;
+    }
+
+    private PropertyBlock newPropertyBlock( PropertyIndex index, Object value )
+    {
+        // encoding has to be done here before anything is change
         // (exception is thrown in encodeValue now and tx not marked
         // rollback only
-        getPropertyStore().encodeValue( propertyRecord, value );
-        if ( nodeRecord.getNextProp() != Record.NO_NEXT_PROPERTY.intValue() )
+        PropertyBlock block = new PropertyBlock();
+        getPropertyStore().encodeValue( block, index.getKeyId(), value );
+        block.setCreated();
+        return block;
+    }
+
+    /**
+     * Puts <CODE>block</CODE> in the first record of the relationship's property chain if there's room for it, otherwise in a new record first
+     * in the chain.
+     *
+     * @return the id of the property.
+     */
+    private long relAddPropertyBlock( RelationshipRecord relRecord,
+        PropertyBlock block )
+    {
+        long firstProp = relRecord.getNextProp();
+        if ( firstProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            PropertyRecord propertyRecord = getLightPropertyRecord( firstProp );
+            int index = propertyRecord.findFreeBlocks( block.getSize() );
+            if ( index != -1 )
+            {
+                propertyRecord.setRelId( relRecord.getId() );
+                propertyRecord.setBlock( index, block );
+                return PropertyStore.toPropertyId( firstProp, index );
+            }
+        }
+        long propertyId = getPropertyStore().nextId();
+        PropertyRecord propertyRecord = createPropertyRecord( propertyId, firstProp );
+        propertyRecord.setRelId( relRecord.getId() );
+        propertyRecord.setBlock( 0, block );
+        relRecord.setNextProp( propertyId );
+        // re-adding not a problem
+        addRelationshipRecord( relRecord );
+        return propertyId;
+    }
+
+    /**
+     * Puts <CODE>block</CODE> in the first record of the node's property
+     * chain if there's room for it, otherwise in a new record first in the
+     * chain.
+     *
+     * @return the id of the property.
+     */
+    private long nodeAddPropertyBlock( NodeRecord nodeRecord,
+        PropertyBlock block )
+    {
+        long firstProp = nodeRecord.getNextProp();
+        if ( firstProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            PropertyRecord prevProp = getPropertyRecord(
-                nodeRecord.getNextProp() );
-            if ( prevProp == null )
+            PropertyRecord propertyRecord = getLightPropertyRecord( firstProp );
+            int index = propertyRecord.findFreeBlocks( block.getSize() );
+            if ( index != -1 )
             {
-                prevProp = getPropertyStore().getLightRecord(
-                    nodeRecord.getNextProp() );
-                addPropertyRecord( prevProp );
+                propertyRecord.setNodeId( nodeRecord.getId() );
+                propertyRecord.setBlock( index, block );
+                return PropertyStore.toPropertyId( firstProp, index );
             }
+        }
+        long propertyId = getPropertyStore().nextId();
+        PropertyRecord propertyRecord = createPropertyRecord( propertyId, firstProp );
+        propertyRecord.setNodeId( nodeRecord.getId() );
+        propertyRecord.setBlock( 0, block );
+        nodeRecord.setNextProp( propertyId );
+        // re-adding not a problem
+        addNodeRecord( nodeRecord );
+        return propertyId;
+    }
+
+    /**
+     * Creates an empty property record and links it in first in a chain.
+     */
+    private PropertyRecord createPropertyRecord( long propertyId, long firstProp )
+    {
+        PropertyRecord propertyRecord = new PropertyRecord( propertyId );
+        propertyRecord.setInUse( true );
+        propertyRecord.setCreated();
+        if ( firstProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            PropertyRecord prevProp = getLightPropertyRecord( firstProp );
             assert prevProp.getPrevProp() ==
                 Record.NO_PREVIOUS_PROPERTY.intValue();
             prevProp.setPrevProp( propertyId );
             propertyRecord.setNextProp( prevProp.getId() );
         }
-        int keyIndexId = index.getKeyId();
-        propertyRecord.setKeyIndexId( keyIndexId );
-        nodeRecord.setNextProp( propertyId );
         addPropertyRecord( propertyRecord );
         return propertyRecord;
     }
 
     public void relationshipCreate( long id, int type, long firstNodeId, long secondNodeId )
     {
+        spillIfNeeded();
         NodeRecord firstNode = getNodeRecord( firstNodeId );
         if ( firstNode == null )
         {
@@ -1364,57 +1918,250 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         record.setCreated();
         addRelationshipRecord( record );
         connectRelationship( firstNode, secondNode, record );
+        addRelationshipCountDelta( type, 1 );
     }
 
     private void connectRelationship( NodeRecord firstNode,
         NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        connectRelationship( firstNode, rel );
+        if ( secondNode != firstNode )
+        {
+            connectRelationship( secondNode, rel );
+        }
+    }
+
+    /**
+     * Puts <CODE>rel</CODE> first in the relationship chain of
+     * <CODE>node</CODE>, or in the chain of its group if the node is dense.
+     * A sparse node that reaches the dense node threshold is converted to a
+     * dense node first.
+     */
+    private void connectRelationship( NodeRecord node, RelationshipRecord rel )
+    {
+        if ( !node.isDense() )
+        {
+            int degree = getSparseDegree( node ) + 1;
+            if ( degree < neoStore.getDenseNodeThreshold() )
+            {
+                sparseDegrees.put( node.getId(), degree );
+                connect( node.getId(), node.getNextRel(), rel );
+                node.setNextRel( rel.getId() );
+                return;
+            }
+            convertToDense( node );
+        }
+        connectDense( node, rel );
+    }
+
+    private void connectDense( NodeRecord node, RelationshipRecord rel )
+    {
+        RelationshipGroupRecord group = getRelationshipGroup( node,
+            rel.getType(), true );
+        DirectionWrapper direction = directionOf( rel, node.getId() );
+        connect( node.getId(), group.getFirst( direction ), rel );
+        group.setFirst( direction, rel.getId() );
+        group.setCount( direction, group.getCount( direction ) + 1 );
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    /**
+     * Links <CODE>rel</CODE> in before <CODE>nextRelId</CODE>, the first
+     * relationship of a chain of <CODE>nodeId</CODE>.
+     */
+    private void connect( long nodeId, long nextRelId, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        assert nextRelId != rel.getId();
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            rel.setFirstNextRel( nextRelId );
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            rel.setSecondNextRel( nextRelId );
+        }
+        if ( nextRelId != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            Relationship lockableRel = new LockableRelationship( node.getNextRel() );
+            Relationship lockableRel = new LockableRelationship( nextRelId );
             getWriteLock( lockableRel );
-            RelationshipRecord nextRel = getRelationshipRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipRecord( nextRelId );
             if ( nextRel == null )
             {
-                nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+                nextRel = getRelationshipStore().getRecord( nextRelId );
                 addRelationshipRecord( nextRel );
             }
             boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
+            if ( nextRel.getFirstNode() == nodeId )
             {
                 nextRel.setFirstPrevRel( rel.getId() );
                 changed = true;
             }
-            if ( nextRel.getSecondNode() == node.getId() )
+            if ( nextRel.getSecondNode() == nodeId )
             {
                 nextRel.setSecondPrevRel( rel.getId() );
                 changed = true;
             }
             if ( !changed )
             {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
+                throw new InvalidRecordException( "Node[" + nodeId + "] dont match " + nextRel );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of relationships of a sparse node as seen by this
+     * transaction, counted no further than the dense node threshold.
+     */
+    private int getSparseDegree( NodeRecord node )
+    {
+        Integer degree = sparseDegrees.get( node.getId() );
+        if ( degree != null )
+        {
+            return degree;
+        }
+        int threshold = neoStore.getDenseNodeThreshold();
+        int count = 0;
+        long nextRel = node.getNextRel();
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() && count < threshold )
+        {
+            RelationshipRecord rel = getRelationshipRecord( nextRel );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getRecord( nextRel );
+            }
+            count++;
+            nextRel = rel.getFirstNode() == node.getId() ?
+                rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        return count;
+    }
+
+    /**
+     * Moves the relationships of a sparse node to groups, one per
+     * relationship type, keeping their order within each group.
+     */
+    private void convertToDense( NodeRecord node )
+    {
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        long nextRel = node.getNextRel();
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            getWriteLock( new LockableRelationship( nextRel ) );
+            RelationshipRecord rel = getRelationshipRecord( nextRel );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getRecord( nextRel );
+                addRelationshipRecord( rel );
+            }
+            chain.add( rel );
+            nextRel = rel.getFirstNode() == node.getId() ?
+                rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        node.setDense( true );
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        for ( int i = chain.size() - 1; i >= 0; i-- )
+        {
+            connectDense( node, chain.get( i ) );
+        }
+        sparseDegrees.remove( node.getId() );
+        nodesConvertedToDense.add( node.getId() );
+    }
+
+    private static DirectionWrapper directionOf( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return DirectionWrapper.BOTH;
+        }
+        return rel.getFirstNode() == nodeId ? DirectionWrapper.OUTGOING :
+            DirectionWrapper.INCOMING;
+    }
+
+    /**
+     * Returns the group of <CODE>type</CODE> of a dense node, adding it to
+     * this transaction. If there is no such group a new one is put first in
+     * the group chain of the node if <CODE>create</CODE> is
+     * <CODE>true</CODE>, else <CODE>null</CODE> is returned.
+     */
+    private RelationshipGroupRecord getRelationshipGroup( NodeRecord node,
+        int type, boolean create )
+    {
+        long groupId = node.getNextRel();
+        while ( groupId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = relGroupRecords.get( groupId );
+            if ( group == null )
+            {
+                group = getRelationshipGroupStore().getRecord( groupId );
+                if ( group.getType() == type )
+                {
+                    relGroupRecords.put( groupId, group );
+                }
+            }
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        if ( !create )
+        {
+            return null;
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+            getRelationshipGroupStore().nextId(), type );
+        group.setInUse( true );
+        group.setCreated();
+        group.setOwningNode( node.getId() );
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        relGroupRecords.put( group.getId(), group );
+        return group;
+    }
+
+    private void removeRelationshipGroup( NodeRecord node,
+        RelationshipGroupRecord group )
+    {
+        if ( node.getNextRel() == group.getId() )
+        {
+            node.setNextRel( group.getNext() );
+        }
+        else
+        {
+            long groupId = node.getNextRel();
+            while ( true )
+            {
+                RelationshipGroupRecord prevGroup = relGroupRecords.get( groupId );
+                if ( prevGroup == null )
+                {
+                    prevGroup = getRelationshipGroupStore().getRecord( groupId );
+                }
+                if ( prevGroup.getNext() == group.getId() )
+                {
+                    prevGroup.setNext( group.getNext() );
+                    relGroupRecords.put( groupId, prevGroup );
+                    break;
+                }
+                groupId = prevGroup.getNext();
+                if ( groupId == Record.NO_NEXT_RELATIONSHIP.intValue() )
+                {
+                    throw new InvalidRecordException( group
+                        + " not in the group chain of " + node );
+                }
             }
         }
+        group.setInUse( false );
     }
 
     public void nodeCreate( long nodeId )
     {
+        spillIfNeeded();
         NodeRecord nodeRecord = new NodeRecord( nodeId );
         nodeRecord.setInUse( true );
         nodeRecord.setCreated();
         addNodeRecord( nodeRecord );
+        nodeCountDelta++;
     }
 
     public String loadIndex( int id )
@@ -1522,7 +2269,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     NodeRecord getNodeRecord( long nodeId )
     {
-        return nodeRecords.get( nodeId );
+        NodeRecord record = nodeRecords.get( nodeId );
+        if ( record == null && spill != null )
+        {
+            record = spill.getNode( nodeId );
+            if ( record != null && !prepared )
+            {
+                nodeRecords.put( nodeId, record );
+            }
+        }
+        return record;
     }
 
     void addRelationshipRecord( RelationshipRecord record )
@@ -1532,7 +2288,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     RelationshipRecord getRelationshipRecord( long relId )
     {
-        return relRecords.get( relId );
+        RelationshipRecord record = relRecords.get( relId );
+        if ( record == null && spill != null )
+        {
+            record = spill.getRelationship( relId );
+            if ( record != null && !prepared )
+            {
+                relRecords.put( relId, record );
+            }
+        }
+        return record;
     }
 
     void addPropertyRecord( PropertyRecord record )
@@ -1542,7 +2307,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     PropertyRecord getPropertyRecord( long propertyId )
     {
-        return propertyRecords.get( propertyId );
+        PropertyRecord record = propertyRecords.get( propertyId );
+        if ( record == null && spill != null )
+        {
+            record = spill.getProperty( propertyId );
+            if ( record != null && !prepared )
+            {
+                propertyRecords.put( propertyId, record );
+            }
+        }
+        return record;
     }
 
     void addRelationshipTypeRecord( RelationshipTypeRecord record )
@@ -1683,12 +2457,27 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 createdNodes.add( record.getId(), DirectionWrapper.OUTGOING );
             }
         }
+        if ( spill != null )
+        {
+            for ( LongIterator ids = spill.nodeIds(); ids.hasNext(); )
+            {
+                long id = ids.next();
+                if ( !nodeRecords.containsKey( id ) && spill.getNode( id ).isCreated() )
+                {
+                    createdNodes.add( id, DirectionWrapper.OUTGOING );
+                }
+            }
+        }
         return createdNodes;
     }
 
     public boolean isNodeCreated( long nodeId )
     {
         NodeRecord record = nodeRecords.get( nodeId );
+        if ( record == null && spill != null )
+        {
+            record = spill.getNode( nodeId );
+        }
         if ( record != null )
         {
             return record.isCreated();
@@ -1699,6 +2488,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public boolean isRelationshipCreated( long relId )
     {
         RelationshipRecord record = relRecords.get( relId );
+        if ( record == null && spill != null )
+        {
+            record = spill.getRelationship( relId );
+        }
         if ( record != null )
         {
             return record.isCreated();
@@ -1708,12 +2501,19 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     public int getKeyIdForProperty( long propertyId )
     {
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
+        PropertyRecord propRecord = getPropertyRecord(
+            PropertyStore.toRecordId( propertyId ) );
+        if ( propRecord != null )
         {
-            propRecord = getPropertyStore().getLightRecord( propertyId );
+            PropertyBlock block = propRecord.getBlock(
+                PropertyStore.toBlockIndex( propertyId ) );
+            if ( block != null )
+            {
+                return block.getKeyIndexId();
+            }
         }
-        return propRecord.getKeyIndexId();
+        return ReadTransaction.getPropertyBlock( getPropertyStore(),
+            propertyId ).getKeyIndexId();
     }
 
     @Override
@@ -1737,15 +2537,39 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public PropertyData nodeAddProperty( long nodeId, PropertyIndex index, Object value )
     {
-        long propertyId = neoStore.getPropertyStore().nextId();
-        return nodeAddProperty( nodeId, propertyId, index, value ).newPropertyData( value );
+        spillIfNeeded();
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord == null )
+        {
+            nodeRecord = getNodeStore().getRecord( nodeId );
+        }
+        if ( !nodeRecord.inUse() )
+        {
+            throw new IllegalStateException( "Property add on node[" +
+                nodeId + "] illegal since it has been deleted." );
+        }
+        PropertyBlock block = newPropertyBlock( index, value );
+        propertyCountDelta++;
+        return block.newPropertyData( nodeAddPropertyBlock( nodeRecord, block ), value );
     }
 
     @Override
     public PropertyData relAddProperty( long relId, PropertyIndex index, Object value )
     {
-        long propertyId = neoStore.getPropertyStore().nextId();
-        return relAddProperty( relId, propertyId, index, value ).newPropertyData( value );
+        spillIfNeeded();
+        RelationshipRecord relRecord = getRelationshipRecord( relId );
+        if ( relRecord == null )
+        {
+            relRecord = getRelationshipStore().getRecord( relId );
+        }
+        if ( !relRecord.inUse() )
+        {
+            throw new IllegalStateException( "Property add on relationship[" +
+                relId + "] illegal since it has been deleted." );
+        }
+        PropertyBlock block = newPropertyBlock( index, value );
+        propertyCountDelta++;
+        return block.newPropertyData( relAddPropertyBlock( relRecord, block ), value );
     }
 
     @Override
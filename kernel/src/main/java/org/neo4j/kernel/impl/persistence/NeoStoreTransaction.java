@@ -25,14 +25,20 @@ import javax.transaction.xa.XAResource;
 
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 /**
  * A connection to a {@link PersistenceSource}. <CODE>ResourceConnection</CODE>
@@ -96,19 +102,49 @@ public interface NeoStoreTransaction
 
     public void createRelationshipType( int id, String name );
 
-    public long getRelationshipChainPosition( long nodeId );
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId );
 
     /*
-     * List<Iterable<RelationshipRecord>> is a list with three items:
-     * 0: outgoing relationships
-     * 1: incoming relationships
-     * 2: loop relationships
+     * The number of committed relationships of the node matching filter,
+     * read from the counts of its relationship groups if the node is dense.
+     * Nodes created in this transaction have no committed relationships.
+     */
+    public int getDegree( long nodeId, RelationshipFilter filter );
+
+    /*
+     * The committed number of nodes, relationships and properties in the
+     * graph, changes made by this transaction aren't included.
+     */
+    public CountsStore getCounts();
+
+    /*
+     * Sequential scans of the committed nodes, relationships and property
+     * records, changes made by this transaction aren't seen.
+     */
+    public StoreScan<NodeRecord> scanNodes();
+
+    public StoreScan<RelationshipRecord> scanRelationships();
+
+    public StoreScan<PropertyRecord> scanProperties();
+
+    /*
+     * The map has the outgoing and incoming relationships, and the loops
+     * under BOTH if there were any.
      * 
-     * Long is the relationship chain position as it stands after this
-     * batch of relationships has been loaded.
+     * The position is where loading stands after this batch of
+     * relationships has been loaded.
+     */
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position );
+
+    /*
+     * Same as above, but the batch is filled up with relationships matching
+     * filter. Relationships not matching it may still be returned if they
+     * are passed on the way, but don't count towards the batch size.
      */
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position );
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position,
+            RelationshipFilter filter );
 
     public RelIdArray getCreatedNodes();
 
@@ -38,15 +38,21 @@ import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipFilter;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 public class PersistenceManager
 {
@@ -97,15 +103,41 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().loadPropertyIndexes( maxCount );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
         return getReadOnlyResourceIfPossible().getRelationshipChainPosition( nodeId );
     }
 
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position )
+    public int getDegree( long nodeId, RelationshipFilter filter )
     {
-        return getReadOnlyResource().getMoreRelationships( nodeId, position );
+        return getReadOnlyResourceIfPossible().getDegree( nodeId, filter );
+    }
+
+    public CountsStore getCounts()
+    {
+        return getReadOnlyResourceIfPossible().getCounts();
+    }
+
+    public StoreScan<NodeRecord> scanNodes()
+    {
+        return getReadOnlyResourceIfPossible().scanNodes();
+    }
+
+    public StoreScan<RelationshipRecord> scanRelationships()
+    {
+        return getReadOnlyResourceIfPossible().scanRelationships();
+    }
+
+    public StoreScan<PropertyRecord> scanProperties()
+    {
+        return getReadOnlyResourceIfPossible().scanProperties();
+    }
+
+    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition>
+            getMoreRelationships( long nodeId, RelationshipLoadingPosition position,
+            RelationshipFilter filter )
+    {
+        return getReadOnlyResource().getMoreRelationships( nodeId, position, filter );
     }
 
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId,
@@ -27,6 +27,7 @@ import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
 import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.LockTimeoutException;
 
 /**
  * The LockManager can lock resources for reading or writing. By doing this one
@@ -44,17 +45,65 @@ import org.neo4j.kernel.DeadlockDetectedException;
  * <p>
  * LockManager just maps locks to resources and they do all the hard work
  * together with a resource allocation graph.
+ * <p>
+ * The resource to lock map is split into stripes by the hash code of the
+ * resource, each guarded by its own monitor, so that threads locking
+ * different resources rarely contend for the same monitor.
  */
 public class LockManager
 {
-    private final Map<Object,RWLock> resourceLockMap =
-        new HashMap<Object,RWLock>();
+    /**
+     * Lock timeout meaning that lock requests wait until the lock is
+     * acquired or a deadlock is detected.
+     */
+    public static final long NO_TIMEOUT = -1;
+
+    private final Map<Object,RWLock>[] resourceLockMaps;
 
     private final RagManager ragManager;
 
+    private final LockStatistics statistics = new LockStatistics();
+
+    private volatile long lockTimeout = NO_TIMEOUT;
+
     public LockManager( TransactionManager tm )
+    {
+        this( tm, defaultStripeCount() );
+    }
+
+    /**
+     * @param stripes
+     *            the number of stripes to split the resource to lock map in,
+     *            rounded up to a power of two
+     */
+    @SuppressWarnings( "unchecked" )
+    LockManager( TransactionManager tm, int stripes )
     {
         ragManager = new RagManager( tm );
+        int count = 1;
+        while ( count < stripes )
+        {
+            count <<= 1;
+        }
+        resourceLockMaps = new Map[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            resourceLockMaps[i] = new HashMap<Object,RWLock>();
+        }
+    }
+
+    private static int defaultStripeCount()
+    {
+        return Math.max( 16, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    private Map<Object,RWLock> resourceLockMap( Object resource )
+    {
+        int hash = resource.hashCode();
+        // spread the bits, resource hash codes are often sequential ids
+        hash ^= ( hash >>> 20 ) ^ ( hash >>> 12 );
+        hash ^= ( hash >>> 7 ) ^ ( hash >>> 4 );
+        return resourceLockMaps[hash & ( resourceLockMaps.length - 1 )];
     }
 
     public long getDetectedDeadlockCount()
@@ -62,54 +111,128 @@ public class LockManager
         return ragManager.getDeadlockCount();
     }
 
+    /**
+     * Sets the maximum number of milliseconds {@link #getReadLock(Object)}
+     * and {@link #getWriteLock(Object)} wait for a lock before throwing a
+     * {@link LockTimeoutException}.
+     *
+     * @param lockTimeout
+     *            the timeout in milliseconds, or {@link #NO_TIMEOUT}
+     */
+    public void setLockTimeout( long lockTimeout )
+    {
+        this.lockTimeout = lockTimeout < 0 ? NO_TIMEOUT : lockTimeout;
+    }
+
+    public long getLockTimeout()
+    {
+        return lockTimeout;
+    }
+
+    /**
+     * Returns the statistics of the lock requests that had to wait.
+     */
+    public LockStatistics getLockStatistics()
+    {
+        return statistics;
+    }
+
     /**
      * Tries to acquire read lock on <CODE>resource</CODE> for the current
      * transaction. If read lock can't be acquired the transaction will wait for
      * the lransaction until it can acquire it. If waiting leads to dead lock a
-     * {@link DeadlockDetectedException} will be thrown.
+     * {@link DeadlockDetectedException} will be thrown. If a lock timeout is
+     * set and the lock can't be acquired within it a
+     * {@link LockTimeoutException} will be thrown.
      *
      * @param resource
      *            The resource
      * @throws DeadlockDetectedException
      *             If a deadlock is detected
+     * @throws LockTimeoutException
+     *             If the lock timeout passed before the lock was acquired
      * @throws IllegalResourceException
      */
     public void getReadLock( Object resource )
         throws DeadlockDetectedException, IllegalResourceException
     {
-        if ( resource == null )
+        if ( !getLockFor( resource ).acquireReadLock( lockTimeout ) )
         {
-            throw new IllegalResourceException( "Null parameter" );
+            throw new LockTimeoutException( "Unable to acquire read lock on "
+                + resource + " within " + lockTimeout + "ms" );
         }
+    }
 
-        RWLock lock = null;
-        synchronized ( resourceLockMap )
-        {
-            lock = resourceLockMap.get( resource );
-            if ( lock == null )
-            {
-                lock = new RWLock( resource, ragManager );
-                resourceLockMap.put( resource, lock );
-            }
-            lock.mark();
-        }
-        lock.acquireReadLock();
+    /**
+     * Tries to acquire read lock on <CODE>resource</CODE> for the current
+     * transaction, waiting at most <CODE>timeout</CODE> milliseconds for it.
+     *
+     * @param resource
+     *            The resource
+     * @param timeout
+     *            milliseconds to wait for the lock at most, 0 to return at
+     *            once if the lock can't be acquired
+     * @return <CODE>true</CODE> if the lock was acquired, else
+     *         <CODE>false</CODE>
+     * @throws DeadlockDetectedException
+     *             If a deadlock is detected
+     * @throws IllegalResourceException
+     */
+    public boolean tryReadLock( Object resource, long timeout )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        return getLockFor( resource ).acquireReadLock( Math.max( timeout, 0 ) );
     }
 
     /**
      * Tries to acquire write lock on <CODE>resource</CODE> for the current
      * transaction. If write lock can't be acquired the transaction will wait
      * for the lock until it can acquire it. If waiting leads to dead lock a
-     * {@link DeadlockDetectedException} will be thrown.
+     * {@link DeadlockDetectedException} will be thrown. If a lock timeout is
+     * set and the lock can't be acquired within it a
+     * {@link LockTimeoutException} will be thrown.
      *
      * @param resource
      *            The resource
      * @throws DeadlockDetectedException
      *             If a deadlock is detected
+     * @throws LockTimeoutException
+     *             If the lock timeout passed before the lock was acquired
      * @throws IllegalResourceException
      */
     public void getWriteLock( Object resource )
         throws DeadlockDetectedException, IllegalResourceException
+    {
+        if ( !getLockFor( resource ).acquireWriteLock( lockTimeout ) )
+        {
+            throw new LockTimeoutException( "Unable to acquire write lock on "
+                + resource + " within " + lockTimeout + "ms" );
+        }
+    }
+
+    /**
+     * Tries to acquire write lock on <CODE>resource</CODE> for the current
+     * transaction, waiting at most <CODE>timeout</CODE> milliseconds for it.
+     *
+     * @param resource
+     *            The resource
+     * @param timeout
+     *            milliseconds to wait for the lock at most, 0 to return at
+     *            once if the lock can't be acquired
+     * @return <CODE>true</CODE> if the lock was acquired, else
+     *         <CODE>false</CODE>
+     * @throws DeadlockDetectedException
+     *             If a deadlock is detected
+     * @throws IllegalResourceException
+     */
+    public boolean tryWriteLock( Object resource, long timeout )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        return getLockFor( resource ).acquireWriteLock( Math.max( timeout, 0 ) );
+    }
+
+    // returns the (marked) lock of the resource, creating it if needed
+    private RWLock getLockFor( Object resource )
     {
         if ( resource == null )
         {
@@ -117,17 +240,18 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = resourceLockMap( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
             if ( lock == null )
             {
-                lock = new RWLock( resource, ragManager );
+                lock = new RWLock( resource, ragManager, statistics );
                 resourceLockMap.put( resource, lock );
             }
             lock.mark();
         }
-        lock.acquireWriteLock();
+        return lock;
     }
 
     /**
@@ -149,6 +273,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = resourceLockMap( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -186,6 +311,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = resourceLockMap( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -214,6 +340,7 @@ public class LockManager
     public void dumpLocksOnResource( Object resource )
     {
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = resourceLockMap( resource );
         synchronized ( resourceLockMap )
         {
             if ( !resourceLockMap.containsKey( resource ) )
@@ -235,40 +362,66 @@ public class LockManager
         ragManager.dumpStack();
     }
 
+    /**
+     * Utility method for debugging. Dumps the lock wait statistics and the
+     * most contended resources to console.
+     */
+    public void dumpLockStatistics()
+    {
+        for ( LockStatistics.ResourceKind kind :
+            LockStatistics.ResourceKind.values() )
+        {
+            System.out.println( kind + ": waits=" + statistics.getWaits( kind )
+                + " averageWaitTime="
+                + statistics.getAverageWaitTime( kind ) / 1000000 + "ms "
+                + statistics.formatWaitTimeHistogram( kind ) );
+        }
+        System.out.println( "Deadlocks: " + getDetectedDeadlockCount() );
+        System.out.println( "Most contended resources:" );
+        for ( LockStatistics.Contention contention :
+            statistics.getMostContended( 10 ) )
+        {
+            System.out.println( contention );
+        }
+    }
+
     /**
      * Utility method for debuggin. Dumps info about each lock to console.
      */
     public void dumpAllLocks()
     {
-        synchronized ( resourceLockMap )
+        int emptyLockCount = 0;
+        for ( Map<Object,RWLock> resourceLockMap : resourceLockMaps )
         {
-            Iterator<RWLock> itr = resourceLockMap.values().iterator();
-            int emptyLockCount = 0;
-            while ( itr.hasNext() )
+            synchronized ( resourceLockMap )
             {
-                RWLock lock = itr.next();
-                if ( lock.getWriteCount() > 0 || lock.getReadCount() > 0 )
+                Iterator<RWLock> itr = resourceLockMap.values().iterator();
+                while ( itr.hasNext() )
                 {
-                    lock.dumpStack();
-                }
-                else
-                {
-                    if ( lock.getWaitingThreadsCount() > 0 )
+                    RWLock lock = itr.next();
+                    if ( lock.getWriteCount() > 0 || lock.getReadCount() > 0 )
                     {
                         lock.dumpStack();
                     }
-                    emptyLockCount++;
+                    else
+                    {
+                        if ( lock.getWaitingThreadsCount() > 0 )
+                        {
+                            lock.dumpStack();
+                        }
+                        emptyLockCount++;
+                    }
                 }
             }
-            if ( emptyLockCount > 0 )
-            {
-                System.out.println( "There are " + emptyLockCount
-                    + " empty locks" );
-            }
-            else
-            {
-                System.out.println( "There are no empty locks" );
-            }
+        }
+        if ( emptyLockCount > 0 )
+        {
+            System.out.println( "There are " + emptyLockCount
+                + " empty locks" );
+        }
+        else
+        {
+            System.out.println( "There are no empty locks" );
         }
     }
 }
\ No newline at end of file
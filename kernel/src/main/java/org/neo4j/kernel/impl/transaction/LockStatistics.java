@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.core.PropertyIndex;
+
+/**
+ * Lock wait statistics of a {@link LockManager}: the number of times a
+ * transaction had to wait for a lock, the time it waited and a histogram of
+ * the wait times, per {@link ResourceKind kind} of locked resource. The most
+ * contended resources are tracked in a bounded "space saving" sketch, so the
+ * memory used doesn't grow with the number of resources ever waited on. When
+ * the sketch is full the least waited on of a few sampled resources is
+ * replaced, rather than the least waited on of all of them.
+ * <p>
+ * Only lock requests that have to wait are registered, after the lock has
+ * been left. Registering doesn't take any lock, so it doesn't make waiting
+ * transactions wait for each other.
+ */
+public class LockStatistics
+{
+    public enum ResourceKind
+    {
+        NODE( "Node" ),
+        RELATIONSHIP( "Relationship" ),
+        PROPERTY_INDEX( "Property index" ),
+        RELATIONSHIP_TYPE( "Relationship type" ),
+        OTHER( "Other" );
+
+        private final String description;
+
+        private ResourceKind( String description )
+        {
+            this.description = description;
+        }
+
+        public static ResourceKind of( Object resource )
+        {
+            if ( resource instanceof Node )
+            {
+                return NODE;
+            }
+            if ( resource instanceof Relationship )
+            {
+                return RELATIONSHIP;
+            }
+            if ( resource instanceof PropertyIndex )
+            {
+                return PROPERTY_INDEX;
+            }
+            if ( resource instanceof RelationshipType )
+            {
+                return RELATIONSHIP_TYPE;
+            }
+            return OTHER;
+        }
+
+        @Override
+        public String toString()
+        {
+            return description;
+        }
+    }
+
+    /**
+     * A resource with its estimated number of lock waits. The estimate
+     * can be too high by at most <CODE>error</CODE>.
+     */
+    public static class Contention
+    {
+        private final String resource;
+        private final long waits;
+        private final long error;
+
+        Contention( String resource, long waits, long error )
+        {
+            this.resource = resource;
+            this.waits = waits;
+            this.error = error;
+        }
+
+        public String getResource()
+        {
+            return resource;
+        }
+
+        public long getWaits()
+        {
+            return waits;
+        }
+
+        public long getError()
+        {
+            return error;
+        }
+
+        @Override
+        public String toString()
+        {
+            return resource + ": " + waits + " waits"
+                + (error > 0 ? " (+/- " + error + ")" : "");
+        }
+    }
+
+    private static final int WAITS = 0;
+    private static final int WAIT_TIME = 1;
+    private static final int HISTOGRAM = 2;
+    // upper (exclusive) limits of the histogram buckets in milliseconds,
+    // the last bucket has no upper limit
+    private static final long[] BUCKET_LIMITS = { 1, 2, 4, 8, 16, 32, 64, 128,
+        256, 512, 1024, 2048, 4096, 8192, 16384 };
+    public static final int DEFAULT_TRACKED_RESOURCES = 128;
+    // number of consecutive slots looked at for a resource to replace
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final AtomicLongArray[] counters;
+    private final int trackedResources;
+    private final ConcurrentMap<String,Counter> contended =
+        new ConcurrentHashMap<String,Counter>();
+    private final AtomicReferenceArray<Counter> slots;
+    private final AtomicInteger usedSlots = new AtomicInteger();
+
+    private static class Counter
+    {
+        final String resource;
+        final AtomicLong waits = new AtomicLong( 1 );
+        volatile long error;
+
+        Counter( String resource )
+        {
+            this.resource = resource;
+        }
+    }
+
+    public LockStatistics()
+    {
+        this( DEFAULT_TRACKED_RESOURCES );
+    }
+
+    /**
+     * @param trackedResources
+     *            the maximum number of resources kept in the sketch of most
+     *            contended resources
+     */
+    public LockStatistics( int trackedResources )
+    {
+        this.trackedResources = trackedResources;
+        slots = new AtomicReferenceArray<Counter>( trackedResources );
+        counters = new AtomicLongArray[ResourceKind.values().length];
+        for ( int i = 0; i < counters.length; i++ )
+        {
+            counters[i] = new AtomicLongArray( HISTOGRAM
+                + getNumberOfHistogramBuckets() );
+        }
+    }
+
+    /**
+     * Registers that a transaction waited <CODE>nanos</CODE> nanoseconds for
+     * a lock on <CODE>resource</CODE>.
+     */
+    void waited( Object resource, long nanos )
+    {
+        AtomicLongArray kindCounters =
+            counters[ResourceKind.of( resource ).ordinal()];
+        kindCounters.incrementAndGet( WAITS );
+        kindCounters.addAndGet( WAIT_TIME, nanos );
+        kindCounters.incrementAndGet( HISTOGRAM + bucketOf( nanos / 1000000 ) );
+        contended( resource.toString() );
+    }
+
+    private static int bucketOf( long millis )
+    {
+        int bucket = 0;
+        while ( bucket < BUCKET_LIMITS.length && millis >= BUCKET_LIMITS[bucket] )
+        {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    // space saving: when the sketch is full the sampled resource with the
+    // lowest count is replaced and the new one inherits its count as error.
+    // Counts of concurrent waits on a resource being replaced may be lost.
+    private void contended( String resource )
+    {
+        Counter counter = contended.get( resource );
+        if ( counter != null )
+        {
+            counter.waits.incrementAndGet();
+            return;
+        }
+        counter = new Counter( resource );
+        Counter existing = contended.putIfAbsent( resource, counter );
+        if ( existing != null )
+        {
+            existing.waits.incrementAndGet();
+            return;
+        }
+        int start = ( resource.hashCode() & Integer.MAX_VALUE ) % trackedResources;
+        int samples = Math.min( EVICTION_SAMPLES, trackedResources );
+        while ( true )
+        {
+            if ( usedSlots.get() < trackedResources )
+            {
+                int slot = usedSlots.getAndIncrement();
+                if ( slot < trackedResources )
+                {
+                    slots.set( slot, counter );
+                    return;
+                }
+            }
+            int minSlot = -1;
+            Counter min = null;
+            for ( int i = 0; i < samples; i++ )
+            {
+                int slot = ( start + i ) % trackedResources;
+                Counter candidate = slots.get( slot );
+                if ( candidate != null && ( min == null
+                    || candidate.waits.get() < min.waits.get() ) )
+                {
+                    minSlot = slot;
+                    min = candidate;
+                }
+            }
+            if ( min == null )
+            {
+                // the sampled slots are still being filled in
+                Thread.yield();
+                continue;
+            }
+            long minWaits = min.waits.get();
+            counter.error = minWaits;
+            counter.waits.addAndGet( minWaits );
+            if ( slots.compareAndSet( minSlot, min, counter ) )
+            {
+                contended.remove( min.resource, min );
+                return;
+            }
+            counter.waits.addAndGet( -minWaits );
+        }
+    }
+
+    public long getWaits( ResourceKind kind )
+    {
+        return counters[kind.ordinal()].get( WAITS );
+    }
+
+    /**
+     * Returns the total time transactions have waited for locks on
+     * resources of the given kind, in nanoseconds.
+     */
+    public long getWaitTime( ResourceKind kind )
+    {
+        return counters[kind.ordinal()].get( WAIT_TIME );
+    }
+
+    /**
+     * Returns the average time a transaction waited for a lock on a resource
+     * of the given kind, in nanoseconds.
+     */
+    public long getAverageWaitTime( ResourceKind kind )
+    {
+        long waits = getWaits( kind );
+        return waits == 0 ? 0 : getWaitTime( kind ) / waits;
+    }
+
+    public static int getNumberOfHistogramBuckets()
+    {
+        return BUCKET_LIMITS.length + 1;
+    }
+
+    /**
+     * Returns a description of the wait times counted by a histogram bucket,
+     * such as "4-8ms".
+     */
+    public static String getHistogramBucketName( int bucket )
+    {
+        if ( bucket == 0 )
+        {
+            return "<" + BUCKET_LIMITS[0] + "ms";
+        }
+        if ( bucket == BUCKET_LIMITS.length )
+        {
+            return ">=" + BUCKET_LIMITS[bucket - 1] + "ms";
+        }
+        return BUCKET_LIMITS[bucket - 1] + "-" + BUCKET_LIMITS[bucket] + "ms";
+    }
+
+    /**
+     * Returns the number of lock waits on resources of the given kind per
+     * histogram bucket, see {@link #getHistogramBucketName(int)}.
+     */
+    public long[] getWaitTimeHistogram( ResourceKind kind )
+    {
+        AtomicLongArray kindCounters = counters[kind.ordinal()];
+        long[] histogram = new long[getNumberOfHistogramBuckets()];
+        for ( int i = 0; i < histogram.length; i++ )
+        {
+            histogram[i] = kindCounters.get( HISTOGRAM + i );
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the non empty buckets of the wait time histogram of the given
+     * kind of resources, as "<1ms=12 1-2ms=3".
+     */
+    public String formatWaitTimeHistogram( ResourceKind kind )
+    {
+        long[] histogram = getWaitTimeHistogram( kind );
+        StringBuilder result = new StringBuilder();
+        for ( int i = 0; i < histogram.length; i++ )
+        {
+            if ( histogram[i] > 0 )
+            {
+                if ( result.length() > 0 )
+                {
+                    result.append( " " );
+                }
+                result.append( getHistogramBucketName( i ) ).append( "=" )
+                    .append( histogram[i] );
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the (at most) <CODE>count</CODE> resources with the most lock
+     * waits, most contended first.
+     */
+    public List<Contention> getMostContended( int count )
+    {
+        List<Contention> result = new ArrayList<Contention>();
+        for ( int i = 0; i < trackedResources; i++ )
+        {
+            Counter counter = slots.get( i );
+            if ( counter != null )
+            {
+                result.add( new Contention( counter.resource,
+                    counter.waits.get(), counter.error ) );
+            }
+        }
+        Collections.sort( result, new Comparator<Contention>()
+        {
+            public int compare( Contention o1, Contention o2 )
+            {
+                return o1.waits > o2.waits ? -1 : o1.waits < o2.waits ? 1 : 0;
+            }
+        } );
+        return result.size() > count ? result.subList( 0, count ) : result;
+    }
+
+    /**
+     * Resets all counters and forgets the most contended resources. Waits
+     * registered while resetting may or may not be counted.
+     */
+    public void reset()
+    {
+        for ( AtomicLongArray kindCounters : counters )
+        {
+            for ( int i = 0; i < kindCounters.length(); i++ )
+            {
+                kindCounters.set( i, 0 );
+            }
+        }
+        contended.clear();
+        for ( int i = 0; i < trackedResources; i++ )
+        {
+            slots.set( i, null );
+        }
+        usedSlots.set( 0 );
+    }
+}
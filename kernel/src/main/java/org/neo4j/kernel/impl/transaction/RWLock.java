@@ -70,11 +70,13 @@ class RWLock
         new ArrayMap<Transaction,TxLockElement>( 5, false, true );
 
     private final RagManager ragManager;
+    private final LockStatistics statistics;
 
-    RWLock( Object resource, RagManager ragManager )
+    RWLock( Object resource, RagManager ragManager, LockStatistics statistics )
     {
         this.resource = resource;
         this.ragManager = ragManager;
+        this.statistics = statistics;
     }
 
     // keeps track of a transactions read and write lock count on this RWLock
@@ -126,10 +128,33 @@ class RWLock
      * If the lock can be acquires the lock count is updated on <CODE>this</CODE>
      * and the transaction lock element (tle).
      * 
+     * @param timeout
+     *            milliseconds to wait for the lock at most, 0 to not wait at
+     *            all and -1 to wait until the lock is acquired
+     * @return <CODE>true</CODE> if the lock was acquired, <CODE>false</CODE>
+     *         if <CODE>timeout</CODE> passed first
      * @throws DeadlockDetectedException
      *             if a deadlock is detected
      */
-    synchronized void acquireReadLock() throws DeadlockDetectedException
+    boolean acquireReadLock( long timeout ) throws DeadlockDetectedException
+    {
+        long[] waited = new long[1];
+        try
+        {
+            return acquireReadLock( timeout, waited );
+        }
+        finally
+        {
+            // registered outside of this lock, waiters shouldn't wait for it
+            if ( waited[0] != 0 )
+            {
+                statistics.waited( resource, waited[0] );
+            }
+        }
+    }
+
+    private synchronized boolean acquireReadLock( long timeout, long[] waited )
+        throws DeadlockDetectedException
     {
         Transaction tx = ragManager.getCurrentTransaction();
         if ( tx == null )
@@ -142,23 +167,24 @@ class RWLock
             tle = new TxLockElement( tx );
         }
 
+        long waitStart = 0;
         try
         {
             tle.movedOn = false;
             while ( writeCount > tle.writeCount )
             {
-                ragManager.checkWaitOn( this, tx );
-                waitingThreadList.addFirst( new WaitElement( tle,
-                    LockType.READ, Thread.currentThread() ) );
-                try
+                long waitTime = remainingWaitTime( timeout, waitStart );
+                if ( waitTime == 0 )
                 {
-                    wait();
+                    tle.movedOn = true;
+                    return false;
                 }
-                catch ( InterruptedException e )
+                ragManager.checkWaitOn( this, tx );
+                if ( waitStart == 0 )
                 {
-                    Thread.interrupted();
+                    waitStart = System.nanoTime();
                 }
-                ragManager.stopWaitOn( this, tx );
+                waitForLock( tx, tle, LockType.READ, waitTime );
             }
 
             if ( tle.readCount == 0 && tle.writeCount == 0 )
@@ -170,11 +196,16 @@ class RWLock
             tle.movedOn = true;
             // TODO: this put could be optimized?
             txLockElementMap.put( tx, tle );
+            return true;
         }
         finally
         {
             // if deadlocked, remove marking so lock is removed when empty
             marked--;
+            if ( waitStart != 0 )
+            {
+                waited[0] = Math.max( 1, System.nanoTime() - waitStart );
+            }
         }
     }
 
@@ -297,10 +328,33 @@ class RWLock
      * If the lock can be acquires the lock count is updated on <CODE>this</CODE>
      * and the transaction lock element (tle).
      * 
+     * @param timeout
+     *            milliseconds to wait for the lock at most, 0 to not wait at
+     *            all and -1 to wait until the lock is acquired
+     * @return <CODE>true</CODE> if the lock was acquired, <CODE>false</CODE>
+     *         if <CODE>timeout</CODE> passed first
      * @throws DeadlockDetectedException
      *             if a deadlock is detected
      */
-    synchronized void acquireWriteLock() throws DeadlockDetectedException
+    boolean acquireWriteLock( long timeout ) throws DeadlockDetectedException
+    {
+        long[] waited = new long[1];
+        try
+        {
+            return acquireWriteLock( timeout, waited );
+        }
+        finally
+        {
+            // registered outside of this lock, waiters shouldn't wait for it
+            if ( waited[0] != 0 )
+            {
+                statistics.waited( resource, waited[0] );
+            }
+        }
+    }
+
+    private synchronized boolean acquireWriteLock( long timeout, long[] waited )
+        throws DeadlockDetectedException
     {
         Transaction tx = ragManager.getCurrentTransaction();
         if ( tx == null )
@@ -313,23 +367,24 @@ class RWLock
             tle = new TxLockElement( tx );
         }
 
+        long waitStart = 0;
         try
         {
             tle.movedOn = false;
             while ( writeCount > tle.writeCount || readCount > tle.readCount )
             {
-                ragManager.checkWaitOn( this, tx );
-                waitingThreadList.addFirst( new WaitElement( tle,
-                    LockType.WRITE, Thread.currentThread() ) );
-                try
+                long waitTime = remainingWaitTime( timeout, waitStart );
+                if ( waitTime == 0 )
                 {
-                    wait();
+                    tle.movedOn = true;
+                    return false;
                 }
-                catch ( InterruptedException e )
+                ragManager.checkWaitOn( this, tx );
+                if ( waitStart == 0 )
                 {
-                    Thread.interrupted();
+                    waitStart = System.nanoTime();
                 }
-                ragManager.stopWaitOn( this, tx );
+                waitForLock( tx, tle, LockType.WRITE, waitTime );
             }
 
             if ( tle.readCount == 0 && tle.writeCount == 0 )
@@ -341,11 +396,16 @@ class RWLock
             tle.movedOn = true;
             // TODO optimize this put?
             txLockElementMap.put( tx, tle );
+            return true;
         }
         finally
         {
             // if deadlocked, remove marking so lock is removed when empty
             marked--;
+            if ( waitStart != 0 )
+            {
+                waited[0] = Math.max( 1, System.nanoTime() - waitStart );
+            }
         }
     }
 
@@ -412,6 +472,50 @@ class RWLock
         }
     }
 
+    // milliseconds left to wait for the lock, -1 for no limit
+    private static long remainingWaitTime( long timeout, long waitStart )
+    {
+        if ( timeout < 0 || waitStart == 0 )
+        {
+            return timeout;
+        }
+        long remaining = timeout - (System.nanoTime() - waitStart) / 1000000;
+        return remaining > 0 ? remaining : 0;
+    }
+
+    // must be invoked after a successful RagManager.checkWaitOn, waits until
+    // a releasing tx wakes this one up or waitTime milliseconds have passed
+    private void waitForLock( Transaction tx, TxLockElement tle,
+        LockType lockType, long waitTime )
+    {
+        WaitElement we = new WaitElement( tle, lockType,
+            Thread.currentThread() );
+        waitingThreadList.addFirst( we );
+        try
+        {
+            if ( waitTime < 0 )
+            {
+                wait();
+            }
+            else
+            {
+                wait( waitTime );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+        }
+        if ( !waitingThreadList.remove( we ) )
+        {
+            // a releasing tx removed us from the queue and interrupted us,
+            // if we woke up for another reason that interrupt is still
+            // pending and must not hit the next wait
+            Thread.interrupted();
+        }
+        ragManager.stopWaitOn( this, tx );
+    }
+
     int getWriteCount()
     {
         return writeCount;
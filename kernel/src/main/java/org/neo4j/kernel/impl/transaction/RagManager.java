@@ -19,12 +19,12 @@
  */
 package org.neo4j.kernel.impl.transaction;
 
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.SystemException;
@@ -33,7 +33,6 @@ import javax.transaction.TransactionManager;
 
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.kernel.DeadlockDetectedException;
-import org.neo4j.kernel.impl.util.ArrayMap;
 
 /**
  * The Resource Allocation Graph manager is used for deadlock detection. It
@@ -56,6 +55,17 @@ import org.neo4j.kernel.impl.util.ArrayMap;
  * traverse node nodespace starting on the resource and see if we can get back
  * to the tx ( T1 wants to wait on R1 and R1->T2->R2->T3->R8->T1 <==>
  * deadlock!).
+ * <p>
+ * The graph is kept in concurrent maps and no global monitor is held, neither
+ * when locks are acquired or released nor when the graph is traversed. The
+ * locking transactions of a resource are stored as an immutable array that is
+ * replaced on every change, changes to one resource are already serialized by
+ * the monitor of its {@link RWLock}. A transaction that is about to wait
+ * publishes its wait edge (T->R) <i>before</i> it traverses the graph. Of the
+ * transactions closing a cycle the last one to publish its edge is therefore
+ * guaranteed to see all the other edges of the cycle and will get a
+ * <CODE>DeadlockDetectedException</CODE>. If several transactions close the
+ * cycle at the same time more than one of them may get the exception.
  */
 class RagManager
 {
@@ -68,16 +78,20 @@ class RagManager
     // o When a tx releases a lock on a resource and both the readCount and
     // writeCount for that transaction on the resource goes down to zero
     // RagManager.lockReleased( resource ) must be invoked
+    // o Invocations of lockAcquired and lockReleased for the same resource
+    // must not happen concurrently (RWLock holds its own monitor)
     // o After invoke to the checkWaitOn( resource ) method that didn't result
     // in a DeadlockDetectedException the transaction must wait
     // o When the transaction wakes up from waiting on a resource the
     // stopWaitOn( resource ) method must be invoked
 
-    private final Map<Object,List<Transaction>> resourceMap =
-        new HashMap<Object,List<Transaction>>();
+    private static final Transaction[] NO_TRANSACTIONS = new Transaction[0];
+
+    private final ConcurrentMap<Object,Transaction[]> resourceMap =
+        new ConcurrentHashMap<Object,Transaction[]>( 256, 0.75f, 64 );
 
-    private final ArrayMap<Transaction,Object> waitingTxMap =
-        new ArrayMap<Transaction,Object>( 5, false, true );
+    private final ConcurrentMap<Transaction,Object> waitingTxMap =
+        new ConcurrentHashMap<Transaction,Object>( 64, 0.75f, 64 );
 
     private final TransactionManager tm;
 
@@ -93,41 +107,57 @@ class RagManager
         return deadlockCount.longValue();
     }
 
-    synchronized void lockAcquired( Object resource, Transaction tx )
+    void lockAcquired( Object resource, Transaction tx )
     {
-        List<Transaction> lockingTxList = resourceMap.get( resource );
-        if ( lockingTxList != null )
-        {
-            assert !lockingTxList.contains( tx );
-            lockingTxList.add( tx );
-        }
-        else
+        Transaction[] lockingTxs = resourceMap.get( resource );
+        if ( lockingTxs == null )
         {
-            lockingTxList = new LinkedList<Transaction>();
-            lockingTxList.add( tx );
-            resourceMap.put( resource, lockingTxList );
+            lockingTxs = NO_TRANSACTIONS;
         }
+        assert indexOf( lockingTxs, tx ) == -1;
+        Transaction[] newLockingTxs = new Transaction[lockingTxs.length + 1];
+        System.arraycopy( lockingTxs, 0, newLockingTxs, 0, lockingTxs.length );
+        newLockingTxs[lockingTxs.length] = tx;
+        resourceMap.put( resource, newLockingTxs );
     }
 
-    synchronized void lockReleased( Object resource, Transaction tx )
+    void lockReleased( Object resource, Transaction tx )
     {
-        List<Transaction> lockingTxList = resourceMap.get( resource );
-        if ( lockingTxList == null )
+        Transaction[] lockingTxs = resourceMap.get( resource );
+        if ( lockingTxs == null )
         {
             throw new LockException( resource + " not found in resource map" );
         }
-
-        if ( !lockingTxList.remove( tx ) )
+        int index = indexOf( lockingTxs, tx );
+        if ( index == -1 )
         {
             throw new LockException( tx + "not found in locking tx list" );
         }
-        if ( lockingTxList.size() == 0 )
+        if ( lockingTxs.length == 1 )
         {
             resourceMap.remove( resource );
+            return;
+        }
+        Transaction[] newLockingTxs = new Transaction[lockingTxs.length - 1];
+        System.arraycopy( lockingTxs, 0, newLockingTxs, 0, index );
+        System.arraycopy( lockingTxs, index + 1, newLockingTxs, index,
+            newLockingTxs.length - index );
+        resourceMap.put( resource, newLockingTxs );
+    }
+
+    private static int indexOf( Transaction[] txs, Transaction tx )
+    {
+        for ( int i = 0; i < txs.length; i++ )
+        {
+            if ( txs[i].equals( tx ) )
+            {
+                return i;
+            }
         }
+        return -1;
     }
 
-    synchronized void stopWaitOn( Object resource, Transaction tx )
+    void stopWaitOn( Object resource, Transaction tx )
     {
         if ( waitingTxMap.remove( tx ) == null )
         {
@@ -136,64 +166,74 @@ class RagManager
     }
 
     // after invoke the transaction must wait on the resource
-    synchronized void checkWaitOn( Object resource, Transaction tx )
+    void checkWaitOn( Object resource, Transaction tx )
         throws DeadlockDetectedException
     {
-        List<Transaction> lockingTxList = resourceMap.get( resource );
-        if ( lockingTxList == null )
+        Transaction[] lockingTxs = resourceMap.get( resource );
+        if ( lockingTxs == null )
         {
             throw new LockException( "Illegal resource[" + resource
                 + "], not found in map" );
         }
 
-        if ( waitingTxMap.get( tx ) != null )
+        // publish the wait edge before looking for a cycle, see class javadoc
+        if ( waitingTxMap.putIfAbsent( tx, resource ) != null )
         {
             throw new LockException( tx + " already waiting for resource" );
         }
 
-        Iterator<Transaction> itr = lockingTxList.iterator();
-        List<Transaction> checkedTransactions = new LinkedList<Transaction>();
-        Stack<Object> graphStack = new Stack<Object>();
-        // has resource,transaction interleaved
-        graphStack.push( resource );
-        while ( itr.hasNext() )
+        boolean ok = false;
+        try
         {
-            Transaction lockingTx = itr.next();
-            // the if statement bellow is valid because:
-            // t1 -> r1 -> t1 (can happened with RW locks) is ok but,
-            // t1 -> r1 -> t1&t2 where t2 -> r1 is a deadlock
-            // think like this, we have two transactions and one resource
-            // o t1 takes read lock on r1
-            // o t2 takes read lock on r1
-            // o t1 wanna take write lock on r1 but has to wait for t2
-            // to release the read lock ( t1->r1->(t1&t2), ok not deadlock yet
-            // o t2 wanna take write lock on r1 but has to wait for t1
-            // to release read lock....
-            // DEADLOCK t1->r1->(t1&t2) and t2->r1->(t1&t2) ===>
-            // t1->r1->t2->r1->t1, t2->r1->t1->r1->t2 etc...
-            // to allow the first three steps above we check if lockingTx ==
-            // waitingTx on first level.
-            // because of this special case we have to keep track on the
-            // already "checked" tx since it is (now) legal for one type of
-            // circular reference to exist (t1->r1->t1) otherwise we may
-            // traverse t1->r1->t2->r1->t2->r1->t2... until SOE
-            // ... KISS to you too
-            if ( lockingTx.equals( tx ) )
+            Set<Transaction> checkedTransactions = new HashSet<Transaction>();
+            Stack<Object> graphStack = new Stack<Object>();
+            // has resource,transaction interleaved
+            graphStack.push( resource );
+            for ( Transaction lockingTx : lockingTxs )
             {
-                continue;
+                // the if statement bellow is valid because:
+                // t1 -> r1 -> t1 (can happened with RW locks) is ok but,
+                // t1 -> r1 -> t1&t2 where t2 -> r1 is a deadlock
+                // think like this, we have two transactions and one resource
+                // o t1 takes read lock on r1
+                // o t2 takes read lock on r1
+                // o t1 wanna take write lock on r1 but has to wait for t2
+                // to release the read lock ( t1->r1->(t1&t2), ok not deadlock
+                // yet
+                // o t2 wanna take write lock on r1 but has to wait for t1
+                // to release read lock....
+                // DEADLOCK t1->r1->(t1&t2) and t2->r1->(t1&t2) ===>
+                // t1->r1->t2->r1->t1, t2->r1->t1->r1->t2 etc...
+                // to allow the first three steps above we check if lockingTx ==
+                // waitingTx on first level.
+                // because of this special case we have to keep track on the
+                // already "checked" tx since it is (now) legal for one type of
+                // circular reference to exist (t1->r1->t1) otherwise we may
+                // traverse t1->r1->t2->r1->t2->r1->t2... until SOE
+                // ... KISS to you too
+                if ( lockingTx.equals( tx ) )
+                {
+                    continue;
+                }
+                graphStack.push( tx );
+                checkWaitOnRecursive( lockingTx, tx, checkedTransactions,
+                    graphStack );
+                graphStack.pop();
+            }
+            ok = true;
+        }
+        finally
+        {
+            if ( !ok )
+            {
+                waitingTxMap.remove( tx );
             }
-            graphStack.push( tx );
-            checkWaitOnRecursive( lockingTx, tx, checkedTransactions,
-                graphStack );
-            graphStack.pop();
         }
-
         // ok no deadlock, we can wait on resource
-        waitingTxMap.put( tx, resource );
     }
 
-    private synchronized void checkWaitOnRecursive( Transaction lockingTx,
-        Transaction waitingTx, List<Transaction> checkedTransactions,
+    private void checkWaitOnRecursive( Transaction lockingTx,
+        Transaction waitingTx, Set<Transaction> checkedTransactions,
         Stack<Object> graphStack ) throws DeadlockDetectedException
     {
         if ( lockingTx.equals( waitingTx ) )
@@ -233,18 +273,16 @@ class RagManager
             // this is ok since current tx or any other tx will wake
             // in the synchronized block and will be forced to do the deadlock
             // check once more if lock cannot be acquired
-            List<Transaction> lockingTxList = resourceMap.get( resource );
-            if ( lockingTxList != null )
+            Transaction[] lockingTxs = resourceMap.get( resource );
+            if ( lockingTxs != null )
             {
-                Iterator<Transaction> itr = lockingTxList.iterator();
-                while ( itr.hasNext() )
+                for ( Transaction tx : lockingTxs )
                 {
-                    lockingTx = itr.next();
                     // so we don't
-                    if ( !checkedTransactions.contains( lockingTx ) )
+                    if ( !checkedTransactions.contains( tx ) )
                     {
-                        graphStack.push( lockingTx );
-                        checkWaitOnRecursive( lockingTx, waitingTx,
+                        graphStack.push( tx );
+                        checkWaitOnRecursive( tx, waitingTx,
                             checkedTransactions, graphStack );
                         graphStack.pop();
                     }
@@ -254,7 +292,7 @@ class RagManager
         }
     }
 
-    synchronized void dumpStack()
+    void dumpStack()
     {
         System.out.print( "Waiting list: " );
         Iterator<Transaction> transactions = waitingTxMap.keySet().iterator();
@@ -284,23 +322,16 @@ class RagManager
         while ( resources.hasNext() )
         {
             Object resource = resources.next();
-            System.out.print( "" + resource + "->" );
-            Iterator<Transaction> itr = resourceMap.get( resource ).iterator();
-            if ( !itr.hasNext() )
+            Transaction[] lockingTxs = resourceMap.get( resource );
+            if ( lockingTxs == null )
             {
-                System.out.println( " Error empty list found" );
+                continue;
             }
-            while ( itr.hasNext() )
+            System.out.print( "" + resource + "->" );
+            for ( int i = 0; i < lockingTxs.length; i++ )
             {
-                System.out.print( "" + itr.next() );
-                if ( itr.hasNext() )
-                {
-                    System.out.print( "," );
-                }
-                else
-                {
-                    System.out.println();
-                }
+                System.out.print( "" + lockingTxs[i] );
+                System.out.print( i < lockingTxs.length - 1 ? "," : "\n" );
             }
         }
     }
@@ -135,27 +135,14 @@ class TransactionImpl implements Transaction
             {
                 if ( resourceList.size() == 0 )
                 {
-                    if ( !globalStartRecordWritten )
-                    {
-                        txManager.writeStartRecord( globalId );
-                        globalStartRecordWritten = true;
-                    }
-                    //
+                    // a transaction with a single resource is committed one
+                    // phase and recovered from the resource's own log, so the
+                    // start record and the branch aren't written to the tx
+                    // log until a second branch is enlisted
                     byte branchId[] = txManager.getBranchId( xaRes );
                     Xid xid = new XidImpl( globalId, branchId );
                     resourceList.add( new ResourceElement( xid, xaRes ) );
                     xaRes.start( xid, XAResource.TMNOFLAGS );
-                    try
-                    {
-                        txManager.getTxLog().addBranch( globalId, branchId );
-                    }
-                    catch ( IOException e )
-                    {
-                        log.log( Level.SEVERE, "Error writing transaction log", e );
-                        txManager.setTmNotOk();
-                        throw Exceptions.withCause( new SystemException( "TM encountered a problem, "
-                                                                         + " error writing transaction log" ), e );
-                    }
                     return true;
                 }
                 Xid sameRmXid = null;
@@ -191,13 +178,20 @@ class TransactionImpl implements Transaction
                 else
                 // new branch
                 {
-                    // ResourceElement re = resourceList.getFirst();
                     byte branchId[] = txManager.getBranchId( xaRes );
                     Xid xid = new XidImpl( globalId, branchId );
+                    Xid firstXid = resourceList.getFirst().getXid();
                     addResourceToList( xid, xaRes );
                     xaRes.start( xid, XAResource.TMNOFLAGS );
                     try
                     {
+                        if ( !globalStartRecordWritten )
+                        {
+                            txManager.writeStartRecord( globalId );
+                            globalStartRecordWritten = true;
+                            txManager.getTxLog().addBranch( globalId,
+                                firstXid.getBranchQualifier() );
+                        }
                         txManager.getTxLog().addBranch( globalId, branchId );
                     }
                     catch ( IOException e )
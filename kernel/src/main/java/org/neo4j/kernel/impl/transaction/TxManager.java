@@ -588,10 +588,10 @@ public class TxManager extends AbstractTransactionManager
             peakConcurrentTransactions = concurrentTxCount;
         }
         startedTxCount.incrementAndGet();
-        // start record written on resource enlistment
+        // start record written on enlistment of a second resource
     }
 
-    // called when a resource gets enlisted
+    // called when a second resource branch gets enlisted
     void writeStartRecord( byte globalId[] ) throws SystemException
     {
         try
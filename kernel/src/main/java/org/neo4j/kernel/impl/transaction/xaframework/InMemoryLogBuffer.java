@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
 public class InMemoryLogBuffer implements LogBuffer, ReadableByteChannel
 {
@@ -118,6 +119,33 @@ public class InMemoryLogBuffer implements LogBuffer, ReadableByteChannel
         }
     }
     
+    /**
+     * @return the number of bytes put in this buffer.
+     */
+    public int size()
+    {
+        return writeIndex;
+    }
+
+    /**
+     * Discards the content of this buffer, keeping the allocated array.
+     */
+    public void reset()
+    {
+        writeIndex = 0;
+        readIndex = 0;
+    }
+
+    /**
+     * Puts the unread content of this buffer in <CODE>target</CODE>.
+     */
+    public void writeTo( LogBuffer target ) throws IOException
+    {
+        target.put( readIndex == 0 && writeIndex == bytes.length ? bytes :
+            Arrays.copyOfRange( bytes, readIndex, writeIndex ) );
+        readIndex = writeIndex;
+    }
+
     @Override
     public void writeOut() throws IOException
     {
@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.impl.util.FileUtils;
+
+/**
+ * Does the slow parts of a log rotation on a background thread so that
+ * {@link XaLogicalLog#rotate()}, which runs while commits wait for the log,
+ * is left with little to do. When the current log is getting close to the
+ * rotation threshold the stores are flushed and the next log file is
+ * created, filled with zeros up to the expected log size and forced. After a
+ * rotation the old log file is deleted in the background as well.
+ * <p>
+ * Tasks are executed one at a time in the order they were submitted, so a
+ * log file queued for deletion is gone before the next log with the same
+ * name is prepared.
+ */
+class NextLogPreparer
+{
+    private static final int ZERO_BLOCK_SIZE = 1024 * 1024;
+
+    private final Logger log;
+    private final XaTransactionFactory xaTf;
+    private final ExecutorService executor;
+    private Future<?> lastTask;
+
+    // guarded by preparedLock, not this, since takePrepared waits for the
+    // background thread while holding this
+    private final Object preparedLock = new Object();
+    private String preparedFileName;
+    private FileChannel preparedChannel;
+
+    NextLogPreparer( final String logFileName, XaTransactionFactory xaTf )
+    {
+        this.xaTf = xaTf;
+        this.log = Logger.getLogger( getClass().getName() + File.separator
+            + logFileName );
+        this.executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Logical log preparer ["
+                    + new File( logFileName ).getName() + "]" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Flushes the stores and creates <CODE>fileName</CODE> with
+     * <CODE>size</CODE> zeroed bytes in the background.
+     */
+    synchronized void prepare( final String fileName, final long size )
+    {
+        submit( new Runnable()
+        {
+            public void run()
+            {
+                xaTf.flushAll();
+                File file = new File( fileName );
+                if ( file.exists() )
+                {
+                    return;
+                }
+                FileChannel channel = null;
+                try
+                {
+                    channel = new RandomAccessFile( file, "rw" ).getChannel();
+                    ByteBuffer zeros = ByteBuffer.allocate( ZERO_BLOCK_SIZE );
+                    for ( long position = 0; position < size; )
+                    {
+                        zeros.clear();
+                        zeros.limit( (int) Math.min( zeros.capacity(),
+                            size - position ) );
+                        position += channel.write( zeros, position );
+                    }
+                    channel.force( true );
+                    synchronized ( preparedLock )
+                    {
+                        preparedFileName = fileName;
+                        preparedChannel = channel;
+                    }
+                }
+                catch ( IOException e )
+                {
+                    log.log( Level.WARNING, "Unable to prepare " + fileName
+                        + ", it will be created when the log is rotated", e );
+                    closeQuietly( channel );
+                    file.delete();
+                }
+            }
+        } );
+    }
+
+    /**
+     * Deletes <CODE>file</CODE> in the background.
+     */
+    synchronized void delete( final File file )
+    {
+        submit( new Runnable()
+        {
+            public void run()
+            {
+                if ( !FileUtils.deleteFile( file ) )
+                {
+                    log.warning( "Unable to delete old logical log[" + file + "]" );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Waits for the background tasks and returns the prepared log file
+     * positioned at zero if it is <CODE>fileName</CODE>. A log prepared under
+     * another name, which can happen if the log was rotated by other means in
+     * between, is deleted. Returns <CODE>null</CODE> if no file has been
+     * prepared.
+     */
+    synchronized FileChannel takePrepared( String fileName ) throws IOException
+    {
+        awaitTasks();
+        FileChannel channel;
+        String name;
+        synchronized ( preparedLock )
+        {
+            channel = preparedChannel;
+            name = preparedFileName;
+            preparedChannel = null;
+            preparedFileName = null;
+        }
+        if ( channel == null )
+        {
+            return null;
+        }
+        if ( !name.equals( fileName ) )
+        {
+            closeQuietly( channel );
+            new File( name ).delete();
+            return null;
+        }
+        channel.position( 0 );
+        return channel;
+    }
+
+    /**
+     * Waits for the background tasks, removes a prepared log that hasn't been
+     * used and stops the background thread.
+     */
+    synchronized void close()
+    {
+        try
+        {
+            takePrepared( "" );
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to remove prepared log", e );
+        }
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit( Runnable task )
+    {
+        lastTask = executor.submit( task );
+    }
+
+    private void awaitTasks() throws IOException
+    {
+        if ( lastTask == null )
+        {
+            return;
+        }
+        try
+        {
+            lastTask.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted waiting for log preparation" );
+        }
+        catch ( ExecutionException e )
+        {
+            log.log( Level.WARNING, "Log preparation failed", e.getCause() );
+        }
+        lastTask = null;
+    }
+
+    private static void closeQuietly( FileChannel channel )
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                // we tried
+            }
+        }
+    }
+}
@@ -21,14 +21,17 @@ package org.neo4j.kernel.impl.transaction.xaframework;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +39,7 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.Xid;
 
 import org.neo4j.helpers.Exceptions;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.BufferedFileChannel;
@@ -102,6 +106,21 @@ public class XaLogicalLog
     private final LruCache<Long, TxPosition> txStartPositionCache =
         new LruCache<Long, TxPosition>( "Tx start position cache", 10000, null );
 
+    static final int DEFAULT_GROUP_COMMIT_MAX_BATCH = 100;
+
+    // group commit, counters guarded by this
+    private final boolean groupCommit;
+    private final long groupCommitMaxWaitNanos;
+    private final int groupCommitMaxBatch;
+    private long appendedCommits = 0;
+    private long forcedCommits = 0;
+    private boolean forcing = false;
+
+    // next log prepared in the background, null if disabled
+    private final boolean preallocation;
+    private NextLogPreparer nextLogPreparer;
+    private boolean nextLogRequested = false;
+
 
     XaLogicalLog( String fileName, XaResourceManager xaRm, XaCommandFactory cf,
         XaTransactionFactory xaTf, Map<Object,Object> config )
@@ -116,6 +135,30 @@ public class XaLogicalLog
             + Xid.MAXBQUALSIZE * 10 );
         storeDir = (String) config.get( "store_dir" );
         msgLog = StringLogger.getLogger( storeDir);
+        groupCommit = Boolean.parseBoolean( (String) config.get( Config.GROUP_COMMIT ) );
+        groupCommitMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos( parseInt( config,
+            Config.GROUP_COMMIT_MAX_WAIT, 0 ) );
+        groupCommitMaxBatch = Math.max( 1, parseInt( config,
+            Config.GROUP_COMMIT_MAX_BATCH, DEFAULT_GROUP_COMMIT_MAX_BATCH ) );
+        preallocation = !"false".equals( config.get( Config.LOGICAL_LOG_PREALLOCATION ) );
+    }
+
+    private int parseInt( Map<Object,Object> config, String key, int defaultValue )
+    {
+        Object value = config.get( key );
+        if ( value == null )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt( (String) value );
+        }
+        catch ( NumberFormatException e )
+        {
+            log.warning( "Unable to parse " + key + "=" + value );
+            return defaultValue;
+        }
     }
 
     synchronized void open() throws IOException
@@ -200,6 +243,10 @@ public class XaLogicalLog
         }
 
         instantiateCorrectWriteBuffer();
+        if ( preallocation )
+        {
+            nextLogPreparer = new NextLogPreparer( fileName, xaTf );
+        }
     }
 
     private void instantiateCorrectWriteBuffer() throws IOException
@@ -327,7 +374,15 @@ public class XaLogicalLog
     }
 
     // [TX_1P_COMMIT][identifier]
-    public synchronized void commitOnePhase( int identifier, long txId, int masterId )
+    /**
+     * Writes the one phase commit entry of a transaction, forcing it to disk
+     * unless group commit is enabled.
+     *
+     * @return <CODE>-1</CODE> if the entry has been forced, otherwise the
+     *         ticket to pass to {@link #forceCommits(long)} before the
+     *         transaction may be considered committed
+     */
+    public synchronized long commitOnePhase( int identifier, long txId, int masterId )
         throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -336,8 +391,9 @@ public class XaLogicalLog
         try
         {
             LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, masterId );
-            writeBuffer.force();
+            long ticket = appendedCommit();
             cacheTxStartPosition( txId, masterId, startEntry );
+            return ticket;
         }
         catch ( IOException e )
         {
@@ -399,7 +455,11 @@ public class XaLogicalLog
     }
 
     // [TX_2P_COMMIT][identifier]
-    public synchronized void commitTwoPhase( int identifier, long txId, int masterId )
+    /**
+     * Writes the two phase commit entry of a transaction, see
+     * {@link #commitOnePhase(int, long, int)}.
+     */
+    public synchronized long commitTwoPhase( int identifier, long txId, int masterId )
         throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -408,8 +468,9 @@ public class XaLogicalLog
         try
         {
             LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, masterId );
-            writeBuffer.force();
+            long ticket = appendedCommit();
             cacheTxStartPosition( txId, masterId, startEntry );
+            return ticket;
         }
         catch ( IOException e )
         {
@@ -417,6 +478,131 @@ public class XaLogicalLog
         }
     }
 
+    private long appendedCommit() throws IOException
+    {
+        appendedCommits++;
+        if ( !groupCommit )
+        {
+            writeBuffer.force();
+            forcedCommits = appendedCommits;
+            return -1;
+        }
+        writeBuffer.writeOut();
+        if ( appendedCommits - forcedCommits >= groupCommitMaxBatch )
+        {
+            // a committer may be waiting for the batch to fill up
+            notifyAll();
+        }
+        return appendedCommits;
+    }
+
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * Waits until the commit entry with <CODE>ticket</CODE>, as returned by
+     * {@link #commitOnePhase(int, long, int)} or
+     * {@link #commitTwoPhase(int, long, int)}, has been forced to disk.
+     * <p>
+     * One waiting committer at a time forces the log, without holding the
+     * log, covering every commit entry written so far. Commits written while
+     * it does so are forced together by the next one. If
+     * {@link Config#GROUP_COMMIT_MAX_WAIT} is set the committer about to
+     * force waits that long for more commits to join the batch, or until
+     * {@link Config#GROUP_COMMIT_MAX_BATCH} are pending.
+     *
+     * @param ticket the ticket of the commit entry to wait for
+     * @throws IOException if the log couldn't be forced
+     */
+    public void forceCommits( long ticket ) throws IOException
+    {
+        if ( ticket == -1 )
+        {
+            return;
+        }
+        FileChannel channel;
+        long target;
+        synchronized ( this )
+        {
+            long deadline = System.nanoTime() + groupCommitMaxWaitNanos;
+            for ( ;; )
+            {
+                if ( forcedCommits >= ticket )
+                {
+                    return;
+                }
+                if ( !forcing )
+                {
+                    long wait = deadline - System.nanoTime();
+                    if ( wait <= 0 || appendedCommits - forcedCommits >= groupCommitMaxBatch )
+                    {
+                        break;
+                    }
+                    waitNanos( wait );
+                }
+                else
+                {
+                    waitNanos( 0 );
+                }
+            }
+            forcing = true;
+            target = appendedCommits;
+            channel = fileChannel;
+        }
+        boolean forced = false;
+        try
+        {
+            channel.force( false );
+            forced = true;
+        }
+        catch ( IOException e )
+        {
+            synchronized ( this )
+            {
+                // the log may have been rotated or closed, forcing it all
+                if ( forcedCommits < ticket )
+                {
+                    throw e;
+                }
+            }
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                forcing = false;
+                if ( forced && target > forcedCommits )
+                {
+                    forcedCommits = target;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // caller must hold this
+    private void waitNanos( long nanos ) throws InterruptedIOException
+    {
+        try
+        {
+            if ( nanos <= 0 )
+            {
+                wait();
+            }
+            else
+            {
+                wait( nanos / 1000000, (int) ( nanos % 1000000 ) );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted waiting for log force" );
+        }
+    }
+
     // [COMMAND][identifier][COMMAND_DATA]
     public synchronized void writeCommand( XaCommand command, int identifier )
         throws IOException
@@ -426,6 +612,16 @@ public class XaLogicalLog
         LogIoUtils.writeCommand( writeBuffer, identifier, command );
     }
 
+    // [COMMAND][identifier][COMMAND_DATA]... already serialized by the
+    // transaction, appended as a single block
+    synchronized void writeCommands( InMemoryLogBuffer commands, int identifier )
+        throws IOException
+    {
+        checkLogRotation();
+        assert xidIdentMap.get( identifier ) != null;
+        commands.writeTo( writeBuffer );
+    }
+
     private void applyEntry( LogEntry entry ) throws IOException
     {
         if ( entry instanceof LogEntry.Start )
@@ -524,7 +720,8 @@ public class XaLogicalLog
     {
         if ( doingRecovery )
         {
-            msgLog.logMessage( string, true );
+            // not flushed, progress is reported by doInternalRecovery
+            msgLog.logMessage( string );
         }
     }
 
@@ -585,6 +782,13 @@ public class XaLogicalLog
 
     private void checkLogRotation() throws IOException
     {
+        if ( autoRotate && nextLogPreparer != null && !nextLogRequested &&
+            writeBuffer.getFileChannelPosition() >= rotateAtSize - rotateAtSize / 4 )
+        {
+            nextLogRequested = true;
+            nextLogPreparer.prepare( currentLog == LOG1 ? getLog2FileName() :
+                getLog1FileName(), rotateAtSize );
+        }
         if ( autoRotate &&
             writeBuffer.getFileChannelPosition() >= rotateAtSize )
         {
@@ -661,10 +865,21 @@ public class XaLogicalLog
             writeBuffer.force();
             writeBuffer = null;
         }
+        forcedCommits = appendedCommits;
+        notifyAll();
         fileChannel.close();
         fileChannel = null;
     }
 
+    private void closeNextLogPreparer()
+    {
+        if ( nextLogPreparer != null )
+        {
+            nextLogPreparer.close();
+            nextLogPreparer = null;
+        }
+    }
+
     public synchronized void close() throws IOException
     {
         if ( fileChannel == null || !fileChannel.isOpen() )
@@ -677,8 +892,11 @@ public class XaLogicalLog
         {
             log.info( "Close invoked with " + xidIdentMap.size() +
                 " running transaction(s). " );
+            closeNextLogPreparer();
             writeBuffer.force();
             writeBuffer = null;
+            forcedCommits = appendedCommits;
+            notifyAll();
             fileChannel.close();
             log.info( "Dirty log: " + fileName + "." + currentLog +
                 " now closed. Recovery will be started automatically next " +
@@ -686,6 +904,7 @@ public class XaLogicalLog
             return;
         }
         releaseCurrentLogFile();
+        closeNextLogPreparer();
         char logWas = currentLog;
         if ( currentLog != CLEAN ) // again special case, see above
         {
@@ -729,6 +948,18 @@ public class XaLogicalLog
         return msgLog;
     }
 
+    private static final long RECOVERY_PROGRESS_INTERVAL = 10000;
+
+    private void logRecoveryProgress( String logFileName, long position,
+        long logSize, long transactions, long startTime )
+    {
+        long time = Math.max( 1, System.currentTimeMillis() - startTime );
+        msgLog.logMessage( "[" + logFileName + "] recovered " + transactions
+            + " transactions, " + ( logSize > 0 ? position * 100 / logSize : 100 )
+            + "% of log (" + position + "/" + logSize + " bytes) in " + time
+            + "ms, " + ( transactions * 1000 / time ) + " tx/s", true );
+    }
+
     private void doInternalRecovery( String logFileName ) throws IOException
     {
         log.info( "Non clean shutdown detected on log [" + logFileName +
@@ -760,14 +991,30 @@ public class XaLogicalLog
         msgLog.logMessage( "[" + logFileName + "] logVersion=" + logVersion +
                 " with committed tx=" + lastCommittedTx, true );
         long logEntriesFound = 0;
+        long transactionsFound = 0;
         long lastEntryPos = fileChannel.position();
+        long logSize = fileChannel.size();
+        long startTime = System.currentTimeMillis();
+        long nextProgressTime = startTime + RECOVERY_PROGRESS_INTERVAL;
         fileChannel = new BufferedFileChannel( fileChannel );
         LogEntry entry;
         while ( (entry = readEntry()) != null )
         {
             applyEntry( entry );
             logEntriesFound++;
+            if ( entry instanceof LogEntry.Commit )
+            {
+                transactionsFound++;
+            }
             lastEntryPos = fileChannel.position();
+            if ( transactionsFound % 1000 == 0 &&
+                 System.currentTimeMillis() >= nextProgressTime )
+            {
+                logRecoveryProgress( logFileName, lastEntryPos, logSize,
+                    transactionsFound, startTime );
+                nextProgressTime = System.currentTimeMillis()
+                    + RECOVERY_PROGRESS_INTERVAL;
+            }
         }
         // make sure we overwrite any broken records
         fileChannel = ((BufferedFileChannel)fileChannel).getSource();
@@ -775,25 +1022,10 @@ public class XaLogicalLog
 
         msgLog.logMessage( "[" + logFileName + "] entries found=" + logEntriesFound +
                 " lastEntryPos=" + lastEntryPos, true  );
+        logRecoveryProgress( logFileName, lastEntryPos, logSize,
+            transactionsFound, startTime );
 
-        // zero out the slow way since windows don't support truncate very well
-        buffer.clear();
-        while ( buffer.hasRemaining() )
-        {
-            buffer.put( (byte)0 );
-        }
-        buffer.flip();
-        long endPosition = fileChannel.size();
-        do
-        {
-            long bytesLeft = fileChannel.size() - fileChannel.position();
-            if ( bytesLeft < buffer.capacity() )
-            {
-                buffer.limit( (int) bytesLeft );
-            }
-            fileChannel.write( buffer );
-            buffer.flip();
-        } while ( fileChannel.position() < endPosition );
+        zeroBrokenEntries( lastEntryPos );
         fileChannel.position( lastEntryPos );
         scanIsComplete = true;
         log.fine( "Internal recovery completed, scanned " + logEntriesFound
@@ -820,6 +1052,56 @@ public class XaLogicalLog
         recoveredTxMap.clear();
     }
 
+    /**
+     * Zeroes out what may be left of broken entries after
+     * <CODE>position</CODE>, the slow way since windows don't support
+     * truncate very well. Entries are written at most a log buffer at a
+     * time, so nothing was written past the first block of zeros that big
+     * and the rest of a preallocated log is left as it is.
+     */
+    private void zeroBrokenEntries( long position ) throws IOException
+    {
+        ByteBuffer block = ByteBuffer.allocate( DirectMappedLogBuffer.BUFFER_SIZE );
+        long endPosition = fileChannel.size();
+        while ( position < endPosition )
+        {
+            block.clear();
+            block.limit( (int) Math.min( block.capacity(), endPosition - position ) );
+            while ( block.hasRemaining() )
+            {
+                if ( fileChannel.read( block, position + block.position() ) < 0 )
+                {
+                    break;
+                }
+            }
+            int length = block.position();
+            if ( length == 0 || isZeros( block.array(), length ) )
+            {
+                return;
+            }
+            Arrays.fill( block.array(), 0, length, (byte) 0 );
+            block.clear();
+            block.limit( length );
+            while ( block.hasRemaining() )
+            {
+                fileChannel.write( block, position + block.position() );
+            }
+            position += length;
+        }
+    }
+
+    private static boolean isZeros( byte[] bytes, int length )
+    {
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( bytes[i] != 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // for testing, do not use!
     void reset()
     {
@@ -1350,7 +1632,16 @@ public class XaLogicalLog
         {
             assert currentLog == LOG1;
         }
-        assertFileDoesntExist( newLogFile, "New log file" );
+        FileChannel newLog = null;
+        if ( nextLogPreparer != null )
+        {
+            newLog = nextLogPreparer.takePrepared( newLogFile );
+        }
+        nextLogRequested = false;
+        if ( newLog == null )
+        {
+            assertFileDoesntExist( newLogFile, "New log file" );
+        }
         assertFileDoesntExist( oldCopy, "Copy log file" );
 //        System.out.println( " ---- Performing rotate on " + currentLogFile + " -----" );
 //        DumpLogicalLog.main( new String[] { currentLogFile } );
@@ -1360,8 +1651,10 @@ public class XaLogicalLog
                 writeBuffer.getFileChannelPosition(), true );
         long endPosition = writeBuffer.getFileChannelPosition();
         writeBuffer.force();
-        FileChannel newLog = new RandomAccessFile(
-            newLogFile, "rw" ).getChannel();
+        if ( newLog == null )
+        {
+            newLog = new RandomAccessFile( newLogFile, "rw" ).getChannel();
+        }
         long lastTx = xaTf.getLastCommittedTx();
         LogIoUtils.writeLogHeader( buffer, (currentVersion + 1), lastTx );
         previousLogLastCommittedTx = lastTx;
@@ -1423,6 +1716,11 @@ public class XaLogicalLog
             renameCurrentLogFileAndIncrementVersion( currentLogFile,
                 endPosition );
         }
+        else if ( nextLogPreparer != null )
+        {
+            nextLogPreparer.delete( new File( currentLogFile ) );
+            xaTf.getAndSetNewVersion();
+        }
         else
         {
             deleteCurrentLogFile( currentLogFile );
@@ -37,6 +37,7 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
+import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.StringLogger;
@@ -59,6 +60,14 @@ public class XaResourceManager
     private final XaDataSource dataSource;
     private StringLogger msgLog;
 
+    // commits written to the log are applied in the order they were written,
+    // which may be after other commits have been written, see commit()
+    private long loggedCommits = 0;
+    private long appliedCommits = 0;
+    // tickets applied or abandoned while an earlier ticket is still pending
+    private final Set<Long> finishedCommits = new HashSet<Long>();
+    private long lastLoggedTxId = -1;
+
     XaResourceManager( XaDataSource dataSource, XaTransactionFactory tf,
             TxIdGenerator txIdGenerator, String name )
     {
@@ -393,53 +402,101 @@ public class XaResourceManager
         return xaTransaction;
     }
     
-    synchronized XaTransaction commit( Xid xid, boolean onePhase )
+    /**
+     * Commits the transaction, writing its commit entry to the log and then
+     * applying it. The log is forced without holding this resource manager
+     * so that, with group commit enabled, the commits of concurrent
+     * transactions get forced together. Transactions are still applied in
+     * the order their commit entries were written.
+     */
+    XaTransaction commit( Xid xid, boolean onePhase )
         throws XAException
     {
-        XidStatus status = xidMap.get( xid );
-        if ( status == null )
-        {
-            throw new XAException( "Unknown xid[" + xid + "]" );
-        }
-        TransactionStatus txStatus = status.getTransactionStatus();
-        XaTransaction xaTransaction = txStatus.getTransaction();
-        if ( onePhase )
+        XaTransaction xaTransaction;
+        TransactionStatus txStatus;
+        long forceTicket = -1;
+        long commitTicket = -1;
+        synchronized ( this )
         {
-            if ( !xaTransaction.isReadOnly() )
+            XidStatus status = xidMap.get( xid );
+            if ( status == null )
+            {
+                throw new XAException( "Unknown xid[" + xid + "]" );
+            }
+            txStatus = status.getTransactionStatus();
+            xaTransaction = txStatus.getTransaction();
+            if ( onePhase )
             {
-                if ( !xaTransaction.isRecovered() )
+                if ( !xaTransaction.isReadOnly() )
                 {
-                    xaTransaction.prepare();
-                    
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
-                    int masterId = txIdGenerator.getCurrentMasterId();
-                    xaTransaction.setCommitTxId( txId );
-                    log.commitOnePhase( xaTransaction.getIdentifier(), 
-                            xaTransaction.getCommitTxId(), masterId );
+                    if ( !xaTransaction.isRecovered() )
+                    {
+                        xaTransaction.prepare();
+
+                        long txId = generateTxId( xaTransaction );
+                        int masterId = txIdGenerator.getCurrentMasterId();
+                        xaTransaction.setCommitTxId( txId );
+                        forceTicket = log.commitOnePhase( xaTransaction.getIdentifier(),
+                                xaTransaction.getCommitTxId(), masterId );
+                        commitTicket = commitLogged( txId );
+                    }
                 }
+                txStatus.markAsPrepared();
+            }
+            if ( !txStatus.prepared() || txStatus.rollback() )
+            {
+                throw new XAException( "Transaction not prepared or "
+                    + "(marked as) rolledbacked" );
+            }
+            if ( !xaTransaction.isReadOnly() && !xaTransaction.isRecovered()
+                 && !onePhase )
+            {
+                long txId = generateTxId( xaTransaction );
+                int masterId = txIdGenerator.getCurrentMasterId();
+                xaTransaction.setCommitTxId( txId );
+                forceTicket = log.commitTwoPhase( xaTransaction.getIdentifier(),
+                        xaTransaction.getCommitTxId(), masterId );
+                commitTicket = commitLogged( txId );
             }
-            txStatus.markAsPrepared();
         }
-        if ( !txStatus.prepared() || txStatus.rollback() )
+        try
         {
-            throw new XAException( "Transaction not prepared or "
-                + "(marked as) rolledbacked" );
+            log.forceCommits( forceTicket );
         }
-        if ( !xaTransaction.isReadOnly() )
+        catch ( IOException e )
+        {
+            // not applied, but later commits mustn't wait for it
+            commitFinished( commitTicket );
+            throw Exceptions.withCause( new XAException(
+                    "Logical log unable to force commit of " + xid ), e );
+        }
+        synchronized ( this )
         {
-            if ( !xaTransaction.isRecovered() )
+            try
             {
-                if ( !onePhase )
+                awaitAppliedCommits( commitTicket - 1 );
+                applyCommit( xaTransaction, txStatus, onePhase );
+                xidMap.remove( xid );
+                if ( xaTransaction.isRecovered() )
                 {
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
-                    int masterId = txIdGenerator.getCurrentMasterId();
-                    xaTransaction.setCommitTxId( txId );
-                    log.commitTwoPhase( xaTransaction.getIdentifier(),
-                            xaTransaction.getCommitTxId(), masterId );
+                    recoveredTxCount--;
+                    checkIfRecoveryComplete();
                 }
             }
+            finally
+            {
+                commitFinished( commitTicket );
+            }
+        }
+        return xaTransaction;
+    }
+
+    // caller must hold this
+    private void applyCommit( XaTransaction xaTransaction,
+            TransactionStatus txStatus, boolean onePhase ) throws XAException
+    {
+        if ( !xaTransaction.isReadOnly() )
+        {
             txStatus.markCommitStarted();
             if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
             {
@@ -464,13 +521,69 @@ public class XaResourceManager
             recoveredDoneRecords.add( Triplet.of( xaTransaction.getIdentifier(), onePhase,
                     xaTransaction.getCommitTxId() ) );
         }
-        xidMap.remove( xid );
-        if ( xaTransaction.isRecovered() )
+    }
+
+    // caller must hold this
+    private long generateTxId( XaTransaction xaTransaction ) throws XAException
+    {
+        if ( txIdGenerator == TxIdGenerator.DEFAULT && appliedCommits < loggedCommits )
         {
-            recoveredTxCount--;
-            checkIfRecoveryComplete();
+            // the default generator goes by the last applied transaction,
+            // but commits written to the log before this one are pending
+            return lastLoggedTxId + 1;
+        }
+        // ids handed out elsewhere must be applied before the next is asked for
+        awaitAppliedCommits( loggedCommits );
+        return txIdGenerator.generate( dataSource, xaTransaction.getIdentifier() );
+    }
+
+    // caller must hold this
+    private long commitLogged( long txId )
+    {
+        lastLoggedTxId = txId;
+        return ++loggedCommits;
+    }
+
+    /*
+     * Marks the commit with this ticket as applied or abandoned. The applied
+     * commits only move past it once all commits logged before it are done
+     * too, so waiting commits don't take earlier pending ones as applied.
+     */
+    private synchronized void commitFinished( long commitTicket )
+    {
+        if ( commitTicket == -1 )
+        {
+            return;
+        }
+        finishedCommits.add( commitTicket );
+        boolean advanced = false;
+        while ( finishedCommits.remove( appliedCommits + 1 ) )
+        {
+            appliedCommits++;
+            advanced = true;
+        }
+        if ( advanced )
+        {
+            notifyAll();
+        }
+    }
+
+    // caller must hold this
+    private void awaitAppliedCommits( long commitTicket ) throws XAException
+    {
+        while ( appliedCommits < commitTicket )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw Exceptions.withCause( new XAException(
+                        "Interrupted waiting for commits to be applied" ), e );
+            }
         }
-        return xaTransaction;
     }
 
     synchronized XaTransaction rollback( Xid xid ) throws XAException
@@ -662,7 +775,7 @@ public class XaResourceManager
                     int masterId = XaLogicalLog.MASTER_ID_REPRESENTING_NO_MASTER;
                     if ( !onePhase )
                     {
-                        log.commitTwoPhase( identifier, txId, masterId );
+                        log.forceCommits( log.commitTwoPhase( identifier, txId, masterId ) );
                     }
                     log.doneInternal( identifier );
                 }
@@ -706,6 +819,7 @@ public class XaResourceManager
     public synchronized void applyCommittedTransaction(
             ReadableByteChannel transaction, long txId ) throws IOException
     {
+        awaitPendingCommits();
         long lastCommittedTxId = dataSource.getLastCommittedTxId();
         if ( lastCommittedTxId + 1 == txId )
         {
@@ -726,12 +840,26 @@ public class XaResourceManager
     public synchronized long applyPreparedTransaction(
             ReadableByteChannel transaction ) throws IOException
     {
+        awaitPendingCommits();
         long txId = TxIdGenerator.DEFAULT.generate( dataSource, 0 );
         int masterId = txIdGenerator.getCurrentMasterId();
         log.applyTransactionWithoutTxId( transaction, txId, masterId );
         return txId;
     }
     
+    // caller must hold this
+    private void awaitPendingCommits() throws IOException
+    {
+        try
+        {
+            awaitAppliedCommits( loggedCommits );
+        }
+        catch ( XAException e )
+        {
+            throw new IOException( e.getMessage() );
+        }
+    }
+
     public synchronized void rotateLogicalLog() throws IOException
     {
         log.rotate();
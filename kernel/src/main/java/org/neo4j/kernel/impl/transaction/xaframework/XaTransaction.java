@@ -24,6 +24,7 @@ import java.io.IOException;
 import javax.transaction.xa.XAException;
 
 import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.helpers.Exceptions;
 
 /**
  * <CODE>XaTransaction</CODE> holds all the commands that participate in the
@@ -169,6 +170,15 @@ public abstract class XaTransaction
     private boolean committed = false;
     private boolean rolledback = false;
     private boolean prepared = false;
+    private boolean preparing = false;
+
+    /**
+     * Commands added during {@link #doPrepare()} are serialized here and
+     * appended to the logical log in one go, keeping them together in the log
+     * and taking the log lock once instead of once per command.
+     */
+    private InMemoryLogBuffer commandBuffer;
+    static final int COMMAND_BUFFER_FLUSH_SIZE = 1024 * 1024;
     
     private long commitTxId = -1;
 
@@ -239,7 +249,20 @@ public abstract class XaTransaction
         doAddCommand( command );
         try
         {
-            log.writeCommand( command, identifier );
+            if ( !preparing )
+            {
+                log.writeCommand( command, identifier );
+                return;
+            }
+            if ( commandBuffer == null )
+            {
+                commandBuffer = new InMemoryLogBuffer();
+            }
+            LogIoUtils.writeCommand( commandBuffer, identifier, command );
+            if ( commandBuffer.size() >= COMMAND_BUFFER_FLUSH_SIZE )
+            {
+                flushCommands();
+            }
         }
         catch ( IOException e )
         {
@@ -275,6 +298,7 @@ public abstract class XaTransaction
                     + "commit" );
         }
         rolledback = true;
+        commandBuffer = null;
         doRollback();
     }
 
@@ -296,7 +320,34 @@ public abstract class XaTransaction
             throw new XAException( "Cannot prepare rolled back transaction" );
         }
         prepared = true;
-        doPrepare();
+        preparing = true;
+        try
+        {
+            doPrepare();
+        }
+        finally
+        {
+            preparing = false;
+        }
+        try
+        {
+            flushCommands();
+        }
+        catch ( IOException e )
+        {
+            throw Exceptions.withCause( new XAException(
+                "Unable to write commands to logical log." ), e );
+        }
+        commandBuffer = null;
+    }
+
+    private void flushCommands() throws IOException
+    {
+        if ( commandBuffer != null && commandBuffer.size() > 0 )
+        {
+            log.writeCommands( commandBuffer, identifier );
+            commandBuffer.reset();
+        }
     }
 
     /**
@@ -30,6 +30,10 @@ import java.util.Set;
 
 public class ArrayMap<K,V>
 {
+    // the array starts out small and grows up to toMapThreshold, most maps
+    // only ever hold one or two entries
+    private static final int INITIAL_ARRAY_SIZE = 2;
+
     private Object data;
     private volatile byte arrayCount;
     private byte toMapThreshold = 5;
@@ -40,7 +44,7 @@ public class ArrayMap<K,V>
     {
         switchBackToArray = false;
         useThreadSafeMap = false;
-        data = new ArrayEntry[toMapThreshold];
+        data = new ArrayEntry[Math.min( INITIAL_ARRAY_SIZE, toMapThreshold )];
     }
 
     public ArrayMap( int mapThreshold, boolean threadSafe, boolean shrinkToArray )
@@ -48,7 +52,7 @@ public class ArrayMap<K,V>
         this.toMapThreshold = (byte)mapThreshold;
         this.useThreadSafeMap = threadSafe;
         this.switchBackToArray = shrinkToArray;
-        data = new ArrayEntry[toMapThreshold];
+        data = new ArrayEntry[Math.min( INITIAL_ARRAY_SIZE, toMapThreshold )];
     }
 
     @Override
@@ -107,9 +111,15 @@ public class ArrayMap<K,V>
             {
                 ((ArrayEntry[])data)[arrayCount++] = new ArrayEntry<K,V>( key, value );
             }
+            else if ( arrayCount < toMapThreshold )
+            {
+                data = Arrays.copyOf( (ArrayEntry[])data,
+                    Math.min( arrayCount * 2, toMapThreshold ) );
+                ((ArrayEntry[])data)[arrayCount++] = new ArrayEntry<K,V>( key, value );
+            }
             else
             {
-                Map propertyMap = new HashMap<K,V>( ((ArrayEntry[])data).length * 2 );
+                Map propertyMap = new HashMap<K,V>( toMapThreshold * 2 );
                 for ( int i = 0; i < arrayCount; i++ )
                 {
                     propertyMap.put( ((ArrayEntry[])data)[i].getKey(), ((ArrayEntry[])data)[i].getValue() );
@@ -141,9 +151,15 @@ public class ArrayMap<K,V>
             {
                 ((ArrayEntry[])data)[arrayCount++] = new ArrayEntry<K,V>( key, value );
             }
+            else if ( arrayCount < toMapThreshold )
+            {
+                data = Arrays.copyOf( (ArrayEntry[])data,
+                    Math.min( arrayCount * 2, toMapThreshold ) );
+                ((ArrayEntry[])data)[arrayCount++] = new ArrayEntry<K,V>( key, value );
+            }
             else
             {
-                Map propertyMap = new HashMap<K,V>( ((ArrayEntry[])data).length * 2 );
+                Map propertyMap = new HashMap<K,V>( toMapThreshold * 2 );
                 for ( int i = 0; i < arrayCount; i++ )
                 {
                     propertyMap.put( ((ArrayEntry[])data)[i].getKey(), ((ArrayEntry[])data)[i].getValue() );
@@ -19,7 +19,6 @@
  */
 package org.neo4j.kernel.impl.util;
 
-import java.util.Collection;
 import java.util.NoSuchElementException;
 
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
@@ -29,14 +28,14 @@ public class CombinedRelIdIterator implements RelIdIterator
     private RelIdIterator srcIterator;
     private final RelIdIterator addIterator;
     private RelIdIterator currentIterator;
-    private final Collection<Long> removed;
+    private final LongHashSet removed;
     private final String type;
     private final DirectionWrapper direction;
     private boolean nextElementDetermined;
     private long nextElement;
     
     public CombinedRelIdIterator( String type, DirectionWrapper direction, RelIdArray src,
-            RelIdArray add, Collection<Long> remove )
+            RelIdArray add, LongHashSet remove )
     {
         this.type = type;
         this.direction = direction;
@@ -67,7 +66,21 @@ public class CombinedRelIdIterator implements RelIdIterator
     @Override
     public void updateSource( RelIdArray newSource )
     {
-        this.srcIterator = newSource.iterator( direction );
+        // keep the position of the source iterator, a new one would return
+        // the ids already returned again
+        if ( srcIterator.isPlacebo() )
+        {
+            boolean iteratingSource = currentIterator == srcIterator;
+            srcIterator = newSource.iterator( direction );
+            if ( iteratingSource )
+            {
+                currentIterator = srcIterator;
+            }
+        }
+        else
+        {
+            srcIterator.updateSource( newSource );
+        }
     }
 
     @Override
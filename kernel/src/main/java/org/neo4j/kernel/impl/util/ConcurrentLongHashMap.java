@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe open addressing hash map from primitive <CODE>long</CODE> keys
+ * to objects, the {@link LongHashMap} counterpart of
+ * {@link java.util.concurrent.ConcurrentHashMap}.
+ * <p>
+ * The map is split into segments, each guarded by its own lock for updates.
+ * Reads never lock. Within a table a slot is never reused for another key
+ * once its key has been removed, so a reader that has found its key in a
+ * slot can't read another key's value from it. Removed slots are reclaimed
+ * when the segment rehashes into a new table.
+ * <p>
+ * Keys must be non-negative and values non-null. Iteration is weakly
+ * consistent, like for the java.util.concurrent collections.
+ *
+ * @param <V> the value type
+ */
+public class ConcurrentLongHashMap<V>
+{
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentLongHashMap()
+    {
+        this( 16, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of entries the map should hold without growing
+     * @param concurrencyLevel
+     *            the estimated number of concurrently updating threads
+     */
+    @SuppressWarnings( "unchecked" )
+    public ConcurrentLongHashMap( int expectedSize, int concurrencyLevel )
+    {
+        int count = 1;
+        int shift = 32;
+        while ( count < concurrencyLevel )
+        {
+            count <<= 1;
+            shift--;
+        }
+        segmentShift = shift;
+        segments = new Segment[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            segments[i] = new Segment<V>( expectedSize / count );
+        }
+    }
+
+    private Segment<V> segmentFor( int hash )
+    {
+        // the segment is picked with the high bits, the slot with the low
+        return segments.length == 1 ? segments[0] :
+            segments[hash >>> segmentShift];
+    }
+
+    public V get( long key )
+    {
+        int hash = LongHashMap.hash( key );
+        return segmentFor( hash ).get( key, hash );
+    }
+
+    public boolean containsKey( long key )
+    {
+        return get( key ) != null;
+    }
+
+    /**
+     * Associates <CODE>value</CODE> with <CODE>key</CODE>.
+     *
+     * @return the value previously associated with <CODE>key</CODE>, or
+     *         <CODE>null</CODE> if there was none
+     */
+    public V put( long key, V value )
+    {
+        return put( key, value, false );
+    }
+
+    /**
+     * Associates <CODE>value</CODE> with <CODE>key</CODE> unless
+     * <CODE>key</CODE> already has a value.
+     *
+     * @return the value already associated with <CODE>key</CODE>, or
+     *         <CODE>null</CODE> if <CODE>value</CODE> was put
+     */
+    public V putIfAbsent( long key, V value )
+    {
+        return put( key, value, true );
+    }
+
+    private V put( long key, V value, boolean onlyIfAbsent )
+    {
+        LongHashMap.checkKey( key );
+        if ( value == null )
+        {
+            throw new IllegalArgumentException( "Null value for " + key );
+        }
+        int hash = LongHashMap.hash( key );
+        return segmentFor( hash ).put( key, hash, value, onlyIfAbsent );
+    }
+
+    /**
+     * Removes the entry for <CODE>key</CODE>.
+     *
+     * @return the removed value, or <CODE>null</CODE> if there was none
+     */
+    public V remove( long key )
+    {
+        int hash = LongHashMap.hash( key );
+        return segmentFor( hash ).remove( key, hash, null );
+    }
+
+    /**
+     * Removes the entry for <CODE>key</CODE> only if it is currently
+     * associated with <CODE>value</CODE>, compared by identity.
+     *
+     * @return <CODE>true</CODE> if the entry was removed
+     */
+    public boolean remove( long key, V value )
+    {
+        if ( value == null )
+        {
+            return false;
+        }
+        int hash = LongHashMap.hash( key );
+        return segmentFor( hash ).remove( key, hash, value ) != null;
+    }
+
+    public int size()
+    {
+        long size = 0;
+        for ( Segment<V> segment : segments )
+        {
+            size += segment.size;
+        }
+        return (int) Math.min( size, Integer.MAX_VALUE );
+    }
+
+    public boolean isEmpty()
+    {
+        for ( Segment<V> segment : segments )
+        {
+            if ( segment.size != 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear()
+    {
+        for ( Segment<V> segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the keys of this map. The iterator never throws
+     * {@link java.util.ConcurrentModificationException}, and sees the keys of
+     * each segment as they were when it reached that segment.
+     */
+    public LongIterator keys()
+    {
+        return new LongIterator()
+        {
+            private int segment = 0;
+            private Table<V> table = segments[0].table;
+            private int index = -1;
+            private long next = advance();
+
+            private long advance()
+            {
+                while ( true )
+                {
+                    for ( index++; index < table.capacity; index++ )
+                    {
+                        long key = table.keys.get( index );
+                        if ( key >= 0 && table.values.get( index ) != null )
+                        {
+                            return key;
+                        }
+                    }
+                    if ( ++segment == segments.length )
+                    {
+                        return LongHashMap.FREE;
+                    }
+                    table = segments[segment].table;
+                    index = -1;
+                }
+            }
+
+            public boolean hasNext()
+            {
+                return next != LongHashMap.FREE;
+            }
+
+            public long next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                long key = next;
+                next = advance();
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the keys of this map for callers that need them as
+     * objects, each key is boxed as it is iterated. See {@link #keys()}.
+     */
+    public Iterable<Long> keySet()
+    {
+        return new Iterable<Long>()
+        {
+            public Iterator<Long> iterator()
+            {
+                final LongIterator keys = keys();
+                return new Iterator<Long>()
+                {
+                    public boolean hasNext()
+                    {
+                        return keys.hasNext();
+                    }
+
+                    public Long next()
+                    {
+                        return keys.next();
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static class Table<V>
+    {
+        final int capacity;
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<V> values;
+
+        Table( int capacity )
+        {
+            this.capacity = capacity;
+            this.keys = new AtomicLongArray( capacity );
+            for ( int i = 0; i < capacity; i++ )
+            {
+                keys.lazySet( i, LongHashMap.FREE );
+            }
+            this.values = new AtomicReferenceArray<V>( capacity );
+        }
+    }
+
+    private static class Segment<V> extends ReentrantLock
+    {
+        private volatile Table<V> table;
+        private volatile int size;
+        // slots taken by live entries or removed markers in the table
+        private int used;
+
+        Segment( int expectedSize )
+        {
+            this.table = new Table<V>( LongHashMap.capacityFor( expectedSize ) );
+        }
+
+        V get( long key, int hash )
+        {
+            Table<V> t = table;
+            int mask = t.capacity - 1;
+            for ( int i = hash & mask;; i = ( i + 1 ) & mask )
+            {
+                long k = t.keys.get( i );
+                if ( k == key )
+                {
+                    // null if removed after we read the key
+                    return t.values.get( i );
+                }
+                if ( k == LongHashMap.FREE )
+                {
+                    return null;
+                }
+            }
+        }
+
+        V put( long key, int hash, V value, boolean onlyIfAbsent )
+        {
+            lock();
+            try
+            {
+                Table<V> t = table;
+                int mask = t.capacity - 1;
+                int i = hash & mask;
+                for ( ;; i = ( i + 1 ) & mask )
+                {
+                    long k = t.keys.get( i );
+                    if ( k == key )
+                    {
+                        V previous = t.values.get( i );
+                        if ( !onlyIfAbsent )
+                        {
+                            t.values.set( i, value );
+                        }
+                        return previous;
+                    }
+                    if ( k == LongHashMap.FREE )
+                    {
+                        break;
+                    }
+                }
+                if ( used + 1 > t.capacity * LongHashMap.LOAD_FACTOR )
+                {
+                    // rehash before taking the slot, readers still probing
+                    // the old table rely on it never running out of free
+                    // slots to stop at
+                    t = rehash( t, size + 1 );
+                    mask = t.capacity - 1;
+                    i = hash & mask;
+                    while ( t.keys.get( i ) != LongHashMap.FREE )
+                    {
+                        i = ( i + 1 ) & mask;
+                    }
+                }
+                // value first, a reader finding the key must find a value
+                t.values.set( i, value );
+                t.keys.set( i, key );
+                size++;
+                used++;
+                return null;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        V remove( long key, int hash, V expected )
+        {
+            lock();
+            try
+            {
+                Table<V> t = table;
+                int mask = t.capacity - 1;
+                for ( int i = hash & mask;; i = ( i + 1 ) & mask )
+                {
+                    long k = t.keys.get( i );
+                    if ( k == key )
+                    {
+                        V previous = t.values.get( i );
+                        if ( expected != null && expected != previous )
+                        {
+                            return null;
+                        }
+                        t.values.set( i, null );
+                        t.keys.set( i, LongHashMap.REMOVED );
+                        size--;
+                        return previous;
+                    }
+                    if ( k == LongHashMap.FREE )
+                    {
+                        return null;
+                    }
+                }
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        private Table<V> rehash( Table<V> old, int expectedSize )
+        {
+            Table<V> t = new Table<V>( LongHashMap.capacityFor( expectedSize ) );
+            int mask = t.capacity - 1;
+            for ( int j = 0; j < old.capacity; j++ )
+            {
+                long key = old.keys.get( j );
+                if ( key >= 0 )
+                {
+                    int i = LongHashMap.hash( key ) & mask;
+                    while ( t.keys.get( i ) != LongHashMap.FREE )
+                    {
+                        i = ( i + 1 ) & mask;
+                    }
+                    t.values.lazySet( i, old.values.get( j ) );
+                    t.keys.lazySet( i, key );
+                }
+            }
+            used = size;
+            // publishing the table makes the lazy sets above visible
+            table = t;
+            return t;
+        }
+
+        void clear()
+        {
+            lock();
+            try
+            {
+                table = new Table<V>( table.capacity );
+                size = 0;
+                used = 0;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+    }
+}
@@ -33,10 +33,13 @@ import javax.transaction.xa.Xid;
 
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
@@ -44,6 +47,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
 import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
 public class DumpLogicalLog
 {
@@ -192,6 +196,8 @@ public class DumpLogicalLog
     private static final byte REL_COMMAND = (byte) 3;
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
+    private static final byte REL_GROUP_COMMAND = (byte) 6;
+    private static final byte COUNTS_COMMAND = (byte) 7;
 
     static XaCommand readNodeCommand( ReadableByteChannel byteChannel, ByteBuffer buffer )
         throws IOException
@@ -219,7 +225,7 @@ public class DumpLogicalLog
         if ( inUse )
         {
             buffer.clear();
-            buffer.limit( 16 );
+            buffer.limit( 17 );
             if ( byteChannel.read( buffer ) != buffer.limit() )
             {
                 return null;
@@ -227,10 +233,87 @@ public class DumpLogicalLog
             buffer.flip();
             record.setNextRel( buffer.getLong() );
             record.setNextProp( buffer.getLong() );
+            record.setDense( buffer.get() != 0 );
         }
         return new Command( record );
     }
 
+    static XaCommand readRelationshipGroupCommand( ReadableByteChannel byteChannel,
+        ByteBuffer buffer ) throws IOException
+    {
+        // id+in_use(byte)+type(int)+next(long)+first_out(long)+
+        // first_in(long)+first_loop(long)+owning_node(long)
+        buffer.clear();
+        buffer.limit( 13 );
+        if ( byteChannel.read( buffer ) != buffer.limit() )
+        {
+            return null;
+        }
+        buffer.flip();
+        long id = buffer.getLong();
+        byte inUseFlag = buffer.get();
+        boolean inUse = false;
+        if ( inUseFlag == Record.IN_USE.byteValue() )
+        {
+            inUse = true;
+        }
+        else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+        {
+            throw new IOException( "Illegal in use flag: " + inUseFlag );
+        }
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, buffer.getInt() );
+        record.setInUse( inUse );
+        if ( inUse )
+        {
+            buffer.clear();
+            buffer.limit( 52 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            record.setNext( buffer.getLong() );
+            record.setFirstOut( buffer.getLong() );
+            record.setFirstIn( buffer.getLong() );
+            record.setFirstLoop( buffer.getLong() );
+            record.setOwningNode( buffer.getLong() );
+            record.setCount( DirectionWrapper.OUTGOING, buffer.getInt() );
+            record.setCount( DirectionWrapper.INCOMING, buffer.getInt() );
+            record.setCount( DirectionWrapper.BOTH, buffer.getInt() );
+        }
+        return new Command( record );
+    }
+
+    static XaCommand readCountsCommand( ReadableByteChannel byteChannel,
+        ByteBuffer buffer ) throws IOException
+    {
+        // node_delta(long)+property_delta(long)+nr_of_types(int)+
+        // nr_of_types*(type(int)+relationship_delta(long))
+        buffer.clear();
+        buffer.limit( 20 );
+        if ( byteChannel.read( buffer ) != buffer.limit() )
+        {
+            return null;
+        }
+        buffer.flip();
+        StringBuilder counts = new StringBuilder( "Counts[nodes:" ).append(
+            buffer.getLong() ).append( ", properties:" ).append( buffer.getLong() );
+        int nrOfTypes = buffer.getInt();
+        for ( int i = 0; i < nrOfTypes; i++ )
+        {
+            buffer.clear();
+            buffer.limit( 12 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            counts.append( ", type " ).append( buffer.getInt() ).append( ":" )
+                .append( buffer.getLong() );
+        }
+        return new Command( counts.append( "]" ).toString() );
+    }
+
     static XaCommand readRelationshipCommand( ReadableByteChannel byteChannel, ByteBuffer buffer )
         throws IOException
     {
@@ -324,8 +407,9 @@ public class DumpLogicalLog
     static XaCommand readPropertyCommand( ReadableByteChannel byteChannel, ByteBuffer buffer )
         throws IOException
     {
-        // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-        // prev_prop_id(long)+next_prop_id(long)+nr_value_records(int)
+        // id+in_use(byte)+primitive_id+[prev_prop_id(long)+
+        // next_prop_id(long)+nr_blocks(byte)+block*]+
+        // nr_deleted_records(int)+deleted_record*
         buffer.clear();
         buffer.limit( 9 );
         if ( byteChannel.read( buffer ) != buffer.limit() )
@@ -360,23 +444,23 @@ public class DumpLogicalLog
         if ( inUse )
         {
             buffer.clear();
-            buffer.limit( 32 );
+            buffer.limit( 17 );
             if ( byteChannel.read( buffer ) != buffer.limit() )
             {
                 return null;
             }
             buffer.flip();
-            PropertyType type = getType( buffer.getInt() );
-            if ( type == null )
-            {
-                return null;
-            }
-            record.setType( type );
             record.setInUse( inUse );
-            record.setKeyIndexId( buffer.getInt() );
-            record.setPropBlock( buffer.getLong() );
             record.setPrevProp( buffer.getLong() );
             record.setNextProp( buffer.getLong() );
+            int nrBlocks = buffer.get();
+            for ( int i = 0; i < nrBlocks; i++ )
+            {
+                if ( !readPropertyBlock( record, byteChannel, buffer ) )
+                {
+                    return null;
+                }
+            }
         }
         buffer.clear();
         buffer.limit( 4 );
@@ -385,19 +469,90 @@ public class DumpLogicalLog
             return null;
         }
         buffer.flip();
-        int nrValueRecords = buffer.getInt();
-        for ( int i = 0; i < nrValueRecords; i++ )
+        int nrDeletedRecords = buffer.getInt();
+        for ( int i = 0; i < nrDeletedRecords; i++ )
         {
             DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
             if ( dr == null )
             {
                 return null;
             }
-            record.addValueRecord( dr );
+            record.addDeletedRecord( dr );
         }
         return new Command( record );
     }
 
+    private static boolean readPropertyBlock( PropertyRecord record,
+        ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
+    {
+        // index(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
+        // [nr_array_blocks(byte)+array_blocks(long)*]+nr_value_records(int)
+        buffer.clear();
+        buffer.limit( 17 );
+        if ( byteChannel.read( buffer ) != buffer.limit() )
+        {
+            return false;
+        }
+        buffer.flip();
+        int index = buffer.get();
+        PropertyType type = getType( buffer.getInt() );
+        if ( type == null || index < 0
+            || index >= PropertyStore.BLOCKS_PER_RECORD )
+        {
+            return false;
+        }
+        PropertyBlock block = new PropertyBlock();
+        block.setType( type );
+        block.setKeyIndexId( buffer.getInt() );
+        block.setPropBlock( buffer.getLong() );
+        if ( type == PropertyType.SHORT_ARRAY )
+        {
+            buffer.clear();
+            buffer.limit( 1 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return false;
+            }
+            buffer.flip();
+            long[] arrayBlocks = new long[buffer.get()];
+            buffer.clear();
+            buffer.limit( arrayBlocks.length * 8 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return false;
+            }
+            buffer.flip();
+            for ( int i = 0; i < arrayBlocks.length; i++ )
+            {
+                arrayBlocks[i] = buffer.getLong();
+            }
+            block.setArrayBlocks( arrayBlocks );
+        }
+        buffer.clear();
+        buffer.limit( 4 );
+        if ( byteChannel.read( buffer ) != buffer.limit() )
+        {
+            return false;
+        }
+        buffer.flip();
+        int nrValueRecords = buffer.getInt();
+        for ( int i = 0; i < nrValueRecords; i++ )
+        {
+            DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
+            if ( dr == null )
+            {
+                return false;
+            }
+            block.addValueRecord( dr );
+        }
+        if ( record.getBlock( index ) != null )
+        {
+            return false;
+        }
+        record.setBlock( index, block );
+        return true;
+    }
+
     private static PropertyType getType( int type )
     {
         return PropertyType.getPropertyType( type, true );
@@ -465,6 +620,10 @@ public class DumpLogicalLog
                 return readRelationshipCommand( byteChannel, buffer );
             case REL_TYPE_COMMAND:
                 return readRelationshipTypeCommand( byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return readRelationshipGroupCommand( byteChannel, buffer );
+            case COUNTS_COMMAND:
+                return readCountsCommand( byteChannel, buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map from primitive <CODE>long</CODE> keys to objects.
+ * Keys are stored unboxed in a <CODE>long[]</CODE> next to an array of
+ * values, so putting an entry doesn't allocate anything unless the map has to
+ * grow.
+ * <p>
+ * Keys must be non-negative, which all ids are, since negative keys are used
+ * to mark free and removed slots. Not thread safe, see
+ * {@link ConcurrentLongHashMap} for a thread safe variant.
+ *
+ * @param <V> the value type
+ */
+public class LongHashMap<V>
+{
+    static final long FREE = -1;
+    static final long REMOVED = -2;
+    static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    // live entries plus removed markers, what the probing has to pass over
+    private int used;
+
+    public LongHashMap()
+    {
+        this( 8 );
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of entries the map should hold without growing
+     */
+    public LongHashMap( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    /**
+     * Returns a power of two capacity that can hold <CODE>size</CODE>
+     * entries within the load factor.
+     */
+    static int capacityFor( int size )
+    {
+        int capacity = 4;
+        while ( capacity * LOAD_FACTOR <= size )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spreads the bits of <CODE>key</CODE>, ids are sequential and would
+     * otherwise cluster in the table.
+     */
+    static int hash( long key )
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    static void checkKey( long key )
+    {
+        if ( key < 0 )
+        {
+            throw new IllegalArgumentException( "Negative key " + key );
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        Arrays.fill( keys, FREE );
+        values = new Object[capacity];
+        used = size;
+    }
+
+    private int indexOf( long key )
+    {
+        int mask = keys.length - 1;
+        for ( int i = hash( key ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long k = keys[i];
+            if ( k == key )
+            {
+                return i;
+            }
+            if ( k == FREE )
+            {
+                return -1;
+            }
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public V get( long key )
+    {
+        int index = indexOf( key );
+        return index == -1 ? null : (V) values[index];
+    }
+
+    public boolean containsKey( long key )
+    {
+        return indexOf( key ) != -1;
+    }
+
+    /**
+     * Associates <CODE>value</CODE> with <CODE>key</CODE>.
+     *
+     * @return the value previously associated with <CODE>key</CODE>, or
+     *         <CODE>null</CODE> if there was none
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( long key, V value )
+    {
+        checkKey( key );
+        int mask = keys.length - 1;
+        int target = -1;
+        for ( int i = hash( key ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long k = keys[i];
+            if ( k == key )
+            {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            if ( k == REMOVED && target == -1 )
+            {
+                target = i;
+            }
+            else if ( k == FREE )
+            {
+                if ( target == -1 )
+                {
+                    target = i;
+                    used++;
+                }
+                break;
+            }
+        }
+        keys[target] = key;
+        values[target] = value;
+        size++;
+        if ( used > keys.length * LOAD_FACTOR )
+        {
+            rehash( capacityFor( size ) );
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry for <CODE>key</CODE>.
+     *
+     * @return the removed value, or <CODE>null</CODE> if there was none
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( long key )
+    {
+        int index = indexOf( key );
+        if ( index == -1 )
+        {
+            return null;
+        }
+        V previous = (V) values[index];
+        keys[index] = REMOVED;
+        values[index] = null;
+        size--;
+        return previous;
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( capacity );
+        int mask = capacity - 1;
+        for ( int j = 0; j < oldKeys.length; j++ )
+        {
+            long key = oldKeys[j];
+            if ( key >= 0 )
+            {
+                int i = hash( key ) & mask;
+                while ( keys[i] != FREE )
+                {
+                    i = ( i + 1 ) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        if ( used > 0 )
+        {
+            Arrays.fill( keys, FREE );
+            Arrays.fill( values, null );
+        }
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Returns the keys of this map. The iterator isn't valid after the map
+     * has been modified.
+     */
+    public LongIterator keys()
+    {
+        return new LongIterator()
+        {
+            private int index = nextSlot( keys, 0 );
+
+            public boolean hasNext()
+            {
+                return index < keys.length;
+            }
+
+            public long next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                long key = keys[index];
+                index = nextSlot( keys, index + 1 );
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Returns the values of this map. The iterators aren't valid after the
+     * map has been modified.
+     */
+    public Iterable<V> values()
+    {
+        return new Iterable<V>()
+        {
+            public Iterator<V> iterator()
+            {
+                return new Iterator<V>()
+                {
+                    private int index = nextSlot( keys, 0 );
+
+                    public boolean hasNext()
+                    {
+                        return index < keys.length;
+                    }
+
+                    @SuppressWarnings( "unchecked" )
+                    public V next()
+                    {
+                        if ( !hasNext() )
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        V value = (V) values[index];
+                        index = nextSlot( keys, index + 1 );
+                        return value;
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    static int nextSlot( long[] keys, int from )
+    {
+        int i = from;
+        while ( i < keys.length && keys[i] < 0 )
+        {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder( "{" );
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( keys[i] >= 0 )
+            {
+                result.append( result.length() > 1 ? ", " : "" )
+                    .append( keys[i] ).append( "=" ).append( values[i] );
+            }
+        }
+        return result.append( "}" ).toString();
+    }
+}
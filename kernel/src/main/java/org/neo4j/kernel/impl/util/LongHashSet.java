@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash set of primitive <CODE>long</CODE>s, that doesn't
+ * allocate anything when adding unless it has to grow. Values must be
+ * non-negative, which all ids are. Not thread safe.
+ */
+public class LongHashSet
+{
+    private long[] values;
+    private int size;
+    private int used;
+
+    public LongHashSet()
+    {
+        this( 8 );
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of values the set should hold without growing
+     */
+    public LongHashSet( int expectedSize )
+    {
+        allocate( LongHashMap.capacityFor( expectedSize ) );
+    }
+
+    private void allocate( int capacity )
+    {
+        values = new long[capacity];
+        Arrays.fill( values, LongHashMap.FREE );
+        used = size;
+    }
+
+    /**
+     * Adds <CODE>value</CODE> to this set.
+     *
+     * @return <CODE>true</CODE> if the set didn't already contain
+     *         <CODE>value</CODE>
+     */
+    public boolean add( long value )
+    {
+        LongHashMap.checkKey( value );
+        int mask = values.length - 1;
+        int target = -1;
+        for ( int i = LongHashMap.hash( value ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long v = values[i];
+            if ( v == value )
+            {
+                return false;
+            }
+            if ( v == LongHashMap.REMOVED && target == -1 )
+            {
+                target = i;
+            }
+            else if ( v == LongHashMap.FREE )
+            {
+                if ( target == -1 )
+                {
+                    target = i;
+                    used++;
+                }
+                break;
+            }
+        }
+        values[target] = value;
+        size++;
+        if ( used > values.length * LongHashMap.LOAD_FACTOR )
+        {
+            rehash( LongHashMap.capacityFor( size ) );
+        }
+        return true;
+    }
+
+    private int indexOf( long value )
+    {
+        int mask = values.length - 1;
+        for ( int i = LongHashMap.hash( value ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long v = values[i];
+            if ( v == value )
+            {
+                return i;
+            }
+            if ( v == LongHashMap.FREE )
+            {
+                return -1;
+            }
+        }
+    }
+
+    public boolean contains( long value )
+    {
+        return indexOf( value ) != -1;
+    }
+
+    /**
+     * Removes <CODE>value</CODE> from this set.
+     *
+     * @return <CODE>true</CODE> if the set contained <CODE>value</CODE>
+     */
+    public boolean remove( long value )
+    {
+        int index = indexOf( value );
+        if ( index == -1 )
+        {
+            return false;
+        }
+        values[index] = LongHashMap.REMOVED;
+        size--;
+        return true;
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldValues = values;
+        allocate( capacity );
+        int mask = capacity - 1;
+        for ( long value : oldValues )
+        {
+            if ( value >= 0 )
+            {
+                int i = LongHashMap.hash( value ) & mask;
+                while ( values[i] != LongHashMap.FREE )
+                {
+                    i = ( i + 1 ) & mask;
+                }
+                values[i] = value;
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        if ( used > 0 )
+        {
+            Arrays.fill( values, LongHashMap.FREE );
+        }
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Returns the values of this set. The iterator isn't valid after the set
+     * has been modified.
+     */
+    public LongIterator iterator()
+    {
+        return new LongIterator()
+        {
+            private int index = LongHashMap.nextSlot( values, 0 );
+
+            public boolean hasNext()
+            {
+                return index < values.length;
+            }
+
+            public long next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                long value = values[index];
+                index = LongHashMap.nextSlot( values, index + 1 );
+                return value;
+            }
+        };
+    }
+
+    public long[] toArray()
+    {
+        long[] result = new long[size];
+        int count = 0;
+        for ( long value : values )
+        {
+            if ( value >= 0 )
+            {
+                result[count++] = value;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map from primitive <CODE>long</CODE> keys to
+ * primitive <CODE>long</CODE> values, such as positions in a file. Putting
+ * an entry doesn't allocate anything unless the map has to grow.
+ * <p>
+ * Keys must be non-negative, see {@link LongHashMap}. Not thread safe.
+ */
+public class LongLongHashMap
+{
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public LongLongHashMap()
+    {
+        this( 8 );
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of entries the map should hold without growing
+     */
+    public LongLongHashMap( int expectedSize )
+    {
+        allocate( LongHashMap.capacityFor( expectedSize ) );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        Arrays.fill( keys, LongHashMap.FREE );
+        values = new long[capacity];
+    }
+
+    /**
+     * Returns the value for <CODE>key</CODE>, or <CODE>defaultValue</CODE>
+     * if there is none.
+     */
+    public long get( long key, long defaultValue )
+    {
+        int mask = keys.length - 1;
+        for ( int i = LongHashMap.hash( key ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long k = keys[i];
+            if ( k == key )
+            {
+                return values[i];
+            }
+            if ( k == LongHashMap.FREE )
+            {
+                return defaultValue;
+            }
+        }
+    }
+
+    public boolean containsKey( long key )
+    {
+        int mask = keys.length - 1;
+        for ( int i = LongHashMap.hash( key ) & mask;; i = ( i + 1 ) & mask )
+        {
+            long k = keys[i];
+            if ( k == key )
+            {
+                return true;
+            }
+            if ( k == LongHashMap.FREE )
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Associates <CODE>value</CODE> with <CODE>key</CODE>, replacing any
+     * previous value.
+     */
+    public void put( long key, long value )
+    {
+        LongHashMap.checkKey( key );
+        int mask = keys.length - 1;
+        int i = LongHashMap.hash( key ) & mask;
+        for ( ;; i = ( i + 1 ) & mask )
+        {
+            long k = keys[i];
+            if ( k == key )
+            {
+                values[i] = value;
+                return;
+            }
+            if ( k == LongHashMap.FREE )
+            {
+                break;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if ( size > keys.length * LongHashMap.LOAD_FACTOR )
+        {
+            rehash( LongHashMap.capacityFor( size ) );
+        }
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate( capacity );
+        int mask = capacity - 1;
+        for ( int j = 0; j < oldKeys.length; j++ )
+        {
+            long key = oldKeys[j];
+            if ( key >= 0 )
+            {
+                int i = LongHashMap.hash( key ) & mask;
+                while ( keys[i] != LongHashMap.FREE )
+                {
+                    i = ( i + 1 ) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the keys of this map. The iterator isn't valid after the map
+     * has been modified.
+     */
+    public LongIterator keys()
+    {
+        return new LongIterator()
+        {
+            private int index = LongHashMap.nextSlot( keys, 0 );
+
+            public boolean hasNext()
+            {
+                return index < keys.length;
+            }
+
+            public long next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                long key = keys[index];
+                index = LongHashMap.nextSlot( keys, index + 1 );
+                return key;
+            }
+        };
+    }
+}
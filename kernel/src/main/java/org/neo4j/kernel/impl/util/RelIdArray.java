@@ -19,7 +19,6 @@
  */
 package org.neo4j.kernel.impl.util;
 
-import java.util.Collection;
 import java.util.NoSuchElementException;
 
 import org.neo4j.graphdb.Direction;
@@ -258,6 +257,25 @@ public class RelIdArray
     {
         return new RelIdArray( type );
     }
+
+    /**
+     * @return an estimate of the heap retained by this array, the type name
+     * excluded since it's shared with the relationship type.
+     */
+    public int sizeOfObjectInBytesIncludingOverhead()
+    {
+        return 40 + sizeOfBlocks( lastOutBlock ) + sizeOfBlocks( lastInBlock );
+    }
+
+    protected static int sizeOfBlocks( IdBlock block )
+    {
+        int size = 0;
+        for ( ; block != null; block = block.getPrev() )
+        {
+            size += block.sizeOfObjectInBytesIncludingOverhead();
+        }
+        return size;
+    }
     
     public static final IdBlock EMPTY_BLOCK = new LowIdBlock();
     
@@ -455,6 +473,12 @@ public class RelIdArray
         }
         
         abstract long getHighBits();
+
+        int sizeOfObjectInBytesIncludingOverhead()
+        {
+            // object with a couple of fields + the id array
+            return 40 + 16 + 4 * ids.length;
+        }
     }
     
     private static class LowIdBlock extends IdBlock
@@ -776,7 +800,7 @@ public class RelIdArray
         }
     }
     
-    public static RelIdArray from( RelIdArray src, RelIdArray add, Collection<Long> remove )
+    public static RelIdArray from( RelIdArray src, RelIdArray add, LongHashSet remove )
     {
         if ( remove == null )
         {
@@ -826,7 +850,7 @@ public class RelIdArray
         }
     }
 
-    private static void evictExcluded( RelIdArray ids, Collection<Long> excluded )
+    private static void evictExcluded( RelIdArray ids, LongHashSet excluded )
     {
         for ( RelIdIteratorImpl iterator = (RelIdIteratorImpl) DirectionWrapper.BOTH.iterator( ids ); iterator.hasNext(); )
         {
@@ -83,6 +83,12 @@ public class RelIdArrayWithLoops extends RelIdArray
         return new RelIdArrayWithLoops( getType() );
     }
     
+    @Override
+    public int sizeOfObjectInBytesIncludingOverhead()
+    {
+        return super.sizeOfObjectInBytesIncludingOverhead() + 8 + sizeOfBlocks( lastLoopBlock );
+    }
+
     @Override
     public boolean couldBeNeedingUpdate()
     {
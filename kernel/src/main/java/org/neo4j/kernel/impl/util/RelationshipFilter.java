@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Selects relationships of a node by relationship type id and direction.
+ * Used when loading the relationship chain of a node so that only the
+ * relationships that were asked for are fully materialized and counted
+ * towards the batch size, the others are only recorded by id.
+ * <p>
+ * Loops are matched regardless of the direction asked for.
+ */
+public final class RelationshipFilter
+{
+    public static final RelationshipFilter ALL =
+        new RelationshipFilter( null, DirectionWrapper.BOTH );
+
+    private final int[] typeIds;
+    private final DirectionWrapper direction;
+
+    /**
+     * @param typeIds
+     *            the relationship type ids to match, or <CODE>null</CODE>
+     *            to match any type
+     * @param direction
+     *            the direction to match, as seen from the node owning the
+     *            relationship chain
+     */
+    public RelationshipFilter( int[] typeIds, DirectionWrapper direction )
+    {
+        this.typeIds = typeIds;
+        this.direction = direction;
+    }
+
+    public boolean matches( int typeId, DirectionWrapper relDirection )
+    {
+        if ( direction != DirectionWrapper.BOTH &&
+            relDirection != DirectionWrapper.BOTH && relDirection != direction )
+        {
+            return false;
+        }
+        if ( typeIds == null )
+        {
+            return true;
+        }
+        for ( int id : typeIds )
+        {
+            if ( id == typeId )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matchesAll()
+    {
+        return typeIds == null && direction == DirectionWrapper.BOTH;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder( "RelationshipFilter[" );
+        if ( typeIds == null )
+        {
+            result.append( "*" );
+        }
+        else
+        {
+            for ( int i = 0; i < typeIds.length; i++ )
+            {
+                result.append( i == 0 ? "" : "," ).append( typeIds[i] );
+            }
+        }
+        return result.append( ", " ).append( direction ).append( "]" ).toString();
+    }
+}
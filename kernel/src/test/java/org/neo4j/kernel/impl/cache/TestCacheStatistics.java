@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestCacheStatistics
+{
+    @Test
+    public void lruCacheCountsHitsMissesPutsAndEvictions()
+    {
+        assertCounts( new LruCache<Integer,Object>( "TestCache", 2, null ) );
+    }
+
+    @Test
+    public void clockCacheCountsHitsMissesPutsAndEvictions()
+    {
+        assertCounts( new ClockCache<Integer,Object>( "TestCache", 2, null ) );
+    }
+
+    private void assertCounts( Cache<Integer,Object> cache )
+    {
+        cache.put( 1, new Object() );
+        cache.put( 2, new Object() );
+        cache.get( 1 );
+        cache.get( 2 );
+        cache.get( 3 );
+        cache.put( 3, new Object() );
+        CacheStatistics statistics = cache.getStatistics();
+        assertEquals( 2, statistics.getHits() );
+        assertEquals( 1, statistics.getMisses() );
+        assertEquals( 66, statistics.getHitRatio() );
+        assertEquals( 3, statistics.getPuts() );
+        assertEquals( 1, statistics.getEvictions() );
+    }
+
+    @Test
+    public void averageLoadTime()
+    {
+        CacheStatistics statistics = new CacheStatistics();
+        assertEquals( 0, statistics.getAverageLoadTime() );
+        statistics.loaded( 100 );
+        statistics.loaded( 300 );
+        assertEquals( 2, statistics.getLoads() );
+        assertEquals( 200, statistics.getAverageLoadTime() );
+    }
+
+    @Test
+    public void countsUpdatesFromManyThreads() throws Exception
+    {
+        final CacheStatistics statistics = new CacheStatistics();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        return;
+                    }
+                    for ( int j = 0; j < 10000; j++ )
+                    {
+                        statistics.hit();
+                        statistics.cleared();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( 80000, statistics.getHits() );
+        assertEquals( 80000, statistics.getClearedReferences() );
+        assertEquals( 0, statistics.getMisses() );
+    }
+}
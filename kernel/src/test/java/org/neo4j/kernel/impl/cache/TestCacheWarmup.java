@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+public class TestCacheWarmup
+{
+    private static final String PATH = AbstractNeo4jTestCase.getStorePath( "cache-warmup" );
+
+    @Before
+    public void clear()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( PATH ) );
+    }
+
+    private EmbeddedGraphDatabase newDb( boolean warmup )
+    {
+        return new EmbeddedGraphDatabase( PATH, MapUtil.stringMap( Config.CACHE_TYPE, "strong",
+                Config.CACHE_WARMUP, String.valueOf( warmup ), Config.CACHE_WARMUP_THREADS, "2" ) );
+    }
+
+    private static NodeManager nodeManager( EmbeddedGraphDatabase db )
+    {
+        return db.getConfig().getGraphDbModule().getNodeManager();
+    }
+
+    @Test
+    public void cachedEntitiesArePreloadedAfterRestart() throws Exception
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        List<Long> nodes = new ArrayList<Long>();
+        long relationship;
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node previous = db.createNode();
+            nodes.add( previous.getId() );
+            for ( int i = 0; i < 2500; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node " + i );
+                previous.createRelationshipTo( node, DynamicRelationshipType.withName( "NEXT" ) );
+                nodes.add( node.getId() );
+                previous = node;
+            }
+            relationship = previous.getSingleRelationship( DynamicRelationshipType.withName( "NEXT" ),
+                    Direction.INCOMING ).getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.shutdown();
+        assertTrue( new File( PATH, CacheWarmer.FILE_NAME ).exists() );
+
+        db = newDb( true );
+        NodeManager nodeManager = nodeManager( db );
+        long timeout = System.currentTimeMillis() + 30000;
+        while ( nodeManager.getNodeCacheSize() < nodes.size()
+                && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        for ( long id : nodes )
+        {
+            assertNotNull( "node " + id + " not preloaded", nodeManager.getNodeIfCached( id ) );
+        }
+        while ( nodeManager.getRelIfCached( relationship ) == null
+                && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertNotNull( nodeManager.getRelIfCached( relationship ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() throws Exception
+    {
+        EmbeddedGraphDatabase db = newDb( false );
+        Transaction tx = db.beginTx();
+        db.createNode();
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        assertFalse( new File( PATH, CacheWarmer.FILE_NAME ).exists() );
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+public class TestClockCache
+{
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new ClockCache<Object,Object>( "TestCache", 0, null );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        ClockCache<Object,Object> cache = new ClockCache<Object,Object>(
+            "TestCache", 70, null );
+        try
+        {
+            cache.put( null, new Object() );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( new Object(), null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.remove( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        cache.put( new Object(), new Object() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    private static class ClockCacheTest<K,E> extends ClockCache<K,E>
+    {
+        private Object cleanedElement = null;
+
+        ClockCacheTest( String name, int maxSize )
+        {
+            super( name, maxSize, null );
+        }
+
+        @Override
+        public void elementCleaned( E element )
+        {
+            cleanedElement = element;
+        }
+
+        Object getLastCleanedElement()
+        {
+            return cleanedElement;
+        }
+    }
+
+    @Test
+    public void testSecondChance()
+    {
+        ClockCacheTest<Object,Object> cache = new ClockCacheTest<Object,Object>(
+            "TestCache", 3 );
+        String s1 = new String( "1" );
+        Integer key1 = new Integer( 1 );
+        String s2 = new String( "2" );
+        Integer key2 = new Integer( 2 );
+        String s3 = new String( "3" );
+        Integer key3 = new Integer( 3 );
+        String s4 = new String( "4" );
+        Integer key4 = new Integer( 4 );
+        String s5 = new String( "5" );
+        Integer key5 = new Integer( 5 );
+        cache.put( key1, s1 );
+        cache.put( key2, s2 );
+        cache.put( key3, s3 );
+        cache.get( key2 );
+        assertEquals( null, cache.getLastCleanedElement() );
+        cache.put( key4, s4 );
+        assertEquals( s1, cache.getLastCleanedElement() );
+        cache.put( key5, s5 );
+        assertEquals( s3, cache.getLastCleanedElement() );
+        assertEquals( 3, cache.size() );
+        assertEquals( null, cache.get( key1 ) );
+        assertEquals( s2, cache.get( key2 ) );
+        assertEquals( null, cache.get( key3 ) );
+        assertEquals( s4, cache.get( key4 ) );
+        assertEquals( s5, cache.get( key5 ) );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testResize()
+    {
+        ClockCacheTest<Object,Object> cache = new ClockCacheTest<Object,Object>(
+            "TestCache", 3 );
+        String s1 = new String( "1" );
+        Integer key1 = new Integer( 1 );
+        String s2 = new String( "2" );
+        Integer key2 = new Integer( 2 );
+        String s3 = new String( "3" );
+        Integer key3 = new Integer( 3 );
+        String s4 = new String( "4" );
+        Integer key4 = new Integer( 4 );
+        cache.put( key1, s1 );
+        cache.put( key2, s2 );
+        cache.put( key3, s3 );
+        cache.resize( 4 );
+        assertEquals( 4, cache.maxSize() );
+        cache.put( key4, s4 );
+        assertEquals( null, cache.getLastCleanedElement() );
+        assertEquals( 4, cache.size() );
+        cache.get( key1 );
+        cache.resize( 2 );
+        assertEquals( 2, cache.size() );
+        assertEquals( s1, cache.get( key1 ) );
+        assertEquals( s4, cache.get( key4 ) );
+        assertEquals( null, cache.get( key2 ) );
+        assertEquals( null, cache.get( key3 ) );
+    }
+
+    @Test
+    public void removedElementsAreNotEvicted()
+    {
+        ClockCacheTest<Object,Object> cache = new ClockCacheTest<Object,Object>(
+            "TestCache", 2 );
+        cache.put( 1, "1" );
+        cache.put( 2, "2" );
+        assertEquals( "1", cache.remove( 1 ) );
+        assertEquals( 1, cache.size() );
+        cache.put( 3, "3" );
+        assertEquals( null, cache.getLastCleanedElement() );
+        cache.put( 4, "4" );
+        assertEquals( "2", cache.getLastCleanedElement() );
+        assertEquals( 2, cache.size() );
+    }
+
+    @Test
+    public void sizeStaysBoundedUnderConcurrentPuts() throws Exception
+    {
+        final ClockCache<Integer,Object> cache = new ClockCache<Integer,Object>(
+            "TestCache", 100, null );
+        Thread[] threads = new Thread[4];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final int offset = i * 10000;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int j = 0; j < 10000; j++ )
+                    {
+                        cache.put( offset + j, "" + j );
+                        cache.get( offset + j / 2 );
+                        if ( j % 7 == 0 )
+                        {
+                            cache.remove( offset + j );
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertTrue( "size " + cache.size(), cache.size() <= 100 );
+    }
+
+    @Test
+    public void putRacingRemoveIsNotLost() throws Exception
+    {
+        final int keys = 20000;
+        final ClockCache<Integer,String> cache = new ClockCache<Integer,String>(
+            "TestCache", keys, null );
+        for ( int i = 0; i < keys; i++ )
+        {
+            cache.put( i, "old" );
+        }
+        final String[] removed = new String[keys];
+        final CyclicBarrier barrier = new CyclicBarrier( 2 );
+        Thread putter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int i = 0; i < keys; i++ )
+                {
+                    await( barrier );
+                    cache.put( i, "new" );
+                }
+            }
+        };
+        Thread remover = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int i = 0; i < keys; i++ )
+                {
+                    await( barrier );
+                    removed[i] = cache.remove( i );
+                }
+            }
+        };
+        putter.start();
+        remover.start();
+        putter.join();
+        remover.join();
+        for ( int i = 0; i < keys; i++ )
+        {
+            // either the remove saw the new element or the put came after it
+            if ( !"new".equals( removed[i] ) )
+            {
+                assertEquals( "key " + i, "new", cache.get( i ) );
+            }
+        }
+    }
+
+    private static void await( CyclicBarrier barrier )
+    {
+        try
+        {
+            barrier.await();
+        }
+        catch ( Exception e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+}
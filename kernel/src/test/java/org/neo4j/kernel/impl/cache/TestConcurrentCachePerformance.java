@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares read/write throughput of {@link LruCache} and {@link ClockCache}
+ * for an increasing number of threads. Run manually, it prints operations
+ * per second for each cache and thread count.
+ */
+@Ignore( "Benchmark, run manually" )
+public class TestConcurrentCachePerformance
+{
+    private static final int CACHE_SIZE = 100000;
+    private static final int KEY_SPACE = 150000;
+    private static final int OPERATIONS_PER_THREAD = 2000000;
+    private static final int READ_PERCENTAGE = 90;
+
+    @Test
+    public void compareLruAndClockCache() throws Exception
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for ( int threads = 1; threads <= maxThreads; threads *= 2 )
+        {
+            long lru = measure( new LruCache<Long,Object>( "lru", CACHE_SIZE, null ), threads );
+            long clock = measure( new ClockCache<Long,Object>( "clock", CACHE_SIZE, null ), threads );
+            System.out.println( threads + " threads: lru=" + lru + " ops/s, clock=" + clock + " ops/s" );
+        }
+    }
+
+    private long measure( final Cache<Long,Object> cache, int threadCount ) throws Exception
+    {
+        final Object value = new Object();
+        for ( long i = 0; i < CACHE_SIZE; i++ )
+        {
+            cache.put( i, value );
+        }
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[threadCount];
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final long seed = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    awaitStart( start );
+                    for ( int op = 0; op < OPERATIONS_PER_THREAD; op++ )
+                    {
+                        // skew the accesses towards the lower ids
+                        long key = (long) ( Math.pow( random.nextDouble(), 2 ) * KEY_SPACE );
+                        if ( random.nextInt( 100 ) < READ_PERCENTAGE )
+                        {
+                            if ( cache.get( key ) == null )
+                            {
+                                cache.put( key, value );
+                            }
+                        }
+                        else
+                        {
+                            cache.put( key, value );
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        long time = System.currentTimeMillis();
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        time = Math.max( 1, System.currentTimeMillis() - time );
+        return (long) OPERATIONS_PER_THREAD * threadCount * 1000 / time;
+    }
+
+    private static void awaitStart( CountDownLatch start )
+    {
+        try
+        {
+            start.await();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestMemoryBoundClockCache
+{
+    private static class Entity implements EntityWithSize
+    {
+        private int size;
+
+        Entity( int size )
+        {
+            this.size = size;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    @Test
+    public void largeElementDoesNotPushOutRecentlyUsedSmallOnes()
+    {
+        MemoryBoundClockCache<Long,Entity> cache =
+            new MemoryBoundClockCache<Long,Entity>( "TestCache", 1000 );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.put( i, new Entity( 50 ) );
+        }
+        assertEquals( 500, cache.usedSize() );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.get( i );
+        }
+        cache.put( 100L, new Entity( 800 ) );
+        assertNull( cache.get( 100L ) );
+        for ( long i = 0; i < 10; i++ )
+        {
+            assertNotNull( cache.get( i ) );
+        }
+        assertTrue( cache.usedSize() <= 1000 );
+    }
+
+    @Test
+    public void evictsUntilWithinBudget()
+    {
+        MemoryBoundClockCache<Long,Entity> cache =
+            new MemoryBoundClockCache<Long,Entity>( "TestCache", 1000 );
+        for ( long i = 0; i < 100; i++ )
+        {
+            cache.put( i, new Entity( 100 ) );
+            assertTrue( cache.usedSize() <= 1000 );
+        }
+        assertEquals( 10, cache.size() );
+        cache.resizeBytes( 500 );
+        assertEquals( 5, cache.size() );
+        assertEquals( 500, cache.usedSize() );
+    }
+
+    @Test
+    public void growingElementIsReweighed()
+    {
+        MemoryBoundClockCache<Long,Entity> cache =
+            new MemoryBoundClockCache<Long,Entity>( "TestCache", 1000 );
+        Entity growing = new Entity( 100 );
+        cache.put( 0L, growing );
+        cache.put( 1L, new Entity( 100 ) );
+        cache.put( 2L, new Entity( 100 ) );
+        assertEquals( 300, cache.usedSize() );
+        growing.size = 900;
+        cache.updateSize( 0L );
+        assertTrue( cache.usedSize() <= 1000 );
+        assertNull( cache.get( 0L ) );
+        cache.remove( 1L );
+        cache.remove( 2L );
+        assertEquals( 0, cache.usedSize() );
+    }
+}
@@ -20,13 +20,18 @@
 package org.neo4j.kernel.impl.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
@@ -96,6 +101,44 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
 
+    @Test
+    public void testClockCache()
+    {
+        GraphDatabaseService db = newDb( "clock" );
+        assertEquals( CacheType.clock, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testMemoryBoundCache()
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.CACHE_TYPE, "memory", Config.NODE_CACHE_SIZE, "20k",
+                Config.RELATIONSHIP_CACHE_SIZE, "10k" ) );
+        NodeManager nodeManager = ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager();
+        assertEquals( CacheType.memory, nodeManager.getCacheType() );
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "node " + i );
+            hub.createRelationshipTo( node, DynamicRelationshipType.withName( "KNOWS" ) );
+        }
+        tx.success();
+        tx.finish();
+        nodeManager.clearCache();
+        int count = 0;
+        for ( Relationship relationship : db.getNodeById( hub.getId() ).getRelationships() )
+        {
+            relationship.getEndNode().getProperty( "name" );
+            count++;
+        }
+        assertEquals( 1000, count );
+        assertTrue( nodeManager.getNodeCacheSize() < 1001 );
+        db.shutdown();
+    }
+
     @Test
     public void testInvalidCache()
     {
@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.core.TestParallelRecovery.copyFiles;
+import static org.neo4j.kernel.impl.core.TestParallelRecovery.restoreStoreKeepingLog;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.copyLogicalLog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.test.EmbeddedDatabaseFixture;
+
+public class TestCounts
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private final EmbeddedDatabaseFixture database =
+        new EmbeddedDatabaseFixture( TestCounts.class );
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb()
+    {
+        db = database.create();
+    }
+
+    @After
+    public void stopDb()
+    {
+        database.shutdown();
+    }
+
+    @Test
+    public void emptyDatabaseHasReferenceNode()
+    {
+        assertCounts( 1, 0, 0, 0 );
+    }
+
+    @Test
+    public void countsFollowCommittedChanges()
+    {
+        createData( 10 );
+        // 10 nodes with 2 properties, 9 KNOWS with 1 property, 5 LIKES
+        assertCounts( 11, 9, 5, 29 );
+
+        Transaction tx = db.beginTx();
+        Node node = db.getNodeById( 1 );
+        for ( Relationship rel : node.getRelationships() )
+        {
+            rel.delete();
+        }
+        node.delete();
+        db.getNodeById( 2 ).removeProperty( "name" );
+        db.getNodeById( 3 ).setProperty( "name", "changed" );
+        db.getReferenceNode().setProperty( "name", "reference" );
+        assertCounts( 11, 9, 5, 29 );
+        tx.success();
+        tx.finish();
+        // node 1 had KNOWS to node 2, LIKES to node 2 and a property on KNOWS
+        assertCounts( 10, 8, 4, 26 );
+    }
+
+    @Test
+    public void rolledBackChangesAreNotCounted()
+    {
+        createData( 5 );
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "name", "rolled back" );
+        node.createRelationshipTo( db.getReferenceNode(), KNOWS );
+        tx.failure();
+        tx.finish();
+        assertCounts( 6, 4, 2, 14 );
+    }
+
+    @Test
+    public void countsAreKeptOverRestart()
+    {
+        createData( 20 );
+        db = database.restart();
+        assertCounts( 21, 19, 10, 59 );
+        assertTrue( countsFile().exists() );
+    }
+
+    @Test
+    public void countsAreRebuiltIfMissing()
+    {
+        createData( 20 );
+        database.shutdown();
+        assertTrue( countsFile().delete() );
+        db = database.restart();
+        assertCounts( 21, 19, 10, 59 );
+    }
+
+    @Test
+    public void countsAreRebuiltIfStale()
+    {
+        createData( 5 );
+        database.shutdown();
+        File staleCounts = new File( database.getStoreDir(), "stale.counts.db" );
+        assertTrue( countsFile().renameTo( staleCounts ) );
+
+        db = database.restart();
+        createData( 5 );
+        database.shutdown();
+        assertTrue( countsFile().delete() );
+        assertTrue( staleCounts.renameTo( countsFile() ) );
+
+        db = database.restart();
+        assertCounts( 11, 8, 4, 28 );
+    }
+
+    @Test
+    public void countsAreRecoveredFromLogicalLog() throws Exception
+    {
+        database.shutdown();
+        File before = new File( database.getStoreDir() + "-before" );
+        deleteFileOrDirectory( before );
+        copyFiles( new File( database.getStoreDir() ), before );
+
+        db = database.restart();
+        createData( 20 );
+        copyLogicalLog( database.getStoreDir() );
+        database.shutdown();
+        restoreStoreKeepingLog( before, database.getStoreDir() );
+
+        db = database.restart();
+        assertCounts( 21, 19, 10, 59 );
+    }
+
+    @Test
+    public void countsThatMissATransactionAreFlaggedForRebuild()
+    {
+        createData( 10 );
+        database.shutdown();
+        CountsStore counts = new CountsStore( countsFile().getPath(), false );
+        assertFalse( counts.needsRebuild() );
+        long lastTxId = counts.getLastTxId();
+        Map<Integer,Long> noRelationships = Collections.emptyMap();
+        counts.apply( lastTxId + 1, 1, 0, noRelationships );
+        assertEquals( 12, counts.getNodeCount() );
+
+        counts.apply( lastTxId + 3, 1, 0, noRelationships );
+        assertTrue( counts.needsRebuild() );
+        assertEquals( -1, counts.getNodeCount() );
+        assertEquals( -1, counts.getRelationshipCount() );
+        assertEquals( -1, counts.getRelationshipCount( 0 ) );
+        assertEquals( -1, counts.getPropertyCount() );
+        counts.apply( lastTxId + 4, 1, 0, noRelationships );
+        assertEquals( -1, counts.getNodeCount() );
+        counts.flush();
+        assertFalse( countsFile().exists() );
+
+        db = database.restart();
+        assertCounts( 11, 9, 5, 29 );
+    }
+
+    @Test
+    public void countsAreReadFromTemporaryFileLeftByCrashedFlush() throws Exception
+    {
+        createData( 10 );
+        database.shutdown();
+        assertTrue( countsFile().renameTo(
+            new File( countsFile().getPath() + ".tmp" ) ) );
+        int scans = countScans();
+
+        db = database.restart();
+        assertEquals( scans, countScans() );
+        assertCounts( 11, 9, 5, 29 );
+    }
+
+    @Test
+    public void countsAreRecoveredAfterCrashWithoutScanning() throws Exception
+    {
+        createData( 5 );
+        db = database.restart();
+        createData( 5 );
+        createData( 10 );
+        int scans = countScans();
+        crash();
+
+        db = database.restart();
+        assertEquals( scans, countScans() );
+        // 5 + 5 + 10 nodes, 4 + 4 + 9 KNOWS, 2 + 2 + 5 LIKES
+        assertCounts( 21, 17, 9, 57 );
+    }
+
+    @Test
+    public void countsOfNewStoreAreRecoveredAfterCrashWithoutScanning() throws Exception
+    {
+        createData( 10 );
+        int scans = countScans();
+        crash();
+
+        db = database.restart();
+        assertEquals( scans, countScans() );
+        assertCounts( 11, 9, 5, 29 );
+    }
+
+    @Test
+    public void countsAreReplayedFromKeptLogs() throws Exception
+    {
+        db = database.restart( stringMap( Config.KEEP_LOGICAL_LOGS, "true" ) );
+        createData( 5 );
+        database.shutdown();
+        File staleCounts = new File( database.getStoreDir(), "stale.counts.db" );
+        assertTrue( countsFile().renameTo( staleCounts ) );
+
+        db = database.restart( stringMap( Config.KEEP_LOGICAL_LOGS, "true" ) );
+        createData( 5 );
+        db.getConfig().getTxModule().getXaDataSourceManager().getXaDataSource(
+            "nioneodb" ).rotateLogicalLog();
+        createData( 5 );
+        database.shutdown();
+        assertTrue( countsFile().delete() );
+        assertTrue( staleCounts.renameTo( countsFile() ) );
+        int scans = countScans();
+
+        db = database.restart();
+        assertEquals( scans, countScans() );
+        assertCounts( 16, 12, 6, 42 );
+    }
+
+    /*
+     * Creates count nodes with two properties each, in a chain of KNOWS
+     * relationships with one property each, and a LIKES relationship from
+     * every other node to the next one.
+     */
+    private void createData( int count )
+    {
+        Transaction tx = db.beginTx();
+        Node previous = null;
+        for ( int i = 0; i < count; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "node" + i );
+            node.setProperty( "number", i );
+            if ( previous != null )
+            {
+                previous.createRelationshipTo( node, KNOWS ).setProperty( "since", i );
+            }
+            if ( i % 2 == 1 )
+            {
+                previous.createRelationshipTo( node, LIKES );
+            }
+            previous = node;
+        }
+        tx.success();
+        tx.finish();
+    }
+
+    private void assertCounts( long nodes, long knows, long likes, long properties )
+    {
+        NodeManager nodeManager = database.getNodeManager();
+        assertEquals( nodes, nodeManager.getNodeCount() );
+        assertEquals( knows + likes, nodeManager.getRelationshipCount() );
+        assertEquals( knows, nodeManager.getRelationshipCount( KNOWS ) );
+        assertEquals( likes, nodeManager.getRelationshipCount( LIKES ) );
+        assertEquals( 0, nodeManager.getRelationshipCount(
+            DynamicRelationshipType.withName( "UNKNOWN" ) ) );
+        assertEquals( properties, nodeManager.getPropertyCount() );
+    }
+
+    // the number of times the counts have been rebuilt by scanning the stores
+    private int countScans() throws IOException
+    {
+        int scans = 0;
+        BufferedReader reader = new BufferedReader( new FileReader(
+            new File( database.getStoreDir(), "messages.log" ) ) );
+        try
+        {
+            String line;
+            while ( (line = reader.readLine()) != null )
+            {
+                if ( line.contains( "Rebuilding counts" ) )
+                {
+                    scans++;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return scans;
+    }
+
+    private File countsFile()
+    {
+        return new File( database.getStoreDir(), "neostore.counts.db" );
+    }
+
+    /*
+     * Replaces the store with a copy taken while the database was running,
+     * which is what a crash would have left behind.
+     */
+    private void crash() throws IOException
+    {
+        String storeDir = database.getStoreDir();
+        File crashed = new File( storeDir + "-crashed" );
+        deleteFileOrDirectory( crashed );
+        copyFiles( new File( storeDir ), crashed );
+        database.shutdown();
+        deleteFileOrDirectory( storeDir );
+        assertTrue( crashed.renameTo( new File( storeDir ) ) );
+    }
+}
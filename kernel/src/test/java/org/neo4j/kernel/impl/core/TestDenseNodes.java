@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.EmbeddedDatabaseFixture;
+
+public class TestDenseNodes
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static final int THRESHOLD = 10;
+
+    // a small grab size to load the relationships in several batches
+    private final EmbeddedDatabaseFixture database = new EmbeddedDatabaseFixture(
+        TestDenseNodes.class, stringMap( Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD,
+            "relationship_grab_size", "7" ) );
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb()
+    {
+        db = database.create();
+    }
+
+    @After
+    public void stopDb()
+    {
+        database.shutdown();
+    }
+
+    @Test
+    public void nodeBecomesDenseAndKeepsItsRelationships()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        Set<Relationship> knows = new HashSet<Relationship>();
+        Set<Relationship> likes = new HashSet<Relationship>();
+        for ( int i = 0; i < THRESHOLD * 3; i++ )
+        {
+            Node other = db.createNode();
+            knows.add( hub.createRelationshipTo( other, KNOWS ) );
+            likes.add( other.createRelationshipTo( hub, LIKES ) );
+        }
+        Relationship loop = hub.createRelationshipTo( hub, KNOWS );
+        tx.success();
+        tx.finish();
+
+        db = database.restart();
+        assertTrue( "Expected relationship groups", groupStoreSize() > 0 );
+        hub = db.getNodeById( hub.getId() );
+        assertEquals( knows.size() + likes.size() + 1, count( hub.getRelationships() ) );
+        assertEquals( knows.size() + 1, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+        assertEquals( likes.size(), count( hub.getRelationships( LIKES, Direction.INCOMING ) ) );
+        assertEquals( 0, count( hub.getRelationships( LIKES, Direction.OUTGOING ) ) );
+        assertEquals( 1, count( hub.getRelationships( KNOWS, Direction.INCOMING ) ) );
+
+        database.clearCache();
+        Set<Relationship> found = new HashSet<Relationship>();
+        for ( Relationship rel : db.getNodeById( hub.getId() ).getRelationships( LIKES ) )
+        {
+            found.add( rel );
+        }
+        assertEquals( likes, found );
+        found.clear();
+        for ( Relationship rel : db.getNodeById( hub.getId() ).getRelationships( KNOWS ) )
+        {
+            found.add( rel );
+        }
+        knows.add( loop );
+        assertEquals( knows, found );
+    }
+
+    @Test
+    public void nodeConvertedInLaterTransaction()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < THRESHOLD - 2; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+        // load the relationships of the sparse node into the cache
+        assertEquals( THRESHOLD - 2, count( hub.getRelationships() ) );
+
+        tx = db.beginTx();
+        for ( int i = 0; i < THRESHOLD; i++ )
+        {
+            db.createNode().createRelationshipTo( hub, LIKES );
+        }
+        tx.success();
+        tx.finish();
+        assertEquals( THRESHOLD * 2 - 2, count( hub.getRelationships() ) );
+        database.clearCache();
+        assertEquals( THRESHOLD - 2, count( db.getNodeById( hub.getId() ).getRelationships( KNOWS ) ) );
+        assertEquals( THRESHOLD, count( db.getNodeById( hub.getId() ).getRelationships( LIKES ) ) );
+    }
+
+    @Test
+    public void deleteAllRelationshipsOfDenseNode()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < THRESHOLD * 2; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), i % 2 == 0 ? KNOWS : LIKES );
+        }
+        tx.success();
+        tx.finish();
+
+        database.clearCache();
+        tx = db.beginTx();
+        hub = db.getNodeById( hub.getId() );
+        int deleted = 0;
+        for ( Relationship rel : hub.getRelationships( KNOWS ) )
+        {
+            rel.delete();
+            deleted++;
+        }
+        tx.success();
+        tx.finish();
+        assertEquals( THRESHOLD, deleted );
+
+        database.clearCache();
+        hub = db.getNodeById( hub.getId() );
+        assertEquals( 0, count( hub.getRelationships( KNOWS ) ) );
+        assertEquals( THRESHOLD, count( hub.getRelationships( LIKES ) ) );
+
+        tx = db.beginTx();
+        for ( Relationship rel : hub.getRelationships() )
+        {
+            rel.getOtherNode( hub ).delete();
+            rel.delete();
+        }
+        hub.delete();
+        tx.success();
+        tx.finish();
+    }
+
+    @Test
+    public void rollbackOfConversion()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < THRESHOLD - 1; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        for ( int i = 0; i < THRESHOLD; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), LIKES );
+        }
+        tx.failure();
+        tx.finish();
+
+        database.clearCache();
+        hub = db.getNodeById( hub.getId() );
+        assertEquals( THRESHOLD - 1, count( hub.getRelationships() ) );
+        assertEquals( 0, count( hub.getRelationships( LIKES ) ) );
+    }
+
+    private long groupStoreSize()
+    {
+        return new File( database.getStoreDir(), "neostore.relationshipgroupstore.db" ).length();
+    }
+}
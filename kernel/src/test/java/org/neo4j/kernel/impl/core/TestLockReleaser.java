@@ -21,8 +21,11 @@ package org.neo4j.kernel.impl.core;
 
 import static org.junit.Assert.assertNull;
 
+import org.junit.Ignore;
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
 
 public class TestLockReleaser extends AbstractNeo4jTestCase
@@ -53,4 +56,54 @@ public class TestLockReleaser extends AbstractNeo4jTestCase
                 primitive ) );
         getTransaction().finish();
     }
+
+    @Ignore( "Benchmark, run manually with a large heap" )
+    @Test
+    public void createAndModifyManyNodesInOneTransaction()
+    {
+        int count = 1000000;
+        String storeDir = getStorePath( "large-tx" );
+        deleteFileOrDirectory( storeDir );
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            long heapBefore = usedHeap();
+            long start = System.currentTimeMillis();
+            Transaction tx = db.beginTx();
+            Node[] nodes = new Node[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                nodes[i] = db.createNode();
+                nodes[i].setProperty( "name", "node" + i );
+            }
+            for ( int i = 0; i < count; i++ )
+            {
+                nodes[i].setProperty( "name", "changed" + i );
+                nodes[i].setProperty( "number", i );
+            }
+            long modified = System.currentTimeMillis();
+            long heapInTx = usedHeap() - heapBefore;
+            tx.success();
+            tx.finish();
+            long committed = System.currentTimeMillis();
+            System.out.println( count + " nodes: create and modify "
+                + ( modified - start ) + "ms, commit " + ( committed - modified )
+                + "ms, transaction state " + heapInTx / ( 1024 * 1024 ) + "MB ("
+                + heapInTx / count + " bytes per node)" );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.LockTimeoutException;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.transaction.LockManager;
+
+public class TestLockTimeout extends AbstractNeo4jTestCase
+{
+    private LockManager getLockManager()
+    {
+        return getEmbeddedGraphDb().getConfig().getLockManager();
+    }
+
+    @After
+    public void resetLockTimeout()
+    {
+        getLockManager().setLockTimeout( LockManager.NO_TIMEOUT );
+    }
+
+    @Test
+    public void writerGivesUpOnLockedNodeAfterLockTimeout() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        commit();
+        CountDownLatch release = new CountDownLatch( 1 );
+        Thread holder = holdWriteLock( node, release );
+
+        getLockManager().setLockTimeout( 100 );
+        Transaction tx = getGraphDb().beginTx();
+        try
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                node.setProperty( "key", "value" );
+                fail( "Should not get the lock held by another transaction" );
+            }
+            catch ( LockTimeoutException e )
+            {
+                // good
+            }
+            assertTrue( System.currentTimeMillis() - start >= 100 );
+        }
+        finally
+        {
+            tx.finish();
+        }
+        release.countDown();
+        holder.join();
+
+        // the lock is free again and nothing is left waiting for it
+        tx = getGraphDb().beginTx();
+        try
+        {
+            node.setProperty( "key", "value" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @Test
+    public void tryAcquireWriteLockFailsFastOnLockedNode() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        commit();
+        CountDownLatch release = new CountDownLatch( 1 );
+        Thread holder = holdWriteLock( node, release );
+
+        Transaction tx = getGraphDb().beginTx();
+        try
+        {
+            assertFalse( getNodeManager().tryAcquireWriteLock( node, 0 ) );
+            assertFalse( getNodeManager().tryAcquireWriteLock( node, 50 ) );
+            release.countDown();
+            assertTrue( getNodeManager().tryAcquireWriteLock( node, 10000 ) );
+            node.setProperty( "key", "value" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        holder.join();
+        newTransaction();
+        assertEquals( "value", node.getProperty( "key" ) );
+    }
+
+    @Test
+    public void lockTimeoutIsConfigurable()
+    {
+        String storeDir = getStorePath( "lock-timeout" );
+        deleteFileOrDirectory( storeDir );
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir,
+            stringMap( Config.LOCK_TIMEOUT, "250" ) );
+        try
+        {
+            assertEquals( 250, db.getConfig().getLockManager().getLockTimeout() );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    // holds a write lock on node in another transaction until released
+    private Thread holdWriteLock( final Node node, final CountDownLatch release )
+        throws InterruptedException
+    {
+        final CountDownLatch locked = new CountDownLatch( 1 );
+        Thread holder = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Transaction tx = getGraphDb().beginTx();
+                try
+                {
+                    node.setProperty( "holder", "yes" );
+                    locked.countDown();
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        };
+        holder.start();
+        locked.await();
+        return holder;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.EmbeddedDatabaseFixture;
+
+public class TestNodeDegree
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static final RelationshipType[] TYPES = { KNOWS, LIKES };
+    private static final int THRESHOLD = 10;
+
+    private final EmbeddedDatabaseFixture database = new EmbeddedDatabaseFixture(
+        TestNodeDegree.class, stringMap( Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD ) );
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb()
+    {
+        db = database.create();
+    }
+
+    @After
+    public void stopDb()
+    {
+        database.shutdown();
+    }
+
+    @Test
+    public void degreeOfSparseNode()
+    {
+        Node node = createNodeWithRelationships( 1 );
+        database.clearCache();
+        node = db.getNodeById( node.getId() );
+        assertEquals( 6, node.getDegree() );
+        assertEquals( 3, node.getDegree( Direction.OUTGOING ) );
+        assertEquals( 2, node.getDegree( LIKES ) );
+        assertEquals( 1, node.getDegree( LIKES, Direction.OUTGOING ) );
+        assertDegreesMatchRelationships( node );
+    }
+
+    @Test
+    public void degreeOfDenseNode()
+    {
+        Node node = createNodeWithRelationships( THRESHOLD * 2 );
+        db = database.restart();
+        node = db.getNodeById( node.getId() );
+        assertEquals( THRESHOLD * 8 + 2, node.getDegree() );
+        assertEquals( THRESHOLD * 4 + 1, node.getDegree( KNOWS, Direction.INCOMING ) );
+        assertDegreesMatchRelationships( node );
+    }
+
+    @Test
+    public void degreeOfUnknownTypeIsZero()
+    {
+        Node node = createNodeWithRelationships( THRESHOLD );
+        assertEquals( 0, node.getDegree( DynamicRelationshipType.withName( "UNKNOWN" ) ) );
+    }
+
+    @Test
+    public void degreeIncludesChangesOfTransaction()
+    {
+        Node node = createNodeWithRelationships( THRESHOLD );
+        database.clearCache();
+        node = db.getNodeById( node.getId() );
+        int degree = node.getDegree();
+
+        Transaction tx = db.beginTx();
+        List<Relationship> created = new ArrayList<Relationship>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            created.add( node.createRelationshipTo( db.createNode(), LIKES ) );
+        }
+        created.remove( 0 ).delete();
+        int deleted = 0;
+        for ( Relationship rel : node.getRelationships( KNOWS, Direction.OUTGOING ) )
+        {
+            if ( deleted++ < 4 )
+            {
+                rel.delete();
+            }
+        }
+        assertEquals( degree - 2, node.getDegree() );
+        assertDegreesMatchRelationships( node );
+        tx.failure();
+        tx.finish();
+        assertEquals( degree, node.getDegree() );
+        assertDegreesMatchRelationships( node );
+    }
+
+    @Test
+    public void degreeAfterCommittedChanges()
+    {
+        Node node = createNodeWithRelationships( THRESHOLD );
+        Transaction tx = db.beginTx();
+        int deleted = 0;
+        for ( Relationship rel : node.getRelationships( Direction.INCOMING ) )
+        {
+            if ( deleted++ % 3 == 0 )
+            {
+                rel.delete();
+            }
+        }
+        node.createRelationshipTo( node, LIKES );
+        tx.success();
+        tx.finish();
+        assertDegreesMatchRelationships( node );
+
+        db = database.restart();
+        assertDegreesMatchRelationships( db.getNodeById( node.getId() ) );
+    }
+
+    @Test
+    public void degreeOfNodeCreatedInTransaction()
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        assertEquals( 0, node.getDegree() );
+        for ( int i = 0; i < THRESHOLD * 2; i++ )
+        {
+            node.createRelationshipTo( db.createNode(), KNOWS );
+        }
+        assertEquals( THRESHOLD * 2, node.getDegree( KNOWS, Direction.OUTGOING ) );
+        assertEquals( 0, node.getDegree( Direction.INCOMING ) );
+        tx.success();
+        tx.finish();
+        assertEquals( THRESHOLD * 2, node.getDegree() );
+    }
+
+    /*
+     * Creates a node with count outgoing and 2 * count incoming KNOWS, count
+     * incoming LIKES relationships and one loop of each type.
+     */
+    private Node createNodeWithRelationships( int count )
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        for ( int i = 0; i < count; i++ )
+        {
+            node.createRelationshipTo( db.createNode(), KNOWS );
+            db.createNode().createRelationshipTo( node, KNOWS );
+            db.createNode().createRelationshipTo( node, KNOWS );
+            db.createNode().createRelationshipTo( node, LIKES );
+        }
+        node.createRelationshipTo( node, KNOWS );
+        node.createRelationshipTo( node, LIKES );
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
+    private void assertDegreesMatchRelationships( Node node )
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            assertEquals( count( node.getRelationships( direction ) ),
+                node.getDegree( direction ) );
+            for ( RelationshipType type : TYPES )
+            {
+                assertEquals( count( node.getRelationships( type, direction ) ),
+                    node.getDegree( type, direction ) );
+            }
+        }
+        for ( RelationshipType type : TYPES )
+        {
+            assertEquals( count( node.getRelationships( type ) ), node.getDegree( type ) );
+        }
+        assertEquals( count( node.getRelationships() ), node.getDegree() );
+    }
+}
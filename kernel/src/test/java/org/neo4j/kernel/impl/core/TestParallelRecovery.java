@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.copyLogicalLog;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.renameCopiedLogicalLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.TestXa;
+import org.neo4j.test.DbRepresentation;
+
+public class TestParallelRecovery
+{
+    @Test
+    public void parallelRecoveryReplaysAllTransactions() throws Exception
+    {
+        assertRecovers( "true", false );
+    }
+
+    @Test
+    public void sequentialRecoveryReplaysAllTransactions() throws Exception
+    {
+        assertRecovers( "false", false );
+    }
+
+    @Test
+    public void parallelRecoveryReplaysNewPropertyKeys() throws Exception
+    {
+        // property index and property commands in the same transactions
+        assertRecovers( "true", true );
+    }
+
+    /**
+     * Recovers a logical log with lots of transactions changing the same
+     * records on top of the store as it was before those transactions and
+     * compares the result with the committed state.
+     */
+    private void assertRecovers( String parallel, boolean newKeys ) throws Exception
+    {
+        String storeDir = "target/var/parallel-recovery";
+        File before = new File( "target/var/parallel-recovery-before" );
+        deleteFileOrDirectory( storeDir );
+        deleteFileOrDirectory( before );
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir );
+        db.shutdown();
+        copyFiles( new File( storeDir ), before );
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        createAndChangeData( db, newKeys );
+        DbRepresentation committed = DbRepresentation.of( db );
+        copyLogicalLog( storeDir );
+        db.shutdown();
+
+        restoreStoreKeepingLog( before, storeDir );
+
+        db = new EmbeddedGraphDatabase( storeDir, stringMap(
+            Config.PARALLEL_RECOVERY, parallel ) );
+        try
+        {
+            assertEquals( committed, DbRepresentation.of( db ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private void createAndChangeData( GraphDatabaseService db, boolean newKeys )
+    {
+        DynamicRelationshipType type = DynamicRelationshipType.withName( "KNOWS" );
+        List<Node> nodes = new ArrayList<Node>();
+        for ( int i = 0; i < 200; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node" + i );
+                node.setProperty( "description", longString( i ) );
+                if ( !nodes.isEmpty() )
+                {
+                    Node other = nodes.get( i % nodes.size() );
+                    Relationship rel = other.createRelationshipTo( node, type );
+                    rel.setProperty( "since", i );
+                    other.setProperty( "description", longString( -i ) );
+                    if ( newKeys )
+                    {
+                        // long enough for the key to need a dynamic record
+                        String key = "a property key of its own number " + i;
+                        node.setProperty( key, i );
+                        other.setProperty( key, longString( i ) );
+                    }
+                }
+                if ( i % 10 == 9 )
+                {
+                    Node victim = nodes.remove( 0 );
+                    for ( Relationship rel : victim.getRelationships() )
+                    {
+                        rel.delete();
+                    }
+                    victim.delete();
+                }
+                nodes.add( node );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+
+    private static String longString( int i )
+    {
+        StringBuilder result = new StringBuilder();
+        while ( result.length() < 300 + Math.abs( i ) )
+        {
+            result.append( i ).append( ' ' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Goes back to the store copied to <CODE>before</CODE>, keeping the
+     * logical log copied with {@link TestXa#copyLogicalLog(String)} so that
+     * the transactions since are recovered when the database starts.
+     */
+    static void restoreStoreKeepingLog( File before, String storeDir )
+        throws IOException
+    {
+        for ( File file : new File( storeDir ).listFiles() )
+        {
+            if ( !file.getName().contains( ".bak." ) )
+            {
+                deleteFileOrDirectory( file );
+            }
+        }
+        copyFiles( before, new File( storeDir ) );
+        renameCopiedLogicalLog( storeDir );
+    }
+
+    static void copyFiles( File from, File to ) throws IOException
+    {
+        to.mkdirs();
+        for ( File file : from.listFiles() )
+        {
+            File target = new File( to, file.getName() );
+            if ( file.isDirectory() )
+            {
+                copyFiles( file, target );
+                continue;
+            }
+            FileChannel source = new FileInputStream( file ).getChannel();
+            FileChannel destination = new FileOutputStream( target ).getChannel();
+            try
+            {
+                source.transferTo( 0, source.size(), destination );
+            }
+            finally
+            {
+                source.close();
+                destination.close();
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.util.HashSet;
 import java.util.List;
 
 import org.junit.Test;
+import org.neo4j.kernel.impl.util.LongHashSet;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.RelIdIterator;
@@ -90,7 +91,7 @@ public class TestRelIdArray
         add.add( 5, OUTGOING );
         add.add( 6, OUTGOING );
         add.add( 7, OUTGOING );
-        Collection<Long> remove = new HashSet<Long>();
+        LongHashSet remove = new LongHashSet();
         remove.add( 2L );
         remove.add( 6L );
         List<Long> allIds = asList( RelIdArray.from( source, add, remove ) );
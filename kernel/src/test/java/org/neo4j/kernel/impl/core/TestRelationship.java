@@ -959,6 +959,49 @@ public class TestRelationship extends AbstractNeo4jTestCase
         assertEquals( expectedCount, count( node1.getRelationships() ) );
     }
 
+    @Test
+    public void typedExpandOnlyLoadsRelationshipsOfThatType() throws Exception
+    {
+        int grabSize = 10;
+        GraphDatabaseService db = new ImpermanentGraphDatabase(
+                "target/test-data/test-db5", stringMap(
+                        "relationship_grab_size", "" + grabSize ) );
+        Transaction tx = db.beginTx();
+        Node node1 = db.createNode();
+        Node node2 = db.createNode();
+        RelationshipType wanted = DynamicRelationshipType.withName( "wanted" );
+        RelationshipType other = DynamicRelationshipType.withName( "other" );
+        Collection<Relationship> wantedRelationships = new HashSet<Relationship>();
+        Collection<Relationship> otherRelationships = new HashSet<Relationship>();
+        for ( int i = 0; i < grabSize * 5; i++ )
+        {
+            otherRelationships.add( node1.createRelationshipTo( node2, other ) );
+            otherRelationships.add( node2.createRelationshipTo( node1, wanted ) );
+            if ( i % 10 == 0 )
+            {
+                wantedRelationships.add( node1.createRelationshipTo( node2, wanted ) );
+            }
+        }
+        tx.success();
+        tx.finish();
+
+        NodeManager nodeManager =
+            ( (AbstractGraphDatabase) db ).getConfig().getGraphDbModule().getNodeManager();
+        nodeManager.clearCache();
+
+        assertEquals( wantedRelationships, addToCollection(
+            node1.getRelationships( wanted, Direction.OUTGOING ), new HashSet<Relationship>() ) );
+        // the others passed on the way were only recorded by id
+        assertEquals( wantedRelationships.size(), nodeManager.getRelationshipCacheSize() );
+        Collection<Relationship> allRelationships = addToCollection(
+            node1.getRelationships(), new HashSet<Relationship>() );
+        assertEquals( otherRelationships.size() + wantedRelationships.size(),
+            allRelationships.size() );
+        assertTrue( allRelationships.containsAll( otherRelationships ) );
+        assertTrue( allRelationships.containsAll( wantedRelationships ) );
+        db.shutdown();
+    }
+
     @Test
     @Ignore
     public void grabSizeWithTwoTypesDeleteAndCount()
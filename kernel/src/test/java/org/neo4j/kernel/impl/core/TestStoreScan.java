@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.StoreScan;
+import org.neo4j.test.EmbeddedDatabaseFixture;
+
+public class TestStoreScan
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    private final EmbeddedDatabaseFixture database =
+        new EmbeddedDatabaseFixture( TestStoreScan.class );
+    private EmbeddedGraphDatabase db;
+    private NodeManager nodeManager;
+
+    @Before
+    public void startDb()
+    {
+        db = database.create();
+        nodeManager = database.getNodeManager();
+    }
+
+    @After
+    public void stopDb()
+    {
+        database.shutdown();
+    }
+
+    @Test
+    public void scansReturnTheRecordsInUse()
+    {
+        Set<Long> nodes = new HashSet<Long>();
+        Map<Long, Relationship> relationships = new HashMap<Long, Relationship>();
+        nodes.add( db.getReferenceNode().getId() );
+        Transaction tx = db.beginTx();
+        Node previous = db.getReferenceNode();
+        for ( int i = 0; i < 100; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "number", i );
+            Relationship rel = previous.createRelationshipTo( node, KNOWS );
+            nodes.add( node.getId() );
+            relationships.put( rel.getId(), rel );
+            previous = node;
+        }
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        for ( long id = 10; id < 100; id += 10 )
+        {
+            Node node = db.getNodeById( id );
+            for ( Relationship rel : node.getRelationships() )
+            {
+                relationships.remove( rel.getId() );
+                rel.delete();
+            }
+            node.delete();
+            nodes.remove( id );
+        }
+        tx.success();
+        tx.finish();
+
+        Set<Long> scannedNodes = new HashSet<Long>();
+        StoreScan<NodeRecord> nodeScan = nodeManager.scanNodes();
+        while ( nodeScan.hasNext() )
+        {
+            NodeRecord record = nodeScan.next();
+            assertTrue( record.inUse() );
+            assertTrue( scannedNodes.add( record.getId() ) );
+        }
+        assertEquals( nodes, scannedNodes );
+
+        Set<Long> scannedRelationships = new HashSet<Long>();
+        StoreScan<RelationshipRecord> relationshipScan = nodeManager.scanRelationships();
+        while ( relationshipScan.hasNext() )
+        {
+            RelationshipRecord record = relationshipScan.next();
+            Relationship rel = relationships.get( record.getId() );
+            assertEquals( rel.getStartNode().getId(), record.getFirstNode() );
+            assertEquals( rel.getEndNode().getId(), record.getSecondNode() );
+            assertTrue( scannedRelationships.add( record.getId() ) );
+        }
+        assertEquals( relationships.keySet(), scannedRelationships );
+
+        // one property record for each node but the reference node
+        int properties = 0;
+        StoreScan<PropertyRecord> propertyScan = nodeManager.scanProperties();
+        while ( propertyScan.hasNext() )
+        {
+            PropertyRecord record = propertyScan.next();
+            assertTrue( record.inUse() );
+            assertTrue( record.hasBlocks() );
+            properties++;
+        }
+        assertEquals( nodes.size() - 1, properties );
+    }
+
+    @Test
+    public void changesOfTheCurrentTransactionAreNotSeen()
+    {
+        Transaction tx = db.beginTx();
+        db.createNode();
+        db.getReferenceNode().delete();
+        Set<Long> scannedNodes = new HashSet<Long>();
+        StoreScan<NodeRecord> scan = nodeManager.scanNodes();
+        while ( scan.hasNext() )
+        {
+            scannedNodes.add( scan.next().getId() );
+        }
+        tx.failure();
+        tx.finish();
+        assertEquals( 1, scannedNodes.size() );
+        assertTrue( scannedNodes.contains( db.getReferenceNode().getId() ) );
+    }
+
+    @Test
+    public void closedScanReturnsNoMoreRecords()
+    {
+        Transaction tx = db.beginTx();
+        for ( int i = 0; i < 10; i++ )
+        {
+            db.createNode();
+        }
+        tx.success();
+        tx.finish();
+
+        StoreScan<NodeRecord> scan = nodeManager.scanNodes();
+        assertTrue( scan.hasNext() );
+        scan.next();
+        scan.close();
+        assertFalse( scan.hasNext() );
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.impl.core.TransactionEventsSyncHook.HandlerAndState;
+
+public class TestTransactionEventDispatcher
+{
+    @Test
+    public void eventsDispatchedAfterShutdownAreDeliveredOnTheCallersThread()
+    {
+        for ( boolean block : new boolean[] { true, false } )
+        {
+            TransactionEventDispatcher dispatcher = new TransactionEventDispatcher( 1, block );
+            dispatcher.shutdown();
+            RecordingHandler handler = new RecordingHandler();
+            dispatcher.dispatch( Collections.singletonList(
+                new HandlerAndState( handler, null ) ), null, true );
+            assertEquals( 1, handler.threads.size() );
+            assertSame( Thread.currentThread(), handler.threads.get( 0 ) );
+            assertEquals( 0, dispatcher.getDiscardedEvents() );
+        }
+    }
+
+    private static class RecordingHandler implements TransactionEventHandler<Object>
+    {
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+        public Object beforeCommit( TransactionData data ) throws Exception
+        {
+            return null;
+        }
+
+        public void afterCommit( TransactionData data, Object state )
+        {
+            threads.add( Thread.currentThread() );
+        }
+
+        public void afterRollback( TransactionData data, Object state )
+        {
+        }
+    }
+}
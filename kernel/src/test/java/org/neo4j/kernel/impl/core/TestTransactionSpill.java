@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.EmbeddedDatabaseFixture;
+
+public class TestTransactionSpill
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final int COUNT = 500;
+
+    private final EmbeddedDatabaseFixture database = new EmbeddedDatabaseFixture(
+        TestTransactionSpill.class, stringMap( Config.TRANSACTION_SPILL_THRESHOLD, "10" ) );
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb()
+    {
+        db = database.create();
+    }
+
+    @After
+    public void stopDb()
+    {
+        database.shutdown();
+    }
+
+    @Test
+    public void largeTransactionSpillsAndCommits()
+    {
+        Transaction tx = db.beginTx();
+        long[] ids = createChain( COUNT );
+        // read back spilled state in the same transaction
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            assertNode( db.getNodeById( ids[i] ), i );
+        }
+        assertTrue( "Expected a spill file", spillFiles().length > 0 );
+        tx.success();
+        tx.finish();
+        assertEquals( 0, spillFiles().length );
+
+        database.clearCache();
+        tx = db.beginTx();
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            Node node = db.getNodeById( ids[i] );
+            assertNode( node, i );
+            if ( i > 0 )
+            {
+                Relationship rel = node.getSingleRelationship( KNOWS, Direction.INCOMING );
+                assertEquals( ids[i - 1], rel.getStartNode().getId() );
+                assertEquals( i, rel.getProperty( "since" ) );
+            }
+        }
+        tx.finish();
+    }
+
+    @Test
+    public void largeTransactionSpillsAndRollsBack()
+    {
+        Transaction tx = db.beginTx();
+        long[] ids = createChain( COUNT );
+        assertTrue( "Expected a spill file", spillFiles().length > 0 );
+        tx.finish();
+        assertEquals( 0, spillFiles().length );
+
+        database.clearCache();
+        for ( long id : ids )
+        {
+            try
+            {
+                db.getNodeById( id );
+                fail( "Node " + id + " should have been rolled back" );
+            }
+            catch ( NotFoundException e )
+            {
+                // good
+            }
+        }
+    }
+
+    @Test
+    public void spilledChangesAndDeletesOfCommittedDataAreCommitted()
+    {
+        Transaction tx = db.beginTx();
+        long[] ids = createChain( COUNT );
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            Node node = db.getNodeById( ids[i] );
+            if ( i % 2 == 0 )
+            {
+                node.setProperty( "name", "changed" + i );
+                node.removeProperty( "numbers" );
+            }
+            else
+            {
+                for ( Relationship rel : node.getRelationships() )
+                {
+                    rel.delete();
+                }
+                node.delete();
+            }
+        }
+        assertTrue( "Expected a spill file", spillFiles().length > 0 );
+        tx.success();
+        tx.finish();
+
+        database.clearCache();
+        tx = db.beginTx();
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            if ( i % 2 == 0 )
+            {
+                Node node = db.getNodeById( ids[i] );
+                assertEquals( "changed" + i, node.getProperty( "name" ) );
+                assertFalse( node.hasProperty( "numbers" ) );
+                assertFalse( node.hasRelationship() );
+            }
+            else
+            {
+                try
+                {
+                    db.getNodeById( ids[i] );
+                    fail( "Node " + ids[i] + " should have been deleted" );
+                }
+                catch ( NotFoundException e )
+                {
+                    // good
+                }
+            }
+        }
+        tx.finish();
+    }
+
+    private long[] createChain( int count )
+    {
+        long[] ids = new long[count];
+        Node previous = null;
+        for ( int i = 0; i < count; i++ )
+        {
+            Node node = db.createNode();
+            ids[i] = node.getId();
+            node.setProperty( "name", longString( i ) );
+            node.setProperty( "numbers", new int[] { i, i + 1, i + 2 } );
+            if ( previous != null )
+            {
+                previous.createRelationshipTo( node, KNOWS ).setProperty( "since", i );
+            }
+            previous = node;
+        }
+        return ids;
+    }
+
+    private void assertNode( Node node, int i )
+    {
+        assertEquals( longString( i ), node.getProperty( "name" ) );
+        assertTrue( Arrays.equals( new int[] { i, i + 1, i + 2 },
+            (int[]) node.getProperty( "numbers" ) ) );
+    }
+
+    // long enough to be kept in dynamic records
+    private static String longString( int i )
+    {
+        StringBuilder result = new StringBuilder();
+        while ( result.length() < 200 )
+        {
+            result.append( "node" ).append( i ).append( ' ' );
+        }
+        return result.toString();
+    }
+
+    private File[] spillFiles()
+    {
+        File[] files = new File( database.getStoreDir() ).listFiles();
+        int count = 0;
+        for ( File file : files )
+        {
+            if ( file.getName().startsWith( "nioneo_tx_spill_" ) )
+            {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf( files, count );
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestAsyncTransactionEvents
+{
+    private EmbeddedGraphDatabase newDb( String... config )
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "async-tx-events" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( path );
+        return new EmbeddedGraphDatabase( path, stringMap( config ) );
+    }
+
+    @Test
+    public void afterCommitIsDeliveredInOrderWithoutBlockingTheCommit()
+        throws Exception
+    {
+        EmbeddedGraphDatabase db = newDb( Config.TRANSACTION_EVENTS_ASYNC, "true" );
+        BlockingHandler handler = new BlockingHandler();
+        db.registerTransactionEventHandler( handler );
+        for ( int i = 0; i < 10; i++ )
+        {
+            createNode( db, i );
+        }
+        // the handler is still blocked on the first event but all
+        // transactions have been committed
+        assertTrue( handler.committedNames.isEmpty() );
+        assertFalse( handler.threads.contains( Thread.currentThread() ) );
+        handler.release.countDown();
+        db.shutdown();
+
+        assertEquals( 10, handler.committedNames.size() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( "node" + i, handler.committedNames.get( i ) );
+        }
+    }
+
+    @Test
+    public void eventsAreDiscardedWhenQueueIsFull() throws Exception
+    {
+        EmbeddedGraphDatabase db = newDb( Config.TRANSACTION_EVENTS_ASYNC, "true",
+            Config.TRANSACTION_EVENTS_QUEUE_SIZE, "1",
+            Config.TRANSACTION_EVENTS_QUEUE_FULL, "discard" );
+        BlockingHandler handler = new BlockingHandler();
+        db.registerTransactionEventHandler( handler );
+        createNode( db, 0 );
+        assertTrue( handler.started.await( 10, TimeUnit.SECONDS ) );
+        // one event queued, the rest don't fit
+        for ( int i = 1; i < 5; i++ )
+        {
+            createNode( db, i );
+        }
+        handler.release.countDown();
+        db.shutdown();
+
+        assertEquals( 2, handler.committedNames.size() );
+        assertEquals( "node0", handler.committedNames.get( 0 ) );
+        assertEquals( "node1", handler.committedNames.get( 1 ) );
+    }
+
+    private void createNode( EmbeddedGraphDatabase db, int i )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            db.createNode().setProperty( "name", "node" + i );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private static class BlockingHandler implements TransactionEventHandler<Object>
+    {
+        private final CountDownLatch started = new CountDownLatch( 1 );
+        private final CountDownLatch release = new CountDownLatch( 1 );
+        private final List<String> committedNames = new CopyOnWriteArrayList<String>();
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+        public Object beforeCommit( TransactionData data ) throws Exception
+        {
+            return null;
+        }
+
+        public void afterCommit( TransactionData data, Object state )
+        {
+            threads.add( Thread.currentThread() );
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                throw new RuntimeException( e );
+            }
+            for ( Node node : data.createdNodes() )
+            {
+                committedNames.add( (String) node.getProperty( "name" ) );
+            }
+        }
+
+        public void afterRollback( TransactionData data, Object state )
+        {
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBufferFactory;
+
+/**
+ * Reads and writes node and relationship records from many threads with
+ * less mapped memory than store size, so that windows get remapped while
+ * they're being read.
+ */
+public class TestConcurrentStoreAccess
+{
+    private static final int NODES = 50000;
+    private static final int RELATIONSHIPS = 100000;
+
+    private NeoStore neoStore;
+
+    private String path()
+    {
+        String path = getStorePath( "test-concurrent-store-access" );
+        new File( path ).mkdirs();
+        return path;
+    }
+
+    @Before
+    public void createStore()
+    {
+        deleteFileOrDirectory( path() );
+        String file = path() + File.separator + "neostore";
+        NeoStore.createStore( file, MapUtil.map(
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                LogBufferFactory.class, CommonFactories.defaultLogBufferFactory() ) );
+        neoStore = openStore( file, "false", false );
+        NodeStore nodeStore = neoStore.getNodeStore();
+        for ( int i = 0; i < NODES; i++ )
+        {
+            NodeRecord record = new NodeRecord( nodeStore.nextId() );
+            record.setInUse( true );
+            record.setNextRel( expectedNextRel( record.getId() ) );
+            nodeStore.updateRecord( record );
+        }
+        RelationshipStore relStore = neoStore.getRelationshipStore();
+        for ( int i = 0; i < RELATIONSHIPS; i++ )
+        {
+            long id = relStore.nextId();
+            RelationshipRecord record = new RelationshipRecord( id, id % NODES,
+                ( id + 1 ) % NODES, 0 );
+            record.setInUse( true );
+            relStore.updateRecord( record );
+        }
+        neoStore.close();
+        neoStore = openStore( file, "true", false );
+    }
+
+    private NeoStore openStore( String file, String memoryMapped,
+            boolean pageCache )
+    {
+        Map<Object,Object> config = MapUtil.genericMap(
+                "neo_store", file,
+                "store_dir", path(),
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                Config.USE_MEMORY_MAPPED_BUFFERS, memoryMapped,
+                // roughly a tenth of the store files
+                Config.NODE_STORE_MMAP_SIZE, "50k",
+                Config.RELATIONSHIP_STORE_MMAP_SIZE, "300k" );
+        if ( pageCache )
+        {
+            // the same amount shared by all stores in small pages
+            config.put( Config.MAPPED_MEMORY, "350k" );
+            config.put( Config.MAPPED_MEMORY_PAGE_SIZE, "16k" );
+        }
+        return new NeoStore( config );
+    }
+
+    @After
+    public void closeStore()
+    {
+        if ( neoStore != null )
+        {
+            neoStore.close();
+        }
+    }
+
+    private static long expectedNextRel( long nodeId )
+    {
+        return nodeId * 2;
+    }
+
+    @Test
+    public void concurrentReadsAndWritesWhileWindowsAreRemapped() throws Exception
+    {
+        Throwable failure = runThreads( 8, 50000, true );
+        assertNull( failure );
+        WindowPoolStats stats = neoStore.getNodeStore().getWindowPoolStats();
+        assertTrue( stats.getHitCount() > 0 );
+        assertTrue( stats.getMemUsed() <= stats.getMemAvail() );
+    }
+
+    @Test
+    public void concurrentReadsAndWritesWithSharedPageCache() throws Exception
+    {
+        neoStore.close();
+        neoStore = openStore( path() + File.separator + "neostore", "true", true );
+        PageCache pageCache = neoStore.getPageCache();
+        assertNotNull( pageCache );
+        Throwable failure = runThreads( 8, 50000, true );
+        assertNull( failure );
+        assertTrue( pageCache.getEvictions() > 0 );
+        assertTrue( pageCache.getUsed() <= pageCache.getBudget() );
+        WindowPoolStats nodeStats = neoStore.getNodeStore().getWindowPoolStats();
+        WindowPoolStats relStats = neoStore.getRelationshipStore().getWindowPoolStats();
+        assertTrue( nodeStats.getHitCount() > 0 );
+        assertTrue( relStats.getHitCount() > 0 );
+        assertEquals( pageCache.getBudget(), nodeStats.getMemAvail() );
+        assertTrue( nodeStats.getMemUsed() + relStats.getMemUsed() <= pageCache.getBudget() );
+        neoStore.close();
+        neoStore = null;
+        assertEquals( 0, pageCache.getUsed() );
+    }
+
+    @Ignore( "Benchmark, run manually" )
+    @Test
+    public void concurrentReadThroughput() throws Exception
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 4;
+        for ( int threads = 1; threads <= maxThreads; threads *= 2 )
+        {
+            int reads = 2000000;
+            long time = System.currentTimeMillis();
+            assertNull( runThreads( threads, reads, false ) );
+            time = Math.max( 1, System.currentTimeMillis() - time );
+            System.out.println( threads + " threads: " + ( (long) reads * threads * 1000 / time )
+                + " record reads/s" );
+        }
+    }
+
+    private Throwable runThreads( int threadCount, final int operationsPerThread,
+            final boolean write ) throws InterruptedException
+    {
+        final NodeStore nodeStore = neoStore.getNodeStore();
+        final RelationshipStore relStore = neoStore.getRelationshipStore();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final long seed = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    try
+                    {
+                        start.await();
+                        for ( int op = 0; op < operationsPerThread; op++ )
+                        {
+                            // skew the accesses towards the lower ids
+                            double skew = Math.pow( random.nextDouble(), 2 );
+                            // node 0 is the reference node created with the store
+                            long nodeId = 1 + (long) ( skew * ( NODES - 1 ) );
+                            NodeRecord node = nodeStore.getRecord( nodeId );
+                            assertEquals( expectedNextRel( nodeId ), node.getNextRel() );
+                            long relId = (long) ( skew * RELATIONSHIPS );
+                            RelationshipRecord rel = relStore.getRecord( relId );
+                            assertEquals( relId % NODES, rel.getFirstNode() );
+                            if ( write && random.nextInt( 10 ) == 0 )
+                            {
+                                nodeStore.updateRecord( node );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        return failure.get();
+    }
+}
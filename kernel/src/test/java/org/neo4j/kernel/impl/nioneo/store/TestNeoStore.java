@@ -31,7 +31,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -59,6 +59,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.LogBufferFactory;
 import org.neo4j.kernel.impl.transaction.xaframework.TxIdGenerator;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelationshipLoadingPosition;
 
 public class TestNeoStore extends AbstractNeo4jTestCase
 {
@@ -223,6 +224,12 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         file.delete();
         file = new File( file( "neo.relationshipstore.db.id" ) );
         file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db" ) );
+        file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db.id" ) );
+        file.delete();
+        file = new File( file( "neo.counts.db" ) );
+        file.delete();
         file = new File( file( "neo.relationshiptypestore.db" ) );
         file.delete();
         file = new File( file( "neo.relationshiptypestore.db.id" ) );
@@ -355,7 +362,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         }
         for ( int i = 0; i < 3; i++ )
         {
-            AtomicLong pos = getPosition( xaCon, nodeIds[i] );
+            AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, nodeIds[i] );
             for ( RelationshipRecord rel : getMore( xaCon, nodeIds[i], pos ) )
             {
                 xaCon.getWriteTransaction().relDelete( rel.getId() );
@@ -366,15 +373,17 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         ds.close();
     }
     
-    private AtomicLong getPosition( NeoStoreXaConnection xaCon, long node )
+    private AtomicReference<RelationshipLoadingPosition> getPosition( NeoStoreXaConnection xaCon, long node )
     {
-        return new AtomicLong( xaCon.getWriteTransaction().getRelationshipChainPosition( node ) );
+        return new AtomicReference<RelationshipLoadingPosition>(
+                xaCon.getWriteTransaction().getRelationshipChainPosition( node ) );
     }
     
     @SuppressWarnings( "unchecked" )
-    private Iterable<RelationshipRecord> getMore( NeoStoreXaConnection xaCon, long node, AtomicLong pos )
+    private Iterable<RelationshipRecord> getMore( NeoStoreXaConnection xaCon, long node,
+            AtomicReference<RelationshipLoadingPosition> pos )
     {
-        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
+        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, RelationshipLoadingPosition> rels =
                 xaCon.getWriteTransaction().getMoreRelationships( node, pos.get() );
         pos.set( rels.other() );
         List<Iterable<RelationshipRecord>> list = new ArrayList<Iterable<RelationshipRecord>>();
@@ -385,16 +394,10 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         return new CombiningIterable<RelationshipRecord>( list );
     }
 
-    private Object getValue( PropertyRecord propertyRecord ) throws IOException
+    private PropertyData getPropertyData( long id )
     {
-        try
-        {
-            return propertyRecord.getType().getValue( propertyRecord, pStore );
-        }
-        catch ( InvalidRecordException ex )
-        {
-            throw new IOException( ex );
-        }
+        PropertyRecord record = pStore.getRecord( PropertyStore.toRecordId( id ) );
+        return record.getBlock( PropertyStore.toBlockIndex( id ) ).newPropertyData( id );
     }
 
     private void validateNodeRel1( long node, long prop1, long prop2, long prop3,
@@ -407,8 +410,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor( 
@@ -438,7 +440,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         }
         assertEquals( 3, count );
         count = 0;
-        AtomicLong pos = getPosition( xaCon, node );
+        AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, node );
         while ( true )
         {
             Iterable<RelationshipRecord> relData = getMore( xaCon, node, pos );
@@ -478,8 +480,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -510,7 +511,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         assertEquals( 3, count );
         count = 0;
         
-        AtomicLong pos = getPosition( xaCon, node );
+        AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, node );
         while ( true )
         {
             Iterable<RelationshipRecord> relData = getMore( xaCon, node, pos );
@@ -549,8 +550,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -594,8 +594,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -669,8 +668,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -703,10 +701,10 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         assertEquals( secondNode, relData.getSecondNode() );
         assertEquals( relType, relData.getType() );
         xaCon.getWriteTransaction().relDelete( rel );
-        AtomicLong firstPos = getPosition( xaCon, firstNode );
+        AtomicReference<RelationshipLoadingPosition> firstPos = getPosition( xaCon, firstNode );
         Iterator<RelationshipRecord> first = getMore( xaCon, firstNode, firstPos ).iterator();
         first.next();
-        AtomicLong secondPos = getPosition( xaCon, secondNode ); 
+        AtomicReference<RelationshipLoadingPosition> secondPos = getPosition( xaCon, secondNode ); 
         Iterator<RelationshipRecord> second = getMore( xaCon, secondNode, secondPos ).iterator();
         second.next();
         assertTrue( first.hasNext() );
@@ -722,8 +720,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -756,9 +753,9 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         assertEquals( secondNode, relData.getSecondNode() );
         assertEquals( relType, relData.getType() );
         xaCon.getWriteTransaction().relDelete( rel );
-        AtomicLong firstPos = getPosition( xaCon, firstNode );
+        AtomicReference<RelationshipLoadingPosition> firstPos = getPosition( xaCon, firstNode );
         Iterator<RelationshipRecord> first = getMore( xaCon, firstNode, firstPos ).iterator();
-        AtomicLong secondPos = getPosition( xaCon, secondNode );
+        AtomicReference<RelationshipLoadingPosition> secondPos = getPosition( xaCon, secondNode );
         Iterator<RelationshipRecord> second = getMore( xaCon, secondNode, secondPos ).iterator();
         assertTrue( first.hasNext() );
         assertTrue( second.hasNext() );
@@ -773,8 +770,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -802,7 +798,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         }
         assertEquals( 3, count );
         assertEquals( 3, xaCon.getWriteTransaction().nodeLoadProperties( node, false ).size() );
-        AtomicLong pos = getPosition( xaCon, node );
+        AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, node );
         Iterator<RelationshipRecord> rels = getMore( xaCon, node, pos ).iterator(); 
         assertTrue( rels.hasNext() );
         xaCon.getWriteTransaction().nodeDelete( node );
@@ -817,8 +813,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = getPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -846,7 +841,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         }
         assertEquals( 3, count );        
         assertEquals( 3, xaCon.getWriteTransaction().nodeLoadProperties( node, false ).size() );
-        AtomicLong pos = getPosition( xaCon, node );
+        AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, node );
         Iterator<RelationshipRecord> rels = getMore( xaCon, node, pos ).iterator();
         assertTrue( rels.hasNext() );
         xaCon.getWriteTransaction().nodeDelete( node );
@@ -884,7 +879,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         startTx();
         for ( int i = 0; i < 3; i+=2 )
         {
-            AtomicLong pos = getPosition( xaCon, nodeIds[i] );
+            AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, nodeIds[i] );
             for ( RelationshipRecord rel : getMore( xaCon, nodeIds[i], pos ) )
             {
                 xaCon.getWriteTransaction().relDelete( rel.getId() );
@@ -920,7 +915,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         startTx();
         for ( int i = 0; i < 3; i++ )
         {
-            AtomicLong pos = getPosition( xaCon, nodeIds[i] );
+            AtomicReference<RelationshipLoadingPosition> pos = getPosition( xaCon, nodeIds[i] );
             for ( RelationshipRecord rel : getMore( xaCon, nodeIds[i], pos ) )
             {
                 xaCon.getWriteTransaction().relDelete( rel.getId() );
@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBufferFactory;
+
+public class TestPropertyBlocks
+{
+    private NeoStore neoStore;
+    private PropertyStore propStore;
+    private long[] firstRecords;
+
+    private String path()
+    {
+        String path = getStorePath( "test-property-blocks" );
+        new File( path ).mkdirs();
+        return path;
+    }
+
+    private String file()
+    {
+        return path() + File.separator + "neostore";
+    }
+
+    @Before
+    public void createStore()
+    {
+        deleteFileOrDirectory( path() );
+        NeoStore.createStore( file(), MapUtil.map(
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                LogBufferFactory.class, CommonFactories.defaultLogBufferFactory() ) );
+        openStore();
+    }
+
+    private void openStore()
+    {
+        Map<Object,Object> config = MapUtil.genericMap(
+                "neo_store", file(),
+                "store_dir", path(),
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction() );
+        neoStore = new NeoStore( config );
+        propStore = neoStore.getPropertyStore();
+    }
+
+    private void reopenStore()
+    {
+        neoStore.close();
+        openStore();
+    }
+
+    @After
+    public void closeStore()
+    {
+        if ( neoStore != null )
+        {
+            neoStore.close();
+            neoStore = null;
+        }
+    }
+
+    @Test
+    public void propertyIdsKeepRecordIdAtBlockZero()
+    {
+        assertEquals( 123, PropertyStore.toPropertyId( 123, 0 ) );
+        long id = PropertyStore.toPropertyId( 0xFFFFFFFFFL, 3 );
+        assertEquals( 0xFFFFFFFFFL, PropertyStore.toRecordId( id ) );
+        assertEquals( 3, PropertyStore.toBlockIndex( id ) );
+    }
+
+    @Test
+    public void smallLongsAreInlined()
+    {
+        assertTrue( PropertyStore.isInlinedLong( 0 ) );
+        assertTrue( PropertyStore.isInlinedLong( ( 1L << 34 ) - 1 ) );
+        assertTrue( PropertyStore.isInlinedLong( -( 1L << 34 ) ) );
+        assertFalse( PropertyStore.isInlinedLong( 1L << 34 ) );
+        assertFalse( PropertyStore.isInlinedLong( -( 1L << 34 ) - 1 ) );
+        assertFalse( PropertyStore.isInlinedLong( Long.MIN_VALUE ) );
+    }
+
+    @Test
+    public void valuesSurviveBeingPackedIntoOneRecord()
+    {
+        Object[] values = { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, true,
+            (byte) -5, (short) -300, 'x', 1.5f, -7.25f, 0L, -1L,
+            ( 1L << 34 ) - 1, -( 1L << 34 ), 1L << 34, Long.MIN_VALUE, Long.MAX_VALUE,
+            Math.PI, "short", "a string that is too long to be a short string",
+            new int[] { 1, -2, 3 }, new long[] { Long.MIN_VALUE, 1, Long.MAX_VALUE },
+            new boolean[] { true, false, true }, new byte[0], new char[] { 'a', 'b' },
+            new short[] { -1, 2 }, new float[] { 1.5f }, new double[] { -2.5, 3 },
+            new long[] { 1, 2, 3, 4 }, new String[] { "a", "b" } };
+        long[] recordIds = new long[values.length];
+        int[] indexes = new int[values.length];
+        PropertyRecord record = null;
+        for ( int i = 0; i < values.length; i++ )
+        {
+            PropertyBlock block = new PropertyBlock();
+            propStore.encodeValue( block, i, values[i] );
+            int index = record == null ? -1 : record.findFreeBlocks( block.getSize() );
+            if ( index == -1 )
+            {
+                if ( record != null )
+                {
+                    propStore.updateRecord( record );
+                }
+                record = new PropertyRecord( propStore.nextId() );
+                record.setInUse( true );
+                index = 0;
+            }
+            record.setBlock( index, block );
+            recordIds[i] = record.getId();
+            indexes[i] = index;
+        }
+        propStore.updateRecord( record );
+        reopenStore();
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            PropertyBlock block = propStore.getRecord( recordIds[i] ).getBlock( indexes[i] );
+            assertEquals( i, block.getKeyIndexId() );
+            assertValueEquals( values[i], propStore.getValue( block ) );
+        }
+        assertTrue( "expected several properties per record",
+            propStore.getHighId() < values.length / 2 );
+    }
+
+    private void assertValueEquals( Object expected, Object value )
+    {
+        if ( expected.getClass().isArray() )
+        {
+            assertEquals( expected.getClass(), value.getClass() );
+            assertTrue( expected + " != " + value, Arrays.deepEquals(
+                new Object[] { expected }, new Object[] { value } ) );
+        }
+        else
+        {
+            assertEquals( expected, value );
+        }
+    }
+
+    @Test
+    public void primitiveArraysThatFitAreShortArrays()
+    {
+        PropertyBlock block = new PropertyBlock();
+        assertTrue( ShortArray.encode( new long[] { 1, 2, 3 }, block ) );
+        assertEquals( 3, block.getArrayBlocks().length );
+        assertArrayEquals( new long[] { 1, 2, 3 }, (long[]) ShortArray.decode( block ) );
+        assertTrue( ShortArray.encode( new byte[24], block ) );
+        assertFalse( ShortArray.encode( new byte[25], block ) );
+        assertFalse( ShortArray.encode( new long[4], block ) );
+        assertFalse( ShortArray.encode( new Integer[] { 1 }, block ) );
+        assertFalse( ShortArray.encode( new String[] { "a" }, block ) );
+    }
+
+    @Test
+    public void freeBlocksAreFoundAroundOtherProperties()
+    {
+        PropertyRecord record = new PropertyRecord( 0 );
+        record.setBlock( 0, block( 1 ) );
+        record.setBlock( 1, block( Math.PI ) );
+        assertEquals( 3, record.findFreeBlocks( 1 ) );
+        assertEquals( -1, record.findFreeBlocks( 2 ) );
+        assertEquals( -1, record.findFreeBlocks( 2, 0 ) );
+        assertEquals( 1, record.findFreeBlocks( 3, 1 ) );
+        assertTrue( record.fitsAt( 1, 3 ) );
+        assertFalse( record.fitsAt( 0, 2 ) );
+        record.removeBlock( 0 );
+        assertEquals( 0, record.findFreeBlocks( 1 ) );
+        assertTrue( record.fitsAt( 1, 1 ) );
+    }
+
+    private PropertyBlock block( Object value )
+    {
+        PropertyBlock block = new PropertyBlock();
+        propStore.encodeValue( block, 0, value );
+        return block;
+    }
+
+    @Test
+    public void smallPropertiesOfANodeShareRecords() throws Exception
+    {
+        closeStore();
+        String path = getStorePath( "test-property-blocks-db" );
+        deleteFileOrDirectory( path );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "a", 1 );
+        node.setProperty( "b", true );
+        node.setProperty( "c", "short" );
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        node.setProperty( "a", Math.E );
+        node.setProperty( "d", new int[] { 1, 2, 3, 4 } );
+        node.setProperty( "e", 5L );
+        node.removeProperty( "b" );
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        node.setProperty( "f", "shouldn't be there" );
+        node.removeProperty( "c" );
+        tx.failure();
+        tx.finish();
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( path );
+        node = db.getNodeById( node.getId() );
+        assertEquals( Math.E, node.getProperty( "a" ) );
+        assertNull( node.getProperty( "b", null ) );
+        assertEquals( "short", node.getProperty( "c" ) );
+        assertTrue( Arrays.equals( new int[] { 1, 2, 3, 4 }, (int[]) node.getProperty( "d" ) ) );
+        assertEquals( 5L, node.getProperty( "e" ) );
+        assertNull( node.getProperty( "f", null ) );
+
+        tx = db.beginTx();
+        for ( String key : node.getPropertyKeys() )
+        {
+            node.removeProperty( key );
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( path );
+        assertFalse( db.getNodeById( node.getId() ).getPropertyKeys().iterator().hasNext() );
+        db.shutdown();
+    }
+
+    @Test
+    public void smallPropertiesFillEveryBlockOfARecord()
+    {
+        int properties = writePropertyChains( 10, 12, true );
+        assertEquals( properties / PropertyStore.BLOCKS_PER_RECORD, propStore.getHighId() );
+        reopenStore();
+        long expected = 0;
+        for ( int chain = 0; chain < 10; chain++ )
+        {
+            for ( int i = 0; i < 12; i++ )
+            {
+                expected += chain + i;
+            }
+        }
+        assertEquals( expected, readPropertyChains() );
+    }
+
+    /**
+     * Writes <CODE>chains</CODE> chains of <CODE>properties</CODE> small int
+     * properties, either packed or one property per record, keeping the first
+     * record of each chain in {@link #firstRecords}. Returns the number of
+     * properties written.
+     */
+    private int writePropertyChains( int chains, int properties, boolean packed )
+    {
+        int written = 0;
+        firstRecords = new long[chains];
+        for ( int chain = 0; chain < chains; chain++ )
+        {
+            PropertyRecord record = null;
+            for ( int i = 0; i < properties; i++ )
+            {
+                PropertyBlock block = new PropertyBlock();
+                propStore.encodeValue( block, i, chain + i );
+                int index = record == null || !packed ? -1 :
+                    record.findFreeBlocks( block.getSize() );
+                if ( index == -1 )
+                {
+                    PropertyRecord next = new PropertyRecord( propStore.nextId() );
+                    next.setInUse( true );
+                    if ( record != null )
+                    {
+                        record.setNextProp( next.getId() );
+                        next.setPrevProp( record.getId() );
+                        propStore.updateRecord( record );
+                    }
+                    else
+                    {
+                        firstRecords[chain] = next.getId();
+                    }
+                    record = next;
+                    index = 0;
+                }
+                record.setBlock( index, block );
+                written++;
+            }
+            propStore.updateRecord( record );
+        }
+        return written;
+    }
+
+    private long readPropertyChains()
+    {
+        long sum = 0;
+        for ( long nextProp : firstRecords )
+        {
+            while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+            {
+                PropertyRecord record = propStore.getLightRecord( nextProp );
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    PropertyBlock block = record.getBlock( i );
+                    if ( block != null )
+                    {
+                        sum += (Integer) propStore.getValue( block );
+                    }
+                }
+                nextProp = record.getNextProp();
+            }
+        }
+        return sum;
+    }
+
+    @Ignore( "Benchmark, run manually" )
+    @Test
+    public void coldPropertyChainReads()
+    {
+        int chains = 200000;
+        for ( boolean packed : new boolean[] { false, true } )
+        {
+            closeStore();
+            createStore();
+            writePropertyChains( chains, 12, packed );
+            long records = propStore.getHighId();
+            reopenStore();
+            long time = System.currentTimeMillis();
+            readPropertyChains();
+            time = Math.max( 1, System.currentTimeMillis() - time );
+            System.out.println( ( packed ? "packed" : "one property per record" )
+                + ": " + records + " records, " + ( (long) chains * 12 * 1000 / time )
+                + " properties/s" );
+        }
+    }
+}
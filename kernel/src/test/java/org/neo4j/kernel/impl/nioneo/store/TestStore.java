@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -60,6 +61,26 @@ public class TestStore
         return file( "testStore.db.id" );
     }
     
+    @Test
+    public void testParseMemorySize()
+    {
+        assertEquals( 100, CommonAbstractStore.parseMemorySize( "100" ) );
+        assertEquals( 20 * 1024, CommonAbstractStore.parseMemorySize( "20k" ) );
+        assertEquals( 20 * 1024, CommonAbstractStore.parseMemorySize( "20K" ) );
+        assertEquals( 500L * 1024 * 1024, CommonAbstractStore.parseMemorySize( "500m" ) );
+        assertEquals( 500L * 1024 * 1024, CommonAbstractStore.parseMemorySize( " 500M " ) );
+        assertEquals( 3L * 1024 * 1024 * 1024, CommonAbstractStore.parseMemorySize( "3G" ) );
+        assertEquals( 3L * 1024 * 1024 * 1024, CommonAbstractStore.parseMemorySize( "3g" ) );
+        try
+        {
+            CommonAbstractStore.parseMemorySize( "3T" );
+            fail( "Unknown suffix should throw exception" );
+        }
+        catch ( NumberFormatException e )
+        { // good
+        }
+    }
+
     @Test
     public void testCreateStore() throws IOException
     {
@@ -19,12 +19,15 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
 import static org.neo4j.helpers.collection.MapUtil.stringMap;
 import static org.neo4j.kernel.Config.ALLOW_STORE_UPGRADE;
 import static org.neo4j.kernel.Config.ARRAY_BLOCK_SIZE;
+import static org.neo4j.kernel.Config.DENSE_NODE_THRESHOLD;
 import static org.neo4j.kernel.Config.KEEP_LOGICAL_LOGS;
 import static org.neo4j.kernel.Config.STRING_BLOCK_SIZE;
 import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
@@ -34,6 +37,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -41,6 +45,8 @@ import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.helpers.collection.MapUtil;
@@ -48,6 +54,7 @@ import org.neo4j.kernel.CommonFactories;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.MyRelTypes;
 import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
 
 public class TestUpgradeStore
@@ -234,6 +241,173 @@ public class TestUpgradeStore
         }
     }
     
+    @Test
+    public void makeSureStoreWithOnePropertyPerRecordCanBeUpgraded() throws Exception
+    {
+        String path = path( 15 );
+        Object[] values = { 1, -2L, 1L << 40, Long.MIN_VALUE, 3.5d, 1.25f, true, (byte) 7,
+            (short) -8, 'c', "short", "a string too long to fit in a short string",
+            new long[] { 1, 2, 3, 4, 5 } };
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        long[] nodes = new long[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "key" + i, values[i] );
+            nodes[i] = node.getId();
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setOnePropertyPerRecord( new File( path, "neostore.propertystore.db" ) );
+
+        db = new EmbeddedGraphDatabase( path, stringMap( ALLOW_STORE_UPGRADE, "true" ) );
+        for ( int i = 0; i < values.length; i++ )
+        {
+            assertPropertyEquals( values[i], db.getNodeById( nodes[i] ).getProperty( "key" + i ) );
+        }
+        tx = db.beginTx();
+        Node node = db.getNodeById( nodes[0] );
+        node.setProperty( "other", 10 );
+        node.setProperty( "key0", "changed" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        assertTrue( new File( path, "1.4-logs" ).exists() );
+
+        db = new EmbeddedGraphDatabase( path );
+        node = db.getNodeById( nodes[0] );
+        assertEquals( "changed", node.getProperty( "key0" ) );
+        assertEquals( 10, node.getProperty( "other" ) );
+        assertPropertyEquals( values[1], db.getNodeById( nodes[1] ).getProperty( "key1" ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void makeSureStoreWithOnePropertyPerRecordCantBeUpgradedIfNotExplicitlyToldTo()
+            throws Exception
+    {
+        String path = path( 16 );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        db.getReferenceNode().setProperty( "key", "value" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setOnePropertyPerRecord( new File( path, "neostore.propertystore.db" ) );
+        assertCannotStart( path, "Shouldn't be able to upgrade if not told to" );
+    }
+
+    @Test
+    public void makeSureStoreWithTooBigPropertyKeyIdCannotBeUpgraded() throws Exception
+    {
+        String path = path( 19 );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        db.getReferenceNode().setProperty( "key", "value" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        File file = new File( path, "neostore.propertystore.db" );
+        setOnePropertyPerRecord( file );
+        // key index id of the first record
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.seek( 5 );
+        raf.writeInt( 1 << 24 );
+        raf.close();
+        byte[] before = readFile( file );
+
+        try
+        {
+            db = new EmbeddedGraphDatabase( path, stringMap( ALLOW_STORE_UPGRADE, "true" ) );
+            db.shutdown();
+            fail( "Shouldn't be able to upgrade a key index id that doesn't fit" );
+        }
+        catch ( TransactionFailureException e )
+        {
+            if ( !( e.getCause() instanceof IllegalStoreVersionException ) )
+            {
+                throw e;
+            }
+            assertTrue( e.getCause().getMessage().contains( "key index id" ) );
+        }
+        assertTrue( Arrays.equals( before, readFile( file ) ) );
+    }
+
+    private byte[] readFile( File file ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully( bytes );
+            return bytes;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void makeSureNodeStoreWithoutFlagsCanBeUpgraded() throws Exception
+    {
+        String path = path( 17 );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < 10; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), MyRelTypes.TEST );
+        }
+        hub.setProperty( "key", "value" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setNodeRecordsWithoutFlags( path );
+
+        db = new EmbeddedGraphDatabase( path, stringMap( ALLOW_STORE_UPGRADE, "true",
+            DENSE_NODE_THRESHOLD, "5" ) );
+        hub = db.getNodeById( hub.getId() );
+        assertEquals( "value", hub.getProperty( "key" ) );
+        assertEquals( 10, count( hub.getRelationships() ) );
+        tx = db.beginTx();
+        hub.createRelationshipTo( db.createNode(), MyRelTypes.TEST2 );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        assertTrue( new File( path, "1.4-logs" ).exists() );
+
+        db = new EmbeddedGraphDatabase( path );
+        hub = db.getNodeById( hub.getId() );
+        assertEquals( 10, count( hub.getRelationships( MyRelTypes.TEST ) ) );
+        assertEquals( 1, count( hub.getRelationships( MyRelTypes.TEST2 ) ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void makeSureNodeStoreWithoutFlagsCantBeUpgradedIfNotExplicitlyToldTo()
+            throws Exception
+    {
+        String path = path( 18 );
+        new EmbeddedGraphDatabase( path ).shutdown();
+        setNodeRecordsWithoutFlags( path );
+        assertCannotStart( path, "Shouldn't be able to upgrade if not told to" );
+    }
+
+    private void assertPropertyEquals( Object expected, Object value )
+    {
+        if ( expected.getClass().isArray() )
+        {
+            assertTrue( Arrays.deepEquals( new Object[] { expected }, new Object[] { value } ) );
+        }
+        else
+        {
+            assertEquals( expected, value );
+        }
+    }
+
     private void assertCannotStart( String path, String failMessage )
     {
         GraphDatabaseService db = null;
@@ -285,6 +459,100 @@ public class TestUpgradeStore
         channel.close();
     }
 
+    /**
+     * Rewrites a property store where each record holds a single property,
+     * in block 0, into the one property per record format of
+     * "PropertyStore v0.9.9".
+     */
+    private void setOnePropertyPerRecord( File file ) throws IOException
+    {
+        String oldVersion = "PropertyStore v0.9.9";
+        FileChannel channel = new RandomAccessFile( file, "rw" ).getChannel();
+        // It's the same length as the current version
+        int versionLength = UTF8.encode( oldVersion ).length;
+        int recordCount = (int) ( ( channel.size() - versionLength ) / PropertyStore.RECORD_SIZE );
+        ByteBuffer records = ByteBuffer.allocate( recordCount * PropertyStore.RECORD_SIZE );
+        channel.read( records, 0 );
+        records.flip();
+        ByteBuffer oldRecords = ByteBuffer.allocate( recordCount * 25 + versionLength );
+        for ( int i = 0; i < recordCount; i++ )
+        {
+            byte inUse = records.get();
+            byte nextHighBits = records.get();
+            int prevProp = records.getInt();
+            int nextProp = records.getInt();
+            long header = records.getLong();
+            long second = records.getLong();
+            records.getLong();
+            records.getLong();
+            if ( ( inUse & 0x1 ) == 0 )
+            {
+                oldRecords.put( new byte[25] );
+                continue;
+            }
+            int type = (int) ( ( header >>> 24 ) & 0xF );
+            long payload = header >>> 28;
+            long propBlock;
+            switch ( PropertyType.getPropertyType( type, false ) )
+            {
+            case LONG:
+                propBlock = ( payload & 0x1 ) != 0 ? header >> 29 : second;
+                break;
+            case DOUBLE:
+            case SHORT_STRING:
+                propBlock = second;
+                break;
+            case STRING:
+            case ARRAY:
+                propBlock = payload;
+                break;
+            default:
+                propBlock = (int) payload;
+                break;
+            }
+            oldRecords.put( inUse ).putInt( type | ( nextHighBits << 16 ) )
+                .putInt( (int) ( header & 0xFFFFFF ) ).putLong( propBlock )
+                .putInt( prevProp ).putInt( nextProp );
+        }
+        oldRecords.put( UTF8.encode( oldVersion ) );
+        oldRecords.flip();
+        channel.truncate( 0 );
+        channel.write( oldRecords, 0 );
+        channel.close();
+    }
+
+    /**
+     * Rewrites the node store into the format of "NodeStore v0.9.9", where
+     * records have no flags byte, and removes the relationship group store
+     * that older stores don't have.
+     */
+    private void setNodeRecordsWithoutFlags( String path ) throws IOException
+    {
+        String oldVersion = "NodeStore v0.9.9";
+        FileChannel channel = new RandomAccessFile( new File( path,
+            "neostore.nodestore.db" ), "rw" ).getChannel();
+        int versionLength = UTF8.encode( oldVersion ).length;
+        int recordCount = (int) ( ( channel.size() - versionLength ) / NodeStore.RECORD_SIZE );
+        ByteBuffer records = ByteBuffer.allocate( recordCount * NodeStore.RECORD_SIZE );
+        channel.read( records, 0 );
+        records.flip();
+        ByteBuffer oldRecords = ByteBuffer.allocate( recordCount * 9 + versionLength );
+        for ( int i = 0; i < recordCount; i++ )
+        {
+            byte[] record = new byte[9];
+            records.get( record );
+            records.get();
+            oldRecords.put( record );
+        }
+        oldRecords.put( UTF8.encode( oldVersion ) );
+        oldRecords.flip();
+        channel.truncate( 0 );
+        channel.write( oldRecords, 0 );
+        channel.close();
+        assertTrue( new File( path, "neostore.relationshipgroupstore.db" ).delete() );
+        assertTrue( new File( path, "neostore.relationshipgroupstore.db.id" ).delete() );
+    }
+
     private void setBlockSize( File file, int blockSize, String oldVersionToSet ) throws IOException
     {
         FileChannel channel = new RandomAccessFile( file, "rw" ).getChannel();
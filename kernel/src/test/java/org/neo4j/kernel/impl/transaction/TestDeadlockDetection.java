@@ -19,9 +19,13 @@
  */
 package org.neo4j.kernel.impl.transaction;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 import org.neo4j.kernel.DeadlockDetectedException;
 
@@ -492,4 +496,68 @@ public class TestDeadlockDetection
         }
         StressThread.go = true;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDeadlockDetectedWhenCycleIsClosedConcurrently()
+        throws Exception
+    {
+        final LockManager lockManager = new LockManager( new PlaceboTm() );
+        final Object[] resources = new Object[] {
+            new ResourceObject( "RA" ), new ResourceObject( "RB" ) };
+        final CyclicBarrier barrier = new CyclicBarrier( 2 );
+        final AtomicInteger deadlocks = new AtomicInteger();
+        final int rounds = 200;
+        Thread[] threads = new Thread[2];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final Object mine = resources[i];
+            final Object other = resources[1 - i];
+            threads[i] = new Thread( "T" + i )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int round = 0; round < rounds; round++ )
+                        {
+                            lockManager.getWriteLock( mine );
+                            barrier.await();
+                            try
+                            {
+                                lockManager.getWriteLock( other );
+                                lockManager.releaseWriteLock( other, null );
+                            }
+                            catch ( DeadlockDetectedException e )
+                            {
+                                deadlocks.incrementAndGet();
+                            }
+                            finally
+                            {
+                                lockManager.releaseWriteLock( mine, null );
+                            }
+                            barrier.await();
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+            threads[i].setDaemon( true );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join( 60000 );
+            assertFalse( "Undetected deadlock", thread.isAlive() );
+        }
+        // both threads hold one lock and wait for the other in every round
+        assertTrue( deadlocks.get() >= rounds );
+        assertTrue( lockManager.getDetectedDeadlockCount() >= rounds );
+    }
+}
@@ -154,6 +154,29 @@ public class TestJtaCompliance extends AbstractNeo4jTestCase
         }
     }
 
+    /**
+     * o Tests that a transaction with a single resource isn't written to the
+     * tx log at all. o Tests that enlisting a second resource writes the start
+     * record and both branches.
+     */
+    @Test
+    public void testOnlyMultipleResourceTransactionsWrittenToTxLog() throws Exception
+    {
+        TxLog txLog = ((TxManager) tm).getTxLog();
+        int recordCount = txLog.getRecordCount();
+        tm.begin();
+        tm.getTransaction().enlistResource( new FakeXAResource( "XAResource1" ) );
+        tm.commit();
+        assertEquals( recordCount, txLog.getRecordCount() );
+
+        tm.begin();
+        tm.getTransaction().enlistResource( new FakeXAResource( "XAResource1" ) );
+        tm.getTransaction().enlistResource( new FakeXAResource( "XAResource2" ) );
+        tm.commit();
+        // start, two branches, mark as committing and done
+        assertEquals( recordCount + 5, txLog.getRecordCount() );
+    }
+
     /**
      * o Tests that after rollback is invoked the transaction is completed and a
      * repeating call to rollback/commit results in an exception.
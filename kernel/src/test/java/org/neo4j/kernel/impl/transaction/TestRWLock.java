@@ -19,11 +19,20 @@
  */
 package org.neo4j.kernel.impl.transaction;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Ignore;
 import org.junit.Test;
 import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.LockTimeoutException;
 
 public class TestRWLock
 {
@@ -553,4 +562,231 @@ public class TestRWLock
         }
         go = true;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLockingDistinctResourcesFromManyThreads() throws Exception
+    {
+        final LockManager lockManager = new LockManager( new PlaceboTm() );
+        assertNull( lockConcurrently( lockManager, 8, 5000, 10 ) );
+        // all locks released, so every resource can be write locked again
+        for ( long resource = 0; resource < 8 * 10; resource++ )
+        {
+            lockManager.getWriteLock( resource );
+            lockManager.releaseWriteLock( resource, null );
+        }
+    }
+
+    @Test
+    public void testLockWaitsAreCounted() throws Exception
+    {
+        final LockManager lockManager = new LockManager( new PlaceboTm() );
+        final ResourceObject resource = new ResourceObject( "R" );
+        LockStatistics statistics = lockManager.getLockStatistics();
+        lockManager.getWriteLock( resource );
+        lockManager.releaseWriteLock( resource, null );
+        assertEquals( 0, statistics.getWaits( LockStatistics.ResourceKind.OTHER ) );
+
+        lockManager.getWriteLock( resource );
+        Thread waiter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                lockManager.getWriteLock( resource );
+                lockManager.releaseWriteLock( resource, null );
+            }
+        };
+        waiter.start();
+        Thread.sleep( 200 );
+        lockManager.releaseWriteLock( resource, null );
+        waiter.join();
+
+        assertEquals( 1, statistics.getWaits( LockStatistics.ResourceKind.OTHER ) );
+        assertEquals( 0, statistics.getWaits( LockStatistics.ResourceKind.NODE ) );
+        assertTrue( statistics.getAverageWaitTime(
+            LockStatistics.ResourceKind.OTHER ) > 0 );
+        long histogramSum = 0;
+        for ( long count : statistics.getWaitTimeHistogram(
+            LockStatistics.ResourceKind.OTHER ) )
+        {
+            histogramSum += count;
+        }
+        assertEquals( 1, histogramSum );
+        assertEquals( "R", statistics.getMostContended( 1 ).get( 0 ).getResource() );
+        statistics.reset();
+        assertEquals( 0, statistics.getWaits( LockStatistics.ResourceKind.OTHER ) );
+        assertTrue( statistics.getMostContended( 1 ).isEmpty() );
+    }
+
+    @Test
+    public void testTryLockGivesUpWhenLockIsTaken() throws Exception
+    {
+        final LockManager lockManager = new LockManager( new PlaceboTm() );
+        final ResourceObject resource = new ResourceObject( "R" );
+        lockManager.getWriteLock( resource );
+        final boolean[] acquired = new boolean[4];
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                acquired[0] = lockManager.tryWriteLock( resource, 0 );
+                acquired[1] = lockManager.tryReadLock( resource, 50 );
+                lockManager.setLockTimeout( 50 );
+                try
+                {
+                    lockManager.getWriteLock( resource );
+                    acquired[2] = true;
+                }
+                catch ( LockTimeoutException e )
+                {
+                    // good
+                }
+            }
+        };
+        other.start();
+        other.join();
+        lockManager.setLockTimeout( LockManager.NO_TIMEOUT );
+        assertFalse( acquired[0] );
+        assertFalse( acquired[1] );
+        assertFalse( acquired[2] );
+        // the given up requests didn't leave anything behind in the queue
+        lockManager.releaseWriteLock( resource, null );
+        other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                acquired[3] = lockManager.tryWriteLock( resource, 0 );
+                lockManager.releaseWriteLock( resource, null );
+            }
+        };
+        other.start();
+        other.join();
+        assertTrue( acquired[3] );
+    }
+
+    @Test
+    public void testMostContendedSketchIsBounded()
+    {
+        LockStatistics statistics = new LockStatistics( 4 );
+        // "hot" is waited on more than a fourth of the times, that makes
+        // it certain to stay in a sketch of four
+        for ( int i = 0; i < 100; i++ )
+        {
+            statistics.waited( "cold" + i, 0 );
+            if ( i % 2 == 0 )
+            {
+                statistics.waited( "hot", 0 );
+            }
+        }
+        List<LockStatistics.Contention> contended = statistics.getMostContended( 10 );
+        assertEquals( 4, contended.size() );
+        assertEquals( "hot", contended.get( 0 ).getResource() );
+        assertTrue( contended.get( 0 ).getWaits() >= 50 );
+    }
+
+    @Test
+    public void testConcurrentWaitsAreAllCounted() throws Exception
+    {
+        final LockStatistics statistics = new LockStatistics( 16 );
+        final int waitsPerThread = 10000;
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int w = 0; w < waitsPerThread; w++ )
+                    {
+                        statistics.waited( "resource" + ( w % 16 ), 0 );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( threads.length * waitsPerThread,
+            statistics.getWaits( LockStatistics.ResourceKind.OTHER ) );
+        List<LockStatistics.Contention> contended = statistics.getMostContended( 20 );
+        assertEquals( 16, contended.size() );
+        for ( LockStatistics.Contention contention : contended )
+        {
+            assertEquals( threads.length * waitsPerThread / 16, contention.getWaits() );
+            assertEquals( 0, contention.getError() );
+        }
+    }
+
+    @Ignore( "Benchmark, run manually" )
+    @Test
+    public void lockThroughput() throws Exception
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 4;
+        for ( int stripes : new int[] { 1, 64 } )
+        {
+            for ( int threads = 1; threads <= maxThreads; threads *= 2 )
+            {
+                LockManager lockManager = new LockManager( new PlaceboTm(), stripes );
+                int locksPerThread = 1000000;
+                long time = System.currentTimeMillis();
+                assertNull( lockConcurrently( lockManager, threads, locksPerThread, 100 ) );
+                time = Math.max( 1, System.currentTimeMillis() - time );
+                System.out.println( stripes + " stripes, " + threads + " threads: "
+                    + ( (long) locksPerThread * threads * 1000 / time ) + " lock/unlock/s" );
+            }
+        }
+    }
+
+    private Throwable lockConcurrently( final LockManager lockManager, int threadCount,
+        final int locksPerThread, final int resourcesPerThread ) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final long firstResource = (long) i * resourcesPerThread;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < locksPerThread; i++ )
+                        {
+                            Long resource = firstResource + i % resourcesPerThread;
+                            if ( i % 2 == 0 )
+                            {
+                                lockManager.getWriteLock( resource );
+                                lockManager.releaseWriteLock( resource, null );
+                            }
+                            else
+                            {
+                                lockManager.getReadLock( resource );
+                                lockManager.releaseReadLock( resource, null );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        return failure.get();
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+public class TestGroupCommit
+{
+    private static final String PATH = getStorePath( "group-commit" );
+
+    @Before
+    public void clear()
+    {
+        deleteFileOrDirectory( new File( PATH ) );
+    }
+
+    private EmbeddedGraphDatabase newDb( boolean groupCommit )
+    {
+        return new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.GROUP_COMMIT, "" + groupCommit ) );
+    }
+
+    private static XaDataSource neoDataSource( EmbeddedGraphDatabase db )
+    {
+        return db.getConfig().getTxModule().getXaDataSourceManager().getXaDataSource(
+                "nioneodb" );
+    }
+
+    @Test
+    public void concurrentCommitsAreAllAppliedInOrder() throws Exception
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        long lastTxBefore = neoDataSource( db ).getLastCommittedTxId();
+        int threads = 8;
+        int txPerThread = 200;
+        assertNull( commitConcurrently( db, threads, txPerThread ) );
+        assertEquals( lastTxBefore + threads * txPerThread,
+                neoDataSource( db ).getLastCommittedTxId() );
+        db.shutdown();
+
+        db = newDb( false );
+        assertEquals( lastTxBefore + threads * txPerThread,
+                neoDataSource( db ).getLastCommittedTxId() );
+        int nodes = 0;
+        for ( Node node : db.getAllNodes() )
+        {
+            if ( node.hasProperty( "thread" ) )
+            {
+                nodes++;
+            }
+        }
+        assertEquals( threads * txPerThread, nodes );
+        db.shutdown();
+    }
+
+    @Test
+    public void groupCommitWaitsForBatchToFillUp() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.GROUP_COMMIT, "true", Config.GROUP_COMMIT_MAX_WAIT, "5",
+                Config.GROUP_COMMIT_MAX_BATCH, "4" ) );
+        long lastTxBefore = neoDataSource( db ).getLastCommittedTxId();
+        assertNull( commitConcurrently( db, 4, 50 ) );
+        assertEquals( lastTxBefore + 4 * 50, neoDataSource( db ).getLastCommittedTxId() );
+        db.shutdown();
+    }
+
+    @Ignore( "Benchmark, run manually" )
+    @Test
+    public void smallTransactionCommitThroughput() throws Exception
+    {
+        for ( boolean groupCommit : new boolean[] { false, true } )
+        {
+            for ( int threads = 1; threads <= 32; threads *= 2 )
+            {
+                clear();
+                EmbeddedGraphDatabase db = newDb( groupCommit );
+                int txPerThread = 2000 / threads;
+                long time = System.currentTimeMillis();
+                assertNull( commitConcurrently( db, threads, txPerThread ) );
+                time = Math.max( 1, System.currentTimeMillis() - time );
+                System.out.println( "group_commit=" + groupCommit + ", " + threads
+                        + " threads: " + ( (long) txPerThread * threads * 1000 / time )
+                        + " tx/s" );
+                db.shutdown();
+            }
+        }
+    }
+
+    private Throwable commitConcurrently( final EmbeddedGraphDatabase db,
+            int threadCount, final int txPerThread ) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final int thread = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int t = 0; t < txPerThread; t++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                db.createNode().setProperty( "thread", thread );
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        return failure.get();
+    }
+}
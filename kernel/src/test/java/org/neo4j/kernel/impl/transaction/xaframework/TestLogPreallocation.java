@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.copyLogicalLog;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.renameCopiedLogicalLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.DbRepresentation;
+
+public class TestLogPreallocation
+{
+    private static final int TARGET_SIZE = 20000;
+
+    private String storeDir;
+
+    @Before
+    public void clearStore()
+    {
+        storeDir = getStorePath( "log-preallocation" );
+        deleteFileOrDirectory( storeDir );
+    }
+
+    @Test
+    public void rotatesIntoPreparedLogAndKeepsOldLogsReadable() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir,
+            stringMap( Config.KEEP_LOGICAL_LOGS, "true" ) );
+        XaDataSource ds = dataSource( db );
+        createData( db );
+        assertTrue( ds.getCurrentLogVersion() > 2 );
+        assertTrue( "next log wasn't preallocated",
+            activeLog().length() >= TARGET_SIZE );
+        for ( long txId = 2; txId <= ds.getLastCommittedTxId(); txId++ )
+        {
+            assertNotNull( ds.getCommittedTransaction( txId ) );
+        }
+        DbRepresentation committed = DbRepresentation.of( db );
+        db.shutdown();
+
+        assertNoUnusedLogs();
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( committed, DbRepresentation.of( db ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void deletesOldLogsWhenNotKept() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        XaDataSource ds = dataSource( db );
+        createData( db );
+        assertTrue( ds.getCurrentLogVersion() > 2 );
+        assertFalse( ds.hasLogicalLog( 0 ) );
+        DbRepresentation committed = DbRepresentation.of( db );
+        db.shutdown();
+
+        assertNoUnusedLogs();
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( committed, DbRepresentation.of( db ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void recoversFromPreallocatedLog() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        createData( db );
+        assertTrue( activeLog().length() >= TARGET_SIZE );
+        DbRepresentation committed = DbRepresentation.of( db );
+        copyLogicalLog( storeDir );
+        db.shutdown();
+        renameCopiedLogicalLog( storeDir );
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( committed, DbRepresentation.of( db ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void recoveryLeavesZeroedTailOfPreallocatedLogAsItIs() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        createData( db );
+        DbRepresentation committed = DbRepresentation.of( db );
+        copyLogicalLog( storeDir );
+        db.shutdown();
+        renameCopiedLogicalLog( storeDir );
+
+        // a marker past a block of zeros can't be part of a broken entry,
+        // recovery shouldn't have to rewrite that far
+        File log = activeLog();
+        RandomAccessFile file = new RandomAccessFile( log, "rw" );
+        long markerPosition;
+        try
+        {
+            markerPosition = lastNonZeroByte( file ) + 1
+                + 2 * DirectMappedLogBuffer.BUFFER_SIZE;
+            file.seek( markerPosition );
+            file.writeLong( -1 );
+        }
+        finally
+        {
+            file.close();
+        }
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( committed, DbRepresentation.of( db ) );
+        file = new RandomAccessFile( log, "r" );
+        try
+        {
+            file.seek( markerPosition );
+            assertEquals( -1, file.readLong() );
+        }
+        finally
+        {
+            file.close();
+        }
+        db.shutdown();
+    }
+
+    @Test
+    public void rotatesWithoutPreallocation() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir,
+            stringMap( Config.LOGICAL_LOG_PREALLOCATION, "false" ) );
+        XaDataSource ds = dataSource( db );
+        createData( db );
+        assertTrue( ds.getCurrentLogVersion() > 2 );
+        assertTrue( activeLog().length() < TARGET_SIZE );
+        DbRepresentation committed = DbRepresentation.of( db );
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( committed, DbRepresentation.of( db ) );
+        db.shutdown();
+    }
+
+    private XaDataSource dataSource( EmbeddedGraphDatabase db )
+    {
+        XaDataSource ds = db.getConfig().getTxModule().getXaDataSourceManager()
+            .getXaDataSource( "nioneodb" );
+        ds.setLogicalLogTargetSize( TARGET_SIZE );
+        return ds;
+    }
+
+    private void createData( EmbeddedGraphDatabase db )
+    {
+        for ( int i = 0; i < 300; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node number " + i );
+                db.getReferenceNode().setProperty( "count", i );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+
+    private long lastNonZeroByte( RandomAccessFile file ) throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        file.seek( 0 );
+        file.readFully( bytes );
+        int position = bytes.length - 1;
+        while ( position >= 0 && bytes[position] == 0 )
+        {
+            position--;
+        }
+        return position;
+    }
+
+    private File activeLog()
+    {
+        File log1 = new File( storeDir, "nioneo_logical.log.1" );
+        File log2 = new File( storeDir, "nioneo_logical.log.2" );
+        assertTrue( log1.exists() != log2.exists() );
+        return log1.exists() ? log1 : log2;
+    }
+
+    private void assertNoUnusedLogs()
+    {
+        assertFalse( new File( storeDir, "nioneo_logical.log.1" ).exists() );
+        assertFalse( new File( storeDir, "nioneo_logical.log.2" ).exists() );
+    }
+}
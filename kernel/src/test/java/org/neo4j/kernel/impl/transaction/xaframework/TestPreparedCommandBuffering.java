@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.transaction.XidImpl;
+
+public class TestPreparedCommandBuffering
+{
+    private XaContainer container;
+    private XaLogicalLog log;
+    private File dir;
+
+    @Before
+    public void openLog() throws IOException
+    {
+        dir = new File( AbstractNeo4jTestCase.getStorePath( "command-buffering" ) );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( dir );
+        dir.mkdirs();
+        Map<Object,Object> config = new HashMap<Object,Object>();
+        config.put( LogBufferFactory.class, CommonFactories.defaultLogBufferFactory() );
+        container = XaContainer.create( null, new File( dir, "log" ).getPath(),
+            new IntCommandFactory(), new PreparingTransactionFactory(), config );
+        container.openLogicalLog();
+        log = container.getLogicalLog();
+    }
+
+    @After
+    public void closeLog()
+    {
+        container.close();
+    }
+
+    @Test
+    public void commandsAddedDuringPrepareEndUpInTheLog() throws Exception
+    {
+        assertPreparedCommands( 10 );
+    }
+
+    @Test
+    public void commandsBeyondTheBufferSizeEndUpInTheLog() throws Exception
+    {
+        // each command entry takes 9 bytes
+        assertPreparedCommands( XaTransaction.COMMAND_BUFFER_FLUSH_SIZE / 3 );
+    }
+
+    @Test
+    public void inMemoryLogBufferCanBeWrittenToAnotherBuffer() throws Exception
+    {
+        InMemoryLogBuffer source = new InMemoryLogBuffer();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            source.putInt( i );
+        }
+        assertEquals( 4000, source.size() );
+        InMemoryLogBuffer target = new InMemoryLogBuffer();
+        source.writeTo( target );
+        source.reset();
+        assertEquals( 0, source.size() );
+        source.putInt( 1000 );
+        source.writeTo( target );
+        ByteBuffer read = ByteBuffer.allocate( 4004 );
+        target.read( read );
+        read.flip();
+        for ( int i = 0; i <= 1000; i++ )
+        {
+            assertEquals( i, read.getInt() );
+        }
+    }
+
+    private void assertPreparedCommands( int count ) throws Exception
+    {
+        int identifier = log.start( new XidImpl( new byte[] { 1, (byte) count },
+            new byte[] { 2 } ) );
+        PreparingTransaction tx = (PreparingTransaction)
+            container.getTransactionFactory().create( identifier );
+        tx.commandsToAddInPrepare = count;
+        tx.addCommand( new IntCommand( -1 ) );
+        tx.prepare();
+        log.prepare( identifier );
+
+        ReadableByteChannel channel = log.getPreparedTransaction( identifier );
+        ByteBuffer buffer = ByteBuffer.allocate( 1024 );
+        LogEntry entry = null;
+        int expected = -1;
+        while ( (entry = LogIoUtils.readEntry( buffer, channel,
+            container.getCommandFactory() )) != null )
+        {
+            if ( entry instanceof LogEntry.Command )
+            {
+                IntCommand command = (IntCommand) ((LogEntry.Command) entry).getXaCommand();
+                assertEquals( expected++, command.value );
+            }
+        }
+        assertEquals( count, expected );
+        assertTrue( tx.prepared );
+    }
+
+    private static class IntCommand extends XaCommand
+    {
+        private final int value;
+
+        IntCommand( int value )
+        {
+            this.value = value;
+        }
+
+        @Override
+        public void execute()
+        {
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            buffer.putInt( value );
+        }
+    }
+
+    private static class IntCommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel byteChannel,
+            ByteBuffer buffer ) throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 4 );
+            if ( byteChannel.read( buffer ) == 4 )
+            {
+                buffer.flip();
+                return new IntCommand( buffer.getInt() );
+            }
+            return null;
+        }
+    }
+
+    private static class PreparingTransaction extends XaTransaction
+    {
+        private int commandsToAddInPrepare;
+        private boolean prepared;
+
+        PreparingTransaction( int identifier, XaLogicalLog log )
+        {
+            super( identifier, log );
+        }
+
+        @Override
+        protected void doAddCommand( XaCommand command )
+        {
+        }
+
+        @Override
+        protected void doPrepare()
+        {
+            for ( int i = 0; i < commandsToAddInPrepare; i++ )
+            {
+                addCommand( new IntCommand( i ) );
+            }
+            prepared = true;
+        }
+
+        @Override
+        protected void doRollback()
+        {
+        }
+
+        @Override
+        protected void doCommit()
+        {
+        }
+
+        @Override
+        public boolean isReadOnly()
+        {
+            return false;
+        }
+    }
+
+    private static class PreparingTransactionFactory extends XaTransactionFactory
+    {
+        @Override
+        public XaTransaction create( int identifier )
+        {
+            return new PreparingTransaction( identifier, getLogicalLog() );
+        }
+
+        @Override
+        public void flushAll()
+        {
+        }
+
+        @Override
+        public long getAndSetNewVersion()
+        {
+            return -1;
+        }
+
+        @Override
+        public long getCurrentVersion()
+        {
+            return 0;
+        }
+
+        @Override
+        public long getLastCommittedTx()
+        {
+            return 0;
+        }
+    }
+}
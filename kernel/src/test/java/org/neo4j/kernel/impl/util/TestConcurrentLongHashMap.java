@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestConcurrentLongHashMap
+{
+    @Test
+    public void putGetAndRemove()
+    {
+        ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+        assertNull( map.put( 5, "five" ) );
+        assertEquals( "five", map.putIfAbsent( 5, "fem" ) );
+        assertEquals( "five", map.put( 5, "fem" ) );
+        assertEquals( "fem", map.get( 5 ) );
+        assertFalse( map.remove( 5, "five" ) );
+        assertTrue( map.remove( 5, "fem" ) );
+        assertNull( map.get( 5 ) );
+        assertTrue( map.isEmpty() );
+        for ( long i = 0; i < 10000; i++ )
+        {
+            map.put( i, "v" + i );
+        }
+        assertEquals( 10000, map.size() );
+        Set<Long> keys = new HashSet<Long>();
+        for ( Long key : map.keySet() )
+        {
+            keys.add( key );
+        }
+        assertEquals( 10000, keys.size() );
+        map.clear();
+        assertEquals( 0, map.size() );
+    }
+
+    @Test
+    public void concurrentUpdatesOfDisjointKeys() throws Exception
+    {
+        final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>( 16, 4 );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int perThread = 20000;
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final long offset = t * perThread;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( long i = offset; i < offset + perThread; i++ )
+                        {
+                            map.put( i, i );
+                            if ( i % 2 == 0 )
+                            {
+                                map.remove( i );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertNull( failure.get() );
+        assertEquals( threads.length * perThread / 2, map.size() );
+        for ( long i = 0; i < threads.length * perThread; i++ )
+        {
+            assertEquals( i % 2 == 0 ? null : Long.valueOf( i ), map.get( i ) );
+        }
+    }
+
+    @Test
+    public void readersTerminateWhileKeysAreAddedAndRemoved() throws Exception
+    {
+        final ConcurrentLongHashMap<Object> map = new ConcurrentLongHashMap<Object>( 4, 1 );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final Random random = new Random( t );
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Object value = new Object();
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < 200000; i++ )
+                        {
+                            long key = random.nextInt( 100 );
+                            map.get( key );
+                            if ( map.putIfAbsent( key, value ) == null )
+                            {
+                                assertTrue( map.remove( key, value ) );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join( 60000 );
+            assertFalse( "Stuck reading the map", thread.isAlive() );
+        }
+        assertNull( failure.get() );
+        assertTrue( map.isEmpty() );
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestLongHashMap
+{
+    @Test
+    public void putGetAndRemove()
+    {
+        LongHashMap<String> map = new LongHashMap<String>();
+        assertTrue( map.isEmpty() );
+        assertNull( map.put( 0, "zero" ) );
+        assertNull( map.put( 1, "one" ) );
+        assertEquals( "one", map.put( 1, "uno" ) );
+        assertEquals( 2, map.size() );
+        assertEquals( "zero", map.get( 0 ) );
+        assertEquals( "uno", map.get( 1 ) );
+        assertNull( map.get( 2 ) );
+        assertTrue( map.containsKey( 0 ) );
+        assertEquals( "zero", map.remove( 0 ) );
+        assertFalse( map.containsKey( 0 ) );
+        assertNull( map.remove( 0 ) );
+        assertEquals( 1, map.size() );
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertNull( map.get( 1 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void negativeKeysAreNotAllowed()
+    {
+        new LongHashMap<String>().put( -1, "minus one" );
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomUpdates()
+    {
+        Random random = new Random( 1234 );
+        LongHashMap<Long> map = new LongHashMap<Long>( 4 );
+        Map<Long,Long> expected = new HashMap<Long,Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 5000 );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( key ), map.remove( key ) );
+            }
+            else
+            {
+                Long value = Long.valueOf( i );
+                assertEquals( expected.put( key, value ), map.put( key, value ) );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        Set<Long> keys = new HashSet<Long>();
+        for ( LongIterator itr = map.keys(); itr.hasNext(); )
+        {
+            long key = itr.next();
+            assertTrue( keys.add( key ) );
+            assertEquals( expected.get( key ), map.get( key ) );
+        }
+        assertEquals( expected.keySet(), keys );
+        int values = 0;
+        for ( Long value : map.values() )
+        {
+            assertTrue( expected.containsValue( value ) );
+            values++;
+        }
+        assertEquals( expected.size(), values );
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class TestLongHashSet
+{
+    @Test
+    public void addContainsAndRemove()
+    {
+        LongHashSet set = new LongHashSet();
+        assertTrue( set.add( 3 ) );
+        assertFalse( set.add( 3 ) );
+        assertTrue( set.add( 0 ) );
+        assertTrue( set.contains( 3 ) );
+        assertFalse( set.contains( 4 ) );
+        assertEquals( 2, set.size() );
+        assertTrue( set.remove( 3 ) );
+        assertFalse( set.remove( 3 ) );
+        assertFalse( set.contains( 3 ) );
+        long[] values = set.toArray();
+        assertTrue( Arrays.equals( new long[] { 0 }, values ) );
+        set.clear();
+        assertTrue( set.isEmpty() );
+    }
+
+    @Test
+    public void behavesLikeHashSetUnderRandomUpdates()
+    {
+        Random random = new Random( 4321 );
+        LongHashSet set = new LongHashSet( 4 );
+        Set<Long> expected = new HashSet<Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long value = random.nextInt( 5000 );
+            if ( random.nextBoolean() )
+            {
+                assertEquals( expected.remove( value ), set.remove( value ) );
+            }
+            else
+            {
+                assertEquals( expected.add( value ), set.add( value ) );
+            }
+        }
+        assertEquals( expected.size(), set.size() );
+        int count = 0;
+        for ( LongIterator itr = set.iterator(); itr.hasNext(); count++ )
+        {
+            assertTrue( expected.contains( itr.next() ) );
+        }
+        assertEquals( expected.size(), count );
+    }
+
+    @Ignore( "Benchmark, run manually" )
+    @Test
+    public void compareWithBoxedHashSet()
+    {
+        int ids = 2000000;
+        for ( int round = 0; round < 5; round++ )
+        {
+            System.gc();
+            long memory = usedMemory();
+            long time = System.currentTimeMillis();
+            Set<Long> boxed = new HashSet<Long>();
+            for ( long id = 0; id < ids; id++ )
+            {
+                boxed.add( id * 7 );
+            }
+            for ( long id = 0; id < ids; id++ )
+            {
+                boxed.contains( id * 3 );
+            }
+            System.out.println( "HashSet<Long>: "
+                + ( System.currentTimeMillis() - time ) + "ms, "
+                + ( usedMemory() - memory ) / 1024 + "kB" );
+            boxed = null;
+
+            System.gc();
+            memory = usedMemory();
+            time = System.currentTimeMillis();
+            LongHashSet primitive = new LongHashSet();
+            for ( long id = 0; id < ids; id++ )
+            {
+                primitive.add( id * 7 );
+            }
+            for ( long id = 0; id < ids; id++ )
+            {
+                primitive.contains( id * 3 );
+            }
+            System.out.println( "LongHashSet:   "
+                + ( System.currentTimeMillis() - time ) + "ms, "
+                + ( usedMemory() - memory ) / 1024 + "kB" );
+            primitive = null;
+        }
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
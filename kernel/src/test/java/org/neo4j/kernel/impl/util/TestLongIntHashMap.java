@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongIntHashMap
+{
+    @Test
+    public void incrementAndGet()
+    {
+        LongIntHashMap map = new LongIntHashMap();
+        assertTrue( map.isEmpty() );
+        assertEquals( 0, map.get( 7 ) );
+        assertEquals( 1, map.increment( 7 ) );
+        assertEquals( 2, map.increment( 7 ) );
+        assertEquals( 1, map.increment( 0 ) );
+        assertEquals( 2, map.get( 7 ) );
+        assertEquals( 1, map.get( 0 ) );
+        assertEquals( 2, map.size() );
+    }
+
+    @Test
+    public void countsLikeHashMapWhenGrowing()
+    {
+        Random random = new Random( 1234 );
+        LongIntHashMap map = new LongIntHashMap( 4 );
+        Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 10000 );
+            Integer count = expected.get( key );
+            expected.put( key, count == null ? 1 : count + 1 );
+            assertEquals( (int) expected.get( key ), map.increment( key ) );
+        }
+        assertEquals( expected.size(), map.size() );
+        int keys = 0;
+        for ( LongIterator itr = map.keys(); itr.hasNext(); keys++ )
+        {
+            long key = itr.next();
+            assertEquals( (int) expected.get( key ), map.get( key ) );
+        }
+        assertEquals( expected.size(), keys );
+    }
+}
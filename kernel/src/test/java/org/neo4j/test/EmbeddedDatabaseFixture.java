@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.test;
+
+import java.util.Map;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+/**
+ * An {@link EmbeddedGraphDatabase} for the tests of a test class, in the
+ * <CODE>graph-db</CODE> directory of its {@link TargetDirectory}. Call
+ * {@link #create()} from a <CODE>@Before</CODE> method and
+ * {@link #shutdown()} from an <CODE>@After</CODE> method, the tests can then
+ * {@link #restart()} the database on the same store, with other
+ * configuration if they need to.
+ */
+public class EmbeddedDatabaseFixture
+{
+    private final TargetDirectory target;
+    private final Map<String,String> config;
+    private String storeDir;
+    private EmbeddedGraphDatabase db;
+
+    public EmbeddedDatabaseFixture( Class<?> owningTest )
+    {
+        this( owningTest, null );
+    }
+
+    /**
+     * @param config the configuration the database is started with, or
+     * <CODE>null</CODE> for the defaults.
+     */
+    public EmbeddedDatabaseFixture( Class<?> owningTest, Map<String,String> config )
+    {
+        this.target = TargetDirectory.forTest( owningTest );
+        this.config = config;
+    }
+
+    /**
+     * Starts the database on an empty store.
+     */
+    public EmbeddedGraphDatabase create()
+    {
+        shutdown();
+        storeDir = target.graphDbDir( true ).getPath();
+        return restart();
+    }
+
+    /**
+     * Shuts the database down if it is running and starts it again on the
+     * same store.
+     */
+    public EmbeddedGraphDatabase restart()
+    {
+        return restart( config );
+    }
+
+    /**
+     * Shuts the database down if it is running and starts it again on the
+     * same store with <CODE>config</CODE> rather than the configuration of
+     * this fixture, <CODE>null</CODE> for the defaults.
+     */
+    public EmbeddedGraphDatabase restart( Map<String,String> config )
+    {
+        shutdown();
+        db = config == null ? new EmbeddedGraphDatabase( storeDir )
+            : new EmbeddedGraphDatabase( storeDir, config );
+        return db;
+    }
+
+    /**
+     * Shuts the database down if it is running.
+     */
+    public void shutdown()
+    {
+        if ( db != null )
+        {
+            db.shutdown();
+            db = null;
+        }
+    }
+
+    public String getStoreDir()
+    {
+        return storeDir;
+    }
+
+    /**
+     * @return the running database, <CODE>null</CODE> if it is shut down.
+     */
+    public EmbeddedGraphDatabase getGraphDb()
+    {
+        return db;
+    }
+
+    public NodeManager getNodeManager()
+    {
+        return db.getConfig().getGraphDbModule().getNodeManager();
+    }
+
+    /**
+     * Clears the node and relationship caches so that the next reads go to
+     * the store.
+     */
+    public void clearCache()
+    {
+        getNodeManager().clearCache();
+    }
+}
@@ -50,7 +50,7 @@ public abstract class DatabasePrimitivesSampleableBase implements Sampleable
     {
         try
         {
-            return (Long) mbeanServer.getAttribute( getObjectName(), getJmxAttributeName() );
+            return ( (Number) mbeanServer.getAttribute( getObjectName(), getJmxAttributeName() ) ).longValue();
         }
         catch ( UnsupportedOperationException e )
         {
@@ -81,12 +81,17 @@ public abstract class DatabasePrimitivesSampleableBase implements Sampleable
 
     protected abstract String getJmxAttributeName();
 
+    protected String getJmxBeanName()
+    {
+        return Primitives.NAME;
+    }
+
     protected ObjectName getObjectName() throws MalformedObjectNameException, NullPointerException
     {
         ObjectName neoQuery = database.graph.getManagementBean( Kernel.class )
                 .getMBeanQuery();
         String instance = neoQuery.getKeyProperty( "instance" );
         String baseName = neoQuery.getDomain() + ":instance=" + instance + ",name=";
-        return new ObjectName( baseName + Primitives.NAME );
+        return new ObjectName( baseName + getJmxBeanName() );
     }
 }
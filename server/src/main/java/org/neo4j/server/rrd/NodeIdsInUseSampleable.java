@@ -38,6 +38,6 @@ public class NodeIdsInUseSampleable extends DatabasePrimitivesSampleableBase
 
     protected String getJmxAttributeName()
     {
-        return "NumberOfNodeIdsInUse";
+        return "NumberOfNodes";
     }
 }
@@ -39,6 +39,6 @@ public class PropertyCountSampleable extends DatabasePrimitivesSampleableBase
     @Override
     protected String getJmxAttributeName()
     {
-        return "NumberOfPropertyIdsInUse";
+        return "NumberOfProperties";
     }
 }
@@ -39,6 +39,6 @@ public class RelationshipCountSampleable extends DatabasePrimitivesSampleableBas
     @Override
     protected String getJmxAttributeName()
     {
-        return "NumberOfRelationshipIdsInUse";
+        return "NumberOfRelationships";
     }
 }
@@ -21,6 +21,8 @@ package org.neo4j.server.rrd;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.management.MalformedObjectNameException;
 
@@ -31,8 +33,10 @@ import org.neo4j.server.database.Database;
 import org.neo4j.server.logging.Logger;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.DsType;
+import org.rrd4j.core.DsDef;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdToolkit;
 
 public class RrdFactory
 {
@@ -53,7 +57,8 @@ public class RrdFactory
             IOException
     {
         Sampleable[] sampleables = new Sampleable[] { new MemoryUsedSampleable(), new NodeIdsInUseSampleable( db ),
-                new PropertyCountSampleable( db ), new RelationshipCountSampleable( db ) };
+                new PropertyCountSampleable( db ), new RelationshipCountSampleable( db ),
+                new NodeCacheHitRatioSampleable( db ), new RelationshipCacheHitRatioSampleable( db ) };
 
         String basePath = config.getString( Configurator.RRDB_LOCATION_PROPERTY_KEY, getDefaultDirectory( db.graph ) );
         RrdDb rrdb = createRrdb( basePath, STEP_SIZE, STEPS_PER_ARCHIVE, sampleables );
@@ -83,7 +88,7 @@ public class RrdFactory
         {
             try
             {
-                return new RrdDb( rrdPath );
+                return addMissingDataSources( new RrdDb( rrdPath ), rrdPath, stepSize, sampleables );
             }
             catch ( IOException e )
             {
@@ -108,6 +113,33 @@ public class RrdFactory
         }
     }
 
+    /**
+     * Sampling fails for data sources an existing file doesn't have, which is
+     * the case for files written before a sampleable was added.
+     */
+    private static RrdDb addMissingDataSources( RrdDb rrdb, String rrdPath, int stepSize, Sampleable[] sampleables )
+            throws IOException
+    {
+        List<DsDef> missing = new ArrayList<DsDef>();
+        for ( Sampleable sampleable : sampleables )
+        {
+            if ( !rrdb.containsDs( sampleable.getName() ) )
+            {
+                missing.add( new DsDef( sampleable.getName(), DsType.GAUGE, stepSize, 0, Long.MAX_VALUE ) );
+            }
+        }
+        if ( missing.isEmpty() )
+        {
+            return rrdb;
+        }
+        rrdb.close();
+        for ( DsDef dsDef : missing )
+        {
+            RrdToolkit.addDatasource( rrdPath, dsDef, false );
+        }
+        return new RrdDb( rrdPath );
+    }
+
     private static void addArchives( int stepsPerArchive, RrdDef rrdDef )
     {
         // Last 35 minutes
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rrd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.io.IOException;
+
+import javax.management.MalformedObjectNameException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.database.Database;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class RelationshipCacheHitRatioSampleableTest
+{
+    public Database db;
+    public RelationshipCacheHitRatioSampleable sampleable;
+
+    @Test
+    public void lookingUpACachedRelationshipGivesHits() throws IOException, MalformedObjectNameException
+    {
+        Transaction tx = db.graph.beginTx();
+        Relationship relationship = db.graph.createNode().createRelationshipTo( db.graph.createNode(),
+                DynamicRelationshipType.withName( "friend" ) );
+        tx.success();
+        tx.finish();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            db.graph.getRelationshipById( relationship.getId() );
+        }
+
+        assertThat( sampleable.getValue(), greaterThan( 0L ) );
+        assertThat( sampleable.getValue(), lessThanOrEqualTo( 100L ) );
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        db = new Database( new ImpermanentGraphDatabase() );
+        sampleable = new RelationshipCacheHitRatioSampleable( db );
+    }
+
+    @After
+    public void shutdownDatabase()
+    {
+        this.db.shutdown();
+    }
+}
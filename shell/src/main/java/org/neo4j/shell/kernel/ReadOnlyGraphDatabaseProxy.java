@@ -259,6 +259,26 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, IndexMa
             return actual.hasRelationship( type, dir );
         }
 
+        public int getDegree()
+        {
+            return actual.getDegree();
+        }
+
+        public int getDegree( Direction direction )
+        {
+            return actual.getDegree( direction );
+        }
+
+        public int getDegree( RelationshipType type )
+        {
+            return actual.getDegree( type );
+        }
+
+        public int getDegree( RelationshipType type, Direction direction )
+        {
+            return actual.getDegree( type, direction );
+        }
+
         public Traverser traverse( Order traversalOrder, StopEvaluator stopEvaluator,
                 ReturnableEvaluator returnableEvaluator, RelationshipType relationshipType,
                 Direction direction )
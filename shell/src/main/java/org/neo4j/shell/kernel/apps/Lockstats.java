@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.shell.kernel.apps;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.LockStatistics;
+import org.neo4j.kernel.impl.transaction.LockStatistics.Contention;
+import org.neo4j.kernel.impl.transaction.LockStatistics.ResourceKind;
+import org.neo4j.shell.App;
+import org.neo4j.shell.AppCommandParser;
+import org.neo4j.shell.OptionDefinition;
+import org.neo4j.shell.OptionValueType;
+import org.neo4j.shell.Output;
+import org.neo4j.shell.Session;
+import org.neo4j.shell.ShellException;
+
+/**
+ * Prints the lock wait statistics of the graph database, per kind of locked
+ * resource, and the most contended resources.
+ */
+@Service.Implementation( App.class )
+public class Lockstats extends ReadOnlyGraphDatabaseApp
+{
+    private static final int DEFAULT_MOST_CONTENDED = 10;
+
+    {
+        addOptionDefinition( "n", new OptionDefinition( OptionValueType.MUST,
+            "Number of most contended resources to list, default is "
+                + DEFAULT_MOST_CONTENDED ) );
+        addOptionDefinition( "r", new OptionDefinition( OptionValueType.NONE,
+            "Reset the statistics after printing them" ) );
+        addOptionDefinition( "d", new OptionDefinition( OptionValueType.NONE,
+            "Also dump all locks and the resource allocation graph to the "
+                + "console of the database server" ) );
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Prints how many times and for how long transactions had to "
+            + "wait for locks, per kind of resource, and the resources "
+            + "most often waited for";
+    }
+
+    private LockManager getLockManager() throws ShellException
+    {
+        GraphDatabaseService graphDb = getServer().getDb();
+        if ( !( graphDb instanceof AbstractGraphDatabase ) )
+        {
+            throw new ShellException( getName()
+                + " is not available for this graph database." );
+        }
+        return ( (AbstractGraphDatabase) graphDb ).getConfig().getLockManager();
+    }
+
+    @Override
+    protected String exec( AppCommandParser parser, Session session,
+        Output out ) throws Exception
+    {
+        LockManager lockManager = getLockManager();
+        int mostContended = DEFAULT_MOST_CONTENDED;
+        if ( parser.options().containsKey( "n" ) )
+        {
+            try
+            {
+                mostContended = Integer.parseInt( parser.options().get( "n" ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new ShellException( "Invalid number "
+                    + parser.options().get( "n" ) );
+            }
+        }
+
+        LockStatistics statistics = lockManager.getLockStatistics();
+        for ( ResourceKind kind : ResourceKind.values() )
+        {
+            out.println( kind + ": " + statistics.getWaits( kind )
+                + " waits, average "
+                + statistics.getAverageWaitTime( kind ) / 1000 + "us "
+                + statistics.formatWaitTimeHistogram( kind ) );
+        }
+        out.println( "Detected deadlocks: "
+            + lockManager.getDetectedDeadlockCount() );
+        out.println( "Most contended resources:" );
+        for ( Contention contention : statistics.getMostContended( mostContended ) )
+        {
+            out.println( "  " + contention );
+        }
+
+        if ( parser.options().containsKey( "d" ) )
+        {
+            lockManager.dumpAllLocks();
+            lockManager.dumpRagStack();
+        }
+        if ( parser.options().containsKey( "r" ) )
+        {
+            statistics.reset();
+        }
+        return null;
+    }
+}
@@ -243,6 +243,15 @@ public class TestApps extends AbstractShellTest
         executeCommand( "ls" );
     }
     
+    @Test
+    public void canPrintLockStatistics() throws Exception
+    {
+        executeCommand( "lockstats", "Node: \\d+ waits", "Relationship: \\d+ waits",
+                "Detected deadlocks: \\d+", "Most contended resources" );
+        executeCommand( "lockstats -r -n 5", "Node: \\d+ waits" );
+        executeCommand( "lockstats", "Node: 0 waits" );
+    }
+
     @Test
     public void startEvenIfReferenceNodeHasBeenDeleted() throws Exception
     {